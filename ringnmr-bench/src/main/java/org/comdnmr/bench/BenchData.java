@@ -0,0 +1,236 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.comdnmr.data.DynamicsSource;
+import org.comdnmr.eqnfit.CESTEquation;
+import org.comdnmr.eqnfit.CPMGEquation;
+import org.comdnmr.eqnfit.EquationType;
+import org.comdnmr.eqnfit.ExpEquation;
+import org.comdnmr.eqnfit.R1RhoEquation;
+import org.comdnmr.modelfree.MolDataValues;
+import org.comdnmr.modelfree.R1R2NOEDataValue;
+import org.comdnmr.modelfree.RelaxEquations;
+
+/**
+ * Synthetic and bundled data shared by the benchmarks. Everything is generated
+ * from fixed seeds so runs are comparable.
+ */
+public class BenchData {
+
+    static final String GCN4_RESOURCE = "/data/GCN4_bZip_15N_relaxation.csv";
+
+    // parameter values used for every equation that has a parameter of that name
+    private static final Map<String, Double> PAR_VALUES = new HashMap<>();
+
+    static {
+        PAR_VALUES.put("Kex", 150.0);
+        PAR_VALUES.put("Pb", 0.05);
+        PAR_VALUES.put("pA", 0.95);
+        PAR_VALUES.put("R2", 10.0);
+        PAR_VALUES.put("dPPMmin", 0.5);
+        PAR_VALUES.put("dPPM", 1.0);
+        PAR_VALUES.put("deltaCPPM", 1.0);
+        PAR_VALUES.put("deltaHPPM", 0.1);
+        PAR_VALUES.put("A", 100.0);
+        PAR_VALUES.put("R", 2.0);
+        PAR_VALUES.put("C", 5.0);
+        PAR_VALUES.put("deltaA0", 2.8);
+        PAR_VALUES.put("deltaB0", -1.3);
+        PAR_VALUES.put("R1A", 2.4);
+        PAR_VALUES.put("R1B", 2.4);
+        PAR_VALUES.put("R2A", 16.0);
+        PAR_VALUES.put("R2B", 130.0);
+    }
+
+    private BenchData() {
+    }
+
+    /**
+     * Look up an equation from a name of the form FAMILY.EQUATION, for example
+     * CEST.EXACT0.
+     *
+     * @param name the qualified name
+     * @return the equation
+     */
+    static EquationType getEquation(String name) {
+        String[] fields = name.split("\\.");
+        return switch (fields[0]) {
+            case "CPMG" ->
+                CPMGEquation.valueOf(fields[1]);
+            case "EXP" ->
+                ExpEquation.valueOf(fields[1]);
+            case "CEST" ->
+                CESTEquation.valueOf(fields[1]);
+            case "R1RHO" ->
+                R1RhoEquation.valueOf(fields[1]);
+            default ->
+                throw new IllegalArgumentException("Unknown equation family " + fields[0]);
+        };
+    }
+
+    static double[] getPars(EquationType equation) {
+        String[] parNames = equation.getParNames();
+        double[] pars = new double[parNames.length];
+        for (int i = 0; i < parNames.length; i++) {
+            Double value = PAR_VALUES.get(parNames[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("No benchmark value for parameter " + parNames[i]);
+            }
+            pars[i] = value;
+        }
+        return pars;
+    }
+
+    static int[] getIdentityMap(EquationType equation) {
+        int[] map = new int[equation.getParNames().length];
+        for (int i = 0; i < map.length; i++) {
+            map[i] = i;
+        }
+        return map;
+    }
+
+    /**
+     * Get x values for an equation family. CPMG uses the CPMG frequency, X
+     * and H fields and tau, exponential decays use the delay, and CEST and
+     * R1rho use offset (ppm), B1 field (Hz), saturation time and field.
+     *
+     * @param name the qualified equation name
+     * @param nPoints the number of points
+     * @return the x values
+     */
+    static double[][] getXValues(String name, int nPoints) {
+        String family = name.split("\\.")[0];
+        double[][] x;
+        switch (family) {
+            case "CPMG" -> {
+                x = new double[4][nPoints];
+                for (int i = 0; i < nPoints; i++) {
+                    x[0][i] = 50.0 + i * 950.0 / (nPoints - 1);
+                    x[1][i] = 60.8;
+                    x[2][i] = 600.0;
+                    x[3][i] = 0.04;
+                }
+            }
+            case "EXP" -> {
+                x = new double[1][nPoints];
+                for (int i = 0; i < nPoints; i++) {
+                    x[0][i] = i * 2.0 / (nPoints - 1);
+                }
+            }
+            case "CEST", "R1RHO" -> {
+                double b1 = family.equals("CEST") ? 25.0 : 1500.0;
+                x = new double[4][nPoints];
+                for (int i = 0; i < nPoints; i++) {
+                    x[0][i] = -6.0 + i * 12.0 / (nPoints - 1);
+                    x[1][i] = b1;
+                    x[2][i] = 0.3;
+                    x[3][i] = 150.9;
+                }
+            }
+            default ->
+                throw new IllegalArgumentException("Unknown equation family " + family);
+        }
+        return x;
+    }
+
+    /**
+     * Synthetic CEST profiles at three B1 fields calculated with the
+     * trott_palmer model and Gaussian noise added.
+     *
+     * @param nPoints number of offsets per profile
+     * @return x values in rows 0 to 3, followed by the y values and errors
+     */
+    static double[][] syntheticCEST(int nPoints) {
+        double[] b1Fields = {17.7, 27.9, 48.2};
+        int n = nPoints * b1Fields.length;
+        double[][] x = new double[4][n];
+        int k = 0;
+        for (double b1 : b1Fields) {
+            for (int i = 0; i < nPoints; i++) {
+                x[0][k] = -6.0 + i * 12.0 / (nPoints - 1);
+                x[1][k] = b1;
+                x[2][k] = 0.3;
+                x[3][k] = 150.9;
+                k++;
+            }
+        }
+        EquationType equation = CESTEquation.TROTT_PALMER;
+        double[] y = equation.calculate(getPars(equation), getIdentityMap(equation), x, 0);
+        double[] err = new double[n];
+        Random random = new Random(1);
+        double sdev = 0.005;
+        for (int i = 0; i < n; i++) {
+            y[i] += random.nextGaussian() * sdev;
+            err[i] = sdev;
+        }
+        return new double[][]{x[0], x[1], x[2], x[3], y, err};
+    }
+
+    /**
+     * Load the bundled GCN4 bZip R1, R2 and NOE values, one entry per
+     * residue.
+     *
+     * @return map from residue specifier to relaxation data
+     * @throws IOException if the resource can't be read
+     */
+    static Map<String, MolDataValues> loadGCN4() throws IOException {
+        DynamicsSource dynamicsSourceFactory = new DynamicsSource(true, true, true, true);
+        Map<String, MolDataValues> molDataValues = new LinkedHashMap<>();
+        try (InputStream stream = BenchData.class.getResourceAsStream(GCN4_RESOURCE)) {
+            if (stream == null) {
+                throw new IOException("Can't find resource " + GCN4_RESOURCE);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(",");
+                if (fields.length != 8 || fields[0].equals("residue")) {
+                    continue;
+                }
+                String specifier = "A:" + fields[0] + ".H";
+                MolDataValues molData = molDataValues.computeIfAbsent(specifier,
+                        k -> new MolDataValues(k, new double[3], dynamicsSourceFactory));
+                double field = Double.parseDouble(fields[1]);
+                RelaxEquations relaxObj = RelaxEquations.getRelaxEquations(field * 1e6, "H", "N");
+                R1R2NOEDataValue dValue = new R1R2NOEDataValue(
+                        Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+                        Double.parseDouble(fields[4]), Double.parseDouble(fields[5]),
+                        Double.parseDouble(fields[6]), Double.parseDouble(fields[7]),
+                        relaxObj);
+                molData.addData(dValue);
+            }
+        }
+        return molDataValues;
+    }
+
+    static List<String> residueKeys(Map<String, MolDataValues> molDataValues) {
+        return new ArrayList<>(molDataValues.keySet());
+    }
+}
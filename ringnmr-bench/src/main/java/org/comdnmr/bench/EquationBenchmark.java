@@ -0,0 +1,82 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.comdnmr.eqnfit.EquationType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation of a full profile for each equation of the CPMG, exponential,
+ * CEST and R1rho families.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EquationBenchmark {
+
+    @Param({"CPMG.NOEX", "CPMG.CPMGFAST", "CPMG.CPMGMQ", "CPMG.CPMGSLOW",
+        "EXP.EXPAB", "EXP.EXPABC",
+        "CEST.TROTT_PALMER", "CEST.NOEX", "CEST.SD", "CEST.BALDWINKAY", "CEST.LAGUERRE",
+        "CEST.EIGENEXACT1", "CEST.EXACT0", "CEST.EXACT1", "CEST.EXACT2",
+        "R1RHO.TROTT_PALMER", "R1RHO.NOEX", "R1RHO.BALDWINKAY", "R1RHO.LAGUERRE",
+        "R1RHO.EXACT", "R1RHO.EXACT0"})
+    public String equationName;
+
+    @Param({"64"})
+    public int nPoints;
+
+    private EquationType equation;
+    private double[] pars;
+    private int[] map;
+    private double[][] x;
+    private double[] out;
+
+    @Setup
+    public void setup() {
+        equation = BenchData.getEquation(equationName);
+        pars = BenchData.getPars(equation);
+        map = BenchData.getIdentityMap(equation);
+        x = BenchData.getXValues(equationName, nPoints);
+        out = new double[nPoints];
+    }
+
+    @Benchmark
+    public double[] calculate() {
+        return equation.calculate(pars, map, x, 0);
+    }
+
+    @Benchmark
+    public double[] calculateInto() {
+        equation.calculateInto(out, pars, map, x, 0);
+        return out;
+    }
+}
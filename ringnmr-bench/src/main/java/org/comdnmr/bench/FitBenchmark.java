@@ -0,0 +1,143 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.comdnmr.eqnfit.CESTFitFunction;
+import org.comdnmr.modelfree.CorrelationTime;
+import org.comdnmr.modelfree.MolDataValues;
+import org.comdnmr.modelfree.RelaxDataValue;
+import org.comdnmr.modelfree.RelaxFit;
+import org.comdnmr.modelfree.models.MFModelIso;
+import org.comdnmr.util.CoMDOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Complete fits with each optimizer. The CEST benchmark refines a
+ * trott_palmer fit to three synthetic profiles. The GCN4 benchmarks fit model
+ * 2sf to the R1, R2 and NOE values of the bundled GCN4 bZip data, either one
+ * residue or all residues spread over a pool of the given number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FitBenchmark {
+
+    @Param({"CMAES", "BOBYQA"})
+    public String optimizer;
+
+    private CoMDOptions options;
+    private double[][] cestData;
+    private Map<String, MolDataValues> gcn4Data;
+    private List<String> residues;
+    private double tau;
+
+    /**
+     * Pool used by the thread scaling benchmark. Kept in its own state so
+     * that only that benchmark is run for each thread count.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            pool = new ForkJoinPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        options = new CoMDOptions(false);
+        options.setOptimizer(optimizer);
+        cestData = BenchData.syntheticCEST(61);
+        gcn4Data = BenchData.loadGCN4();
+        residues = BenchData.residueKeys(gcn4Data);
+        List<RelaxDataValue> values600 = new ArrayList<>();
+        for (MolDataValues molData : gcn4Data.values()) {
+            values600.add(molData.getData().get(0));
+        }
+        tau = CorrelationTime.estimateTau(600.133, "N", values600).get("tau");
+    }
+
+    @Benchmark
+    public PointValuePair fitCEST() {
+        double[][] x = {cestData[0], cestData[1], cestData[2], cestData[3]};
+        CESTFitFunction fitFunction = new CESTFitFunction(options, x, cestData[4], cestData[5]);
+        fitFunction.setEquation("trott_palmer");
+        fitFunction.setMap(new int[]{1, 1, 1, 1}, new int[][]{{0, 0, 0, 0}});
+        double[] guesses = fitFunction.guess();
+        double[][] boundaries = fitFunction.boundaries(guesses);
+        return fitFunction.refine(guesses, boundaries[0], boundaries[1],
+                options.getStartRadius(), optimizer);
+    }
+
+    @Benchmark
+    public PointValuePair fitResidue() {
+        return fitResidue(residues.get(residues.size() / 2));
+    }
+
+    @Benchmark
+    public double fitAllResidues(Pool pool) throws InterruptedException, ExecutionException {
+        return pool.pool.submit(() -> residues.parallelStream()
+                .map(this::fitResidue)
+                .mapToDouble(PointValuePair::getValue)
+                .sum()).get();
+    }
+
+    private PointValuePair fitResidue(String residue) {
+        MolDataValues molData = gcn4Data.get(residue);
+        MFModelIso model = MFModelIso.buildModel("2sf", true, tau, 0.25, false);
+        molData.setTestModel(model);
+        RelaxFit relaxFit = new RelaxFit();
+        relaxFit.setOptions(options);
+        relaxFit.setRelaxData(Map.of(residue, molData));
+        return relaxFit.fitResidueToModel(model.getStart(), model.getLower(), model.getUpper());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.comdnmr.modelfree.DiffusionTensor;
+import org.comdnmr.modelfree.RelaxEquations;
+import org.comdnmr.modelfree.RelaxFit.DiffusionType;
+import org.comdnmr.modelfree.models.MFModelAniso;
+import org.comdnmr.modelfree.models.MFModelAniso1;
+import org.comdnmr.modelfree.models.MFModelAniso6;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Spectral densities for anisotropic diffusion, using the diffusion tensor
+ * and bond vector of residue 55 of 1P7F.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JDiffusionBenchmark {
+
+    @Param({"ANISOTROPIC", "PROLATE", "OBLATE"})
+    public String diffusionType;
+
+    @Param({"1", "6"})
+    public int model;
+
+    private DiffusionType dType;
+    private RelaxEquations relaxObj;
+    private final double[][] D = {{4.4170e7, 0.0, 0.0}, {0.0, 4.5832e7, 0.0}, {0.0, 0.0, 6.0129e7}};
+    private final double[][] VT = {{-0.9775, -0.0583, -0.2029}, {-0.1659, -0.3825, 0.9089}, {-0.1306, 0.9221, 0.3642}};
+    private final double[] v = {0.688828228668, -0.0591882033522, -0.722504275402};
+    private Double tauF;
+    private Double sf2;
+    private Double tauS;
+    private DiffusionTensor tensor;
+    private MFModelAniso anisoModel;
+    private double[] modelPars;
+
+    @Setup
+    public void setup() {
+        dType = DiffusionType.valueOf(diffusionType);
+        relaxObj = RelaxEquations.getRelaxEquations(600.0e6, "H", "N");
+        if (model == 6) {
+            tauF = 20.0e-12;
+            sf2 = 0.9;
+            tauS = 1.0e-9;
+        }
+        tensor = new DiffusionTensor(dType, D, VT);
+        if (model == 6) {
+            anisoModel = new MFModelAniso6(dType, D, VT, v);
+            modelPars = new double[]{0.85, tauF, sf2, tauS};
+        } else {
+            anisoModel = new MFModelAniso1(dType, D, VT, v);
+            modelPars = new double[]{0.85};
+        }
+    }
+
+    @Benchmark
+    public double[] getJDiffusion() {
+        return relaxObj.getJDiffusion(dType, D, VT, v, 0.85, tauF, sf2, tauS);
+    }
+
+    /**
+     * The same values from the model-free model, using tensor terms
+     * calculated once, as done for each residue when refining the diffusion
+     * tensor.
+     */
+    @Benchmark
+    public double[] getJDiffusionPrecomputed() {
+        anisoModel.update(tensor);
+        return anisoModel.calc(relaxObj.getW(), modelPars);
+    }
+}
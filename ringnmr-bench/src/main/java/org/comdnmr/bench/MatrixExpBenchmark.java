@@ -0,0 +1,94 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.comdnmr.util.BlochMcConnellPropagator;
+import org.comdnmr.util.MtxExp;
+import org.ejml.data.DMatrixRMaj;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matrix exponential of a 7x7 CEST Bloch-McConnell matrix with the general
+ * MtxExp code and with the fixed size propagator.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MatrixExpBenchmark {
+
+    private double[] z;
+    private DMatrixRMaj zMatrix;
+    private BlochMcConnellPropagator propagator;
+    private double[] result;
+
+    @Setup
+    public void setup() {
+        double kex = 150.0;
+        double pb = 0.05;
+        double dA = 2600.0;
+        double dB = -1200.0;
+        double w1 = 110.0;
+        double r1A = 2.4;
+        double r1B = 2.4;
+        double r2A = 16.0;
+        double r2B = 130.0;
+        double t = 0.3;
+        double k1 = pb * kex;
+        double km1 = (1 - pb) * kex;
+        z = new double[]{
+            0, 0, 0, 0, 0, 0, 0,
+            0, -r2A - k1, -dA, 0, km1, 0, 0,
+            0, dA, -r2A - k1, -w1, 0, km1, 0,
+            2 * r1A * (1 - pb), 0, w1, -r1A - k1, 0, 0, km1,
+            0, k1, 0, 0, -r2B - km1, -dB, 0,
+            0, 0, k1, 0, dB, -r2B - km1, -w1,
+            2 * r1B * pb, 0, 0, k1, 0, w1, -r1B - km1};
+        for (int i = 0; i < z.length; i++) {
+            z[i] *= t;
+        }
+        zMatrix = new DMatrixRMaj(7, 7);
+        propagator = new BlochMcConnellPropagator(7);
+        result = new double[49];
+    }
+
+    @Benchmark
+    public DMatrixRMaj mtxExp() {
+        // MtxExp scales its argument in place, so start from a fresh copy
+        System.arraycopy(z, 0, zMatrix.data, 0, z.length);
+        return MtxExp.matrixExp(zMatrix);
+    }
+
+    @Benchmark
+    public double[] propagator() {
+        propagator.exp(z, result);
+        return result;
+    }
+}
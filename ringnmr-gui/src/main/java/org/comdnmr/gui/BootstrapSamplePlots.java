@@ -180,6 +180,13 @@ public class BootstrapSamplePlots {
                 }
                 activeChart.getData().add(series);
                 activeChart.autoScale(true);
+                // the replicates can far outnumber the pixels they cover
+                List<XYValue> values = SeriesDecimator.pixelValues(activeChart, series);
+                if (values != null) {
+                    series.getData().clear();
+                    series.getData().addAll(values);
+                    activeChart.drawChart();
+                }
             }
         }
     }
@@ -18,6 +18,7 @@
 package org.comdnmr.gui;
 
 import java.io.BufferedReader;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.canvas.Canvas;
@@ -28,8 +29,12 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javafx.collections.ListChangeListener;
 import javafx.geometry.Orientation;
 import javafx.scene.canvas.GraphicsContext;
@@ -37,9 +42,11 @@ import javafx.scene.input.MouseEvent;
 
 import javafx.scene.paint.Color;
 import org.comdnmr.data.Experiment;
+import org.comdnmr.eqnfit.CurveCache;
 import org.comdnmr.eqnfit.PlotEquation;
 import org.comdnmr.data.ExperimentData;
 import org.comdnmr.data.ExperimentSet;
+import org.comdnmr.util.LineDecimator;
 import org.nmrfx.chart.Axis;
 import org.nmrfx.chart.DataSeries;
 
@@ -55,6 +62,21 @@ public class PlotData extends XYCanvasChart {
     ObservableList<DataSeries> simData = FXCollections.observableArrayList();
     String fileName;
     ObservableList<GUIPlotEquation> plotEquations = FXCollections.observableArrayList();
+    // decimated display lines of the curves, valid while the view is unchanged
+    private final Map<LineKey, double[][]> decimatedLines = new HashMap<>();
+    private double[] lineView = null;
+    // each curve is sampled over at least twice the width of the view, so
+    // there are at least a quarter of these points in view
+    private static final int CURVE_POINTS = 1024;
+    private final AtomicBoolean redrawPending = new AtomicBoolean(false);
+
+    /**
+     * A curve from the {@link CurveCache}, which returns the same array for
+     * the same curve, so the array is compared by identity.
+     */
+    private record LineKey(double[] yValues, double scale) {
+
+    }
 
     public static final Color[] colors = {
         Color.web("#1b9e77"),
@@ -152,9 +174,32 @@ public class PlotData extends XYCanvasChart {
         getData().clear();
     }
 
+    /**
+     * Draw the chart. Series with more values than the chart has pixel
+     * columns are drawn with one value per pixel, and are restored
+     * afterwards, so picking, export and the tables still see every value.
+     */
     @Override
     public void drawChart() {
-        super.drawChart();
+        List<DataSeries> reduced = new ArrayList<>();
+        List<List<XYValue>> allValues = new ArrayList<>();
+        for (DataSeries series : getData()) {
+            List<XYValue> values = SeriesDecimator.pixelValues(this, series);
+            if (values != null) {
+                reduced.add(series);
+                allValues.add(new ArrayList<>(series.getData()));
+                series.getData().clear();
+                series.getData().addAll(values);
+            }
+        }
+        try {
+            super.drawChart();
+        } finally {
+            for (int i = 0; i < reduced.size(); i++) {
+                reduced.get(i).getData().clear();
+                reduced.get(i).getData().addAll(allValues.get(i));
+            }
+        }
         try {
             paintLines();
         } catch (GraphicsIOException ex) {
@@ -192,39 +237,124 @@ public class PlotData extends XYCanvasChart {
     void paintLines() throws GraphicsIOException {
         GraphicsContext gCC = getCanvas().getGraphicsContext2D();
         GraphicsContextInterface gC = new GraphicsContextProxy(gCC);
-        paintLines(gC);
+        paintLines(gC, false);
     }
 
     void paintLines(GraphicsContextInterface gC) throws GraphicsIOException {
+        paintLines(gC, true);
+    }
 
-        int nIncr = 256;
-        double[] xValues = new double[nIncr];
-        double[] yValues = new double[nIncr];
+    /**
+     * Paint the equation curves. The sampled curves come from the
+     * {@link CurveCache}; a curve that isn't there is either calculated now,
+     * if wait is true, or calculated in the background and painted when the
+     * chart is redrawn once it's ready. Curves are sampled over a range that
+     * covers more than the view (see {@link #sampleRange}) and clipped to the
+     * plot when drawn, so panning and zooming mostly reuse cached curves. On
+     * screen the curves are decimated to the pixel columns of the plot, and
+     * the decimated lines are kept until the axes or the size of the canvas
+     * change.
+     */
+    void paintLines(GraphicsContextInterface gC, boolean wait) throws GraphicsIOException {
+
+        double[] xValues = new double[CURVE_POINTS];
+        double[] yValues = new double[CURVE_POINTS];
+        double xMin = xAxis.getDisplayPosition(xAxis.getLowerBound());
+        double xMax = xAxis.getDisplayPosition(xAxis.getUpperBound());
+        if (!wait) {
+            double[] view = {xAxis.getLowerBound(), xAxis.getUpperBound(),
+                yAxis.getLowerBound(), yAxis.getUpperBound(),
+                xMin, xMax, yAxis.getDisplayPosition(yAxis.getLowerBound()),
+                yAxis.getDisplayPosition(yAxis.getUpperBound())};
+            if (!Arrays.equals(view, lineView)) {
+                lineView = view;
+                decimatedLines.clear();
+            }
+        }
+        Set<LineKey> painted = new HashSet<>();
         for (GUIPlotEquation plotEquation : plotEquations) {
             if (plotEquation == null) {
                 continue;
             }
-            double min = Math.max(xAxis.getLowerBound(), plotEquation.getMinX());
-            double max = Math.min(xAxis.getUpperBound(), plotEquation.getMaxX());
-
-            double delta = (max - min) / (nIncr + 1);
-            double[] extras = plotEquation.getExtras();
-            double[] ax = new double[1 + extras.length];
-            for (int i = 0; i < nIncr; i++) {
-                double xValue = min + (i + 1) * delta;
-                double x = xAxis.getDisplayPosition(xValue);
-                ax[0] = xValue;
-                for (int j = 0; j < extras.length; j++) {
-                    ax[j + 1] = extras[j];
+            double[] range = sampleRange(xAxis.getLowerBound(), xAxis.getUpperBound(),
+                    plotEquation.getMinX(), plotEquation.getMaxX());
+            double min = range[0];
+            double max = range[1];
+            if (!(max > min)) {
+                continue;
+            }
+            double[] yCalc;
+            if (wait) {
+                yCalc = CurveCache.sample(plotEquation, min, max, CURVE_POINTS);
+            } else {
+                yCalc = CurveCache.get(plotEquation, min, max, CURVE_POINTS);
+                if (yCalc == null) {
+                    CurveCache.sampleAsync(plotEquation, min, max, CURVE_POINTS, this::requestRedraw);
+                    continue;
+                }
+            }
+            double scale = plotEquation.getScaleValue();
+            LineKey lineKey = new LineKey(yCalc, scale);
+            painted.add(lineKey);
+            double[][] line = wait ? null : decimatedLines.get(lineKey);
+            if (line == null) {
+                double delta = (max - min) / (CURVE_POINTS + 1);
+                for (int i = 0; i < CURVE_POINTS; i++) {
+                    double xValue = min + (i + 1) * delta;
+                    xValues[i] = xAxis.getDisplayPosition(xValue);
+                    yValues[i] = yAxis.getDisplayPosition(yCalc[i] / scale);
+                }
+                if (wait) {
+                    line = LineDecimator.clip(xValues, yValues, CURVE_POINTS, xMin, xMax);
+                } else {
+                    line = LineDecimator.decimate(xValues, yValues, CURVE_POINTS, xMin, xMax);
+                }
+                if (line == null) {
+                    // no part of the curve is in view
+                    continue;
+                }
+                if (!wait) {
+                    decimatedLines.put(lineKey, line);
                 }
-                double yValue = plotEquation.calculate(ax);
-                yValue /= plotEquation.getScaleValue();
-                double y = yAxis.getDisplayPosition(yValue);
-                xValues[i] = x;
-                yValues[i] = y;
             }
             gC.setStroke(plotEquation.getColor());
-            gC.strokePolyline(xValues, yValues, nIncr);
+            gC.strokePolyline(line[0], line[1], line[0].length);
+        }
+        if (!wait) {
+            // drop the lines of curves that are no longer shown
+            decimatedLines.keySet().retainAll(painted);
+        }
+    }
+
+    /**
+     * The x range to sample a curve over for a view. The view width is
+     * rounded up to a power of two and the range starts at a multiple of it
+     * and is twice as wide, so it covers the view, and a pan or a small zoom
+     * usually gives the same range. The range is limited to where the
+     * equation is defined.
+     *
+     * @param lower the lower bound of the x axis
+     * @param upper the upper bound of the x axis
+     * @param minX the smallest x value of the equation
+     * @param maxX the largest x value of the equation
+     * @return the first and last x values of the range
+     */
+    static double[] sampleRange(double lower, double upper, double minX, double maxX) {
+        double step = Math.pow(2.0, Math.ceil(Math.log(upper - lower) / Math.log(2.0)));
+        double start = Math.floor(lower / step) * step;
+        return new double[]{Math.max(start, minX), Math.min(start + 2.0 * step, maxX)};
+    }
+
+    /**
+     * Redraw the chart once a curve calculated in the background is ready.
+     * Curves that finish before the redraw runs share it.
+     */
+    private void requestRedraw() {
+        if (redrawPending.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                redrawPending.set(false);
+                drawChart();
+            });
         }
     }
 
@@ -72,7 +72,6 @@ public class PreferencesController implements Initializable {
     static File datasetDir = null;
     private static Map<String, String> recentMap = new HashMap<>();
     static String location = null;
-    static Integer nProcesses = null;
     DoubleRangeOperationItem maxFreqItem;
 
     @Override
@@ -117,6 +116,8 @@ public class PreferencesController implements Initializable {
         ArrayList<String> optimizers = new ArrayList<>();
         optimizers.add("CMA-ES");
         optimizers.add("BOBYQA");
+        optimizers.add("LM");
+        optimizers.add("VARPRO");
         maxFreqItem = new DoubleRangeOperationItem(prefSheet, (obs, oldV, newV) -> {
             CoMDPreferences.setCPMGMaxFreq((Double) newV);
         }, CoMDPreferences.getCPMGMaxFreq(), 100.0, 5000.0, 100.0, 20000.0, "Limits", "CPMG Max Freq", "Max Frequency");
@@ -131,7 +132,28 @@ public class PreferencesController implements Initializable {
         }, CoMDPreferences.getRefField(), 100.0, 1200.0, "Limits", "Reference Field", "Rex value reported at this H1 field");
         IntRangeOperationItem nSamplesItem = new IntRangeOperationItem(prefSheet, (obs, oldV, newV) -> {
             CoMDPreferences.setSampleSize((Integer) newV);
-        }, CoMDPreferences.getSampleSize(), 10, 500, "Optimizer", "Bootstrap Samples", "Number of bootstrap samples");
+        }, CoMDPreferences.getSampleSize(), 10, 500, "Optimizer", "Bootstrap Samples", "Maximum number of bootstrap samples");
+        DoubleRangeOperationItem bootstrapToleranceItem = new DoubleRangeOperationItem(prefSheet, (obs, oldV, newV) -> {
+            CoMDPreferences.setBootstrapTolerance((Double) newV);
+        }, CoMDPreferences.getBootstrapTolerance(), 0.0, 0.5, "Optimizer", "Bootstrap Tolerance",
+                "Stop bootstrapping when several batches of samples in a row change the errors by less than this fraction (0 uses all samples)");
+        IntRangeOperationItem reservoirSizeItem = new IntRangeOperationItem(prefSheet, (obs, oldV, newV) -> {
+            CoMDPreferences.setBootstrapReservoirSize((Integer) newV);
+        }, CoMDPreferences.getBootstrapReservoirSize(), 0, 1000, "Optimizer", "Bootstrap Plot Samples", "Number of bootstrap samples kept for plotting");
+        BooleanOperationItem retainAllItem = new BooleanOperationItem(prefSheet,
+                (obs, oldV, newV) -> {
+                    CoMDPreferences.setBootstrapRetainAll((Boolean) newV);
+                }, CoMDPreferences.getBootstrapRetainAll(), "Optimizer", "Keep All Bootstrap Samples",
+                "Keep every bootstrap sample instead of a subset for plotting");
+        IntRangeOperationItem multiStartsItem = new IntRangeOperationItem(prefSheet, (obs, oldV, newV) -> {
+            CoMDPreferences.setMultiStarts((Integer) newV);
+        }, CoMDPreferences.getMultiStarts(), 1, 16, "Optimizer", "Multi Starts", "Number of starting points for each fit");
+        IntRangeOperationItem abandonEvaluationsItem = new IntRangeOperationItem(prefSheet, (obs, oldV, newV) -> {
+            CoMDPreferences.setAbandonEvaluations((Integer) newV);
+        }, CoMDPreferences.getAbandonEvaluations(), 0, 5000, "Optimizer", "Abandon Evaluations", "Evaluations before a start that can't beat the best start is abandoned (0 to never abandon)");
+        DoubleRangeOperationItem abandonRatioItem = new DoubleRangeOperationItem(prefSheet, (obs, oldV, newV) -> {
+            CoMDPreferences.setAbandonRatio((Double) newV);
+        }, CoMDPreferences.getAbandonRatio(), 1.0, 10.0, "Optimizer", "Abandon Ratio", "A start is abandoned if its value is this many times the best value");
         ChoiceOperationItem optimizerChoiceItem = new ChoiceOperationItem(prefSheet, optimizerListener,
                 CoMDPreferences.getOptimizer(), optimizers, "Optimizer", "Refine Optimizer", "Optimizer for refinement");
         ChoiceOperationItem bootStrapOptimizerrChoiceItem = new ChoiceOperationItem(prefSheet, bootStrapOptimizerListener,
@@ -139,7 +161,7 @@ public class PreferencesController implements Initializable {
 
         DirectoryOperationItem locationFileItem = new DirectoryOperationItem(prefSheet, datasetListener, getDatasetDirectory().getPath(), "File Locations", "Datasets", "desc");
 
-        int nProcessesDefault = Runtime.getRuntime().availableProcessors() / 2;
+        int nProcessesDefault = Math.min(32, getNProcesses());
         IntRangeOperationItem nProcessesItem = new IntRangeOperationItem(prefSheet, nprocessListener, nProcessesDefault, 1, 32, "Processor", "NProcesses", "How many parallel processes to run during processing");
 
         ArrayList<String> cestEqnChoices = new ArrayList<>();
@@ -176,6 +198,11 @@ public class PreferencesController implements Initializable {
                     CoMDPreferences.setNonParametric((Boolean) newV);
                 }, CoMDPreferences.getNonParametricBootstrap(), "Optimizer", "Non-Parametric",
                 "Bootstrapping with non-parametric method");
+        BooleanOperationItem warmStartItem = new BooleanOperationItem(prefSheet,
+                (obs, oldV, newV) -> {
+                    CoMDPreferences.setWarmStartBootstrap((Boolean) newV);
+                }, CoMDPreferences.getWarmStartBootstrap(), "Optimizer", "Warm Start Bootstrap",
+                "Refine bootstrap replicates from the best fit with a reduced budget");
         BooleanOperationItem absValueItem = new BooleanOperationItem(prefSheet,
                 (obs, oldV, newV) -> {
                     CoMDPreferences.setAbsValueFit((Boolean) newV);
@@ -209,7 +236,8 @@ public class PreferencesController implements Initializable {
         }, RelaxEquations.getSigma("C") * -1.0e6, 100, 220, "ModelFree", "C CSA", "C Chemical Shift Anisotropy (* -1.0)");
 
         prefSheet.getItems().addAll(nProcessesItem, refFieldItem, maxFreqItem, rexRatioItem, deltaABdiffItem,
-                absValueItem, nonParametricItem, nSamplesItem, optimizerChoiceItem, bootStrapOptimizerrChoiceItem,
+                absValueItem, nonParametricItem, warmStartItem, nSamplesItem, bootstrapToleranceItem, reservoirSizeItem, retainAllItem, optimizerChoiceItem, bootStrapOptimizerrChoiceItem,
+                multiStartsItem, abandonEvaluationsItem, abandonRatioItem,
                 startingRadiusItem, toleranceItem, finalRadiusItem, weightFitItem, neuralNetworkGuessItem, corrR1RhoItem, hnDistanceItem, hcDistanceItem, nSigmaItem, cSigmaItem);
         for (String eqn : cestEqnChoices) {
             boolean defaultState = CoMDPreferences.getCESTEquationState(eqn);
@@ -414,16 +442,7 @@ public class PreferencesController implements Initializable {
      * @return
      */
     public static Integer getNProcesses() {
-        if (nProcesses == null) {
-            Preferences prefs = Preferences.userNodeForPackage(MainApp.class);
-            String value = prefs.get("NPROCESSES", null);
-            if (value != null) {
-                nProcesses = Integer.parseInt(value);
-            } else {
-                nProcesses = Runtime.getRuntime().availableProcessors() / 2;
-            }
-        }
-        return nProcesses;
+        return CoMDPreferences.getNProcesses();
     }
 
     /**
@@ -432,15 +451,7 @@ public class PreferencesController implements Initializable {
      * @param value the number of processes to use
      */
     public static void setNProcesses(Integer value) {
-        Preferences prefs = Preferences.userNodeForPackage(Experiment.class);
-        if (value != null) {
-            nProcesses = value;
-            prefs.put("NPROCESSES", String.valueOf(value));
-        } else {
-            nProcesses = null;
-            prefs.remove("NPROCESSES");
-        }
-
+        CoMDPreferences.setNProcesses(value);
     }
 
 }
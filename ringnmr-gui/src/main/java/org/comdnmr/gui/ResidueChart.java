@@ -228,10 +228,16 @@ public class ResidueChart extends XYCanvasBarChart {
 
     void drawPresenceIndicators(GraphicsContextInterface gC) throws GraphicsIOException {
         if (dynSources != null) {
+            double xMin = xAxis.getDisplayPosition(xAxis.getLowerBound());
+            double xMax = xAxis.getDisplayPosition(xAxis.getUpperBound());
             for (var dynSource : dynSources) {
                 int resNum = dynSource.getAtom().getResidueNumber();
                 double x1 = xAxis.getDisplayPosition(resNum - 0.5) + 1;
                 double x2 = xAxis.getDisplayPosition(resNum + 0.5) - 1;
+                if ((x2 < xMin) || (x1 > xMax)) {
+                    // outside the zoomed residue range
+                    continue;
+                }
                 double y1 = yAxis.getYOrigin() - yAxis.getHeight() + 2;
                 double width = x2 - x1;
                 double height = yAxis.getHeight() - 4;
@@ -0,0 +1,72 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.comdnmr.util.LineDecimator;
+import org.nmrfx.chart.Axis;
+import org.nmrfx.chart.DataSeries;
+import org.nmrfx.chart.XYCanvasChart;
+import org.nmrfx.chart.XYValue;
+
+/**
+ * Reduces the values of a data series to those that land on distinct pixels
+ * of a chart, so a series with many more values than the chart has pixels,
+ * such as the bootstrap replicates, is drawn with at most one symbol per
+ * pixel.
+ */
+final class SeriesDecimator {
+
+    private SeriesDecimator() {
+    }
+
+    /**
+     * Find the values of a series that are on distinct pixels with the
+     * current axes of a chart. Series with no more values than the chart is
+     * wide are left alone.
+     *
+     * @param chart the chart the series is drawn on
+     * @param series the series
+     * @return the values to draw, or null if all of them should be drawn
+     */
+    static List<XYValue> pixelValues(XYCanvasChart chart, DataSeries series) {
+        List<XYValue> values = series.getData();
+        int nValues = values.size();
+        if (nValues <= chart.getCanvas().getWidth()) {
+            return null;
+        }
+        Axis xAxis = chart.getXAxis();
+        Axis yAxis = chart.getYAxis();
+        double[] x = new double[nValues];
+        double[] y = new double[nValues];
+        for (int i = 0; i < nValues; i++) {
+            x[i] = xAxis.getDisplayPosition(values.get(i).getXValue());
+            y[i] = yAxis.getDisplayPosition(values.get(i).getYValue());
+        }
+        int[] kept = LineDecimator.distinctPixels(x, y, nValues);
+        if (kept.length == nValues) {
+            return null;
+        }
+        List<XYValue> keptValues = new ArrayList<>(kept.length);
+        for (int i : kept) {
+            keptValues.add(values.get(i));
+        }
+        return keptValues;
+    }
+}
@@ -85,36 +85,42 @@ public class DataIO {
         },
         TAU2() {
             @Override
-            double convert(double value, double[] pars, Experiment expData) {
+            public double convert(double value, double[] pars, Experiment expData) {
                 return 1000.0 / (2.0 * value);
             }
         },
         TAU4() {
             @Override
-            double convert(double value, double[] pars, Experiment expData) {
+            public double convert(double value, double[] pars, Experiment expData) {
                 return 1000.0 / (4.0 * value);
             }
         },
+        MSTOS() {
+            @Override
+            public double convert(double value, double[] pars, Experiment expData) {
+                return value / 1000.0;
+            }
+        },
         PPMTOHZ() {
             @Override
-            double convert(double value, double[] pars, Experiment expData) {
+            public double convert(double value, double[] pars, Experiment expData) {
                 return value * expData.getNucleusField();
             }
         },
         HZTOPPM() {
             @Override
-            double convert(double value, double[] pars, Experiment expData) {
+            public double convert(double value, double[] pars, Experiment expData) {
                 return value / expData.getNucleusField();
             }
         },
         CALC() {
             @Override
-            double convert(double value, double[] pars, Experiment expData) {
+            public double convert(double value, double[] pars, Experiment expData) {
                 return pars[0] + pars[2] * (value + pars[1]);
             }
         };
 
-        double convert(double value, double[] pars, Experiment expData) {
+        public double convert(double value, double[] pars, Experiment expData) {
             return value;
         }
     }
@@ -604,25 +610,18 @@ public class DataIO {
     public static void processCESTData(OffsetExperiment expData, ResonanceSource dynSource,
                                        List<Double> xValueList, List<Double> yValueList, List<Double> errValueList) {
         Double B1field = expData.getB1Field();
-        List<Double> B1fieldList = new ArrayList<>();
-        xValueList.forEach((_item) -> {
-            B1fieldList.add(B1field);
-        });
         double tau = expData.getTau();
-        List<Double> tauList = new ArrayList<>();
-        xValueList.forEach((_item) -> {
-            tauList.add(tau);
-        });
         List<Double> bFieldUniqueValue = new ArrayList<>();
-        bFieldUniqueValue.add(B1fieldList.get(0));
+        bFieldUniqueValue.add(B1field);
         List<Double> tauList1 = new ArrayList<>();
-        tauList1.add(tauList.get(0));
-        List<Double>[] xValueLists = new ArrayList[3];
-        xValueLists[0] = xValueList;
-        xValueLists[1] = B1fieldList;
-        xValueLists[2] = tauList;
-
-        ExperimentData residueData = new ExperimentData(expData, dynSource, xValueLists, yValueList, errValueList);
+        tauList1.add(tau);
+        double[][] offsets = {xValueList.stream().mapToDouble(Double::doubleValue).toArray()};
+        double[] y = yValueList.stream().mapToDouble(Double::doubleValue).toArray();
+        double[] err = errValueList.stream().mapToDouble(Double::doubleValue).toArray();
+        FitDataset dataset = new FitDataset(3, y.length);
+        dataset.add(offsets, 1, y, err, 0, B1field, tau);
+
+        ExperimentData residueData = new ExperimentData(expData, dynSource, dataset);
         expData.addResidueData(dynSource, residueData);
         expData.getExtras().clear();
         expData.setExtras(bFieldUniqueValue);
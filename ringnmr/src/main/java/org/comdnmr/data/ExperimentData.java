@@ -45,39 +45,31 @@ public class ExperimentData {
         this.errValues = err.clone();
     }
 
-    public ExperimentData(Experiment experiment, ResonanceSource dynSource,
-            List<Double> xValueList, List<Double> yValueList, List<Double> errValueList) {
+    /**
+     * Create the data for a residue from the columns of a dataset. The
+     * arrays of the dataset are used directly, not copied.
+     *
+     * @param experiment the experiment
+     * @param dynSource the source of the data
+     * @param dataset the x values, y values and errors
+     */
+    public ExperimentData(Experiment experiment, ResonanceSource dynSource, FitDataset dataset) {
         this.experiment = experiment;
         this.dynSource = dynSource;
-        int nValues = xValueList.size();
-        this.xValues = new double[1][nValues];
-        this.yValues = new double[nValues];
-        this.errValues = new double[nValues];
-        for (int i = 0; i < nValues; i++) {
-            xValues[0][i] = xValueList.get(i);
-            yValues[i] = yValueList.get(i);
-            errValues[i] = errValueList.get(i);
-        }
+        this.xValues = dataset.getXValues();
+        this.yValues = dataset.getYValues();
+        this.errValues = dataset.getErrValues();
+    }
+
+    public ExperimentData(Experiment experiment, ResonanceSource dynSource,
+            List<Double> xValueList, List<Double> yValueList, List<Double> errValueList) {
+        this(experiment, dynSource, FitDataset.fromLists(new List[]{xValueList}, yValueList, errValueList));
     }
 
     public ExperimentData(Experiment experiment, ResonanceSource dynSource,
             List<Double>[] xValueList, List<Double> yValueList,
             List<Double> errValueList) {
-        this.experiment = experiment;
-        this.dynSource = dynSource;
-        int nValues = yValueList.size();
-        int nX = xValueList.length;
-//        System.out.println("make res data " + nX);
-        this.xValues = new double[nX][nValues];
-        this.yValues = new double[nValues];
-        this.errValues = new double[nValues];
-        for (int i = 0; i < nValues; i++) {
-            for (int j = 0; j < nX; j++) {
-                xValues[j][i] = xValueList[j].get(i);
-            }
-            yValues[i] = yValueList.get(i);
-            errValues[i] = errValueList.get(i);
-        }
+        this(experiment, dynSource, FitDataset.fromLists(xValueList, yValueList, errValueList));
     }
 
     public ResonanceSource getSource() {
@@ -165,7 +165,7 @@ public class ExperimentSet implements ValueSet {
         return builder.toString();
     }
 
-    public void setupMaps() {
+    public synchronized void setupMaps() {
         fieldMap.clear();
         tempMap.clear();
         b1Map.clear();
@@ -197,7 +197,7 @@ public class ExperimentSet implements ValueSet {
         }
     }
 
-    public int[] getStateIndices(int resIndex, Experiment experiment) {
+    public synchronized int[] getStateIndices(int resIndex, Experiment experiment) {
         if (fieldMap.isEmpty()) {
             setupMaps();
         }
@@ -218,7 +218,7 @@ public class ExperimentSet implements ValueSet {
         return state;
     }
 
-    public int[] getStateCount(int nResidues) {
+    public synchronized int[] getStateCount(int nResidues) {
         if (fieldMap.isEmpty()) {
             setupMaps();
         }
@@ -231,15 +231,15 @@ public class ExperimentSet implements ValueSet {
         return state;
     }
 
-    public void addExperimentResult(ResonanceSource dynSource, ExperimentResult value) {
+    public synchronized void addExperimentResult(ResonanceSource dynSource, ExperimentResult value) {
         resultMap.put(dynSource.getAtomKey(), value);
     }
 
-    public void clearResidueMap() {
+    public synchronized void clearResidueMap() {
         resultMap.clear();
     }
 
-    public Set<ResonanceSource> resonanceSources() {
+    public synchronized Set<ResonanceSource> resonanceSources() {
         return resultMap.values().stream().map(v -> v.getResonanceSource()).filter(resSource -> !resSource.deleted()).collect(Collectors.toSet());
     }
 
@@ -258,13 +258,13 @@ public class ExperimentSet implements ValueSet {
         return active;
     }
 
-    public List<ExperimentResult> getExperimentResults() {
+    public synchronized List<ExperimentResult> getExperimentResults() {
         List<ExperimentResult> values = new ArrayList<>();
         values.addAll(resultMap.values());
         return values;
     }
 
-    public ExperimentResult getExperimentResult(ResonanceSource dynSource) {
+    public synchronized ExperimentResult getExperimentResult(ResonanceSource dynSource) {
         return resultMap.get(dynSource.getAtomKey());
     }
 
@@ -281,6 +281,26 @@ public class ExperimentSet implements ValueSet {
         return n;
     }
 
+    /**
+     * Get the total number of points for the specified sources. Used to size
+     * a {@link FitDataset} so it can be filled without resizing.
+     *
+     * @param dynSources the sources
+     * @return the number of points
+     */
+    public int getPointCount(ResonanceSource[] dynSources) {
+        int n = 0;
+        for (var dynSource : dynSources) {
+            for (Experiment expData : expMaps.values()) {
+                ExperimentData experimentalData = expData.getResidueData(dynSource);
+                if (experimentalData != null) {
+                    n += experimentalData.getYValues().length;
+                }
+            }
+        }
+        return n;
+    }
+
     public double[] getFields() {
         double[] fields = new double[fieldList.size()];
         int i = 0;
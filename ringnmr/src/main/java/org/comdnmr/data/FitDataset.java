@@ -0,0 +1,204 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar storage of the points to fit: one primitive column for each x
+ * variable, and columns for the y values, errors and curve id numbers. The
+ * columns grow as data is added and are trimmed to the number of points when
+ * they are retrieved, so a dataset that was created with the right capacity
+ * hands out its arrays without copying.
+ */
+public class FitDataset {
+
+    private double[][] xValues;
+    private double[] yValues;
+    private double[] errValues;
+    private int[] idNums;
+    private int size = 0;
+
+    public FitDataset(int nX) {
+        this(nX, 16);
+    }
+
+    public FitDataset(int nX, int capacity) {
+        capacity = Math.max(capacity, 1);
+        xValues = new double[nX][capacity];
+        yValues = new double[capacity];
+        errValues = new double[capacity];
+        idNums = new int[capacity];
+    }
+
+    /**
+     * Create a dataset from lists of values. All points are given id 0 and
+     * the values of an x variable with a null list are left at zero.
+     *
+     * @param xValueLists list of values for each x variable
+     * @param yValueList the y values
+     * @param errValueList the errors
+     * @return the dataset
+     */
+    public static FitDataset fromLists(List<Double>[] xValueLists, List<Double> yValueList, List<Double> errValueList) {
+        int n = yValueList.size();
+        FitDataset dataset = new FitDataset(xValueLists.length, n);
+        dataset.size = n;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < xValueLists.length; j++) {
+                if (xValueLists[j] != null) {
+                    dataset.xValues[j][i] = xValueLists[j].get(i);
+                }
+            }
+            dataset.yValues[i] = yValueList.get(i);
+            dataset.errValues[i] = errValueList.get(i);
+        }
+        return dataset;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getNX() {
+        return xValues.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > yValues.length) {
+            int newCapacity = Math.max(capacity, yValues.length * 2);
+            for (int j = 0; j < xValues.length; j++) {
+                xValues[j] = Arrays.copyOf(xValues[j], newCapacity);
+            }
+            yValues = Arrays.copyOf(yValues, newCapacity);
+            errValues = Arrays.copyOf(errValues, newCapacity);
+            idNums = Arrays.copyOf(idNums, newCapacity);
+        }
+    }
+
+    private void trim() {
+        if (yValues.length != size) {
+            for (int j = 0; j < xValues.length; j++) {
+                xValues[j] = Arrays.copyOf(xValues[j], size);
+            }
+            yValues = Arrays.copyOf(yValues, size);
+            errValues = Arrays.copyOf(errValues, size);
+            idNums = Arrays.copyOf(idNums, size);
+        }
+    }
+
+    /**
+     * Add a single point.
+     *
+     * @param x value of each x variable
+     * @param y the y value
+     * @param err the error
+     * @param id the id number of the curve the point belongs to
+     */
+    public void add(double[] x, double y, double err, int id) {
+        ensureCapacity(size + 1);
+        for (int j = 0; j < xValues.length; j++) {
+            xValues[j][size] = x[j];
+        }
+        yValues[size] = y;
+        errValues[size] = err;
+        idNums[size] = id;
+        size++;
+    }
+
+    /**
+     * Add the points of a curve. The first nDataX x variables are copied from
+     * the x values of the curve and the remaining x variables are set to the
+     * constant values given in extras.
+     *
+     * @param x the x values of the curve, indexed by variable then point
+     * @param nDataX number of x variables to take from x
+     * @param y the y values
+     * @param err the errors
+     * @param id the id number of the curve
+     * @param extras values of the remaining x variables
+     */
+    public void add(double[][] x, int nDataX, double[] y, double[] err, int id, double... extras) {
+        if (nDataX + extras.length != xValues.length) {
+            throw new IllegalArgumentException("Dataset has " + xValues.length
+                    + " x variables, got " + (nDataX + extras.length));
+        }
+        int n = y.length;
+        ensureCapacity(size + n);
+        for (int j = 0; j < nDataX; j++) {
+            System.arraycopy(x[j], 0, xValues[j], size, n);
+        }
+        for (int j = 0; j < extras.length; j++) {
+            Arrays.fill(xValues[nDataX + j], size, size + n, extras[j]);
+        }
+        System.arraycopy(y, 0, yValues, size, n);
+        System.arraycopy(err, 0, errValues, size, n);
+        Arrays.fill(idNums, size, size + n, id);
+        size += n;
+    }
+
+    public double[][] getXValues() {
+        trim();
+        return xValues;
+    }
+
+    public double[] getXValues(int j) {
+        trim();
+        return xValues[j];
+    }
+
+    public double[] getYValues() {
+        trim();
+        return yValues;
+    }
+
+    public double[] getErrValues() {
+        trim();
+        return errValues;
+    }
+
+    public int[] getIdNums() {
+        trim();
+        return idNums;
+    }
+
+    /**
+     * Get the values of the x variables other than the first for each curve.
+     *
+     * @return array indexed by curve id of the extra x values
+     */
+    public double[][] getExtras() {
+        int nExtra = xValues.length - 1;
+        int nIds = 0;
+        for (int i = 0; i < size; i++) {
+            nIds = Math.max(nIds, idNums[i] + 1);
+        }
+        double[][] values = new double[nIds][nExtra];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < nExtra; j++) {
+                values[idNums[i]][j] = xValues[j + 1][i];
+            }
+        }
+        return values;
+    }
+}
@@ -20,17 +20,20 @@ import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.random.SynchronizedRandomGenerator;
 import org.apache.commons.math3.random.Well19937c;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.FastMath;
-import org.comdnmr.util.CoMDPreferences;
+import org.comdnmr.eqnfit.BootstrapStats;
+import org.comdnmr.eqnfit.FitFunction;
+import org.comdnmr.util.CoMDOptions;
+import org.comdnmr.util.ReplicateRandom;
 
 public class Fitter {
 
-    static RandomGenerator random = new SynchronizedRandomGenerator(new Well19937c());
-
     boolean reportFitness = false;
     int reportAt = 10;
-    double[][] parValues;
+    BootstrapStats simStats;
+    boolean simPercentiles = false;
+    int nEvaluations = 0;
+    int[] simEvaluations;
     double[][] xValues;
     double[] yValues;
     double[] errValues;
@@ -40,14 +43,28 @@ public class Fitter {
     double[] start;
     double inputSigma;
     BiFunction<double[], double[][], Double> valuesFunction = null;
+    CoMDOptions options;
 
     private Fitter() {
 
     }
 
     public static Fitter getArrayFitter(BiFunction<double[], double[][], Double> function) {
+        return getArrayFitter(function, new CoMDOptions(true));
+    }
+
+    /**
+     * Create a fitter for a function of the parameters and the data.
+     *
+     * @param function the function to minimize
+     * @param options the options, which give the optimizer and bootstrap
+     * settings
+     * @return the fitter
+     */
+    public static Fitter getArrayFitter(BiFunction<double[], double[][], Double> function, CoMDOptions options) {
         Fitter fitter = new Fitter();
         fitter.valuesFunction = function;
+        fitter.options = options;
         return fitter;
     }
 
@@ -74,15 +91,51 @@ public class Fitter {
             opt.setXYE(xValues, yValues, errValues);
         }
         PointValuePair result;
-        if (CoMDPreferences.getOptimizer().equals("BOBYQA")) {
+        if (options.getOptimizer().equals("BOBYQA")) {
             result = opt.refineBOBYQA(start, inputSigma);
         } else {
             result = opt.refineCMAES(start, inputSigma);
         }
+        nEvaluations = opt.nEvaluations;
 
         return result;
     }
 
+    /**
+     * @return the number of function evaluations used by the last fit
+     */
+    public int getEvaluations() {
+        return nEvaluations;
+    }
+
+    /**
+     * @return the number of function evaluations used by each replicate of
+     * the last bootstrap, or null if no bootstrap has been done
+     */
+    public int[] getSimEvaluations() {
+        return simEvaluations;
+    }
+
+    /**
+     * @return the statistics of the replicates of the last bootstrap, or null
+     * if no bootstrap has been done
+     */
+    public BootstrapStats getSimStats() {
+        return simStats;
+    }
+
+    /**
+     * Set whether bootstraps estimate the percentiles of the parameters. They
+     * aren't needed for the standard deviations, so by default they aren't
+     * estimated.
+     *
+     * @param value true to estimate the percentiles, which are then available
+     * from {@link #getSimStats()}
+     */
+    public void setSimPercentiles(boolean value) {
+        simPercentiles = value;
+    }
+
     public void setXYE(double[][] xValues, double[] yValues, double[] errValues) {
         this.xValues = xValues;
         this.yValues = yValues;
@@ -126,11 +179,20 @@ public class Fitter {
         double tol = 1.0e-5;
         boolean absMode = false;
         boolean weightFit = false;
+        int nEvaluations = 0;
+        double best = Double.POSITIVE_INFINITY;
+        double[] bestPoint = null;
 
         @Override
         public double value(double[] normPar) {
             double[] par = deNormalize(normPar);
-            return valuesFunction.apply(par, values);
+            double value = valuesFunction.apply(par, values);
+            nEvaluations++;
+            if (value < best) {
+                best = value;
+                bestPoint = normPar.clone();
+            }
+            return value;
         }
 
         void fixGuesses(double[] guesses) {
@@ -175,9 +237,16 @@ public class Fitter {
         }
 
         public PointValuePair refineCMAES(double[] guess, double inputSigma) throws Exception {
+            return refineCMAES(guess, inputSigma, 10.0, FitFunction.MAX_EVALUATIONS);
+        }
+
+        /**
+         * Refine with CMA-ES, stopping with the best point found so far if the
+         * evaluation budget runs out.
+         */
+        PointValuePair refineCMAES(double[] guess, double inputSigma, double lambdaMul, int maxEvaluations) throws Exception {
             startTime = System.currentTimeMillis();
             random.setSeed(1);
-            double lambdaMul = 10.0;
             int lambda = (int) (lambdaMul * FastMath.round(4 + 3 * FastMath.log(guess.length)));
             //int nSteps = guess.length*1000;
             int nSteps = 2000;
@@ -202,11 +271,16 @@ public class Fitter {
                 result = cmaesOptimizer.optimize(
                         new CMAESOptimizer.PopulationSize(lambda),
                         new CMAESOptimizer.Sigma(sigma),
-                        new MaxEval(2000000),
+                        new MaxEval(maxEvaluations),
                         new ObjectiveFunction(this), GoalType.MINIMIZE,
                         new SimpleBounds(normLower, normUpper),
                         new InitialGuess(normGuess));
-            } catch (DimensionMismatchException | NotPositiveException | NotStrictlyPositiveException | TooManyEvaluationsException e) {
+            } catch (TooManyEvaluationsException e) {
+                if (bestPoint == null) {
+                    throw new Exception("failure to fit data " + e.getMessage());
+                }
+                result = new PointValuePair(bestPoint, best);
+            } catch (DimensionMismatchException | NotPositiveException | NotStrictlyPositiveException e) {
                 throw new Exception("failure to fit data " + e.getMessage());
             }
             endTime = System.currentTimeMillis();
@@ -217,6 +291,14 @@ public class Fitter {
         }
 
         public PointValuePair refineBOBYQA(double[] guess, double inputSigma) {
+            return refineBOBYQA(guess, inputSigma, FitFunction.MAX_EVALUATIONS);
+        }
+
+        /**
+         * Refine with BOBYQA, stopping with the best point found so far if the
+         * evaluation budget runs out.
+         */
+        PointValuePair refineBOBYQA(double[] guess, double inputSigma, int maxEvaluations) {
             startTime = System.currentTimeMillis();
             random.setSeed(1);
             double lambdaMul = 3.0;
@@ -236,17 +318,24 @@ public class Fitter {
             int n = guess.length;
             int nInterp = 2 * n + 1;
             double initialRadius = inputSigma;
-            double stopRadius = CoMDPreferences.getFinalRadius();
+            double stopRadius = options.getFinalRadius();
             stopRadius = Math.pow(10.0, stopRadius);
 
             BOBYQAOptimizer optimizer = new BOBYQAOptimizer(nInterp, initialRadius, stopRadius);
             PointValuePair result = null;
 
-            result = optimizer.optimize(
-                    new MaxEval(2000000),
-                    new ObjectiveFunction(this), GoalType.MINIMIZE,
-                    new SimpleBounds(normLower, normUpper),
-                    new InitialGuess(normGuess));
+            try {
+                result = optimizer.optimize(
+                        new MaxEval(maxEvaluations),
+                        new ObjectiveFunction(this), GoalType.MINIMIZE,
+                        new SimpleBounds(normLower, normUpper),
+                        new InitialGuess(normGuess));
+            } catch (TooManyEvaluationsException e) {
+                if (bestPoint == null) {
+                    throw e;
+                }
+                result = new PointValuePair(bestPoint, best);
+            }
             endTime = System.currentTimeMillis();
             fitTime = endTime - startTime;
             PointValuePair deNormResult = new PointValuePair(deNormalize(result.getPoint()), result.getValue());
@@ -254,12 +343,55 @@ public class Fitter {
         }
     }
 
+    /**
+     * Estimate the parameter errors by refining simulated replicates of the
+     * data. The replicates are small perturbations of the data of the fit, so
+     * if warm starts are enabled in the preferences each one starts from the
+     * guess, which should be the best fit, with a reduced step size, a smaller
+     * CMA-ES population and no more evaluations than the last fit used. The
+     * evaluations used by each replicate are available from
+     * {@link #getSimEvaluations()}. The replicates are run in batches and
+     * added to the statistics in replicate order as each batch finishes, so
+     * only the statistics, a sample of the replicates for plotting (see
+     * {@link #getSimStats()}) and the current batch are kept. Replicates that
+     * fail to refine are left out.
+     *
+     * @param guess the best fit parameters
+     * @param nSim the number of replicates
+     * @param parametric true to simulate the values from yPred and the errors,
+     * false to resample the data
+     * @param yPred the predicted values of the best fit
+     * @return the standard deviations of the parameters
+     */
     public double[] bootstrap(double[] guess, int nSim, boolean parametric, double[] yPred) {
         reportFitness = false;
         int nPar = start.length;
-        parValues = new double[nPar + 1][nSim];
+        simEvaluations = new int[nSim];
+        long randomKey = ReplicateRandom.key(yValues);
+        int reservoirSize = options.getBootstrapRetainAll() ? nSim : options.getBootstrapReservoirSize();
+        simStats = new BootstrapStats(nPar + 1, reservoirSize, simPercentiles, randomKey);
+
+        for (int batchStart = 0; batchStart < nSim; batchStart += FitFunction.BOOTSTRAP_BATCH_SIZE) {
+            int batchEnd = Math.min(nSim, batchStart + FitFunction.BOOTSTRAP_BATCH_SIZE);
+            double[][] batchValues = new double[batchEnd - batchStart][];
+            runBootstrapBatch(batchStart, batchEnd, batchValues, guess, parametric, yPred, randomKey);
+            for (int iSim = batchStart; iSim < batchEnd; iSim++) {
+                if (batchValues[iSim - batchStart] != null) {
+                    simStats.add(iSim, batchValues[iSim - batchStart]);
+                }
+            }
+        }
+        return simStats.getStandardDeviations(nPar);
+    }
 
-        IntStream.range(0, nSim).parallel().forEach(iSim -> {
+    private void runBootstrapBatch(int batchStart, int batchEnd, double[][] batchValues, double[] guess,
+            boolean parametric, double[] yPred, long randomKey) {
+        int nPar = start.length;
+        boolean warmStart = options.getWarmStartBootstrap();
+        int maxEvaluations = nEvaluations > 0 ? Math.max(FitFunction.MIN_BOOTSTRAP_EVALUATIONS, nEvaluations) : FitFunction.MAX_EVALUATIONS;
+        double simSigma = warmStart ? FitFunction.BOOTSTRAP_SIGMA_SCALE * inputSigma : inputSigma;
+        IntStream.range(batchStart, batchEnd).parallel().forEach(iSim -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, iSim);
             double[][] newX = new double[xValues.length][yValues.length];
             double[] newY = new double[yValues.length];
             double[] newErr = new double[yValues.length];
@@ -283,26 +415,25 @@ public class Fitter {
 
             PointValuePair result;
             try {
-                if (CoMDPreferences.getOptimizer().equals("BOBYQA")) {
-                    result = optimizer.refineBOBYQA(guess, inputSigma);
+                if (!warmStart) {
+                    if (options.getOptimizer().equals("BOBYQA")) {
+                        result = optimizer.refineBOBYQA(guess, inputSigma);
+                    } else {
+                        result = optimizer.refineCMAES(guess, inputSigma);
+                    }
+                } else if (options.getOptimizer().equals("BOBYQA")) {
+                    result = optimizer.refineBOBYQA(guess, simSigma, maxEvaluations);
                 } else {
-                    result = optimizer.refineCMAES(guess, inputSigma);
+                    result = optimizer.refineCMAES(guess, simSigma, 1.0, maxEvaluations);
                 }
             } catch (Exception ex) {
                 return;
             }
+            simEvaluations[iSim] = optimizer.nEvaluations;
             double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][iSim] = rPoint[j];
-            }
-            parValues[nPar][iSim] = result.getValue();
+            double[] values = Arrays.copyOf(rPoint, nPar + 1);
+            values[nPar] = result.getValue();
+            batchValues[iSim - batchStart] = values;
         });
-
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
-        return parSDev;
     }
 }
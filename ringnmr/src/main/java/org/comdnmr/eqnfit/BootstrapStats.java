@@ -0,0 +1,177 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.eqnfit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.rank.PSquarePercentile;
+
+/**
+ * Statistics of the replicates of a bootstrap, accumulated one replicate at a
+ * time so that the replicates don't have to be kept. Each value of a replicate
+ * (the parameters followed by the value of the fit function) has its moments
+ * and, optionally, P-square estimates of the 2.5 and 97.5 percentiles. A
+ * reservoir sample of whole replicates is kept for plotting, so the values of
+ * a retained replicate stay together. If the reservoir is at least as large as
+ * the number of replicates every replicate is kept.
+ * <p>
+ * Replicates must be added in the order of their index for the retained
+ * sample to be reproducible.
+ */
+public class BootstrapStats {
+
+    static final double LOWER_PERCENTILE = 2.5;
+    static final double UPPER_PERCENTILE = 97.5;
+
+    private record Sample(int index, double[] values) {
+
+    }
+
+    private final int nValues;
+    private final int reservoirSize;
+    private final SummaryStatistics[] stats;
+    private final PSquarePercentile[] lower;
+    private final PSquarePercentile[] upper;
+    private final List<Sample> reservoir = new ArrayList<>();
+    private final SplittableRandom random;
+    private int n = 0;
+
+    /**
+     * Create the statistics.
+     *
+     * @param nValues the number of values in each replicate
+     * @param reservoirSize the number of replicates to keep
+     * @param quantiles whether to estimate the percentiles of the values
+     * @param randomKey key for choosing the replicates to keep
+     */
+    public BootstrapStats(int nValues, int reservoirSize, boolean quantiles, long randomKey) {
+        this.nValues = nValues;
+        this.reservoirSize = Math.max(0, reservoirSize);
+        stats = new SummaryStatistics[nValues];
+        lower = quantiles ? new PSquarePercentile[nValues] : null;
+        upper = quantiles ? new PSquarePercentile[nValues] : null;
+        for (int j = 0; j < nValues; j++) {
+            stats[j] = new SummaryStatistics();
+            if (quantiles) {
+                lower[j] = new PSquarePercentile(LOWER_PERCENTILE);
+                upper[j] = new PSquarePercentile(UPPER_PERCENTILE);
+            }
+        }
+        random = new SplittableRandom(randomKey);
+    }
+
+    /**
+     * Add a replicate.
+     *
+     * @param index the index of the replicate
+     * @param values the values of the replicate, which are kept, not copied,
+     * if the replicate is retained
+     */
+    public void add(int index, double[] values) {
+        for (int j = 0; j < nValues; j++) {
+            stats[j].addValue(values[j]);
+            if (lower != null) {
+                lower[j].increment(values[j]);
+                upper[j].increment(values[j]);
+            }
+        }
+        if (n < reservoirSize) {
+            reservoir.add(new Sample(index, values));
+        } else if (reservoirSize > 0) {
+            int slot = random.nextInt(n + 1);
+            if (slot < reservoirSize) {
+                reservoir.set(slot, new Sample(index, values));
+            }
+        }
+        n++;
+    }
+
+    /**
+     * @return the number of replicates added
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * @param j the index of the value
+     * @return the moments of the value
+     */
+    public StatisticalSummary getSummary(int j) {
+        return stats[j];
+    }
+
+    public double getMean(int j) {
+        return stats[j].getMean();
+    }
+
+    public double getStandardDeviation(int j) {
+        return stats[j].getStandardDeviation();
+    }
+
+    /**
+     * @param nPars the number of values to get the deviations of
+     * @return the standard deviations of the first nPars values
+     */
+    public double[] getStandardDeviations(int nPars) {
+        double[] sDevs = new double[nPars];
+        for (int j = 0; j < nPars; j++) {
+            sDevs[j] = stats[j].getStandardDeviation();
+        }
+        return sDevs;
+    }
+
+    /**
+     * @param j the index of the value
+     * @return the estimated 2.5 percentile of the value, or NaN if
+     * percentiles aren't estimated
+     */
+    public double getLowerPercentile(int j) {
+        return lower == null ? Double.NaN : lower[j].getResult();
+    }
+
+    /**
+     * @param j the index of the value
+     * @return the estimated 97.5 percentile of the value, or NaN if
+     * percentiles aren't estimated
+     */
+    public double getUpperPercentile(int j) {
+        return upper == null ? Double.NaN : upper[j].getResult();
+    }
+
+    /**
+     * @return the retained replicates in the order of their index, as an
+     * array with a row for each value
+     */
+    public double[][] getSamples() {
+        List<Sample> sorted = new ArrayList<>(reservoir);
+        sorted.sort(Comparator.comparingInt(Sample::index));
+        double[][] samples = new double[nValues][sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            double[] values = sorted.get(i).values();
+            for (int j = 0; j < nValues; j++) {
+                samples[j][i] = values[j];
+            }
+        }
+        return samples;
+    }
+}
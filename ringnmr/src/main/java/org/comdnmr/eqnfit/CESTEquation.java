@@ -31,6 +31,13 @@ public enum CESTEquation implements CESTEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -39,7 +46,7 @@ public enum CESTEquation implements CESTEquationType {
             double R1B = par[map[5]];
             double R2A = par[map[6]];
             double R2B = par[map[7]];
-            return CESTEquations.r1rhoApprox("trott", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
+            CESTEquations.r1rhoApproxInto(out, "trott", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
         }
 
         @Override
@@ -67,10 +74,17 @@ public enum CESTEquation implements CESTEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double deltaA0 = par[map[0]];
             double R1A = par[map[1]];
             double R2A = par[map[2]];
-            return CESTEquations.noEx(X, deltaA0, R1A, R2A);
+            CESTEquations.noExInto(out, X, deltaA0, R1A, R2A);
         }
 
         @Override
@@ -138,6 +152,13 @@ public enum CESTEquation implements CESTEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -146,7 +167,7 @@ public enum CESTEquation implements CESTEquationType {
             double R1B = par[map[5]];
             double R2A = par[map[6]];
             double R2B = par[map[7]];
-            return CESTEquations.r1rhoApprox("sd", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
+            CESTEquations.r1rhoApproxInto(out, "sd", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
         }
 
         @Override
@@ -174,6 +195,13 @@ public enum CESTEquation implements CESTEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -182,7 +210,7 @@ public enum CESTEquation implements CESTEquationType {
             double R1B = par[map[5]];
             double R2A = par[map[6]];
             double R2B = par[map[7]];
-            return CESTEquations.r1rhoApprox("baldwinkay", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
+            CESTEquations.r1rhoApproxInto(out, "baldwinkay", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
         }
 
         @Override
@@ -210,6 +238,13 @@ public enum CESTEquation implements CESTEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -218,7 +253,7 @@ public enum CESTEquation implements CESTEquationType {
             double R1B = par[map[5]];
             double R2A = par[map[6]];
             double R2B = par[map[7]];
-            return CESTEquations.r1rhoApprox("laguerre", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
+            CESTEquations.r1rhoApproxInto(out, "laguerre", X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
         }
 
         @Override
@@ -283,6 +318,13 @@ public enum CESTEquation implements CESTEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -291,7 +333,7 @@ public enum CESTEquation implements CESTEquationType {
             double R1B = par[map[5]];
             double R2A = par[map[6]];
             double R2B = par[map[7]];
-            return CESTEquations.exact0(X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
+            CESTEquations.exact0Into(out, X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
         }
 
         @Override
@@ -22,13 +22,14 @@
  */
 package org.comdnmr.eqnfit;
 
-import org.comdnmr.util.MtxExp;
+import org.comdnmr.util.BlochMcConnellPropagator;
 import org.comdnmr.util.ANNLoader;
 import org.comdnmr.util.SavitzkyGolay;
 import org.comdnmr.util.Utilities;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -45,6 +46,32 @@ import org.ojalgo.structure.Access1D;
 
 public class CESTEquations {
 
+    private static final ThreadLocal<BlochMcConnellPropagator> PROPAGATOR
+            = ThreadLocal.withInitial(() -> new BlochMcConnellPropagator(7));
+    private static final ThreadLocal<double[][]> EXACT_WORK
+            = ThreadLocal.withInitial(() -> new double[][]{new double[49], new double[49]});
+    private static final double[] SD_WEIGHTS;
+    private static final double[] SD_OMEGA_GAUSS;
+
+    static {
+        int wlen = 11;
+        double omegaSD = 0.2;   // fractional variation in B1
+        double[] omwt = {0.022, 0.0444, 0.0777, 0.1159, 0.1473, 0.1596, 0.1473, 0.1159, 0.0777, 0.0444, 0.0216};
+        double omwtsum = 0;
+        for (double v : omwt) {
+            omwtsum += v;
+        }
+        for (int i = 0; i < omwt.length; i++) {
+            omwt[i] = omwt[i] / omwtsum;
+        }
+        double[] omegagauss = new double[wlen];
+        for (int i = 0; i < wlen; i++) {
+            omegagauss[i] = -2 * omegaSD + i * (2 * omegaSD - (-2 * omegaSD)) / (wlen - 1);
+        }
+        SD_WEIGHTS = omwt;
+        SD_OMEGA_GAUSS = omegagauss;
+    }
+
     /**
      * CEST no-exchange model.
      *
@@ -57,6 +84,24 @@ public class CESTEquations {
      * @return CEST intensity array.
      */
     public static double[] noEx(double[][] X, double deltaA0, double R1A, double R2A) {
+        double[] cest = new double[X[0].length];
+        noExInto(cest, X, deltaA0, R1A, R2A);
+        return cest;
+    }
+
+    /**
+     * CEST no-exchange model, writing the intensities into a caller supplied
+     * array.
+     *
+     * @param cest array that receives the CEST intensities
+     * @param X Matrix containing the offset values i.e. CEST irradiation
+     * frequency (X[0]), the B1 field values (X[1]), and the Tex values (X[2]).
+     * @param deltaA0 deltaA0 value. Ground/Major state peak position.
+     * @param R1A R1A value. Longitudinal relaxation rate for Ground/Major
+     * state.
+     * @param R2A R2A value. Transverse relaxation rate for Ground/Major state.
+     */
+    public static void noExInto(double[] cest, double[][] X, double deltaA0, double R1A, double R2A) {
         double[] omegarf = X[0];
         double[] b1Field = X[1];
         double[] Tex = X[2];
@@ -65,24 +110,15 @@ public class CESTEquations {
         double trad = Tex[0];
         int size = omegarf.length;
 
-        double[] cos2t = new double[size];
-        double[] deltaA = new double[size];
-        double[] omegaB1 = new double[size];
         for (int i = 0; i < size; i++) {
-            omegaB1[i] = b1Field[i] * 2.0 * Math.PI;
-            deltaA[i] = (deltaA0 - omegarf[i]) * fields[i] * 2.0 * Math.PI;
-            double omegaBar = deltaA[i];
-            double we = Math.sqrt(omegaB1[i] * omegaB1[i] + omegaBar * omegaBar);
-            cos2t[i] = (omegaBar / we) * (omegaBar / we);
-        }
-
-        double[] cest = new double[cos2t.length];
-
-        double[] r1rho = R1RhoEquations.r1rhoPerturbationNoEx(omegaB1, deltaA, R1A, R2A);
-        for (int i = 0; i < cos2t.length; i++) {
-            cest[i] = cos2t[i] * Math.exp(-trad * r1rho[i]);
+            double omegaB1 = b1Field[i] * 2.0 * Math.PI;
+            double deltaA = (deltaA0 - omegarf[i]) * fields[i] * 2.0 * Math.PI;
+            double omegaBar = deltaA;
+            double we = Math.sqrt(omegaB1 * omegaB1 + omegaBar * omegaBar);
+            double cos2t = (omegaBar / we) * (omegaBar / we);
+            double r1rho = R1RhoEquations.r1rhoPerturbationNoEx(omegaB1, deltaA, R1A, R2A);
+            cest[i] = cos2t * Math.exp(-trad * r1rho);
         }
-        return cest;
     }
 
     /**
@@ -105,6 +141,32 @@ public class CESTEquations {
      * @return CEST intensity array.
      */
     public static double[] exact0(double[][] X, double pb, double kex, double deltaA0, double deltaB0, double R1A, double R1B, double R2A, double R2B) {
+        double[] cest = new double[X[0].length];
+        exact0Into(cest, X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
+        return cest;
+    }
+
+    /**
+     * CEST exact model, writing the intensities into a caller supplied array.
+     * The Bloch-McConnell matrix is built in place for each offset and the
+     * propagator and work arrays are reused by each thread, so no arrays are
+     * allocated.
+     *
+     * @param cest array that receives the CEST intensities
+     * @param X Matrix containing the offset values i.e. CEST irradiation
+     * frequency (X[0]), the B1 field values (X[1]), and the Tex values (X[2]).
+     * @param pb pb value. Population of the Excited/Minor state.
+     * @param kex kex value. Rate constant for Major-Minor state exchange.
+     * @param deltaA0 deltaA0 value. Ground/Major state peak position.
+     * @param deltaB0 deltaB0 value. Excited/Minor state peak position.
+     * @param R1A R1A value. Longitudinal relaxation rate for Ground/Major
+     * state.
+     * @param R1B R1B value. Longitudinal relaxation rate for Excited/Minor
+     * state.
+     * @param R2A R2A value. Transverse relaxation rate for Ground/Major state.
+     * @param R2B R2B value. Transverse relaxation rate for Excited/Minor state.
+     */
+    public static void exact0Into(double[] cest, double[][] X, double pb, double kex, double deltaA0, double deltaB0, double R1A, double R1B, double R2A, double R2B) {
         // Performs an exact numerical calculation and returns CEST intensity ratio.
         //
         // X: array containing two arrays:
@@ -126,77 +188,55 @@ public class CESTEquations {
         // time delay is hard-coded below
         double tdelay = Tex[0];
 
-        double[] cest = new double[omegarf.length];
-
         double k1 = pb * kex;
         double km1 = (1 - pb) * kex;
 
-        double[] m0 = {0.5, 0, 0, 1 - pb, 0, 0, pb};
-        double[] m1 = {0.5, 0, 0, -(1 - pb), 0, 0, -pb};
-
-        double[][] K = {{0, 0, 0, 0, 0, 0, 0},
-        {0, -k1, 0, 0, km1, 0, 0},
-        {0, 0, -k1, 0, 0, km1, 0},
-        {0, 0, 0, -k1, 0, 0, km1},
-        {0, k1, 0, 0, -km1, 0, 0},
-        {0, 0, k1, 0, 0, -km1, 0},
-        {0, 0, 0, k1, 0, 0, -km1}};
-
-        double[][] La = {{0, 0, 0, 0, 0, 0, 0},
-        {0, -R2A, 0, 0, 0, 0, 0}, //{0, -R2A, -deltaA, 0, 0, 0, 0}
-        {0, 0, -R2A, 0, 0, 0, 0}, //{0, deltaA, -R2A, -omegaB1[i], 0, 0, 0}
-        {2 * R1A * (1 - pb), 0, 0, -R1A, 0, 0, 0}, //{2 * R1A * (1 - pb), 0, omegaB1[i], -R1A, 0, 0, 0}
-        {0, 0, 0, 0, 0, 0, 0},
-        {0, 0, 0, 0, 0, 0, 0},
-        {0, 0, 0, 0, 0, 0, 0}};
-
-        double[][] Lb = {{0, 0, 0, 0, 0, 0, 0},
-        {0, 0, 0, 0, 0, 0, 0},
-        {0, 0, 0, 0, 0, 0, 0},
-        {0, 0, 0, 0, 0, 0, 0},
-        {0, 0, 0, 0, -R2B, 0, 0}, //{0, 0, 0, 0, -R2B, -deltaB, 0}
-        {0, 0, 0, 0, 0, -R2B, 0}, //{0, 0, 0, 0, deltaB, -R2B, -omegaB1[i]}
-        {2 * R1B * pb, 0, 0, 0, 0, 0, -R1B}}; //{2 * R1B * pb, 0, 0, 0, 0, omegaB1[i], -R1B}
-
-        DMatrixRMaj La1 = new DMatrixRMaj(La);
-        DMatrixRMaj Lb1 = new DMatrixRMaj(Lb);
-        DMatrixRMaj K1 = new DMatrixRMaj(K);
-
-        DMatrixRMaj Z = new DMatrixRMaj(La.length, La[0].length);
+        // with m0 = {0.5, 0, 0, 1 - pb, 0, 0, pb} and
+        // m1 = {0.5, 0, 0, -(1 - pb), 0, 0, -pb} the intensity
+        // (row 3 of exp(Z) . (m0 - m1)) / 2 only needs elements 3 and 6
+
+        int n = 7;
+        double[][] work = EXACT_WORK.get();
+        double[] z = work[0];
+        double[] at = work[1];
+        BlochMcConnellPropagator propagator = PROPAGATOR.get();
+        Arrays.fill(z, 0.0);
+
+        // the relaxation and exchange terms (La + Lb + K) don't depend on the offset
+        z[1 * n + 1] = (-R2A - k1) * tdelay;
+        z[2 * n + 2] = (-R2A - k1) * tdelay;
+        z[3 * n + 0] = 2 * R1A * (1 - pb) * tdelay;
+        z[3 * n + 3] = (-R1A - k1) * tdelay;
+        z[4 * n + 4] = (-R2B - km1) * tdelay;
+        z[5 * n + 5] = (-R2B - km1) * tdelay;
+        z[6 * n + 0] = 2 * R1B * pb * tdelay;
+        z[6 * n + 6] = (-R1B - km1) * tdelay;
+        for (int j = 1; j < 4; j++) {
+            z[j * n + j + 3] = km1 * tdelay;
+            z[(j + 3) * n + j] = k1 * tdelay;
+        }
 
         for (int i = 0; i < omegarf.length; i++) {
-            double omegaB1 = b1Field[i] * TWO_PI;
-            double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
-            double deltaB = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI;
+            double omegaB1 = b1Field[i] * TWO_PI * tdelay;
+            double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI * tdelay;
+            double deltaB = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI * tdelay;
 
-            La1.set(1, 2, -deltaA);
-            La1.set(2, 1, deltaA);
-            La1.set(2, 3, -omegaB1);
-            La1.set(3, 2, omegaB1);
+            z[1 * n + 2] = -deltaA;
+            z[2 * n + 1] = deltaA;
+            z[2 * n + 3] = -omegaB1;
+            z[3 * n + 2] = omegaB1;
 
-            Lb1.set(4, 5, -deltaB);
-            Lb1.set(5, 4, deltaB);
-            Lb1.set(5, 6, -omegaB1);
-            Lb1.set(6, 5, omegaB1);
+            z[4 * n + 5] = -deltaB;
+            z[5 * n + 4] = deltaB;
+            z[5 * n + 6] = -omegaB1;
+            z[6 * n + 5] = omegaB1;
 
-            CommonOps_DDRM.add(La1, Lb1, Z);
-            CommonOps_DDRM.addEquals(Z, K1);
-
-            CommonOps_DDRM.scale(tdelay, Z);
-
-            DMatrixRMaj at = MtxExp.matrixExp(Z);
+            propagator.exp(z, at);
 
-            double a30 = at.get(3, 0);
-            double a33 = at.get(3, 3);
-            double a36 = at.get(3, 6);
-            double magA = a30 * m0[0] + a33 * m0[3] + a36 * m0[6];
-            magA = magA - (a30 * m1[0] + a33 * m1[3] + a36 * m1[6]);
-            magA = magA / 2;
-
-            cest[i] = magA;
+            double a33 = at[3 * n + 3];
+            double a36 = at[3 * n + 6];
+            cest[i] = a33 * (1 - pb) + a36 * pb;
         }
-
-        return cest;
     }
 
     /**
@@ -337,6 +377,34 @@ public class CESTEquations {
      * @return CEST intensity array.
      */
     public static double[] r1rhoApprox(String approx, double[][] X, double pb, double kex, double deltaA0, double deltaB0, double R1A, double R1B, double R2A, double R2B) {
+        double[] cest = new double[X[0].length];
+        r1rhoApproxInto(cest, approx, X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
+        return cest;
+    }
+
+    /**
+     * CEST approximation models, writing the intensities into a caller
+     * supplied array. See
+     * {@link #r1rhoApprox(String, double[][], double, double, double, double, double, double, double, double)}
+     * for the models. Each offset is computed independently from the
+     * primitive x arrays so no temporary arrays are allocated.
+     *
+     * @param cest array that receives the CEST intensities
+     * @param approx the approximation to use
+     * @param X Matrix containing the offset values i.e. CEST irradiation
+     * frequency (X[0]), the B1 field values (X[1]), and the Tex values (X[2]).
+     * @param pb pb value. Population of the Excited/Minor state.
+     * @param kex kex value. Rate constant for Major-Minor state exchange.
+     * @param deltaA0 deltaA0 value. Ground/Major state peak position.
+     * @param deltaB0 deltaB0 value. Excited/Minor state peak position.
+     * @param R1A R1A value. Longitudinal relaxation rate for Ground/Major
+     * state.
+     * @param R1B R1B value. Longitudinal relaxation rate for Excited/Minor
+     * state.
+     * @param R2A R2A value. Transverse relaxation rate for Ground/Major state.
+     * @param R2B R2B value. Transverse relaxation rate for Excited/Minor state.
+     */
+    public static void r1rhoApproxInto(double[] cest, String approx, double[][] X, double pb, double kex, double deltaA0, double deltaB0, double R1A, double R1B, double R2A, double R2B) {
 
         // X: array containing two arrays:
         //  omegarf: CEST irradiation frequency (ppm)
@@ -355,93 +423,65 @@ public class CESTEquations {
         double[] fields = X[3];
 
         double trad = Tex[0];
+        int size = omegarf.length;
 
         double pa = 1.0 - pb;
-        double[] deltaA = new double[omegarf.length];
-        double[] deltaB = new double[omegarf.length];
-        double[] omegaBar = new double[omegarf.length];
-        double[] omegaB1 = new double[omegarf.length];
-        for (int i = 0; i < omegarf.length; i++) {
-            omegaB1[i] = b1Field[i] * TWO_PI;
-            deltaA[i] = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
-            deltaB[i] = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI;
-            omegaBar[i] = pa * deltaA[i] + pb * deltaB[i];
-        }
 
-        double[] we = new double[omegaBar.length];
-        double[] cos2t = new double[omegaBar.length];
-        for (int i = 0; i < omegaBar.length; i++) {
-            we[i] = Math.sqrt(omegaB1[i] * omegaB1[i] + omegaBar[i] * omegaBar[i]);
-            cos2t[i] = (omegaBar[i] / we[i]) * (omegaBar[i] / we[i]);
+        if (approx == null) {
+            Arrays.fill(cest, 0, size, 0.0);
+            return;
         }
-
-        double[] cest = new double[cos2t.length];
-
-        if (null != approx) {
-            switch (approx) {
-                case "laguerre" -> {
-                    double[] r1rho = R1RhoEquations.r1rhoLaguerre(trad, false, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-                    for (int i = 0; i < cos2t.length; i++) {
-                        cest[i] = cos2t[i] * Math.exp(-trad * r1rho[i]);
-                    }
-                }
-                case "trott" -> {
-                    double[] r1rho = R1RhoEquations.r1rhoPerturbation(trad, false, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-                    for (int i = 0; i < cos2t.length; i++) {
-                        cest[i] = cos2t[i] * Math.exp(-trad * r1rho[i]);
-                    }
+        switch (approx) {
+            case "laguerre", "trott", "trottnoex", "baldwinkay" -> {
+                for (int i = 0; i < size; i++) {
+                    double omegaB1 = b1Field[i] * TWO_PI;
+                    double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
+                    double deltaB = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI;
+                    double omegaBar = pa * deltaA + pb * deltaB;
+                    double we = Math.sqrt(omegaB1 * omegaB1 + omegaBar * omegaBar);
+                    double cos2t = (omegaBar / we) * (omegaBar / we);
+                    double r1rho = approxR1rho(approx, trad, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
+                    cest[i] = cos2t * Math.exp(-trad * r1rho);
                 }
-                case "trottnoex" -> {
-                    double[] r1rho = R1RhoEquations.r1rhoPerturbationNoEx(omegaB1, deltaA, R1A, R2A);
-                    for (int i = 0; i < cos2t.length; i++) {
-                        cest[i] = cos2t[i] * Math.exp(-trad * r1rho[i]);
-                    }
-                }
-                case "baldwinkay" -> {
-                    double[] r1rho = R1RhoEquations.r1rhoBaldwinKay(trad, false, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-                    for (int i = 0; i < cos2t.length; i++) {
-                        cest[i] = cos2t[i] * Math.exp(-trad * r1rho[i]);
-                    }
-                }
-                case "sd" -> {
-                    int wlen = 11;
-                    double omegaSD = 0.2;   // fractional variation in B1
-                    double[] omwt = {0.022, 0.0444, 0.0777, 0.1159, 0.1473, 0.1596, 0.1473, 0.1159, 0.0777, 0.0444, 0.0216};
-                    double omwtsum = 0;
-                    for (double v : omwt) {
-                        omwtsum += v;
-                    }
-                    for (int i = 0; i < omwt.length; i++) {
-                        omwt[i] = omwt[i] / omwtsum;
-                    }
-                    double[] omegagauss = new double[wlen];
-                    for (int i = 0; i < wlen; i++) {
-                        omegagauss[i] = -2 * omegaSD + i * (2 * omegaSD - (-2 * omegaSD)) / (wlen - 1);
-                    }
-                    double[] magA = new double[omegaB1.length];
-                    double[] omegatmp = new double[omegaB1.length];
-                    for (int i = 0; i < wlen; i++) {
-                        for (int j = 0; j < omegatmp.length; j++) {
-                            omegatmp[j] = omegaB1[j] * (1 + omegagauss[i]);
-                            we[j] = Math.sqrt(omegatmp[j] * omegatmp[j] + omegaBar[j] * omegaBar[j]);
-                            cos2t[j] = (omegaBar[j] / we[j]) * (omegaBar[j] / we[j]);
-                        }
-
-                        double[] r1rho = R1RhoEquations.r1rhoPerturbation(trad, false, omegatmp, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-
-                        for (int j = 0; j < cest.length; j++) {
-                            cest[j] = cos2t[j] * Math.exp(-trad * r1rho[j]);
-                            magA[j] = magA[j] + omwt[i] * cest[j];
-                        }
+            }
+            case "sd" -> {
+                // average over B1 inhomogeneity
+                for (int j = 0; j < size; j++) {
+                    double omegaB1 = b1Field[j] * TWO_PI;
+                    double deltaA = (deltaA0 - omegarf[j]) * fields[j] * TWO_PI;
+                    double deltaB = (deltaB0 - omegarf[j]) * fields[j] * TWO_PI;
+                    double omegaBar = pa * deltaA + pb * deltaB;
+                    double magA = 0.0;
+                    for (int i = 0; i < SD_OMEGA_GAUSS.length; i++) {
+                        double omegatmp = omegaB1 * (1 + SD_OMEGA_GAUSS[i]);
+                        double we = Math.sqrt(omegatmp * omegatmp + omegaBar * omegaBar);
+                        double cos2t = (omegaBar / we) * (omegaBar / we);
+                        double r1rho = R1RhoEquations.r1rhoPerturbation(trad, false, omegatmp, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
+                        magA = magA + SD_WEIGHTS[i] * (cos2t * Math.exp(-trad * r1rho));
                     }
-                    cest = magA;
-                }
-                default -> {
+                    cest[j] = magA;
                 }
             }
+            default -> {
+                Arrays.fill(cest, 0, size, 0.0);
+            }
         }
+    }
 
-        return cest;
+    /**
+     * R1rho at one offset for the laguerre, trott, trottnoex and baldwinkay
+     * approximations of
+     * {@link #r1rhoApproxInto(double[], String, double[][], double, double, double, double, double, double, double, double)}.
+     */
+    private static double approxR1rho(String approx, double trad, double omegaB1, double pb, double kex,
+            double deltaA, double deltaB, double R1A, double R1B, double R2A, double R2B) {
+        return switch (approx) {
+            case "laguerre" -> R1RhoEquations.r1rhoLaguerre(trad, false, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
+            case "trott" -> R1RhoEquations.r1rhoPerturbation(trad, false, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
+            case "trottnoex" -> R1RhoEquations.r1rhoPerturbationNoEx(omegaB1, deltaA, R1A, R2A);
+            case "baldwinkay" -> R1RhoEquations.r1rhoBaldwinKay(trad, false, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
+            default -> throw new IllegalArgumentException("Invalid approximation " + approx);
+        };
     }
 
     /**
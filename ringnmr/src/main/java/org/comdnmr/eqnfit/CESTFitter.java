@@ -21,6 +21,7 @@ import org.comdnmr.fit.FitQuality;
 import org.comdnmr.util.CoMDPreferences;
 import org.comdnmr.data.ExperimentSet;
 import org.comdnmr.data.ExperimentData;
+import org.comdnmr.data.FitDataset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,10 +39,7 @@ public class CESTFitter implements EquationFitter {
 
     FitFunction calcCEST;
     CoMDOptions options;
-    List<Double>[] xValues;
-    List<Double> yValues = new ArrayList<>();
-    List<Double> errValues = new ArrayList<>();
-    List<Integer> idValues = new ArrayList<>();
+    FitDataset dataset = new FitDataset(4);
     int nCurves = 1;
     int nResidues = 1;
     int[][] states;
@@ -88,12 +86,9 @@ public class CESTFitter implements EquationFitter {
     // public void setData(Collection<ExperimentData> expDataList, String[] resNums) {
     @Override
     public void setData(ExperimentSet experimentSet, ResonanceSource[] dynSources) {
-        xValues = new ArrayList[4];
-        for (int i=0;i<xValues.length;i++) {
-            xValues[i] = new ArrayList<>();
-        }
         this.dynSources = dynSources.clone();
         nResidues = dynSources.length;
+        dataset = new FitDataset(4, experimentSet.getPointCount(dynSources));
         experimentSet.setupMaps();
         stateCount = experimentSet.getStateCount(dynSources.length);
         Collection<Experiment> expDataList = experimentSet.getExperimentData();
@@ -112,15 +107,7 @@ public class CESTFitter implements EquationFitter {
                     double[][] x = experimentalData.getXValues();
                     double[] y = experimentalData.getYValues();
                     double[] err = experimentalData.getErrValues();
-                    for (int i = 0; i < y.length; i++) {
-                        for (int j=0;j<x.length;j++) {
-                            xValues[j].add(x[j][i]);
-                        }
-                        xValues[xValues.length - 1].add(field);
-                        yValues.add(y[i]);
-                        errValues.add(err[i]);
-                        idValues.add(id);
-                    }
+                    dataset.add(x, x.length, y, err, id, field);
                     id++;
                 }
             }
@@ -129,17 +116,8 @@ public class CESTFitter implements EquationFitter {
     }
 
     @Override
-    public void setData(List<Double>[] allXValues, List<Double> yValues, List<Double> errValues) {
-        xValues = new ArrayList[allXValues.length];
-        for (int j=0;j<allXValues.length;j++) {
-            xValues[j] = new ArrayList<>();
-            xValues[j].addAll(allXValues[j]);
-        }
-        this.yValues.addAll(yValues);
-        this.errValues.addAll(errValues);
-        for (Double ignored : yValues) {
-            idValues.add(0);
-        }
+    public void setData(FitDataset dataset) {
+        this.dataset = dataset;
         dynSources = new ResonanceSource[1];
         dynSources[0] = null;
 
@@ -189,22 +167,10 @@ public class CESTFitter implements EquationFitter {
 
     @Override
     public void setupFit(String eqn) {
-        double[][] x = new double[xValues.length][yValues.size()];
-        double[] y = new double[yValues.size()];
-        double[] err = new double[yValues.size()];
-        int[] idNums = new int[yValues.size()];
-        for (int i = 0; i < x[0].length; i++) {
-            for (int j=0;j<x.length;j++) {
-                x[j][i] = xValues[j].get(i);
-            }
-            y[i] = yValues.get(i);
-            err[i] = errValues.get(i);
-            idNums[i] = idValues.get(i);
-        }
         calcCEST.setEquation(eqn);
-        calcCEST.setXY(x, y);
-        calcCEST.setIds(idNums);
-        calcCEST.setErr(err);
+        calcCEST.setXY(dataset.getXValues(), dataset.getYValues());
+        calcCEST.setIds(dataset.getIdNums());
+        calcCEST.setErr(dataset.getErrValues());
         calcCEST.setMap(stateCount, states);
     }
 
@@ -233,19 +199,7 @@ public class CESTFitter implements EquationFitter {
 
     @Override
     public FitResult doFit(String eqn, double[] sliderguesses, CoMDOptions options) {
-        double[][] xvals = new double[xValues.length][xValues[0].size()];
-        double[] yvals = new double[yValues.size()];
-        int[] idNums = new int[yValues.size()];
-        for (int i = 0; i < xvals.length; i++) {
-            for (int j = 0; j < xvals[0].length; j++) {
-                xvals[i][j] = xValues[i].get(j);
-            }
-        }
-        for (int i = 0; i < yvals.length; i++) {
-            yvals[i] = yValues.get(i);
-            idNums[i] = idValues.get(i);
-        }
-        double[][] xy = CESTEquations.getXYValues(xvals, yvals, idNums, 0);
+        double[][] xy = CESTEquations.getXYValues(dataset.getXValues(), dataset.getYValues(), dataset.getIdNums(), 0);
         List<CESTPeak> peaks = CESTEquations.cestPeakGuess(xy, "cest");
 
         if (!peaks.isEmpty()) {
@@ -261,7 +215,7 @@ public class CESTFitter implements EquationFitter {
             if (guesses != null) {
                 double[][] boundaries = calcCEST.boundaries(guesses);
                 double sigma = options.getStartRadius();
-                PointValuePair result = calcCEST.refine(guesses, boundaries[0],
+                PointValuePair result = calcCEST.refineMultiStart(guesses, boundaries[0],
                         boundaries[1], sigma, options.getOptimizer());
                 double[] pars = result.getPoint();
                 System.out.println(eqn);
@@ -308,12 +262,12 @@ public class CESTFitter implements EquationFitter {
                 } else {
                     errEstimates = new double[pars.length];
                 }
-                double[][] extras = getFields(xValues, idValues);
+                double[][] extras = getFields(dataset);
                 String refineOpt = options.getOptimizer();
                 String bootstrapOpt = options.getBootStrapOptimizer();
                 long fitTime = calcCEST.fitTime;
                 long bootTime = errTime;
-                int nSamples = options.getSampleSize();
+                int nSamples = simPars == null ? 0 : calcCEST.getSimSampleSize();
                 boolean useAbs = options.getAbsValueFit();
                 boolean useNonParametric = options.getNonParametricBootstrap();
                 double sRadius = options.getStartRadius();
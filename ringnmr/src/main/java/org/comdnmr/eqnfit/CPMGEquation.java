@@ -22,7 +22,6 @@
  */
 package org.comdnmr.eqnfit;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.FastMath;
 import org.comdnmr.util.ANNLoader;
 import org.comdnmr.util.CoMDPreferences;
@@ -33,6 +32,7 @@ import org.ojalgo.matrix.store.MatrixStore;
 import org.ojalgo.structure.Access1D;
 
 import java.util.HashMap;
+import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,6 +48,16 @@ public enum CPMGEquation implements EquationType {
             return par[map[0]];
         }
 
+        @Override
+        public Optional<EquationDerivatives> getDerivatives() {
+            return Optional.of(this::calculateWithDerivatives);
+        }
+
+        double calculateWithDerivatives(double[] par, int[] map, double[] x, int idNum, double[] derivs) {
+            derivs[0] = 1.0;
+            return par[map[0]];
+        }
+
         @Override
         public double[] guess(double[][] xValues, double[] yValues, int[][] map, int[] idNums, int nID) {
             int nPars = CPMGFitFunction.getNPars(map);
@@ -130,6 +140,36 @@ public enum CPMGEquation implements EquationType {
             return value;
         }
 
+        @Override
+        public Optional<EquationDerivatives> getDerivatives() {
+            return Optional.of(this::calculateWithDerivatives);
+        }
+
+        double calculateWithDerivatives(double[] par, int[] map, double[] x, int idNum, double[] derivs) {
+            double kEx = par[map[0]];
+            double R2 = par[map[1]];
+            double dPPMmin = par[map[2]];
+            double vu = x[0];
+            double field = x[1];
+            derivs[1] = 1.0;
+            if (kEx <= 0.0) {
+                derivs[0] = 0.0;
+                derivs[2] = 0.0;
+                return R2;
+            }
+            double tauCP = 1.0 / (2.0 * vu);
+            double dPPMMinRad = 2.0 * Math.PI * dPPMmin * field;
+            double Rex = dPPMMinRad * dPPMMinRad / 4.0 / kEx;
+            double kTau = kEx * tauCP;
+            double tanh = FastMath.tanh(0.5 * kTau);
+            double f = 1 - 2.0 * tanh / kTau;
+            double sech2 = 1.0 - tanh * tanh;
+            double dfdk = (2.0 * tanh - kTau * sech2) / (kEx * kTau);
+            derivs[0] = -Rex / kEx * f + Rex * dfdk;
+            derivs[2] = dPPMMinRad * Math.PI * field / kEx * f;
+            return R2 + Rex * f;
+        }
+
         @Override
         public double[] guess(double[][] xValues, double[] yValues, int[][] map, int[] idNums, int nID) {
             int nPars = CPMGFitFunction.getNPars(map);
@@ -283,7 +323,6 @@ public enum CPMGEquation implements EquationType {
             double deltaCPPM = par[map[3]];
             double deltaHPPM = par[map[4]];
 
-            double pB = 1.0 - pA;
             double vcpmg = x[0];
             double fieldX = x[1];
             double fieldH = x[2];
@@ -297,115 +336,7 @@ public enum CPMGEquation implements EquationType {
             // N.B. (2 * delta) is the time between successive 13C 180 pulses
             double delta = 1.0 / (4.0 * vcpmg);
 
-            // Building lambda1 (3.2 - 3.6)
-            // num1: (p_A - p_B)k_{ex} + i \Delta \omega_H
-            Complex num1 = new Complex((pA - pB) * kEx, deltaH);
-            Complex zeta = num1.multiply(-2.0 * deltaC);  // 3.6
-            Complex Psi = num1  // 3.5
-                .pow(2.0)
-                .subtract(Math.pow(deltaC, 2.0))
-                .add(4.0 * pA * pB * Math.pow(kEx, 2.0));
-            Complex num2 = Psi  // num2: \sqrt{\Psi^2 + \zeta^2}
-                .pow(2.0)
-                .add(zeta.pow(2.0))
-                .sqrt();
-            Complex etaPlus = num2  // 3.4
-                .add(Psi)
-                .sqrt()
-                .multiply(Math.sqrt(2.0) * delta);
-            Complex etaMinus = num2  // 3.4
-                .subtract(Psi)
-                .sqrt()
-                .multiply(Math.sqrt(2.0) * delta);
-            Complex DPlus = Psi  // 3.3
-                .add(2.0 * Math.pow(deltaC, 2.0))
-                .divide(num2)
-                .add(1.0)
-                .multiply(0.5);
-            Complex DMinus = Psi  // 3.3
-                .add(2.0 * Math.pow(deltaC, 2.0))
-                .divide(num2)
-                .subtract(1.0)
-                .multiply(0.5);
-            Complex num3 = etaPlus  // num3: D_{+} \cosh \eta_{+} - D_{-} \cos \eta_{-}
-                .cosh()
-                .multiply(DPlus)
-                .subtract(etaMinus
-                    .cos()
-                    .multiply(DMinus)
-                );
-            // Using \cosh^{-1}(z) = \ln (z + \sqrt{z + 1}\sqrt{z - 1})
-            Complex lambda1 = num3  // 3.2
-                .add(num3
-                    .add(1.0)
-                    .sqrt()
-                    .multiply(num3
-                        .subtract(1.0)
-                        .sqrt()
-                    )
-                )
-                .log()
-                .divide(-2 * delta)
-                .add(kEx)
-                .multiply(0.5)
-                .add(R2);
-
-            // Building Q (3.7 - 3.10)
-            Complex dPlus = new Complex(deltaH + deltaC, kEx);  // 3.10
-            Complex dMinus = new Complex(deltaH + deltaC, -kEx);  // 3.10
-            Complex zPlus = new Complex(deltaH - deltaC, kEx);  // 3.10
-            Complex zMinus = new Complex(deltaH - deltaC, -kEx);  // 3.10
-            // num4: i k_{ex} \sqrt{p_A p_B}
-            Complex num4 = new Complex(0.0, kEx * Math.sqrt(pA * pB));
-            Complex mD = zPlus  // 3.8
-                .add(zPlus
-                    .multiply(delta)
-                    .sin()
-                    .divide(dPlus
-                        .add(zPlus)
-                        .multiply(delta)
-                        .sin()
-                    )
-                    .multiply(2.0 * deltaC)
-                )
-                .multiply(num4
-                    .divide(dPlus
-                        .multiply(zPlus)
-                    )
-                );
-            Complex mZ = dMinus  // 3.9
-                .subtract(dMinus
-                    .multiply(delta)
-                    .sin()
-                    .divide(dMinus
-                        .add(zMinus)
-                        .multiply(delta)
-                        .sin()
-                    )
-                    .multiply(2.0 * deltaC)
-                )
-                .multiply(num4
-                    .divide(dMinus
-                        .multiply(zMinus)
-                    )
-                )
-                .multiply(-1.0);
-            double Q = mD  // 3.7
-                .pow(2.0)
-                .multiply(-1.0)
-                .add(1.0)
-                .add(mD.multiply(mZ))
-                .subtract(mZ.pow(2.0))
-                .add(mD
-                    .add(mZ)
-                    .multiply(0.5 * Math.sqrt(pB / pA))
-                )
-                .getReal();
-            if (tau > 1.0e-6) {
-                return lambda1.getReal() - Math.log(Q) / tau;
-            } else {
-                return lambda1.getReal();
-            }
+            return MQDispersion.calculate(kEx, pA, R2, deltaC, deltaH, delta, tau);
         }
 
         // TODO
@@ -19,18 +19,13 @@ package org.comdnmr.eqnfit;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.IntStream;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.random.RandomGenerator;
-import org.apache.commons.math3.random.SynchronizedRandomGenerator;
-import org.apache.commons.math3.random.Well19937c;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.FastMath;
 import org.comdnmr.util.CoMDOptions;
+import org.comdnmr.util.ReplicateRandom;
 
 public class CPMGFitFunction extends FitFunction {
 
-    static RandomGenerator random = new SynchronizedRandomGenerator(new Well19937c());
     int[] r2Mask = {0, 1, 3};
     double[] rexErrors = new double[nID];
 
@@ -77,11 +72,6 @@ public class CPMGFitFunction extends FitFunction {
         return r2Mask;
     }
 
-    @Override
-    public double[][] getSimPars() {
-        return parValues;
-    }
-
     @Override
     public double value(double[] normPar) {
         double[] par = deNormalize(normPar);
@@ -173,51 +163,58 @@ public class CPMGFitFunction extends FitFunction {
         return equation.getKex(pars);
     }
 
+    /**
+     * Statistics for the Rex of each id over the bootstrap replicates. Only
+     * their standard deviations are used, so no replicates are retained.
+     */
+    private BootstrapStats newRexStats() {
+        return new BootstrapStats(nID, 0, false, ReplicateRandom.key(yValues));
+    }
+
+    private void addRex(BootstrapStats rexStats, int i, double[] pars, double field) {
+        double[] rex = new double[nID];
+        for (int j = 0; j < map.length; j++) {
+            rex[j] = equation.getRex(pars, map[j], field);
+        }
+        synchronized (rexStats) {
+            rexStats.add(i, rex);
+        }
+    }
+
     @Override
     public double[] simBounds(double[] start, double[] lowerBounds, double[] upperBounds, double inputSigma, CoMDOptions options) {
         reportFitness = false;
         int nSim = options.getSampleSize();
         int nPar = start.length;
-        parValues = new double[nPar + 1][nSim];
         double[] yPred = simY(start);
         double[] yValuesOrig = yValues.clone();
-        double[][] rexValues = new double[nID][nSim];
         rexErrors = new double[nID];
+        BootstrapStats rexStats = newRexStats();
         String optimizer = options.getBootStrapOptimizer();
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
 
-        for (int i = 0; i < nSim; i++) {
+        runReplicates(nPar, nSim, false, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
             for (int k = 0; k < yValues.length; k++) {
                 yValues[k] = yPred[k] + errValues[k] * random.nextGaussian();
             }
-            PointValuePair result = refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
+            PointValuePair result = refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, getEvaluations());
             if (equation == CPMGEquation.CPMGSLOW) {
-                for (int j = 0; j < map.length; j++) {
-                    rexValues[j][i] = equation.getRex(result.getPoint(), map[j], fieldValues[0]);
-                }
+                addRex(rexStats, i, result.getPoint(), fieldValues[0]);
             }
-        }
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
+        });
+        double[] parSDev = simStats.getStandardDeviations(nPar);
         if (equation == CPMGEquation.CPMGSLOW) {
-            for (int j = 0; j < nID; j++) {
-                DescriptiveStatistics dStat = new DescriptiveStatistics(rexValues[j]);
-                rexErrors[j] = dStat.getStandardDeviation();
-            }
+            rexErrors = rexStats.getStandardDeviations(nID);
         }
-        yValues = yValuesOrig;
+        System.arraycopy(yValuesOrig, 0, yValues, 0, yValues.length);
         return parSDev;
     }
 
-    private synchronized CPMGFitFunction setupParametricBootstrap(double[] yPred) {
+    private CPMGFitFunction setupParametricBootstrap(double[] yPred, ReplicateRandom random) {
         double[] newY = new double[yValues.length];
         for (int k = 0; k < yValues.length; k++) {
             newY[k] = yPred[k] + errValues[k] * random.nextGaussian();
@@ -230,7 +227,7 @@ public class CPMGFitFunction extends FitFunction {
         return rDisp;
     }
 
-    private CPMGFitFunction setupNonParametricBootstrap(double[] yPred) {
+    private CPMGFitFunction setupNonParametricBootstrap(double[] yPred, ReplicateRandom random) {
         CPMGFitFunction rDisp = new CPMGFitFunction(options, xValues, yValues, errValues, idNums);
         rDisp.setEquation(equation.getName());
         double[][] newX = new double[xValues.length][yValues.length];
@@ -263,44 +260,33 @@ public class CPMGFitFunction extends FitFunction {
         reportFitness = false;
         int nPar = start.length;
         int nSim = options.getSampleSize();
-        parValues = new double[nPar + 1][nSim];
-        double[][] rexValues = new double[nID][nSim];
         rexErrors = new double[nID];
+        BootstrapStats rexStats = newRexStats();
         double[] yPred = simY(start);
         String optimizer = options.getBootStrapOptimizer();
-        IntStream.range(0, nSim).parallel().forEach(i -> {
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
+        runReplicates(nPar, nSim, true, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
             CPMGFitFunction rDisp;
             if (options.getNonParametricBootstrap()) {
-                rDisp = setupNonParametricBootstrap(yPred);
+                rDisp = setupNonParametricBootstrap(yPred, random);
             } else {
-                rDisp = setupParametricBootstrap(yPred);
+                rDisp = setupParametricBootstrap(yPred, random);
             }
 
-            PointValuePair result = rDisp.refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
+            PointValuePair result = rDisp.refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, rDisp.getEvaluations());
 
             if (equation == CPMGEquation.CPMGSLOW) {
-                for (int j = 0; j < map.length; j++) {
-                    rexValues[j][i] = equation.getRex(result.getPoint(), map[j], xValues[1][0]);
-                }
+                addRex(rexStats, i, result.getPoint(), xValues[1][0]);
             }
         });
 
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
+        double[] parSDev = simStats.getStandardDeviations(nPar);
         if (equation == CPMGEquation.CPMGSLOW) {
-            for (int j = 0; j < nID; j++) {
-                DescriptiveStatistics dStat = new DescriptiveStatistics(rexValues[j]);
-                rexErrors[j] = dStat.getStandardDeviation();
-            }
+            rexErrors = rexStats.getStandardDeviations(nID);
         }
         return parSDev;
     }
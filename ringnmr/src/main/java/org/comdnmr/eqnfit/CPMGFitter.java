@@ -20,12 +20,13 @@ package org.comdnmr.eqnfit;
 import org.comdnmr.data.CPMGExperiment;
 import org.comdnmr.data.ExperimentSet;
 import org.comdnmr.data.ExperimentData;
+import org.comdnmr.data.FitDataset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
 import org.apache.commons.math3.stat.inference.TTest;
 import org.comdnmr.data.Experiment;
 import org.comdnmr.fit.FitQuality;
@@ -43,10 +44,7 @@ public class CPMGFitter implements EquationFitter {
 
     CPMGFitFunction calcR;
     CoMDOptions options;
-    List<Double>[] xValues = new ArrayList[4];
-    List<Double> yValues = new ArrayList<>();
-    List<Double> errValues = new ArrayList<>();
-    List<Integer> idValues = new ArrayList<>();
+    FitDataset dataset = new FitDataset(4);
     int nCurves = 1;
     int nResidues = 1;
     int[][] states;
@@ -90,19 +88,8 @@ public class CPMGFitter implements EquationFitter {
     }
 
     @Override
-    public void setData(List<Double>[] allXValues, List<Double> yValues, List<Double> errValues) {
-        for (int i = 0;i<allXValues.length;i++) {
-            xValues[i] = new ArrayList<>();
-            xValues[i].addAll(allXValues[i]);
-        }
-        this.yValues.clear();
-        this.yValues.addAll(yValues);
-        this.errValues.clear();
-        this.errValues.addAll(errValues);
-        this.idValues.clear();
-        for (Double yValue : yValues) {
-            this.idValues.add(0);
-        }
+    public void setData(FitDataset dataset) {
+        this.dataset = dataset;
         dynSources = new ResonanceSource[1];
         dynSources[0] = null;
         nCurves = 1;
@@ -116,11 +103,9 @@ public class CPMGFitter implements EquationFitter {
 
     @Override
     public void setData(ExperimentSet experimentSet, ResonanceSource[] dynSources) {
-        for (int i = 0;i<xValues.length;i++) {
-            xValues[i] = new ArrayList<>();
-        }
         this.dynSources = dynSources.clone();
         nResidues = dynSources.length;
+        dataset = new FitDataset(4, experimentSet.getPointCount(dynSources));
 
         stateCount = experimentSet.getStateCount(nResidues);
         Collection<Experiment> expDataList = experimentSet.getExperimentData();
@@ -142,16 +127,7 @@ public class CPMGFitter implements EquationFitter {
                     double[][] x = experimentalData.getXValues();
                     double[] y = experimentalData.getYValues();
                     double[] err = experimentalData.getErrValues();
-
-                    for (int i = 0; i < y.length; i++) {
-                        xValues[0].add(x[0][i]);
-                        xValues[1].add(fieldX);
-                        xValues[2].add(fieldH);
-                        xValues[3].add(cpmgExperiment.getTau());
-                        yValues.add(y[i]);
-                        errValues.add(err[i]);
-                        idValues.add(id);
-                    }
+                    dataset.add(x, 1, y, err, id, fieldX, fieldH, cpmgExperiment.getTau());
                     id++;
                 }
             }
@@ -192,25 +168,11 @@ public class CPMGFitter implements EquationFitter {
 
     @Override
     public void setupFit(String eqn) {
-        double[][] x = new double[xValues.length][yValues.size()];
-        double[] y = new double[yValues.size()];
-        double[] err = new double[yValues.size()];
-        int[] idNums = new int[yValues.size()];
-        for (int i = 0; i < x[0].length; i++) {
-            for (int j = 0;j < xValues.length;j++) {
-                if (xValues[j] != null) {
-                    x[j][i] = xValues[j].get(i);
-                }
-            }
-            y[i] = yValues.get(i);
-            err[i] = errValues.get(i);
-            idNums[i] = idValues.get(i);
-        }
         calcR.setEquation(eqn);
 
-        calcR.setXY(x, y);
-        calcR.setIds(idNums);
-        calcR.setErr(err);
+        calcR.setXY(dataset.getXValues(), dataset.getYValues());
+        calcR.setIds(dataset.getIdNums());
+        calcR.setErr(dataset.getErrValues());
         calcR.setMap(stateCount, states);
     }
 
@@ -247,7 +209,7 @@ public class CPMGFitter implements EquationFitter {
         }
         double[][] boundaries = calcR.boundaries(guesses);
         double sigma = options.getStartRadius();
-        PointValuePair result = calcR.refine(guesses, boundaries[0],
+        PointValuePair result = calcR.refineMultiStart(guesses, boundaries[0],
                 boundaries[1], sigma, options.getOptimizer());
         double[] pars = result.getPoint();
         System.out.print("Fit pars \n");
@@ -296,14 +258,8 @@ public class CPMGFitter implements EquationFitter {
                     parIndex = 2;
                 }
                 if (parIndex != -1) {
-                    boolean valid = tTest.tTest(0.0, simPars[map[0][parIndex]], 0.02);
-                    SummaryStatistics sStat = new SummaryStatistics();
-                    for (double v : simPars[map[0][parIndex]]) {
-                        sStat.addValue(v);
-                    }
-                    double alpha = tTest.tTest(0.0, simPars[map[0][parIndex]]);
-                    double mean = sStat.getMean();
-                    double sdev = sStat.getStandardDeviation();
+                    StatisticalSummary sStat = calcR.getSimStats().getSummary(map[0][parIndex]);
+                    boolean valid = tTest.tTest(0.0, sStat, 0.02);
                     if (!valid) {
                         exchangeValid = false;
                     }
@@ -316,7 +272,7 @@ public class CPMGFitter implements EquationFitter {
         String bootstrapOpt = options.getBootStrapOptimizer();
         long fitTime = calcR.fitTime;
         long bootTime = errTime;
-        int nSamples = options.getSampleSize();
+        int nSamples = simPars == null ? 0 : calcR.getSimSampleSize();
         boolean useAbs = options.getAbsValueFit();
         boolean useNonParametric = options.getNonParametricBootstrap();
         double sRadius = options.getStartRadius();
@@ -325,7 +281,7 @@ public class CPMGFitter implements EquationFitter {
         boolean useWeight = options.getWeightFit();
         CurveFit.CurveFitStats curveStats = new CurveFit.CurveFitStats(refineOpt, bootstrapOpt, fitTime, bootTime, nSamples, useAbs,
                 useNonParametric, sRadius, fRadius, tol, useWeight);
-        double[][] extras = getFields(xValues, idValues);
+        double[][] extras = getFields(dataset);
         return getResults(this, eqn, parNames, dynSources, map, states, extras, nGroupPars, pars, errEstimates, fitQuality, simPars, exchangeValid, curveStats);
     }
 
@@ -0,0 +1,214 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.eqnfit;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, least recently used cache of sampled equation curves for
+ * plotting. A curve is identified by the equation, its parameters and extras,
+ * and the range and number of x values, so browsing back to a residue or
+ * redrawing a resized chart reuses the values instead of evaluating the
+ * equation again. Curves can be calculated in the background so that an
+ * expensive equation doesn't hold up the thread that draws the chart.
+ * <p>
+ * Equations also depend on preferences that aren't part of the key, such as
+ * the R1rho correction and the CPMG max frequency. The preference setters
+ * clear the cache with {@link #clear()} when they change.
+ * <p>
+ * The arrays returned are the cached values themselves, shared by every
+ * caller, so they must not be modified.
+ */
+public final class CurveCache {
+
+    private static final int MAX_CURVES = 256;
+
+    private static final class Key {
+
+        final String expType;
+        final String name;
+        final double[] pars;
+        final double[] extras;
+        final double min;
+        final double max;
+        final int nIncr;
+        final int hash;
+
+        Key(PlotEquation equation, double min, double max, int nIncr) {
+            this.expType = equation.expType;
+            this.name = equation.name;
+            this.pars = equation.pars.clone();
+            this.extras = equation.extras.clone();
+            this.min = min;
+            this.max = max;
+            this.nIncr = nIncr;
+            this.hash = Objects.hash(expType, name, Arrays.hashCode(pars), Arrays.hashCode(extras), min, max, nIncr);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Key key)
+                    && (hash == key.hash)
+                    && expType.equals(key.expType)
+                    && name.equals(key.name)
+                    && Arrays.equals(pars, key.pars)
+                    && Arrays.equals(extras, key.extras)
+                    && (Double.compare(min, key.min) == 0)
+                    && (Double.compare(max, key.max) == 0)
+                    && (nIncr == key.nIncr);
+        }
+    }
+
+    private static final Map<Key, double[]> CURVES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+            return size() > MAX_CURVES;
+        }
+    };
+    private static final Set<Key> PENDING = ConcurrentHashMap.newKeySet();
+    // curves whose background calculation failed, so they aren't tried again until the next clear
+    private static final Set<Key> FAILED = Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+            return size() > MAX_CURVES;
+        }
+    });
+    private static int generation = 0;
+
+    private CurveCache() {
+    }
+
+    /**
+     * Get a curve if it's in the cache.
+     *
+     * @param equation the equation
+     * @param min the first x value is one step above min
+     * @param max the last x value is one step below max
+     * @param nIncr the number of x values
+     * @return the y values, which must not be modified, or null if the curve
+     * isn't in the cache
+     */
+    public static double[] get(PlotEquation equation, double min, double max, int nIncr) {
+        synchronized (CURVES) {
+            return CURVES.get(new Key(equation, min, max, nIncr));
+        }
+    }
+
+    /**
+     * Get a curve, calculating it on the calling thread if it isn't in the
+     * cache.
+     *
+     * @param equation the equation
+     * @param min the first x value is one step above min
+     * @param max the last x value is one step below max
+     * @param nIncr the number of x values
+     * @return the y values, which must not be modified
+     */
+    public static double[] sample(PlotEquation equation, double min, double max, int nIncr) {
+        Key key = new Key(equation, min, max, nIncr);
+        int currentGeneration;
+        synchronized (CURVES) {
+            double[] yValues = CURVES.get(key);
+            if (yValues != null) {
+                return yValues;
+            }
+            currentGeneration = generation;
+        }
+        double[] yValues = equation.sample(min, max, nIncr);
+        store(key, yValues, currentGeneration);
+        return yValues;
+    }
+
+    /**
+     * Calculate a curve in the background if it isn't in the cache, isn't
+     * already being calculated and hasn't failed since the last
+     * {@link #clear()}. A failure is logged and remembered, so a curve that
+     * can't be calculated isn't resubmitted on every redraw.
+     *
+     * @param equation the equation
+     * @param min the first x value is one step above min
+     * @param max the last x value is one step below max
+     * @param nIncr the number of x values
+     * @param onDone run, on the background thread, once the calculation has
+     * finished, whether or not it succeeded
+     */
+    public static void sampleAsync(PlotEquation equation, double min, double max, int nIncr, Runnable onDone) {
+        Key key = new Key(equation, min, max, nIncr);
+        int currentGeneration;
+        synchronized (CURVES) {
+            if (CURVES.containsKey(key) || FAILED.contains(key)) {
+                return;
+            }
+            currentGeneration = generation;
+        }
+        if (PENDING.add(key)) {
+            PlotEquation copy = equation.clone();
+            CompletableFuture.runAsync(() -> {
+                try {
+                    store(key, copy.sample(min, max, nIncr), currentGeneration);
+                } catch (RuntimeException rE) {
+                    Logger.getLogger(CurveCache.class.getName()).log(Level.WARNING,
+                            "Can't calculate curve " + copy, rE);
+                    synchronized (CURVES) {
+                        if (currentGeneration == generation) {
+                            FAILED.add(key);
+                        }
+                    }
+                } finally {
+                    PENDING.remove(key);
+                }
+                onDone.run();
+            });
+        }
+    }
+
+    private static void store(Key key, double[] yValues, int keyGeneration) {
+        synchronized (CURVES) {
+            // a curve started before the last clear may be stale
+            if (keyGeneration == generation) {
+                CURVES.put(key, yValues);
+            }
+        }
+    }
+
+    /**
+     * Remove all curves, including any that are being calculated, and forget
+     * the curves that failed.
+     */
+    public static void clear() {
+        synchronized (CURVES) {
+            CURVES.clear();
+            FAILED.clear();
+            generation++;
+        }
+    }
+}
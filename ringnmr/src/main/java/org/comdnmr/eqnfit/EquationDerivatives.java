@@ -0,0 +1,41 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.eqnfit;
+
+/**
+ * The derivatives of an equation with respect to its parameters, for the
+ * equations that can be fit with a gradient based least squares optimizer.
+ * Available from {@link EquationType#getDerivatives()}.
+ */
+@FunctionalInterface
+public interface EquationDerivatives {
+
+    /**
+     * Calculate the value at a single point and the derivatives of the value
+     * with respect to the parameters of the equation.
+     *
+     * @param par the parameters
+     * @param map the map from equation parameters to the parameter array
+     * @param x the x values of the point
+     * @param idNum the dataset id
+     * @param derivs array that receives the derivative with respect to each
+     * equation parameter, in the same order as map
+     * @return the value
+     */
+    double calculateWithDerivatives(double[] par, int[] map, double[] x, int idNum, double[] derivs);
+}
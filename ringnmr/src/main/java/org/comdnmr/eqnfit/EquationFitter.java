@@ -23,6 +23,7 @@
 package org.comdnmr.eqnfit;
 
 import org.comdnmr.data.ExperimentSet;
+import org.comdnmr.data.FitDataset;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -54,7 +55,11 @@ public interface EquationFitter {
 
     void setData(ExperimentSet experimentSet, ResonanceSource[] dynSources);
 
-    void setData(List<Double>[] allXValues, List<Double> yValues, List<Double> errValues);
+    void setData(FitDataset dataset);
+
+    default void setData(List<Double>[] allXValues, List<Double> yValues, List<Double> errValues) {
+        setData(FitDataset.fromLists(allXValues, yValues, errValues));
+    }
 
     int[] getStateCount();
 
@@ -64,21 +69,8 @@ public interface EquationFitter {
 
     double[] getSimXDefaults();
 
-    default double[][] getFields(List<Double>[] xValues, List<Integer> idNums) {
-        Map<Integer, double[]> fieldMap = new HashMap<>();
-        int nExtra = xValues.length - 1;
-        for (int i = 0; i < xValues[0].size(); i++) {
-            double[] v = new double[nExtra];
-            for (int j = 0; j < nExtra; j++) {
-                v[j] = xValues[j + 1].get(i);
-            }
-            fieldMap.put(idNums.get(i), v);
-        }
-        double[][] values = new double[fieldMap.size()][nExtra];
-        for (int i = 0; i < fieldMap.size(); i++) {
-            values[i] = fieldMap.get(i);
-        }
-        return values;
+    default double[][] getFields(FitDataset dataset) {
+        return dataset.getExtras();
     }
 
     default FitResult getResults(EquationFitter fitter, String eqn, String[] parNames, ResonanceSource[] dynSources, int[][] map, int[][] states,
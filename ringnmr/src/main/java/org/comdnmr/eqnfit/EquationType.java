@@ -22,6 +22,8 @@
  */
 package org.comdnmr.eqnfit;
 
+import java.util.Optional;
+
 /**
  *
  * @author Bruce Johnson
@@ -42,6 +44,47 @@ public interface EquationType {
         return yValues;
     }
 
+    /**
+     * Calculate the values for all the points in x, writing them into a
+     * caller supplied array instead of allocating a new one. Equations that
+     * can evaluate a whole profile without temporary arrays override this;
+     * the default copies the result of
+     * {@link #calculate(double[], int[], double[][], int)}.
+     *
+     * @param out array that receives the values, of at least x[0].length
+     * @param par the parameters
+     * @param map the map from equation parameters to the parameter array
+     * @param x the x values, one array per independent variable
+     * @param idNum the dataset id
+     */
+    default void calculateInto(double[] out, double[] par, int[] map, double[][] x, int idNum) {
+        double[] yValues = calculate(par, map, x, idNum);
+        System.arraycopy(yValues, 0, out, 0, yValues.length);
+    }
+
+    /**
+     * The derivatives of the equation with respect to its parameters, which
+     * are needed to fit it with a gradient based least squares optimizer.
+     *
+     * @return the derivatives, or empty if the equation doesn't provide them
+     */
+    default Optional<EquationDerivatives> getDerivatives() {
+        return Optional.empty();
+    }
+
+    /**
+     * The positions, in the order of the parameter names, of the parameters
+     * that the value depends on linearly, such as amplitudes and offsets. The
+     * derivative with respect to such a parameter doesn't depend on its value,
+     * so with the other parameters fixed they can be found by linear least
+     * squares. Only used if {@link #getDerivatives()} isn't empty.
+     *
+     * @return the positions of the linear parameters, empty if there are none
+     */
+    default int[] getLinearPars() {
+        return new int[0];
+    }
+
     default void constrain(String parName, double[] guesses, double[][] boundaries, int[][] map, int id, double lower, double upper) {
         String[] parNames = getParNames();
         int index = -1;
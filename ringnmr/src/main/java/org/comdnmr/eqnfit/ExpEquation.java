@@ -25,6 +25,7 @@ package org.comdnmr.eqnfit;
 import org.comdnmr.util.CoMDPreferences;
 import org.comdnmr.util.DataUtil;
 import java.util.Arrays;
+import java.util.Optional;
 
 /**
  *
@@ -42,6 +43,26 @@ public enum ExpEquation implements EquationType {
             return value;
         }
 
+        @Override
+        public Optional<EquationDerivatives> getDerivatives() {
+            return Optional.of(this::calculateWithDerivatives);
+        }
+
+        double calculateWithDerivatives(double[] par, int[] map, double[] x, int idNum, double[] derivs) {
+            double A = par[map[0]];
+            double R = par[map[1]];
+            double delay = x[0];
+            double expR = Math.exp(-R * delay);
+            derivs[0] = expR;
+            derivs[1] = -delay * A * expR;
+            return A * expR;
+        }
+
+        @Override
+        public int[] getLinearPars() {
+            return new int[]{0};
+        }
+
         @Override
         public double[] guess(double[][] xValues, double[] yValues, int[][] map, int[] idNums, int nID) {
             int nPars = ExpFitFunction.getNPars(map);
@@ -132,6 +153,28 @@ public enum ExpEquation implements EquationType {
             return value;
         }
 
+        @Override
+        public Optional<EquationDerivatives> getDerivatives() {
+            return Optional.of(this::calculateWithDerivatives);
+        }
+
+        double calculateWithDerivatives(double[] par, int[] map, double[] x, int idNum, double[] derivs) {
+            double A = par[map[0]];
+            double R = par[map[1]];
+            double C = par[map[2]];
+            double delay = x[0];
+            double expR = Math.exp(-R * delay);
+            derivs[0] = expR;
+            derivs[1] = -delay * A * expR;
+            derivs[2] = 1.0;
+            return A * expR + C;
+        }
+
+        @Override
+        public int[] getLinearPars() {
+            return new int[]{0, 2};
+        }
+
         @Override
         public double[] guess(double[][] xValues, double[] yValues, int[][] map, int[] idNums, int nID) {
             int nPars = ExpFitFunction.getNPars(map);
@@ -18,18 +18,13 @@
 package org.comdnmr.eqnfit;
 
 import java.util.ArrayList;
-import java.util.stream.IntStream;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.random.RandomGenerator;
-import org.apache.commons.math3.random.SynchronizedRandomGenerator;
-import org.apache.commons.math3.random.Well19937c;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.FastMath;
 import org.comdnmr.util.CoMDOptions;
+import org.comdnmr.util.ReplicateRandom;
 
 public class ExpFitFunction extends FitFunction {
 
-    static RandomGenerator random = new SynchronizedRandomGenerator(new Well19937c());
     int[] r2Mask = {0, 1, 3};
     double[] rexErrors = new double[nID];
 
@@ -76,11 +71,6 @@ public class ExpFitFunction extends FitFunction {
         return r2Mask;
     }
 
-    @Override
-    public double[][] getSimPars() {
-        return parValues;
-    }
-
     @Override
     public double value(double[] normPar) {
         double[] par = deNormalize(normPar);
@@ -131,33 +121,25 @@ public class ExpFitFunction extends FitFunction {
         reportFitness = false;
         int nSim = options.getSampleSize();
         int nPar = start.length;
-        parValues = new double[nPar + 1][nSim];
         double[] yPred = getPredicted(start);
         double[] yValuesOrig = yValues.clone();
         double[][] rexValues = new double[nID][nSim];
         rexErrors = new double[nID];
         String optimizer = options.getBootStrapOptimizer();
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
 
-        for (int i = 0; i < nSim; i++) {
+        runReplicates(nPar, nSim, false, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
             for (int k = 0; k < yValues.length; k++) {
                 yValues[k] = yPred[k] + errValues[k] * random.nextGaussian();
             }
-            PointValuePair result = refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
-        }
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            double p5 = dStat.getPercentile(5.0);
-            double p95 = dStat.getPercentile(95.0);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
-        yValues = yValuesOrig;
+            PointValuePair result = refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, getEvaluations());
+        });
+        double[] parSDev = simStats.getStandardDeviations(nPar);
+        System.arraycopy(yValuesOrig, 0, yValues, 0, yValues.length);
         return parSDev;
     }
 
@@ -176,13 +158,15 @@ public class ExpFitFunction extends FitFunction {
         reportFitness = false;
         int nPar = start.length;
         int nSim = options.getSampleSize();
-        parValues = new double[nPar + 1][nSim];
         double[][] rexValues = new double[nID][nSim];
         rexErrors = new double[nID];
         double[] yPred = getPredicted(start);
         String optimizer = options.getBootStrapOptimizer();
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
 
-        IntStream.range(0, nSim).parallel().forEach(i -> {
+        runReplicates(nPar, nSim, true, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
 //        IntStream.range(0, nSim).forEach(i -> {
             ExpFitFunction rDisp = new ExpFitFunction(options, xValues, yPred, errValues, idNums);
             rDisp.setEquation(equation.getName());
@@ -194,21 +178,13 @@ public class ExpFitFunction extends FitFunction {
             rDisp.setIds(idNums);
             rDisp.setMap(map);
 
-            PointValuePair result = rDisp.refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
+            PointValuePair result = rDisp.refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, rDisp.getEvaluations());
 
         });
 
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
+        double[] parSDev = simStats.getStandardDeviations(nPar);
         return parSDev;
     }
 
@@ -216,12 +192,14 @@ public class ExpFitFunction extends FitFunction {
         reportFitness = false;
         int nPar = start.length;
         int nSim = options.getSampleSize();
-        parValues = new double[nPar + 1][nSim];
         double[][] rexValues = new double[nID][nSim];
         rexErrors = new double[nID];
         String optimizer = options.getBootStrapOptimizer();
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
 
-        IntStream.range(0, nSim).parallel().forEach(i -> {
+        runReplicates(nPar, nSim, true, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
             ExpFitFunction rDisp = new ExpFitFunction(options, xValues, yValues, errValues, idNums);
             rDisp.setEquation(equation.getName());
             double[][] newX = new double[1][yValues.length];
@@ -245,20 +223,12 @@ public class ExpFitFunction extends FitFunction {
             rDisp.setIds(newID);
             rDisp.setMap(map);
 
-            PointValuePair result = rDisp.refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
+            PointValuePair result = rDisp.refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, rDisp.getEvaluations());
         });
 
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
+        double[] parSDev = simStats.getStandardDeviations(nPar);
         return parSDev;
     }
 
@@ -20,6 +20,7 @@ package org.comdnmr.eqnfit;
 import org.apache.commons.math3.optim.PointValuePair;
 import org.comdnmr.data.Experiment;
 import org.comdnmr.data.ExperimentData;
+import org.comdnmr.data.FitDataset;
 import org.comdnmr.data.ExperimentSet;
 import org.comdnmr.fit.FitQuality;
 import org.comdnmr.util.CoMDOptions;
@@ -41,10 +42,7 @@ public class ExpFitter implements EquationFitter {
 
     FitFunction expModel;
     CoMDOptions options;
-    List<Double>[] xValues;
-    List<Double> yValues = new ArrayList<>();
-    List<Double> errValues = new ArrayList<>();
-    List<Integer> idValues = new ArrayList<>();
+    FitDataset dataset = new FitDataset(1);
     int nCurves = 1;
     int nResidues = 1;
     int[][] states;
@@ -95,20 +93,8 @@ public class ExpFitter implements EquationFitter {
     }
 
     @Override
-    public void setData(List<Double>[] allXValues, List<Double> yValues, List<Double> errValues) {
-        xValues = new ArrayList[allXValues.length];
-        for (int j=0;j<allXValues.length;j++) {
-            xValues[j] = new ArrayList<>();
-            xValues[j].addAll(allXValues[j]);
-        }
-        this.yValues.clear();
-        this.yValues.addAll(yValues);
-        this.errValues.clear();
-        this.errValues.addAll(errValues);
-        this.idValues.clear();
-        yValues.forEach((_item) -> {
-            this.idValues.add(0);
-        });
+    public void setData(FitDataset dataset) {
+        this.dataset = dataset;
         dynSources = new ResonanceSource[1];
         dynSources[0] = null;
         nCurves = 1;
@@ -123,12 +109,9 @@ public class ExpFitter implements EquationFitter {
     // public void setData(Collection<ExperimentData> expDataList, String[] resNums) {
     @Override
     public void setData(ExperimentSet experimentSet, ResonanceSource[] dynSources) {
-        xValues = new ArrayList[1];
-        for (int j=0;j<1;j++) {
-            xValues[j] = new ArrayList<>();
-        }
         this.dynSources = dynSources.clone();
         nResidues = dynSources.length;
+        dataset = new FitDataset(1, experimentSet.getPointCount(dynSources));
         int id = 0;
         experimentSet.setupMaps();
         stateCount = experimentSet.getStateCount(dynSources.length);
@@ -146,14 +129,7 @@ public class ExpFitter implements EquationFitter {
                 double[][] x = experimentalData.getXValues();
                 double[] y = experimentalData.getYValues();
                 double[] err = experimentalData.getErrValues();
-                for (int i = 0; i < y.length; i++) {
-                    for (int j=0;j<xValues.length;j++) {
-                        xValues[j].add(x[j][i]);
-                    }
-                    yValues.add(y[i]);
-                    errValues.add(err[i]);
-                    idValues.add(id);
-                }
+                dataset.add(x, 1, y, err, id);
                 id++;
             }
             resIndex++;
@@ -192,22 +168,11 @@ public class ExpFitter implements EquationFitter {
 
     @Override
     public void setupFit(String eqn) {
-        double[][] x = new double[1][yValues.size()];
-        double[] y = new double[yValues.size()];
-        double[] err = new double[yValues.size()];
-        int[] idNums = new int[yValues.size()];
-        for (int i = 0; i < x[0].length; i++) {
-            for (int j=0;j<x.length;j++) {
-                x[j][i] = xValues[j].get(i);
-            }
-            y[i] = yValues.get(i);
-            err[i] = errValues.get(i);
-            idNums[i] = idValues.get(i);
-        }
         expModel.setEquation(eqn);
-        expModel.setXY(x, y);
-        expModel.setIds(idNums);
-        expModel.setErr(err);
+        double[][] x = {dataset.getXValues(0)};
+        expModel.setXY(x, dataset.getYValues());
+        expModel.setIds(dataset.getIdNums());
+        expModel.setErr(dataset.getErrValues());
         expModel.setMap(stateCount, states);
     }
 
@@ -247,7 +212,7 @@ public class ExpFitter implements EquationFitter {
 //        System.out.println("dofit guesses = " + guesses);
         double[][] boundaries = expModel.boundaries(guesses);
         double sigma = options.getStartRadius();
-        PointValuePair result = expModel.refine(guesses, boundaries[0], boundaries[1],
+        PointValuePair result = expModel.refineMultiStart(guesses, boundaries[0], boundaries[1],
                 sigma, options.getOptimizer());
         double[] pars = result.getPoint();
         /*
@@ -287,7 +252,7 @@ public class ExpFitter implements EquationFitter {
         String bootstrapOpt = options.getBootStrapOptimizer();
         long fitTime = expModel.fitTime;
         long bootTime = errTime;
-        int nSamples = options.getSampleSize();
+        int nSamples = simPars == null ? 0 : expModel.getSimSampleSize();
         boolean useAbs = options.getAbsValueFit();
         boolean useNonParametric = options.getNonParametricBootstrap();
         double sRadius = options.getStartRadius();
@@ -19,9 +19,19 @@ package org.comdnmr.eqnfit;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.exception.MathIllegalStateException;
 import org.apache.commons.math3.exception.NotPositiveException;
 import org.apache.commons.math3.exception.NotStrictlyPositiveException;
 import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.optim.*;
 import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
 import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
@@ -30,10 +40,16 @@ import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.util.FastMath;
+import org.apache.commons.math3.util.Pair;
 import org.comdnmr.fit.FitQuality;
 import org.comdnmr.util.CoMDOptions;
+import org.comdnmr.util.ReplicateRandom;
 
 import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
 
 /**
@@ -44,6 +60,14 @@ public abstract class FitFunction implements MultivariateFunction {
 
     // fixme is there a thread safe RandomGenerator
     public final RandomGenerator DEFAULT_RANDOMGENERATOR = new MersenneTwister(1);
+    // the optimizer limits and bootstrap batching are also used by Fitter
+    public static final int MAX_EVALUATIONS = 2000000;
+    public static final int MIN_BOOTSTRAP_EVALUATIONS = 200;
+    public static final double BOOTSTRAP_SIGMA_SCALE = 0.25;
+    public static final int BOOTSTRAP_BATCH_SIZE = 10;
+    static final int MIN_BOOTSTRAP_REPLICATES = 100;
+    static final double MIN_BOOTSTRAP_FRACTION = 0.25;
+    static final int BOOTSTRAP_STABLE_BATCHES = 3;
     CoMDOptions options;
     int reportAt = 10;
 
@@ -61,10 +85,17 @@ public abstract class FitFunction implements MultivariateFunction {
     boolean reportFitness = false;
     final boolean absMode;
     private static boolean calcError = true;
-    double[][] parValues;
+    BootstrapStats simStats;
+    boolean simPercentiles = false;
+    private double[][] batchValues;
+    private int batchStart;
+    int nEvaluations = 0;
+    int[] simEvaluations;
+    String lastOptimizer = null;
     double[] lowerBounds;
     double[] upperBounds;
     final boolean weightFit;
+    private IdPartition partition = null;
 
     public class Checker extends SimpleValueChecker {
 
@@ -100,18 +131,407 @@ public abstract class FitFunction implements MultivariateFunction {
     public PointValuePair refine(double[] guess, double[] lowerBounds, double[] upperBounds, double inputSigma, String type) {
         if (type.equals("BOBYQA")) {
             return refineBOBYQA(guess, lowerBounds, upperBounds, inputSigma);
+        } else if (type.equals("LM")) {
+            return refineLM(guess, lowerBounds, upperBounds, inputSigma);
+        } else if (type.equals("VARPRO")) {
+            return refineVarPro(guess, lowerBounds, upperBounds, inputSigma);
         } else {
             return refineCMAES(guess, lowerBounds, upperBounds, inputSigma);
 
         }
     }
 
+    /**
+     * Refine from several starting points at once. The first start is the
+     * guess and the others are random perturbations of it. The starts run
+     * concurrently and share the best value found so far; a start that has
+     * used the number of evaluations given by
+     * {@link CoMDOptions#getAbandonEvaluations()} and whose best value is
+     * still worse than the shared best by more than
+     * {@link CoMDOptions#getAbandonRatio()} is abandoned. The number of starts
+     * is given by {@link CoMDOptions#getMultiStarts()}; with one start this is
+     * the same as {@link #refine}. The evaluations, fit time and optimizer
+     * reported afterwards are those of the best start.
+     *
+     * @param guess the starting parameters
+     * @param lowerBounds the lower bounds of the parameters
+     * @param upperBounds the upper bounds of the parameters
+     * @param inputSigma the initial step size
+     * @param type the optimizer, "BOBYQA" or "CMA-ES"
+     * @return the best result of the starts that weren't abandoned
+     */
+    public PointValuePair refineMultiStart(double[] guess, double[] lowerBounds, double[] upperBounds, double inputSigma, String type) {
+        int nStarts = options.getMultiStarts();
+        if ((nStarts <= 1) || isLeastSquares(type)) {
+            return refine(guess, lowerBounds, upperBounds, inputSigma, type);
+        }
+        this.lowerBounds = lowerBounds.clone();
+        this.upperBounds = upperBounds.clone();
+        int abandonEvaluations = options.getAbandonEvaluations();
+        double abandonRatio = options.getAbandonRatio();
+        DoubleAccumulator bestValue = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        long randomKey = ReplicateRandom.key(yValues);
+        double[] normGuess = normalize(guess);
+        PointValuePair[] results = new PointValuePair[nStarts];
+        AbandonableObjective[] objectives = new AbandonableObjective[nStarts];
+        IntStream.range(0, nStarts).parallel().forEach(iStart -> {
+            double[] start = guess;
+            if (iStart > 0) {
+                Random random = ReplicateRandom.random(randomKey, iStart);
+                double[] normStart = normGuess.clone();
+                for (int j = 0; j < normStart.length; j++) {
+                    normStart[j] += random.nextGaussian() * 10.0;
+                }
+                fixGuesses(normStart);
+                start = deNormalize(normStart);
+            }
+            AbandonableObjective objective = new AbandonableObjective(bestValue, abandonEvaluations, abandonRatio);
+            objectives[iStart] = objective;
+            try {
+                if (type.equals("BOBYQA")) {
+                    results[iStart] = refineBOBYQA(start, inputSigma, MAX_EVALUATIONS, objective);
+                } else {
+                    results[iStart] = refineCMAES(start, inputSigma, 3.0, MAX_EVALUATIONS, objective, new MersenneTwister(1 + iStart));
+                }
+            } catch (AbandonedException aE) {
+                results[iStart] = null;
+            }
+        });
+        PointValuePair best = null;
+        int bestStart = 0;
+        for (int iStart = 0; iStart < nStarts; iStart++) {
+            PointValuePair result = results[iStart];
+            if ((result != null) && ((best == null) || (result.getValue() < best.getValue()))) {
+                best = result;
+                bestStart = iStart;
+            }
+        }
+        if (best == null) {
+            // only possible with a ratio below one, so that every start was abandoned
+            best = refine(guess, lowerBounds, upperBounds, inputSigma, type);
+        } else {
+            publish(objectives[bestStart]);
+        }
+        return best;
+    }
+
+    /**
+     * Refine a bootstrap replicate. The data of a replicate is a small
+     * perturbation of the data of the best fit, so when
+     * {@link CoMDOptions#getWarmStartBootstrap()} is set the refinement starts
+     * at the best fit with a reduced step size and a smaller CMA-ES
+     * population, and stops after at most maxEvaluations evaluations with the
+     * best point found so far. Otherwise, and for the least squares optimizers,
+     * this is the same as {@link #refine}. The number of evaluations used is available
+     * from {@link #getEvaluations()} afterwards.
+     *
+     * @param start the parameters of the best fit
+     * @param lowerBounds the lower bounds of the parameters
+     * @param upperBounds the upper bounds of the parameters
+     * @param inputSigma the initial step size of the full refinement
+     * @param type the optimizer, "BOBYQA", "LM", "VARPRO" or "CMA-ES"
+     * @param maxEvaluations the evaluation budget, usually from
+     * {@link #getBootstrapEvaluations()} of the function that did the best fit
+     * @return the refined parameters and the value of the fit function
+     */
+    public PointValuePair refineBootstrap(double[] start, double[] lowerBounds, double[] upperBounds, double inputSigma, String type, int maxEvaluations) {
+        if (!options.getWarmStartBootstrap() || isLeastSquares(type)) {
+            return refine(start, lowerBounds, upperBounds, inputSigma, type);
+        }
+        this.lowerBounds = lowerBounds.clone();
+        this.upperBounds = upperBounds.clone();
+        double sigma = BOOTSTRAP_SIGMA_SCALE * inputSigma;
+        CountingObjective objective = new CountingObjective();
+        PointValuePair result;
+        if (type.equals("BOBYQA")) {
+            result = refineBOBYQA(start, sigma, maxEvaluations, objective);
+        } else {
+            DEFAULT_RANDOMGENERATOR.setSeed(1);
+            result = refineCMAES(start, sigma, 1.0, maxEvaluations, objective, DEFAULT_RANDOMGENERATOR);
+        }
+        publish(objective);
+        return result;
+    }
+
+    /**
+     * @param type the optimizer
+     * @return true if the optimizer is one of the gradient based least squares
+     * ones, which converge from a start close to the minimum without help
+     */
+    static boolean isLeastSquares(String type) {
+        return type.equals("LM") || type.equals("VARPRO");
+    }
+
+    /**
+     * The evaluation budget for the bootstrap replicates of the last
+     * refinement. A replicate starts close to its minimum, so it shouldn't
+     * need more evaluations than the fit it's derived from, with a floor so
+     * that fits that converged very quickly still leave the replicates room to
+     * move.
+     *
+     * @return the maximum number of evaluations for each replicate
+     */
+    public int getBootstrapEvaluations() {
+        return nEvaluations > 0 ? Math.max(MIN_BOOTSTRAP_EVALUATIONS, nEvaluations) : MAX_EVALUATIONS;
+    }
+
+    /**
+     * @return the number of evaluations of the fit function used by the last
+     * refinement
+     */
+    public int getEvaluations() {
+        return nEvaluations;
+    }
+
+    /**
+     * @return the number of evaluations used by each replicate of the last
+     * bootstrap, or null if no bootstrap has been done
+     */
+    public int[] getSimEvaluations() {
+        return simEvaluations;
+    }
+
+    /**
+     * @return the number of replicates used by the last bootstrap, or 0 if no
+     * bootstrap has been done
+     */
+    public int getSimSampleSize() {
+        return simStats == null ? 0 : simStats.getN();
+    }
+
+    /**
+     * @return the statistics of the replicates of the last bootstrap, or null
+     * if no bootstrap has been done
+     */
+    public BootstrapStats getSimStats() {
+        return simStats;
+    }
+
+    /**
+     * Set whether bootstraps estimate the percentiles of the parameters. They
+     * aren't needed for the standard deviations, so by default they aren't
+     * estimated.
+     *
+     * @param value true to estimate the percentiles, which are then available
+     * from {@link #getSimStats()}
+     */
+    public void setSimPercentiles(boolean value) {
+        simPercentiles = value;
+    }
+
+    /**
+     * The retained replicates of the last bootstrap, with a row for each
+     * parameter and a last row with the value of the fit function. Only a
+     * reservoir sample of {@link CoMDOptions#getBootstrapReservoirSize()}
+     * replicates is kept, unless {@link CoMDOptions#getBootstrapRetainAll()}
+     * is set.
+     *
+     * @return the retained replicates, or null if no bootstrap has been done
+     */
+    public double[][] getSimPars() {
+        return simStats == null ? null : simStats.getSamples();
+    }
+
+    /**
+     * Run the replicates of a bootstrap. Each replicate passes its result to
+     * {@link #storeReplicate}, and the results are added to the bootstrap
+     * statistics in replicate order. If
+     * {@link CoMDOptions#getBootstrapTolerance()} is positive the replicates
+     * are run in batches, and once {@link #minReplicates} replicates have
+     * been run and {@link #BOOTSTRAP_STABLE_BATCHES} batches in a row have
+     * each changed the standard deviation of every parameter by less than
+     * that fraction no more batches are run, so well determined fits stop
+     * early and poorly determined ones use up to nSim replicates. Otherwise
+     * all nSim replicates are run as one batch.
+     * Only the results of the current batch are held, so the memory used
+     * doesn't grow with the number of replicates, and as the batches are in
+     * replicate order the result doesn't depend on the number of threads.
+     *
+     * @param nPar the number of parameters
+     * @param nSim the maximum number of replicates
+     * @param parallel whether the replicates of a batch can run concurrently
+     * @param replicate runs the replicate with the given index
+     * @return the number of replicates run
+     */
+    int runReplicates(int nPar, int nSim, boolean parallel, IntConsumer replicate) {
+        double tolerance = options.getBootstrapTolerance();
+        int batchSize = tolerance > 0.0 ? BOOTSTRAP_BATCH_SIZE : nSim;
+        int reservoirSize = options.getBootstrapRetainAll() ? nSim : options.getBootstrapReservoirSize();
+        simStats = new BootstrapStats(nPar + 1, reservoirSize, simPercentiles, ReplicateRandom.key(yValues));
+        simEvaluations = new int[nSim];
+        int minReplicates = minReplicates(nSim);
+        double[] lastSDev = null;
+        int nStable = 0;
+        int nDone = 0;
+        while (nDone < nSim) {
+            int nEnd = Math.min(nSim, nDone + batchSize);
+            batchStart = nDone;
+            batchValues = new double[nEnd - nDone][];
+            IntStream batch = IntStream.range(nDone, nEnd);
+            (parallel ? batch.parallel() : batch).forEach(replicate);
+            for (int i = nDone; i < nEnd; i++) {
+                simStats.add(i, batchValues[i - nDone]);
+            }
+            nDone = nEnd;
+            double[] sDev = simStats.getStandardDeviations(nPar);
+            if ((lastSDev != null) && sDevConverged(lastSDev, sDev, tolerance)) {
+                nStable++;
+            } else {
+                nStable = 0;
+            }
+            lastSDev = sDev;
+            if ((nDone >= minReplicates) && (nStable >= BOOTSTRAP_STABLE_BATCHES)) {
+                break;
+            }
+        }
+        batchValues = null;
+        if (nDone < nSim) {
+            simEvaluations = Arrays.copyOf(simEvaluations, nDone);
+        }
+        return nDone;
+    }
+
+    /**
+     * The number of replicates run before an adaptive bootstrap may stop. The
+     * standard deviation of a small sample can stay steady by chance, so at
+     * least {@link #MIN_BOOTSTRAP_REPLICATES} replicates, or
+     * {@link #MIN_BOOTSTRAP_FRACTION} of nSim if that is more, are always run.
+     *
+     * @param nSim the maximum number of replicates
+     * @return the minimum number of replicates
+     */
+    static int minReplicates(int nSim) {
+        int nMin = Math.max(MIN_BOOTSTRAP_REPLICATES, (int) Math.ceil(MIN_BOOTSTRAP_FRACTION * nSim));
+        return Math.min(nSim, nMin);
+    }
+
+    /**
+     * Store the result of a replicate of the batch being run by
+     * {@link #runReplicates}.
+     *
+     * @param i the index of the replicate
+     * @param result the refined parameters and value of the replicate
+     * @param nEvaluations the evaluations used by the replicate
+     */
+    void storeReplicate(int i, PointValuePair result, int nEvaluations) {
+        double[] point = result.getPoint();
+        double[] values = Arrays.copyOf(point, point.length + 1);
+        values[point.length] = result.getValue();
+        batchValues[i - batchStart] = values;
+        simEvaluations[i] = nEvaluations;
+    }
+
+    private static boolean sDevConverged(double[] lastSDev, double[] sDev, double tolerance) {
+        for (int j = 0; j < sDev.length; j++) {
+            if (Math.abs(sDev[j] - lastSDev[j]) > tolerance * sDev[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Objective function that counts its evaluations and keeps the best point
+     * it has seen, so that a refinement stopped by its evaluation budget still
+     * has a result. It also records the time and optimizer of the refinement
+     * that used it, so that the starts of a multi-start refinement, which run
+     * at the same time, don't overwrite each other's.
+     */
+    class CountingObjective implements MultivariateFunction {
+
+        double best = Double.POSITIVE_INFINITY;
+        double[] bestPoint = null;
+        int nEvaluations = 0;
+        long startTime = 0;
+        long endTime = 0;
+        String optimizer = null;
+
+        @Override
+        public double value(double[] normPar) {
+            double value = FitFunction.this.value(normPar);
+            nEvaluations++;
+            if (value < best) {
+                best = value;
+                bestPoint = normPar.clone();
+            }
+            return value;
+        }
+
+        PointValuePair getBest() {
+            return bestPoint == null ? null : new PointValuePair(bestPoint, best);
+        }
+    }
+
+    /**
+     * Make the evaluations, time and optimizer of a refinement those of the
+     * last refinement of this function.
+     *
+     * @param objective the objective function used by the refinement
+     */
+    private void publish(CountingObjective objective) {
+        nEvaluations = objective.nEvaluations;
+        startTime = objective.startTime;
+        endTime = objective.endTime;
+        fitTime = endTime - startTime;
+        lastOptimizer = objective.optimizer;
+    }
+
+    /**
+     * Thrown to stop a start that can't beat the best value of the other
+     * starts.
+     */
+    static class AbandonedException extends RuntimeException {
+
+        AbandonedException() {
+            super("start abandoned", null, false, false);
+        }
+    }
+
+    /**
+     * Objective function of one start of a multi-start refinement. It
+     * publishes the best value of the start to the value shared by all starts
+     * and abandons the start if, after enough evaluations, its best value is
+     * still too far above the shared value.
+     */
+    class AbandonableObjective extends CountingObjective {
+
+        final DoubleAccumulator sharedBest;
+        final int abandonEvaluations;
+        final double abandonRatio;
+
+        AbandonableObjective(DoubleAccumulator sharedBest, int abandonEvaluations, double abandonRatio) {
+            this.sharedBest = sharedBest;
+            this.abandonEvaluations = abandonEvaluations;
+            this.abandonRatio = abandonRatio;
+        }
+
+        @Override
+        public double value(double[] normPar) {
+            double value = super.value(normPar);
+            if (value == best) {
+                sharedBest.accumulate(value);
+            }
+            if ((abandonEvaluations > 0) && (nEvaluations >= abandonEvaluations)
+                    && (best > abandonRatio * sharedBest.get())) {
+                throw new AbandonedException();
+            }
+            return value;
+        }
+    }
+
     public PointValuePair refineCMAES(double[] guess, double[] lowerBounds, double[] upperBounds, double inputSigma) {
         this.lowerBounds = lowerBounds.clone();
         this.upperBounds = upperBounds.clone();
-        startTime = System.currentTimeMillis();
         DEFAULT_RANDOMGENERATOR.setSeed(1);
-        double lambdaMul = 3.0;
+        CountingObjective objective = new CountingObjective();
+        PointValuePair result = refineCMAES(guess, inputSigma, 3.0, MAX_EVALUATIONS, objective, DEFAULT_RANDOMGENERATOR);
+        publish(objective);
+        return result;
+    }
+
+    private PointValuePair refineCMAES(double[] guess, double inputSigma, double lambdaMul, int maxEvaluations,
+            CountingObjective objective, RandomGenerator random) {
+        objective.startTime = System.currentTimeMillis();
         int lambda = (int) (lambdaMul * FastMath.round(4 + 3 * FastMath.log(guess.length)));
         //int nSteps = guess.length*1000;
         int nSteps = 2000;
@@ -130,7 +550,7 @@ public abstract class FitFunction implements MultivariateFunction {
 
         //new Checker(100 * Precision.EPSILON, 100 * Precision.SAFE_MIN, nSteps));
         CMAESOptimizer optimizer = new CMAESOptimizer(nSteps, stopFitness, true, diagOnly, 0,
-                DEFAULT_RANDOMGENERATOR, true,
+                random, true,
                 new CPMGFitFunction.Checker(tol, tol, nSteps));
         PointValuePair result = null;
 
@@ -138,16 +558,17 @@ public abstract class FitFunction implements MultivariateFunction {
             result = optimizer.optimize(
                     new CMAESOptimizer.PopulationSize(lambda),
                     new CMAESOptimizer.Sigma(sigma),
-                    new MaxEval(2000000),
-                    new ObjectiveFunction(this), GoalType.MINIMIZE,
+                    new MaxEval(maxEvaluations),
+                    new ObjectiveFunction(objective), GoalType.MINIMIZE,
                     new SimpleBounds(normLower, normUpper),
                     new InitialGuess(normGuess));
-        } catch (DimensionMismatchException | NotPositiveException | NotStrictlyPositiveException |
-                 TooManyEvaluationsException e) {
+        } catch (TooManyEvaluationsException e) {
+            result = objective.getBest();
+        } catch (DimensionMismatchException | NotPositiveException | NotStrictlyPositiveException e) {
             e.printStackTrace();
         }
-        endTime = System.currentTimeMillis();
-        fitTime = endTime - startTime;
+        objective.endTime = System.currentTimeMillis();
+        objective.optimizer = "CMA-ES";
         PointValuePair deNormResult = new PointValuePair(deNormalize(result.getPoint()), result.getValue());
 
         return deNormResult;
@@ -156,8 +577,15 @@ public abstract class FitFunction implements MultivariateFunction {
     public PointValuePair refineBOBYQA(double[] guess, double[] lowerBounds, double[] upperBounds, double inputSigma) {
         this.lowerBounds = lowerBounds.clone();
         this.upperBounds = upperBounds.clone();
-        startTime = System.currentTimeMillis();
         DEFAULT_RANDOMGENERATOR.setSeed(1);
+        CountingObjective objective = new CountingObjective();
+        PointValuePair result = refineBOBYQA(guess, inputSigma, MAX_EVALUATIONS, objective);
+        publish(objective);
+        return result;
+    }
+
+    private PointValuePair refineBOBYQA(double[] guess, double inputSigma, int maxEvaluations, CountingObjective objective) {
+        objective.startTime = System.currentTimeMillis();
         double lambdaMul = 3.0;
         int lambda = (int) (lambdaMul * FastMath.round(4 + 3 * FastMath.log(guess.length)));
         //int nSteps = guess.length*1000;
@@ -183,20 +611,196 @@ public abstract class FitFunction implements MultivariateFunction {
 
         try {
             result = optimizer.optimize(
-                    new MaxEval(2000000),
-                    new ObjectiveFunction(this), GoalType.MINIMIZE,
+                    new MaxEval(maxEvaluations),
+                    new ObjectiveFunction(objective), GoalType.MINIMIZE,
                     new SimpleBounds(normLower, normUpper),
                     new InitialGuess(normGuess));
+        } catch (TooManyEvaluationsException e) {
+            result = objective.getBest();
+        } catch (AbandonedException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
         }
-        endTime = System.currentTimeMillis();
-        fitTime = endTime - startTime;
+        objective.endTime = System.currentTimeMillis();
+        objective.optimizer = "BOBYQA";
         PointValuePair deNormResult = new PointValuePair(deNormalize(result.getPoint()), result.getValue());
 
         return deNormResult;
     }
 
+    /**
+     * @return the optimizer that did the last refinement, "BOBYQA", "LM",
+     * "VARPRO" or "CMA-ES". This differs from the requested one when a least
+     * squares optimizer couldn't be used and CMA-ES was used instead.
+     */
+    public String getLastOptimizer() {
+        return lastOptimizer;
+    }
+
+    /**
+     * Refine with the Levenberg-Marquardt least squares optimizer, using the
+     * derivatives provided by the equation. Equations without derivatives,
+     * fits of absolute deviations and fits where the optimizer fails are
+     * refined with CMA-ES instead. Parameters are kept within the bounds by
+     * clamping them at each step.
+     *
+     * @param guess the starting parameters
+     * @param lowerBounds the lower bounds of the parameters
+     * @param upperBounds the upper bounds of the parameters
+     * @param inputSigma the step size for CMA-ES if it's used instead
+     * @return the refined parameters and the value of the fit function
+     */
+    public PointValuePair refineLM(double[] guess, double[] lowerBounds, double[] upperBounds, double inputSigma) {
+        Optional<EquationDerivatives> derivatives = equation.getDerivatives();
+        if (absMode || derivatives.isEmpty()) {
+            return refineCMAES(guess, lowerBounds, upperBounds, inputSigma);
+        }
+        this.lowerBounds = lowerBounds.clone();
+        this.upperBounds = upperBounds.clone();
+        startTime = System.currentTimeMillis();
+        int nSteps = 2000;
+        double[] start = clampToBounds(guess.clone());
+        double[] target = new double[yValues.length];
+        for (int i = 0; i < target.length; i++) {
+            target[i] = weightFit ? yValues[i] / errValues[i] : yValues[i];
+        }
+        LeastSquaresProblem problem = new LeastSquaresBuilder()
+                .start(start)
+                .model(jacobianFunction(derivatives.get()))
+                .target(target)
+                .parameterValidator(point -> new ArrayRealVector(clampToBounds(point.toArray()), false))
+                .maxEvaluations(nSteps)
+                .maxIterations(nSteps)
+                .build();
+        PointValuePair result = null;
+        try {
+            LeastSquaresOptimizer.Optimum optimum = new LevenbergMarquardtOptimizer().optimize(problem);
+            double[] point = clampToBounds(optimum.getPoint().toArray());
+            double value = value(normalize(point));
+            if (Double.isFinite(value)) {
+                result = new PointValuePair(point, value);
+                nEvaluations = optimum.getEvaluations();
+                lastOptimizer = "LM";
+            }
+        } catch (MathIllegalStateException e) {
+            // didn't converge, so fall back to CMA-ES below
+        }
+        if (result == null) {
+            return refineCMAES(guess, lowerBounds, upperBounds, inputSigma);
+        }
+        endTime = System.currentTimeMillis();
+        fitTime = endTime - startTime;
+        return result;
+    }
+
+    /**
+     * Refine with variable projection. The parameters that the equation
+     * depends on linearly, see {@link EquationType#getLinearPars()}, are
+     * solved for by linear least squares at every step, so Levenberg-Marquardt
+     * only has to search the remaining ones, such as the rates of the
+     * exponential equations. Curves that share a rate and have their own
+     * amplitudes are solved together with a single rate. The nonlinear
+     * parameters are clamped to their bounds at each step and the linear ones
+     * are clamped at the end. Falls back to {@link #refineLM} if the equation
+     * has no linear parameters, and to CMA-ES when LM would.
+     *
+     * @param guess the starting parameters, of which only the nonlinear ones
+     * are used
+     * @param lowerBounds the lower bounds of the parameters
+     * @param upperBounds the upper bounds of the parameters
+     * @param inputSigma the step size for CMA-ES if it's used instead
+     * @return the refined parameters and the value of the fit function
+     */
+    public PointValuePair refineVarPro(double[] guess, double[] lowerBounds, double[] upperBounds, double inputSigma) {
+        Optional<EquationDerivatives> derivatives = equation.getDerivatives();
+        if (absMode || derivatives.isEmpty()) {
+            return refineCMAES(guess, lowerBounds, upperBounds, inputSigma);
+        }
+        VarProjection varPro = VarProjection.create(equation, derivatives.get(), xValues, yValues,
+                weightFit ? errValues : null, idNums, map, guess.length);
+        if (varPro == null) {
+            return refineLM(guess, lowerBounds, upperBounds, inputSigma);
+        }
+        this.lowerBounds = lowerBounds.clone();
+        this.upperBounds = upperBounds.clone();
+        startTime = System.currentTimeMillis();
+        int nSteps = 2000;
+        int[] nonlinearPars = varPro.getNonlinearPars();
+        double[] start = clampToBounds(guess.clone());
+        PointValuePair result = null;
+        try {
+            double[] point;
+            if (nonlinearPars.length == 0) {
+                point = varPro.solveLinear(start);
+                nEvaluations = 1;
+            } else {
+                LeastSquaresProblem problem = new LeastSquaresBuilder()
+                        .start(varPro.getNonlinear(start))
+                        .model(varPro.jacobianFunction(start))
+                        .target(varPro.getTarget())
+                        .parameterValidator(nonlinear -> {
+                            double[] values = nonlinear.toArray();
+                            for (int k = 0; k < values.length; k++) {
+                                int j = nonlinearPars[k];
+                                values[k] = Math.max(lowerBounds[j], Math.min(upperBounds[j], values[k]));
+                            }
+                            return new ArrayRealVector(values, false);
+                        })
+                        .maxEvaluations(nSteps)
+                        .maxIterations(nSteps)
+                        .build();
+                LeastSquaresOptimizer.Optimum optimum = new LevenbergMarquardtOptimizer().optimize(problem);
+                point = varPro.solveLinear(varPro.setNonlinear(start, optimum.getPoint().toArray()));
+                nEvaluations = optimum.getEvaluations();
+            }
+            point = clampToBounds(point);
+            double value = value(normalize(point));
+            if (Double.isFinite(value)) {
+                result = new PointValuePair(point, value);
+                lastOptimizer = "VARPRO";
+            }
+        } catch (MathIllegalStateException | MathIllegalArgumentException e) {
+            // didn't converge or the basis was singular, so fall back to LM below
+        }
+        if (result == null) {
+            return refineLM(guess, lowerBounds, upperBounds, inputSigma);
+        }
+        endTime = System.currentTimeMillis();
+        fitTime = endTime - startTime;
+        return result;
+    }
+
+    private MultivariateJacobianFunction jacobianFunction(EquationDerivatives derivatives) {
+        return (RealVector point) -> {
+            double[] par = point.toArray();
+            double[] residuals = new double[yValues.length];
+            double[][] jacobian = new double[yValues.length][par.length];
+            double[] ax = new double[xValues.length];
+            int nMap = Arrays.stream(map).mapToInt(parMap -> parMap.length).max().orElse(0);
+            double[] derivs = new double[nMap];
+            for (int i = 0; i < yValues.length; i++) {
+                for (int j = 0; j < ax.length; j++) {
+                    ax[j] = xValues[j][i];
+                }
+                int[] parMap = map[idNums[i]];
+                double scale = weightFit ? 1.0 / errValues[i] : 1.0;
+                residuals[i] = scale * derivatives.calculateWithDerivatives(par, parMap, ax, idNums[i], derivs);
+                for (int k = 0; k < parMap.length; k++) {
+                    jacobian[i][parMap[k]] += scale * derivs[k];
+                }
+            }
+            return new Pair<>(new ArrayRealVector(residuals, false), new Array2DRowRealMatrix(jacobian, false));
+        };
+    }
+
+    private double[] clampToBounds(double[] pars) {
+        for (int i = 0; i < pars.length; i++) {
+            pars[i] = Math.max(lowerBounds[i], Math.min(upperBounds[i], pars[i]));
+        }
+        return pars;
+    }
+
     void fixGuesses(double[] guesses) {
         for (int i = 0; i < guesses.length; i++) {
             if (guesses[i] > 98.0) {
@@ -243,12 +847,11 @@ public abstract class FitFunction implements MultivariateFunction {
     public abstract double[] simBoundsStream(double[] start,
                                              double[] lowerBounds, double[] upperBounds, double inputSigma, CoMDOptions options);
 
-    public abstract double[][] getSimPars();
-
     public void setXY(double[][] x, double[] y) {
         this.xValues = x;
         this.yValues = y;
         this.idNums = new int[x[0].length];
+        partition = null;
     }
 
     public void setErr(double[] err) {
@@ -272,6 +875,7 @@ public abstract class FitFunction implements MultivariateFunction {
 
     public void setIds(int[] idNums) throws IllegalArgumentException {
         this.idNums = idNums;
+        partition = null;
         if (setNID()) {
             //for (int id : idNums) {
             //System.out.print(id + " ");
@@ -371,6 +975,7 @@ public abstract class FitFunction implements MultivariateFunction {
 
     public void setMap(int[][] map) {
         this.map = map;
+        partition = null;
     }
 
     public void setMap(int[] stateCount, int[][] states) {
@@ -388,6 +993,7 @@ public abstract class FitFunction implements MultivariateFunction {
 //        System.out.println(" ");
         this.map = new int[states.length][stateCount.length];
         this.map = equation.makeMap(stateCount, states, getMask());
+        partition = null;
 //        System.out.println("map ");
 //        for (int i = 0; i < map.length; i++) {
 //            for (int j = 0; j < map[i].length; j++) {
@@ -402,6 +1008,21 @@ public abstract class FitFunction implements MultivariateFunction {
         return map;
     }
 
+    /**
+     * Get the x values and data indices partitioned by dataset id, building
+     * them on first use after the data, ids or map change.
+     *
+     * @return the partitioned values
+     */
+    IdPartition getPartition() {
+        IdPartition result = partition;
+        if (result == null) {
+            result = new IdPartition(xValues, idNums, map.length);
+            partition = result;
+        }
+        return result;
+    }
+
     public String[] getParNames() {
         return equation.getParNames();
     }
@@ -0,0 +1,92 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.eqnfit;
+
+/**
+ * X values and data indices of a fit partitioned by dataset id. The
+ * partitioning doesn't change while the optimizer runs, so it is computed once
+ * and shared by every evaluation of the objective function.
+ * <p>
+ * The buffers for calculated values are per thread, but shared by all
+ * partitions, so the many short lived fit functions of a bootstrap don't each
+ * leave buffers behind on the threads of the pool. Every point must belong to
+ * one of the ids, so the values written for the ids fill the full buffer and
+ * nothing is left from a previous call.
+ */
+class IdPartition {
+
+    private static final class Buffers {
+
+        double[] yCalc = new double[0];
+        double[] idCalc = new double[0];
+    }
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    final double[][][] xValues;
+    final int[][] indices;
+    private final int nValues;
+
+    IdPartition(double[][] xValues, int[] idNums, int nID) {
+        this.xValues = new double[nID][][];
+        this.indices = new int[nID][];
+        int nCovered = 0;
+        for (int id = 0; id < nID; id++) {
+            this.xValues[id] = CESTEquations.getXValues(xValues, idNums, id);
+            this.indices[id] = CESTEquations.getIndicies(idNums, id);
+            nCovered += indices[id].length;
+        }
+        nValues = idNums.length;
+        if (nCovered != nValues) {
+            throw new IllegalArgumentException("Dataset ids of " + (nValues - nCovered)
+                    + " points are not in the map");
+        }
+    }
+
+    /**
+     * Get a buffer for the calculated y values. Each thread gets its own
+     * buffer which is reused on subsequent calls, and may be longer than the
+     * number of points.
+     *
+     * @return the buffer
+     */
+    double[] getYCalcBuffer() {
+        Buffers buffers = BUFFERS.get();
+        if (buffers.yCalc.length < nValues) {
+            buffers.yCalc = new double[nValues];
+        }
+        return buffers.yCalc;
+    }
+
+    /**
+     * Get a buffer for the values calculated for one dataset id, of at least
+     * the number of points with that id. Like the full buffer it belongs to
+     * the calling thread, and the same buffer is returned for every id, so the
+     * values of one id must be used before getting the buffer for the next.
+     *
+     * @param id the dataset id
+     * @return the buffer
+     */
+    double[] getIdBuffer(int id) {
+        Buffers buffers = BUFFERS.get();
+        if (buffers.idCalc.length < indices[id].length) {
+            buffers.idCalc = new double[indices[id].length];
+        }
+        return buffers.idCalc;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.eqnfit;
+
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Multiple quantum CPMG dispersion of Korzhnev et al. (DOI 10.1021/ja039587i),
+ * evaluated with complex numbers held as pairs of doubles. Equation numbers
+ * refer to that paper. The complex operations follow the formulas of the
+ * commons-math {@code Complex} class, but the result of each one is left in
+ * the fields of a per thread instance instead of a new object, so an
+ * evaluation doesn't allocate.
+ */
+final class MQDispersion {
+
+    private static final ThreadLocal<MQDispersion> SCRATCH = ThreadLocal.withInitial(MQDispersion::new);
+    private static final double SQRT2 = Math.sqrt(2.0);
+
+    // result of the last complex operation
+    private double re;
+    private double im;
+
+    private MQDispersion() {
+    }
+
+    /**
+     * Calculate the effective relaxation rate.
+     *
+     * @param kEx the exchange rate
+     * @param pA the population of the major state
+     * @param R2 the intrinsic relaxation rate
+     * @param deltaC the X shift difference in rad/s
+     * @param deltaH the H shift difference in rad/s
+     * @param delta the delay between the CPMG pulses, which are 2 delta apart
+     * @param tau the constant time of the CPMG element, or 0 to leave out the
+     * Q term
+     * @return the effective relaxation rate
+     */
+    static double calculate(double kEx, double pA, double R2, double deltaC, double deltaH, double delta, double tau) {
+        return SCRATCH.get().evaluate(kEx, pA, R2, deltaC, deltaH, delta, tau);
+    }
+
+    private double evaluate(double kEx, double pA, double R2, double deltaC, double deltaH, double delta, double tau) {
+        double pB = 1.0 - pA;
+        double deltaC2 = deltaC * deltaC;
+
+        // Building lambda1 (3.2 - 3.6)
+        // num1: (p_A - p_B)k_{ex} + i \Delta \omega_H
+        double num1Re = (pA - pB) * kEx;
+        double num1Im = deltaH;
+        // 3.6
+        double zetaRe = -2.0 * deltaC * num1Re;
+        double zetaIm = -2.0 * deltaC * num1Im;
+        // 3.5
+        double psiRe = num1Re * num1Re - num1Im * num1Im - deltaC2 + 4.0 * pA * pB * kEx * kEx;
+        double psiIm = 2.0 * num1Re * num1Im;
+        // num2: \sqrt{\Psi^2 + \zeta^2}
+        sqrt(psiRe * psiRe - psiIm * psiIm + zetaRe * zetaRe - zetaIm * zetaIm,
+                2.0 * (psiRe * psiIm + zetaRe * zetaIm));
+        double num2Re = re;
+        double num2Im = im;
+        // 3.4
+        double etaScale = SQRT2 * delta;
+        sqrt(num2Re + psiRe, num2Im + psiIm);
+        double etaPlusRe = re * etaScale;
+        double etaPlusIm = im * etaScale;
+        sqrt(num2Re - psiRe, num2Im - psiIm);
+        double etaMinusRe = re * etaScale;
+        double etaMinusIm = im * etaScale;
+        // 3.3
+        divide(psiRe + 2.0 * deltaC2, psiIm, num2Re, num2Im);
+        double dPlusRe = 0.5 * (re + 1.0);
+        double dMinusRe = 0.5 * (re - 1.0);
+        double dIm = 0.5 * im;
+        // num3: D_{+} \cosh \eta_{+} - D_{-} \cos \eta_{-}
+        double coshRe = FastMath.cosh(etaPlusRe) * FastMath.cos(etaPlusIm);
+        double coshIm = FastMath.sinh(etaPlusRe) * FastMath.sin(etaPlusIm);
+        double cosRe = FastMath.cos(etaMinusRe) * FastMath.cosh(etaMinusIm);
+        double cosIm = -FastMath.sin(etaMinusRe) * FastMath.sinh(etaMinusIm);
+        double num3Re = dPlusRe * coshRe - dIm * coshIm - (dMinusRe * cosRe - dIm * cosIm);
+        double num3Im = dPlusRe * coshIm + dIm * coshRe - (dMinusRe * cosIm + dIm * cosRe);
+        // Using \cosh^{-1}(z) = \ln (z + \sqrt{z + 1}\sqrt{z - 1})
+        sqrt(num3Re + 1.0, num3Im);
+        double sqrtPlusRe = re;
+        double sqrtPlusIm = im;
+        sqrt(num3Re - 1.0, num3Im);
+        double acoshArgRe = num3Re + sqrtPlusRe * re - sqrtPlusIm * im;
+        double acoshArgIm = num3Im + sqrtPlusRe * im + sqrtPlusIm * re;
+        // 3.2, only the real part of the log, ln|z|, is needed
+        double lambda1 = 0.5 * (FastMath.log(abs(acoshArgRe, acoshArgIm)) / (-2.0 * delta) + kEx) + R2;
+        if (tau <= 1.0e-6) {
+            return lambda1;
+        }
+
+        // Building Q (3.7 - 3.10)
+        // 3.10, d_{\pm} = dRe \pm i k_{ex} and z_{\pm} = zRe \pm i k_{ex}
+        double dRe = deltaH + deltaC;
+        double zRe = deltaH - deltaC;
+        // num4: i k_{ex} \sqrt{p_A p_B}
+        double num4Im = kEx * Math.sqrt(pA * pB);
+
+        // 3.8
+        sin(zRe * delta, kEx * delta);
+        double sinZRe = re;
+        double sinZIm = im;
+        sin((dRe + zRe) * delta, 2.0 * kEx * delta);
+        divide(sinZRe, sinZIm, re, im);
+        double termRe = zRe + 2.0 * deltaC * re;
+        double termIm = kEx + 2.0 * deltaC * im;
+        // d_{+} z_{+}
+        divide(0.0, num4Im, dRe * zRe - kEx * kEx, kEx * (dRe + zRe));
+        double mDRe = termRe * re - termIm * im;
+        double mDIm = termRe * im + termIm * re;
+
+        // 3.9
+        sin(dRe * delta, -kEx * delta);
+        double sinDRe = re;
+        double sinDIm = im;
+        sin((dRe + zRe) * delta, -2.0 * kEx * delta);
+        divide(sinDRe, sinDIm, re, im);
+        termRe = dRe - 2.0 * deltaC * re;
+        termIm = -kEx - 2.0 * deltaC * im;
+        // d_{-} z_{-}
+        divide(0.0, num4Im, dRe * zRe - kEx * kEx, -kEx * (dRe + zRe));
+        double mZRe = -(termRe * re - termIm * im);
+        double mZIm = -(termRe * im + termIm * re);
+
+        // 3.7
+        double Q = 1.0 - (mDRe * mDRe - mDIm * mDIm)
+                + (mDRe * mZRe - mDIm * mZIm)
+                - (mZRe * mZRe - mZIm * mZIm)
+                + 0.5 * Math.sqrt(pB / pA) * (mDRe + mZRe);
+        return lambda1 - Math.log(Q) / tau;
+    }
+
+    private static double abs(double a, double b) {
+        if (FastMath.abs(a) < FastMath.abs(b)) {
+            if (b == 0.0) {
+                return FastMath.abs(a);
+            }
+            double q = a / b;
+            return FastMath.abs(b) * FastMath.sqrt(1 + q * q);
+        } else {
+            if (a == 0.0) {
+                return FastMath.abs(b);
+            }
+            double q = b / a;
+            return FastMath.abs(a) * FastMath.sqrt(1 + q * q);
+        }
+    }
+
+    /**
+     * The principal square root of a + ib.
+     */
+    private void sqrt(double a, double b) {
+        if ((a == 0.0) && (b == 0.0)) {
+            re = 0.0;
+            im = 0.0;
+            return;
+        }
+        double t = FastMath.sqrt((FastMath.abs(a) + abs(a, b)) / 2.0);
+        if (a >= 0.0) {
+            re = t;
+            im = b / (2.0 * t);
+        } else {
+            re = FastMath.abs(b) / (2.0 * t);
+            im = FastMath.copySign(1.0, b) * t;
+        }
+    }
+
+    /**
+     * (a + ib) / (c + id), using Smith's algorithm.
+     */
+    private void divide(double a, double b, double c, double d) {
+        if (FastMath.abs(c) < FastMath.abs(d)) {
+            double q = c / d;
+            double denominator = c * q + d;
+            re = (a * q + b) / denominator;
+            im = (b * q - a) / denominator;
+        } else {
+            double q = d / c;
+            double denominator = d * q + c;
+            re = (b * q + a) / denominator;
+            im = (b - a * q) / denominator;
+        }
+    }
+
+    private void sin(double a, double b) {
+        re = FastMath.sin(a) * FastMath.cosh(b);
+        im = FastMath.cos(a) * FastMath.sinh(b);
+    }
+}
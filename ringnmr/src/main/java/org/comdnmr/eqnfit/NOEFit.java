@@ -25,6 +25,7 @@ package org.comdnmr.eqnfit;
 import org.apache.commons.math3.optim.PointValuePair;
 import org.comdnmr.data.Experiment;
 import org.comdnmr.data.ExperimentData;
+import org.comdnmr.data.FitDataset;
 import org.comdnmr.data.ExperimentSet;
 import org.comdnmr.fit.FitQuality;
 import org.comdnmr.util.CoMDOptions;
@@ -46,11 +47,8 @@ public class NOEFit implements EquationFitter {
 
     FitFunction noeModel;
     CoMDOptions options;
-    List<Double> xValues = new ArrayList<>();
-    List<Double> yValues = new ArrayList<>();
-    List<Double> errValues = new ArrayList<>();
-    List<Double> fieldValues = new ArrayList<>();
-    List<Integer> idValues = new ArrayList<>();
+    // x values and the field of each point
+    FitDataset dataset = new FitDataset(2);
     int nCurves = 1;
     int nResidues = 1;
     int[][] states;
@@ -115,7 +113,7 @@ public class NOEFit implements EquationFitter {
 //        System.out.println("dofit guesses = " + guesses);
         double[][] boundaries = noeModel.boundaries(guesses);
         double sigma = options.getStartRadius();
-        PointValuePair result = noeModel.refine(guesses, boundaries[0], boundaries[1],
+        PointValuePair result = noeModel.refineMultiStart(guesses, boundaries[0], boundaries[1],
                 sigma, options.getOptimizer());
         double[] pars = result.getPoint();
         /*
@@ -156,7 +154,7 @@ public class NOEFit implements EquationFitter {
         String bootstrapOpt = options.getBootStrapOptimizer();
         long fitTime = noeModel.fitTime;
         long bootTime = errTime;
-        int nSamples = options.getSampleSize();
+        int nSamples = simPars == null ? 0 : noeModel.getSimSampleSize();
         boolean useAbs = options.getAbsValueFit();
         boolean useNonParametric = options.getNonParametricBootstrap();
         double sRadius = options.getStartRadius();
@@ -170,23 +168,12 @@ public class NOEFit implements EquationFitter {
 
     @Override
     public void setupFit(String eqn) {
-        double[][] x = new double[1][yValues.size()];
-        double[] y = new double[yValues.size()];
-        double[] err = new double[yValues.size()];
-        int[] idNums = new int[yValues.size()];
-        double[] fields = new double[yValues.size()];
-        for (int i = 0; i < x[0].length; i++) {
-            x[0][i] = xValues.get(i);
-            y[i] = yValues.get(i);
-            err[i] = errValues.get(i);
-            //System.out.println(x[0][i]+", "+x[0][i]+", "+x[0][i]+", "+x[0][i]);
-            fields[i] = fieldValues.get(i);
-            idNums[i] = idValues.get(i);
-        }
+        double[][] x = {dataset.getXValues(0)};
+        double[] fields = dataset.getNX() > 1 ? dataset.getXValues(1) : new double[dataset.size()];
         noeModel.setEquation(eqn);
-        noeModel.setXY(x, y);
-        noeModel.setIds(idNums);
-        noeModel.setErr(err);
+        noeModel.setXY(x, dataset.getYValues());
+        noeModel.setIds(dataset.getIdNums());
+        noeModel.setErr(dataset.getErrValues());
         noeModel.setFieldValues(fields);
         noeModel.setMap(stateCount, states);
     }
@@ -216,6 +203,7 @@ public class NOEFit implements EquationFitter {
     public void setData(ExperimentSet experimentSet, ResonanceSource[] dynSources) {
         this.dynSources = dynSources.clone();
         nResidues = dynSources.length;
+        dataset = new FitDataset(2, experimentSet.getPointCount(dynSources));
         int id = 0;
         experimentSet.setupMaps();
         stateCount = experimentSet.getStateCount(dynSources.length);
@@ -233,13 +221,7 @@ public class NOEFit implements EquationFitter {
                 double[][] x = experimentalData.getXValues();
                 double[] y = experimentalData.getYValues();
                 double[] err = experimentalData.getErrValues();
-                for (int i = 0; i < y.length; i++) {
-                    xValues.add(x[0][i]);
-                    yValues.add(y[i]);
-                    errValues.add(err[i]);
-                    fieldValues.add(field);
-                    idValues.add(id);
-                }
+                dataset.add(x, 1, y, err, id, field);
                 id++;
 
             }
@@ -248,19 +230,8 @@ public class NOEFit implements EquationFitter {
     }
 
     @Override
-    public void setData(List<Double>[] allXValues, List<Double> yValues, List<Double> errValues) {
-        xValues.clear();
-        xValues.addAll(allXValues[0]);
-        this.yValues.clear();
-        this.yValues.addAll(yValues);
-        this.errValues.clear();
-        this.errValues.addAll(errValues);
-        this.fieldValues.clear();
-        this.fieldValues.addAll(fieldValues);
-        this.idValues.clear();
-        yValues.forEach((_item) -> {
-            this.idValues.add(0);
-        });
+    public void setData(FitDataset dataset) {
+        this.dataset = dataset;
         dynSources = new ResonanceSource[1];
         dynSources[0] = null;
         nCurves = 1;
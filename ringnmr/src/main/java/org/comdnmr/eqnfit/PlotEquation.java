@@ -109,6 +109,28 @@ public class PlotEquation {
         return y;
     }
 
+    /**
+     * Calculate the curve at nIncr evenly spaced x values strictly between
+     * min and max. The extras follow the x value in the argument of the
+     * equation.
+     *
+     * @param min the lower limit of the x values
+     * @param max the upper limit of the x values
+     * @param nIncr the number of x values
+     * @return the y values
+     */
+    public double[] sample(double min, double max, int nIncr) {
+        double delta = (max - min) / (nIncr + 1);
+        double[] ax = new double[1 + extras.length];
+        System.arraycopy(extras, 0, ax, 1, extras.length);
+        double[] yValues = new double[nIncr];
+        for (int i = 0; i < nIncr; i++) {
+            ax[0] = min + (i + 1) * delta;
+            yValues[i] = calculate(ax);
+        }
+        return yValues;
+    }
+
     public double getMinX() {
         if (expType.startsWith("model")) {
             return 0.0;
@@ -41,6 +41,13 @@ public enum R1RhoEquation implements R1RhoEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -52,18 +59,15 @@ public enum R1RhoEquation implements R1RhoEquationType {
             double[] omegarf = X[0];
             double[] b1Field = X[1];
             double delay = X[2][0];
-            double[] deltaA = new double[omegarf.length];
-            double[] deltaB = new double[omegarf.length];
-            double[] omegaB1 = new double[omegarf.length];
+            double[] fields = X[3];
             boolean calCorr = CoMDPreferences.getCalR1rhoCorr();
             for (int i = 0; i < omegarf.length; i++) {
-                deltaA[i] = (deltaA0 - omegarf[i]) * X[3][i] * TWO_PI;
-                deltaB[i] = (deltaB0 - omegarf[i]) * X[3][i] * TWO_PI;
-                omegaB1[i] = b1Field[i] * TWO_PI;
+                double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
+                double deltaB = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI;
+                double omegaB1 = b1Field[i] * TWO_PI;
+                out[i] = R1RhoEquations.r1rhoPerturbation(delay, calCorr,
+                        omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
             }
-            double[] yCalc = R1RhoEquations.r1rhoPerturbation(delay, calCorr,
-                    omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-            return yCalc;
         }
 
         @Override
@@ -92,22 +96,24 @@ public enum R1RhoEquation implements R1RhoEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double deltaA0 = par[map[0]];
             double R1A = par[map[1]];
             double R2A = par[map[2]];
             double[] omegarf = X[0];
             double[] b1Field = X[1];
-
-            double[] deltaA = new double[omegarf.length];
-            double[] omegaB1 = new double[omegarf.length];
-
+            double[] fields = X[3];
             for (int i = 0; i < omegarf.length; i++) {
-                deltaA[i] = (deltaA0 - omegarf[i]) * X[3][i] * TWO_PI;
-                omegaB1[i] = b1Field[i] * TWO_PI;
-
+                double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
+                double omegaB1 = b1Field[i] * TWO_PI;
+                out[i] = R1RhoEquations.r1rhoPerturbationNoEx(omegaB1, deltaA, R1A, R2A);
             }
-            double[] yCalc = R1RhoEquations.r1rhoPerturbationNoEx(omegaB1, deltaA, R1A, R2A);
-            return yCalc;
         }
 
         @Override
@@ -172,6 +178,13 @@ public enum R1RhoEquation implements R1RhoEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -183,18 +196,15 @@ public enum R1RhoEquation implements R1RhoEquationType {
             double[] omegarf = X[0];
             double[] b1Field = X[1];
             double delay = X[2][0];
-            double[] deltaA = new double[omegarf.length];
-            double[] deltaB = new double[omegarf.length];
-            double[] omegaB1 = new double[omegarf.length];
+            double[] fields = X[3];
             boolean calCorr = CoMDPreferences.getCalR1rhoCorr();
             for (int i = 0; i < omegarf.length; i++) {
-                deltaA[i] = (deltaA0 - omegarf[i]) * X[3][i] * TWO_PI;
-                deltaB[i] = (deltaB0 - omegarf[i]) * X[3][i] * TWO_PI;
-                omegaB1[i] = b1Field[i] * TWO_PI;
+                double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
+                double deltaB = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI;
+                double omegaB1 = b1Field[i] * TWO_PI;
+                out[i] = R1RhoEquations.r1rhoBaldwinKay(delay, calCorr,
+                        omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
             }
-            double[] yCalc = R1RhoEquations.r1rhoBaldwinKay(delay, calCorr,
-                    omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-            return yCalc;
         }
 
         @Override
@@ -222,6 +232,13 @@ public enum R1RhoEquation implements R1RhoEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -233,18 +250,15 @@ public enum R1RhoEquation implements R1RhoEquationType {
             double[] omegarf = X[0];
             double[] b1Field = X[1];
             double delay = X[2][0];
-            double[] deltaA = new double[omegarf.length];
-            double[] deltaB = new double[omegarf.length];
-            double[] omegaB1 = new double[omegarf.length];
+            double[] fields = X[3];
             boolean calCorr = CoMDPreferences.getCalR1rhoCorr();
             for (int i = 0; i < omegarf.length; i++) {
-                deltaA[i] = (deltaA0 - omegarf[i]) * X[3][i] * TWO_PI;
-                deltaB[i] = (deltaB0 - omegarf[i]) * X[3][i] * TWO_PI;
-                omegaB1[i] = b1Field[i] * TWO_PI;
+                double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
+                double deltaB = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI;
+                double omegaB1 = b1Field[i] * TWO_PI;
+                out[i] = R1RhoEquations.r1rhoLaguerre(delay, calCorr,
+                        omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
             }
-            double[] yCalc = R1RhoEquations.r1rhoLaguerre(delay, calCorr,
-                    omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-            return yCalc;
         }
 
         @Override
@@ -363,6 +377,13 @@ public enum R1RhoEquation implements R1RhoEquationType {
 
         @Override
         public double[] calculate(double[] par, int[] map, double[][] X, int idNum) {
+            double[] yCalc = new double[X[0].length];
+            calculateInto(yCalc, par, map, X, idNum);
+            return yCalc;
+        }
+
+        @Override
+        public void calculateInto(double[] out, double[] par, int[] map, double[][] X, int idNum) {
             double kex = par[map[0]];
             double pb = par[map[1]];
             double deltaA0 = par[map[2]];
@@ -371,72 +392,7 @@ public enum R1RhoEquation implements R1RhoEquationType {
             double R1B = par[map[5]];
             double R2A = par[map[6]];
             double R2B = par[map[7]];
-            double[] yCalc = new double[X[1].length];
-            double delay = X[2][0];
-            double pA = 1.0 - pb;
-            double kAB = pb * kex;
-            double kBA = pA * kex;
-
-            double[][] K = {
-                {-kAB, 0, 0, kBA, 0, 0},
-                {0, -kAB, 0, 0, kBA, 0},
-                {0, 0, -kAB, 0, 0, kBA},
-                {kAB, 0, 0, -kBA, 0, 0},
-                {0, kAB, 0, 0, -kBA, 0},
-                {0, 0, kAB, 0, 0, -kBA}};
-
-            double[][] La = {{-R2A, 0, 0, 0, 0, 0}, //{-R2A, -deltaA, 0, 0, 0, 0}
-            {0, -R2A, 0, 0, 0, 0}, //{deltaA, -R2A, -omegaB1[i], 0, 0, 0}
-            {0, 0, -R1A, 0, 0, 0}, //{0, omegaB1[i], -R1A, 0, 0, 0}
-            {0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0}};
-
-            double[][] Lb = {{0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0},
-            {0, 0, 0, -R2B, 0, 0}, //{0, 0, 0, -R2B, -deltaB, 0}
-            {0, 0, 0, 0, -R2B, 0}, //{0, 0, 0, deltaB, -R2B, -omegaB1[i]}
-            {0, 0, 0, 0, 0, -R1B}}; //{0, 0, 0, 0, omegaB1[i], -R1B}
-
-            DMatrixRMaj La1 = new DMatrixRMaj(La);
-            DMatrixRMaj Lb1 = new DMatrixRMaj(Lb);
-            DMatrixRMaj K1 = new DMatrixRMaj(K);
-
-            DMatrixRMaj Z = new DMatrixRMaj(La.length, La[0].length);
-            double[] m0 = new double[La.length];
-            double[] m1 = new double[La.length];
-            for (int i = 0; i < yCalc.length; i++) {
-                double omegaB1 = X[1][i] * TWO_PI;
-                double deltaA = (deltaA0 - X[0][i]) * X[3][i] * TWO_PI;
-                double deltaB = (deltaB0 - X[0][i]) * X[3][i] * TWO_PI;
-                double theta = Math.atan2(omegaB1, deltaA);
-                double cosA = Math.cos(theta);
-                double sinA = Math.sin(theta);
-
-                m0[0] = pA * sinA;
-                m0[2] = pA * cosA;
-                m1[0] = sinA;
-                m1[2] = cosA;
-
-                La1.set(0, 1, -deltaA);
-                La1.set(1, 0, deltaA);
-                La1.set(1, 2, -omegaB1);
-                La1.set(2, 1, omegaB1);
-
-                Lb1.set(3, 4, -deltaB);
-                Lb1.set(4, 3, deltaB);
-                Lb1.set(4, 5, -omegaB1);
-                Lb1.set(5, 4, omegaB1);
-
-                CommonOps_DDRM.add(La1, Lb1, Z);
-                CommonOps_DDRM.addEquals(Z, K1);
-                CommonOps_DDRM.scale(delay, Z);
-//                        double r1rho = R1RhoEquations.r1rhoExact0(delay, omegaB1, pb, kex, deltaA, deltaB, R1A, R1B, R2A, R2B);
-                double r1rho = R1RhoEquations.r1rhoExact0(Z, m0, m1, delay);
-                yCalc[i] = r1rho;
-            }
-            return yCalc;
+            R1RhoEquations.r1rhoExact0Into(out, X, pb, kex, deltaA0, deltaB0, R1A, R1B, R2A, R2B);
         }
 
         @Override
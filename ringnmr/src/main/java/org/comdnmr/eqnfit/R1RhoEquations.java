@@ -17,13 +17,14 @@
  */
 package org.comdnmr.eqnfit;
 
-import org.comdnmr.util.MtxExp;
+import org.comdnmr.util.BlochMcConnellPropagator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import static org.comdnmr.util.Utilities.TWO_PI;
 import org.ejml.data.Complex_F64;
 import org.ejml.data.DMatrixRMaj;
-import org.ejml.dense.row.CommonOps_DDRM;
 import org.ejml.dense.row.decomposition.eig.WatchedDoubleStepQRDecomposition_DDRM;
 import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
 
@@ -33,6 +34,13 @@ import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
  */
 public class R1RhoEquations {
 
+    private static final ThreadLocal<BlochMcConnellPropagator> PROPAGATOR
+            = ThreadLocal.withInitial(() -> new BlochMcConnellPropagator(6));
+    private static final ThreadLocal<double[]> AT
+            = ThreadLocal.withInitial(() -> new double[36]);
+    private static final ThreadLocal<double[][]> EXACT_WORK
+            = ThreadLocal.withInitial(() -> new double[][]{new double[36], new double[6], new double[6]});
+
     // see Korzhnev, Orekhov, and Kay  JACS 2005 127:713-721
     public static double calcInitialStateCorr(double delay, double omega, double deltaA, double deltaB, double pb) {
         double thetaA = Math.PI / 2.0 - Math.atan(deltaA / omega);
@@ -46,6 +54,18 @@ public class R1RhoEquations {
     public static double[] r1rhoLaguerre(double delay, boolean calCorr,
             double[] omega, double pb, double kex, double[] deltaA,
             double[] deltaB, double R1A, double R1B, double R2A, double R2B) {
+        int size = omega.length;
+        double[] r1rho = new double[size];
+        for (int i = 0; i < size; i++) {
+            r1rho[i] = r1rhoLaguerre(delay, calCorr, omega[i], pb, kex,
+                    deltaA[i], deltaB[i], R1A, R1B, R2A, R2B);
+        }
+        return r1rho;
+    }
+
+    public static double r1rhoLaguerre(double delay, boolean calCorr,
+            double omega, double pb, double kex, double deltaA,
+            double deltaB, double R1A, double R1B, double R2A, double R2B) {
         // Calculates the Miloushev-Palmer Laguerre second-order approximation to the eigenvalue and returns R1rho.
         // Assumes the intrinsic relaxation rate constants for sites A and B are nearly identical, so that only
         // the average rates are calculated for projection from the laboratory frame to the tilted frame
@@ -59,26 +79,21 @@ public class R1RhoEquations {
         // R1A, R1B: R10 relaxation rate constants of A and B states
         // R2A, R2B: R20 relaxation rate constants of A and B states
         double pa = 1.0 - pb;
-        int size = omega.length;
         double R1Bar = pa * R1A + pb * R1B;
         double R2Bar = pa * R2A + pb * R2B;
-        double[] r1rho = new double[size];
-        for (int i = 0; i < size; i++) {
-            double dw = deltaB[i] - deltaA[i];
-            double omegaBar = pa * deltaA[i] + pb * deltaB[i];
-            double weA = Math.sqrt(omega[i] * omega[i] + deltaA[i] * deltaA[i]);
-            double weB = Math.sqrt(omega[i] * omega[i] + deltaB[i] * deltaB[i]);
-            double we = Math.sqrt(omega[i] * omega[i] + omegaBar * omegaBar);
-            double sin2t = (omega[i] / we) * (omega[i] / we);
-            double x = (pa * pb * (dw * dw)) * sin2t;
-            double y = (weA * weA) * (weB * weB) / (we * we) + kex * kex;
-            double z = x * (1 + 2 * (kex * kex) * (pa * (weA * weA) + pb * (weB * weB)) / ((weA * weA) * (weB * weB) + (we * we) * (kex * kex)));
-            double REx = kex * x / (y - z);
-            r1rho[i] = (1 - sin2t) * R1Bar + sin2t * R2Bar + REx;
-            if (calCorr) {
-                double corr = calcInitialStateCorr(delay, omega[i], deltaA[i], deltaB[i], pb);
-                r1rho[i] += corr;
-            }
+        double dw = deltaB - deltaA;
+        double omegaBar = pa * deltaA + pb * deltaB;
+        double weA = Math.sqrt(omega * omega + deltaA * deltaA);
+        double weB = Math.sqrt(omega * omega + deltaB * deltaB);
+        double we = Math.sqrt(omega * omega + omegaBar * omegaBar);
+        double sin2t = (omega / we) * (omega / we);
+        double x = (pa * pb * (dw * dw)) * sin2t;
+        double y = (weA * weA) * (weB * weB) / (we * we) + kex * kex;
+        double z = x * (1 + 2 * (kex * kex) * (pa * (weA * weA) + pb * (weB * weB)) / ((weA * weA) * (weB * weB) + (we * we) * (kex * kex)));
+        double REx = kex * x / (y - z);
+        double r1rho = (1 - sin2t) * R1Bar + sin2t * R2Bar + REx;
+        if (calCorr) {
+            r1rho += calcInitialStateCorr(delay, omega, deltaA, deltaB, pb);
         }
         return r1rho;
     }
@@ -86,6 +101,18 @@ public class R1RhoEquations {
     public static double[] r1rhoBaldwinKay(double delay, boolean calCorr,
             double[] omega, double pb, double kex, double[] deltaA,
             double[] deltaB, double R1A, double R1B, double R2A, double R2B) {
+        int size = omega.length;
+        double[] r1rho = new double[size];
+        for (int i = 0; i < size; i++) {
+            r1rho[i] = r1rhoBaldwinKay(delay, calCorr, omega[i], pb, kex,
+                    deltaA[i], deltaB[i], R1A, R1B, R2A, R2B);
+        }
+        return r1rho;
+    }
+
+    public static double r1rhoBaldwinKay(double delay, boolean calCorr,
+            double omega, double pb, double kex, double deltaA,
+            double deltaB, double R1A, double R1B, double R2A, double R2B) {
         // Calculates the Baldwin-Kay first-order approximation to the eigenvalue and returns R1rho.
         // Allows the intrinsic relaxation rate constants for sites A and B to differ.
         //
@@ -96,34 +123,28 @@ public class R1RhoEquations {
         // deltaB: offset of B state (angular units, 1/s)
         // R1A, R1B: R10 relaxation rate constants of A and B states
         // R2A, R2B: R20 relaxation rate constants of A and B states
-        int size = omega.length;
         double pa = 1.0 - pb;
         double dR = R2B - R2A;
-        double[] r1rho = new double[size];
-        for (int i = 0; i < size; i++) {
-            double dw = deltaB[i] - deltaA[i];
-            double omegaBar = pa * deltaA[i] + pb * deltaB[i];
-            double weA = Math.sqrt(omega[i] * omega[i] + deltaA[i] * deltaA[i]);
-            double weB = Math.sqrt(omega[i] * omega[i] + deltaB[i] * deltaB[i]);
-            double we = Math.sqrt(omega[i] * omega[i] + omegaBar * omegaBar);
-            double sin2t = (omega[i] / we) * (omega[i] / we);
-            double cos2t = 1 - sin2t;
-            double tan2t = sin2t / cos2t;
-            double f1p = (pa * pb * (dw * dw));
-            double f2p = kex * kex + omega[i] * omega[i] + (deltaA[i] * deltaA[i]) * (deltaB[i] * deltaB[i]) / (omegaBar * omegaBar);
-            double dp = kex * kex + (weA * weA) * (weB * weB) / (we * we);
-            double f1 = pb * (weA * weA + kex * kex + dR * pa * kex);
-            double f2 = 2 * kex + omega[i] * omega[i] / kex + dR * pa;
-            double f3 = 3 * pb * kex + (2 * pa * kex + omega[i] * omega[i] / kex + dR + dR * (pb * pb) * (kex * kex) / (weA * weA)) * ((weA * weA) / (omega[i] * omega[i]));
-            double c1 = (f2p + (f1p + dR * (f3 - f2)) * tan2t) / (dp + dR * f3 * sin2t);
-            double c2 = (dp / sin2t - f2p / tan2t - f1p + dR * f2) / (dp + dR * f3 * sin2t);
-            double rex = (f1p * kex + dR * f1) / (dp + dR * f3 * sin2t);
-            r1rho[i] = c1 * R1A * cos2t + sin2t * (c2 * R2A + rex);
-            if (calCorr) {
-                double corr = calcInitialStateCorr(delay, omega[i], deltaA[i], deltaB[i], pb);
-                r1rho[i] += corr;
-            }
-
+        double dw = deltaB - deltaA;
+        double omegaBar = pa * deltaA + pb * deltaB;
+        double weA = Math.sqrt(omega * omega + deltaA * deltaA);
+        double weB = Math.sqrt(omega * omega + deltaB * deltaB);
+        double we = Math.sqrt(omega * omega + omegaBar * omegaBar);
+        double sin2t = (omega / we) * (omega / we);
+        double cos2t = 1 - sin2t;
+        double tan2t = sin2t / cos2t;
+        double f1p = (pa * pb * (dw * dw));
+        double f2p = kex * kex + omega * omega + (deltaA * deltaA) * (deltaB * deltaB) / (omegaBar * omegaBar);
+        double dp = kex * kex + (weA * weA) * (weB * weB) / (we * we);
+        double f1 = pb * (weA * weA + kex * kex + dR * pa * kex);
+        double f2 = 2 * kex + omega * omega / kex + dR * pa;
+        double f3 = 3 * pb * kex + (2 * pa * kex + omega * omega / kex + dR + dR * (pb * pb) * (kex * kex) / (weA * weA)) * ((weA * weA) / (omega * omega));
+        double c1 = (f2p + (f1p + dR * (f3 - f2)) * tan2t) / (dp + dR * f3 * sin2t);
+        double c2 = (dp / sin2t - f2p / tan2t - f1p + dR * f2) / (dp + dR * f3 * sin2t);
+        double rex = (f1p * kex + dR * f1) / (dp + dR * f3 * sin2t);
+        double r1rho = c1 * R1A * cos2t + sin2t * (c2 * R2A + rex);
+        if (calCorr) {
+            r1rho += calcInitialStateCorr(delay, omega, deltaA, deltaB, pb);
         }
         return r1rho;
     }
@@ -132,13 +153,92 @@ public class R1RhoEquations {
         int size = omega.length;
         double[] r1rho = new double[size];
         for (int i = 0; i < size; i++) {
-            double weA = Math.sqrt(omega[i] * omega[i] + deltaA[i] * deltaA[i]);
-            double sin2t = (omega[i] / weA) * (omega[i] / weA);
-            r1rho[i] = (1 - sin2t) * R1A + sin2t * R2A;
+            r1rho[i] = r1rhoPerturbationNoEx(omega[i], deltaA[i], R1A, R2A);
         }
         return r1rho;
     }
 
+    public static double r1rhoPerturbationNoEx(double omega, double deltaA, double R1A, double R2A) {
+        double weA = Math.sqrt(omega * omega + deltaA * deltaA);
+        double sin2t = (omega / weA) * (omega / weA);
+        return (1 - sin2t) * R1A + sin2t * R2A;
+    }
+
+    /**
+     * R1rho exact model evaluated over a profile. Builds the Bloch-McConnell
+     * matrix for each offset in place and writes the R1rho values to the
+     * output array, so no arrays are allocated.
+     *
+     * @param out array that receives the R1rho values, of at least the number
+     * of offsets
+     * @param X Matrix containing the offset values (X[0]), the B1 field values
+     * (X[1]), the delay (X[2]) and the spectrometer field (X[3]).
+     * @param pb population of the Excited/Minor state
+     * @param kex rate constant for Major-Minor state exchange
+     * @param deltaA0 Ground/Major state peak position
+     * @param deltaB0 Excited/Minor state peak position
+     * @param R1A Longitudinal relaxation rate for Ground/Major state
+     * @param R1B Longitudinal relaxation rate for Excited/Minor state
+     * @param R2A Transverse relaxation rate for Ground/Major state
+     * @param R2B Transverse relaxation rate for Excited/Minor state
+     */
+    public static void r1rhoExact0Into(double[] out, double[][] X, double pb, double kex,
+            double deltaA0, double deltaB0, double R1A, double R1B, double R2A, double R2B) {
+        double[] omegarf = X[0];
+        double[] b1Field = X[1];
+        double delay = X[2][0];
+        double[] fields = X[3];
+        double pA = 1.0 - pb;
+        double kAB = pb * kex;
+        double kBA = pA * kex;
+        int n = 6;
+
+        double[][] work = EXACT_WORK.get();
+        double[] z = work[0];
+        double[] m0 = work[1];
+        double[] m1 = work[2];
+        Arrays.fill(z, 0.0);
+        Arrays.fill(m0, 0.0);
+        Arrays.fill(m1, 0.0);
+
+        // the relaxation and exchange terms (La + Lb + K) don't depend on the offset
+        z[0 * n + 0] = (-R2A - kAB) * delay;
+        z[1 * n + 1] = (-R2A - kAB) * delay;
+        z[2 * n + 2] = (-R1A - kAB) * delay;
+        z[3 * n + 3] = (-R2B - kBA) * delay;
+        z[4 * n + 4] = (-R2B - kBA) * delay;
+        z[5 * n + 5] = (-R1B - kBA) * delay;
+        for (int j = 0; j < 3; j++) {
+            z[j * n + j + 3] = kBA * delay;
+            z[(j + 3) * n + j] = kAB * delay;
+        }
+
+        for (int i = 0; i < omegarf.length; i++) {
+            double omegaB1 = b1Field[i] * TWO_PI;
+            double deltaA = (deltaA0 - omegarf[i]) * fields[i] * TWO_PI;
+            double deltaB = (deltaB0 - omegarf[i]) * fields[i] * TWO_PI;
+            double theta = Math.atan2(omegaB1, deltaA);
+            double cosA = Math.cos(theta);
+            double sinA = Math.sin(theta);
+
+            m0[0] = pA * sinA;
+            m0[2] = pA * cosA;
+            m1[0] = sinA;
+            m1[2] = cosA;
+
+            z[0 * n + 1] = -deltaA * delay;
+            z[1 * n + 0] = deltaA * delay;
+            z[1 * n + 2] = -omegaB1 * delay;
+            z[2 * n + 1] = omegaB1 * delay;
+
+            z[3 * n + 4] = -deltaB * delay;
+            z[4 * n + 3] = deltaB * delay;
+            z[4 * n + 5] = -omegaB1 * delay;
+            z[5 * n + 4] = omegaB1 * delay;
+            out[i] = r1rhoExact0(z, n, m0, m1, delay);
+        }
+    }
+
     public static double r1rhoExact0(DMatrixRMaj Z, double[] m0, double[] m1, double tdelay) {//(double tdelay, double omega, double pB, double kex, double deltaA, double deltaB, double R1A, double R1B, double R2A, double R2B) {
         // Performs an exact numerical calculation and returns CEST intensity ratio.
         //
@@ -154,13 +254,43 @@ public class R1RhoEquations {
         // R2A, R2B: R20 relaxation rate constants of A and B states
 
         // time delay is hard-coded below
-        DMatrixRMaj at = MtxExp.matrixExp(Z);
-        DMatrixRMaj v = new DMatrixRMaj(m0);
-        CommonOps_DDRM.mult(at, new DMatrixRMaj(m0), v);
+        int n = Z.getNumRows();
+        return r1rhoExact0(Z.getData(), n, m0, m1, tdelay);
+    }
+
+    /**
+     * R1rho exact model for a Bloch-McConnell matrix stored as a row-major
+     * array. The propagator and its work arrays are reused by each thread, so
+     * this doesn't allocate.
+     *
+     * @param z the Bloch-McConnell matrix, scaled by the delay, in row-major
+     * order
+     * @param n the dimension of the matrix
+     * @param m0 the initial magnetization
+     * @param m1 the projection vector for the detected magnetization
+     * @param tdelay the relaxation delay
+     * @return R1rho value
+     */
+    public static double r1rhoExact0(double[] z, int n, double[] m0, double[] m1, double tdelay) {
+        BlochMcConnellPropagator propagator = PROPAGATOR.get();
+        if (propagator.getSize() != n) {
+            propagator = new BlochMcConnellPropagator(n);
+            PROPAGATOR.set(propagator);
+        }
+        double[] at = AT.get();
+        if (at.length < n * n) {
+            at = new double[n * n];
+            AT.set(at);
+        }
+        propagator.exp(z, at);
         double magA = 0.0;
         double magA0 = 0.0;
-        for (int i = 0; i < v.getNumRows(); i++) {
-            magA += m1[i] * v.get(i, 0);
+        for (int i = 0; i < n; i++) {
+            double v = 0.0;
+            for (int j = 0; j < n; j++) {
+                v += at[i * n + j] * m0[j];
+            }
+            magA += m1[i] * v;
             magA0 += m1[i] * m0[i];
         }
 
@@ -206,6 +336,18 @@ public class R1RhoEquations {
     public static double[] r1rhoPerturbation(double delay, boolean calCorr,
             double[] omega, double pb, double kex, double[] deltaA,
             double[] deltaB, double R1A, double R1B, double R2A, double R2B) {
+        int size = omega.length;
+        double[] r1rho = new double[size];
+        for (int i = 0; i < size; i++) {
+            r1rho[i] = r1rhoPerturbation(delay, calCorr, omega[i], pb, kex,
+                    deltaA[i], deltaB[i], R1A, R1B, R2A, R2B);
+        }
+        return r1rho;
+    }
+
+    public static double r1rhoPerturbation(double delay, boolean calCorr,
+            double omega, double pb, double kex, double deltaA,
+            double deltaB, double R1A, double R1B, double R2A, double R2B) {
         // Calculates the Trott-Palmer perturbation approximation to the eigenvalue and returns R1rho.
         // Allows the intrinsic relaxation rate constants for sites A and B to differ.
         // This result is not as accurate as the first-order Baldwin-Kay result, but simpler.
@@ -217,25 +359,20 @@ public class R1RhoEquations {
         // deltaB: offset of B state (angular units, 1/s)
         // R1A, R1B: R10 relaxation rate constants of A and B states
         // R2A, R2B: R20 relaxation rate constants of A and B states
-        int size = omega.length;
         double pa = 1.0 - pb;
         double k1 = pb * kex;
         double km1 = pa * kex;
         double dR = Math.abs(R2B - R2A);
-        double[] r1rho = new double[size];
-        for (int i = 0; i < size; i++) {
-            double dw = deltaB[i] - deltaA[i];
-            double weA = Math.sqrt(omega[i] * omega[i] + deltaA[i] * deltaA[i]);
-            double weB = Math.sqrt(omega[i] * omega[i] + deltaB[i] * deltaB[i]);
-            double sin2t = (omega[i] / weA) * (omega[i] / weA);
-            double x = ((dw * dw) + (dR * dR)) * km1 + dR * ((weA * weA) + (km1 * km1));
-            double y = km1 * (weB * weB + (km1 + dR) * (km1 + dR)) + dR * (omega[i] * omega[i]);
-            double REx = k1 * x / y;
-            r1rho[i] = (1 - sin2t) * R1A + sin2t * R2A + sin2t * REx;
-            if (calCorr) {
-                double corr = calcInitialStateCorr(delay, omega[i], deltaA[i], deltaB[i], pb);
-                r1rho[i] += corr;
-            }
+        double dw = deltaB - deltaA;
+        double weA = Math.sqrt(omega * omega + deltaA * deltaA);
+        double weB = Math.sqrt(omega * omega + deltaB * deltaB);
+        double sin2t = (omega / weA) * (omega / weA);
+        double x = ((dw * dw) + (dR * dR)) * km1 + dR * ((weA * weA) + (km1 * km1));
+        double y = km1 * (weB * weB + (km1 + dR) * (km1 + dR)) + dR * (omega * omega);
+        double REx = k1 * x / y;
+        double r1rho = (1 - sin2t) * R1A + sin2t * R2A + sin2t * REx;
+        if (calCorr) {
+            r1rho += calcInitialStateCorr(delay, omega, deltaA, deltaB, pb);
         }
 
         //        double r1rho = -Math.log(magA / magA0) / tdelay;
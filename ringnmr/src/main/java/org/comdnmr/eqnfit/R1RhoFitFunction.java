@@ -17,18 +17,13 @@
  */
 package org.comdnmr.eqnfit;
 
-import java.util.stream.IntStream;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.random.RandomGenerator;
-import org.apache.commons.math3.random.SynchronizedRandomGenerator;
-import org.apache.commons.math3.random.Well19937c;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.FastMath;
 import org.comdnmr.util.CoMDOptions;
+import org.comdnmr.util.ReplicateRandom;
 
 public class R1RhoFitFunction extends FitFunction {
 
-    static RandomGenerator random = new SynchronizedRandomGenerator(new Well19937c());
     int[] r2Mask = {0, 1, 3};
     double[] rexErrors = new double[nID];
     R1RhoEquations r1rhoEq = new R1RhoEquations();
@@ -84,11 +79,13 @@ public class R1RhoFitFunction extends FitFunction {
 
         double sumAbs = 0.0;
         double sumSq = 0.0;
-        double[] yCalc = new double[yValues.length];
+        IdPartition idPartition = getPartition();
+        double[] yCalc = idPartition.getYCalcBuffer();
         for (int id = 0; id < map.length; id++) {
-            double[][] x = CESTEquations.getXValues(xValues, idNums, id);
-            double[] yCalc1 = equation.calculate(par, map[id], x, id);
-            int[] indicies = CESTEquations.getIndicies(idNums, id);
+            double[][] x = idPartition.xValues[id];
+            double[] yCalc1 = idPartition.getIdBuffer(id);
+            equation.calculateInto(yCalc1, par, map[id], x, id);
+            int[] indicies = idPartition.indices[id];
             for (int i = 0; i < indicies.length; i++) {
                 yCalc[indicies[i]] = yCalc1[i];
             }
@@ -115,43 +112,30 @@ public class R1RhoFitFunction extends FitFunction {
         return yPred;
     }
 
-    @Override
-    public double[][] getSimPars() {
-        return parValues;
-    }
-
     @Override
     public double[] simBounds(double[] start, double[] lowerBounds, double[] upperBounds, double inputSigma, CoMDOptions options) {
         reportFitness = false;
         int nPar = start.length;
         int nSim = options.getSampleSize();
-        parValues = new double[nPar + 1][nSim];
         double[] yPred = getPredicted(start);
         double[] yValuesOrig = yValues.clone();
         double[][] rexValues = new double[nID][nSim];
         rexErrors = new double[nID];
         String optimizer = options.getBootStrapOptimizer();
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
 
-        for (int i = 0; i < nSim; i++) {
+        runReplicates(nPar, nSim, false, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
             for (int k = 0; k < yValues.length; k++) {
                 yValues[k] = yPred[k] + errValues[k] * random.nextGaussian();
             }
-            PointValuePair result = refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
-        }
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            double p5 = dStat.getPercentile(5.0);
-            double p95 = dStat.getPercentile(95.0);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
-        yValues = yValuesOrig;
+            PointValuePair result = refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, getEvaluations());
+        });
+        double[] parSDev = simStats.getStandardDeviations(nPar);
+        System.arraycopy(yValuesOrig, 0, yValues, 0, yValues.length);
         return parSDev;
     }
 
@@ -170,12 +154,14 @@ public class R1RhoFitFunction extends FitFunction {
         reportFitness = false;
         int nPar = start.length;
         int nSim = options.getSampleSize();
-        parValues = new double[nPar + 1][nSim];
         rexErrors = new double[nID];
         double[] yPred = getPredicted(start);
         String optimizer = options.getBootStrapOptimizer();
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
 
-        IntStream.range(0, nSim).parallel().forEach(i -> {
+        runReplicates(nPar, nSim, true, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
             R1RhoFitFunction rDisp = new R1RhoFitFunction(options, xValues, yPred, errValues, idNums);
             rDisp.setEquation(equation.getName());
             double[] newY = new double[yValues.length];
@@ -186,20 +172,12 @@ public class R1RhoFitFunction extends FitFunction {
             rDisp.setIds(idNums);
             rDisp.setMap(map);
 
-            PointValuePair result = rDisp.refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
+            PointValuePair result = rDisp.refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, rDisp.getEvaluations());
         });
 
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
+        double[] parSDev = simStats.getStandardDeviations(nPar);
         return parSDev;
     }
 
@@ -207,12 +185,14 @@ public class R1RhoFitFunction extends FitFunction {
         reportFitness = false;
         int nPar = start.length;
         int nSim = options.getSampleSize();
-        parValues = new double[nPar + 1][nSim];
         double[][] rexValues = new double[nID][nSim];
         rexErrors = new double[nID];
         String optimizer = options.getBootStrapOptimizer();
+        int maxEvaluations = getBootstrapEvaluations();
+        long randomKey = ReplicateRandom.key(yValues);
 
-        IntStream.range(0, nSim).parallel().forEach(i -> {
+        runReplicates(nPar, nSim, true, i -> {
+            ReplicateRandom random = new ReplicateRandom(randomKey, i);
             R1RhoFitFunction rDisp = new R1RhoFitFunction(options, xValues, yValues, errValues, idNums);
             rDisp.setEquation(equation.getName());
             double[][] newX = new double[xValues.length][yValues.length];
@@ -238,21 +218,13 @@ public class R1RhoFitFunction extends FitFunction {
             rDisp.setIds(newID);
             rDisp.setMap(map);
 
-            PointValuePair result = rDisp.refine(start, lowerBounds, upperBounds,
-                    inputSigma, optimizer);
-            double[] rPoint = result.getPoint();
-            for (int j = 0; j < nPar; j++) {
-                parValues[j][i] = rPoint[j];
-            }
-            parValues[nPar][i] = result.getValue();
+            PointValuePair result = rDisp.refineBootstrap(start, lowerBounds, upperBounds,
+                    inputSigma, optimizer, maxEvaluations);
+            storeReplicate(i, result, rDisp.getEvaluations());
 
         });
 
-        double[] parSDev = new double[nPar];
-        for (int i = 0; i < nPar; i++) {
-            DescriptiveStatistics dStat = new DescriptiveStatistics(parValues[i]);
-            parSDev[i] = dStat.getStandardDeviation();
-        }
+        double[] parSDev = simStats.getStandardDeviations(nPar);
         return parSDev;
     }
 
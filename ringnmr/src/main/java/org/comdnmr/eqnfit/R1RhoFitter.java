@@ -21,6 +21,7 @@ import org.comdnmr.fit.FitQuality;
 import org.comdnmr.util.CoMDPreferences;
 import org.comdnmr.data.ExperimentSet;
 import org.comdnmr.data.ExperimentData;
+import org.comdnmr.data.FitDataset;
 import org.comdnmr.data.Experiment;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,10 +41,7 @@ public class R1RhoFitter implements EquationFitter {
 
     FitFunction calcR1Rho;
     CoMDOptions options;
-    List<Double>[] xValues;
-    List<Double> yValues = new ArrayList<>();
-    List<Double> errValues = new ArrayList<>();
-    List<Integer> idValues = new ArrayList<>();
+    FitDataset dataset = new FitDataset(4);
     int nCurves = 1;
     int nResidues = 1;
     int[][] states;
@@ -96,12 +94,9 @@ public class R1RhoFitter implements EquationFitter {
 
     @Override
     public void setData(ExperimentSet experimentSet, ResonanceSource[] dynSources) {
-        xValues = new ArrayList[4];
-        for (int j = 0;j<xValues.length;j++) {
-            xValues[j] = new ArrayList<>();
-        }
         this.dynSources = dynSources.clone();
         nResidues = dynSources.length;
+        dataset = new FitDataset(4, experimentSet.getPointCount(dynSources));
         experimentSet.setupMaps();
         stateCount = experimentSet.getStateCount(dynSources.length);
         Collection<Experiment> expDataList = experimentSet.getExperimentData();
@@ -121,15 +116,7 @@ public class R1RhoFitter implements EquationFitter {
                     double[] y = experimentalData.getYValues();
                     double[] err = experimentalData.getErrValues();
                     double field = expData.getNucleusField();
-                    for (int i = 0; i < y.length; i++) {
-                        for (int j=0;j<x.length;j++) {
-                            xValues[j].add(x[j][i]);
-                        }
-                        xValues[xValues.length - 1].add(field);
-                        yValues.add(y[i]);
-                        errValues.add(err[i]);
-                        idValues.add(id);
-                    }
+                    dataset.add(x, x.length, y, err, id, field);
                     id++;
                 }
             }
@@ -138,17 +125,8 @@ public class R1RhoFitter implements EquationFitter {
     }
 
     @Override
-    public void setData(List<Double>[] allXValues, List<Double> yValues, List<Double> errValues) {
-        xValues = new ArrayList[allXValues.length];
-        for (int j=0;j<allXValues.length;j++) {
-            xValues[j] = new ArrayList<>();
-            xValues[j].addAll(allXValues[j]);
-        }
-        this.yValues.addAll(yValues);
-        this.errValues.addAll(errValues);
-        for (Double yValue : yValues) {
-            idValues.add(0);
-        }
+    public void setData(FitDataset dataset) {
+        this.dataset = dataset;
         dynSources = new ResonanceSource[1];
         dynSources[0] = null;
 
@@ -204,22 +182,10 @@ public class R1RhoFitter implements EquationFitter {
 
     @Override
     public void setupFit(String eqn) {
-        double[][] x = new double[xValues.length][yValues.size()];
-        double[] y = new double[yValues.size()];
-        double[] err = new double[yValues.size()];
-        int[] idNums = new int[yValues.size()];
-        for (int i = 0; i < x[0].length; i++) {
-            for (int j=0;j<xValues.length;j++) {
-                x[j][i] = xValues[j].get(i);
-            }
-            y[i] = yValues.get(i);
-            err[i] = errValues.get(i);
-            idNums[i] = idValues.get(i);
-        }
         calcR1Rho.setEquation(eqn);
-        calcR1Rho.setXY(x, y);
-        calcR1Rho.setIds(idNums);
-        calcR1Rho.setErr(err);
+        calcR1Rho.setXY(dataset.getXValues(), dataset.getYValues());
+        calcR1Rho.setIds(dataset.getIdNums());
+        calcR1Rho.setErr(dataset.getErrValues());
         calcR1Rho.setMap(stateCount, states);
     }
 
@@ -249,19 +215,7 @@ public class R1RhoFitter implements EquationFitter {
 
     @Override
     public FitResult doFit(String eqn, double[] sliderguesses, CoMDOptions options) {
-        double[][] xvals = new double[xValues.length][xValues[0].size()];
-        double[] yvals = new double[yValues.size()];
-        int[] idNums = new int[yValues.size()];
-        for (int i = 0; i < xvals.length; i++) {
-            for (int j = 0; j < xvals[0].length; j++) {
-                xvals[i][j] = xValues[i].get(j);
-            }
-        }
-        for (int i = 0; i < yvals.length; i++) {
-            yvals[i] = yValues.get(i);
-            idNums[i] = idValues.get(i);
-        }
-        double[][] xy = CESTEquations.getXYValues(xvals, yvals, idNums, 0);
+        double[][] xy = CESTEquations.getXYValues(dataset.getXValues(), dataset.getYValues(), dataset.getIdNums(), 0);
         List<CESTPeak> peaks = CESTEquations.cestPeakGuess(xy, "r1rho");
         if (peaks.size() >= 1) {
             setupFit(eqn);
@@ -292,7 +246,7 @@ public class R1RhoFitter implements EquationFitter {
                 for (int i = 0; i < guesses.length; i++) {
                     System.out.println(i + " bou0 " + boundaries[0][i] + " bou1 " + boundaries[1][i] + " gue " + guesses[i]);
                 }
-                PointValuePair result = calcR1Rho.refine(guesses, boundaries[0],
+                PointValuePair result = calcR1Rho.refineMultiStart(guesses, boundaries[0],
                         boundaries[1], sigma, options.getOptimizer());
                 double[] pars = result.getPoint();
                 System.out.println(eqn);
@@ -340,12 +294,12 @@ public class R1RhoFitter implements EquationFitter {
                 } else {
                     errEstimates = new double[pars.length];
                 }
-                double[][] extras = getFields(xValues, idValues);
+                double[][] extras = getFields(dataset);
                 String refineOpt = options.getOptimizer();
                 String bootstrapOpt = options.getBootStrapOptimizer();
                 long fitTime = calcR1Rho.fitTime;
                 long bootTime = errTime;
-                int nSamples = options.getSampleSize();
+                int nSamples = simPars == null ? 0 : calcR1Rho.getSimSampleSize();
                 boolean useAbs = options.getAbsValueFit();
                 boolean useNonParametric = options.getNonParametricBootstrap();
                 double sRadius = options.getStartRadius();
@@ -0,0 +1,365 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.eqnfit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Variable projection (Golub and Pereyra) for equations whose value is linear
+ * in some of their parameters, see {@link EquationType#getLinearPars()}. For
+ * fixed values of the nonlinear parameters the linear ones are found by
+ * linear least squares, so the optimizer only has to search the nonlinear
+ * parameters. The Jacobian of the projected residuals uses the approximation
+ * of Kaufman.
+ * <p>
+ * Curves that don't share a linear parameter give independent linear
+ * problems, so the points are divided into blocks that are solved separately.
+ * A group of peaks with a shared rate and an amplitude each is then a set of
+ * one parameter problems rather than one large one.
+ */
+final class VarProjection {
+
+    /**
+     * The points and parameters of one independent linear problem. The
+     * nonlinear parameters are the columns, in the Jacobian, of the ones that
+     * the points depend on, in increasing order.
+     */
+    private record Block(int[] points, int[] linearPars, int[] nonlinearCols) {
+
+    }
+
+    private record LinearFit(RealMatrix phi, DecompositionSolver solver) {
+
+    }
+
+    private static final int UNUSED = 0;
+    private static final int LINEAR = 1;
+    private static final int NONLINEAR = 2;
+
+    private final EquationDerivatives derivatives;
+    private final double[][] xValues;
+    private final int[] idNums;
+    private final int[][] map;
+    private final int nEqnPars;
+    private final double[] scale;
+    private final double[] target;
+    private final int[] nonlinearPars;
+    // column of each parameter in its block, or in the Jacobian, -1 if it isn't of that kind
+    private final int[] linearCol;
+    private final int[] nonlinearCol;
+    private final Block[] blocks;
+
+    private VarProjection(EquationType equation, EquationDerivatives derivatives, double[][] xValues,
+            double[] yValues, double[] errValues, int[] idNums, int[][] map, List<Block> blocks, int[] linearCol, int[] nonlinearCol, int nNonlinear) {
+        this.derivatives = derivatives;
+        this.xValues = xValues;
+        this.idNums = idNums;
+        this.map = map;
+        this.nEqnPars = equation.getParNames().length;
+        this.blocks = blocks.toArray(new Block[0]);
+        this.linearCol = linearCol;
+        this.nonlinearCol = nonlinearCol;
+        scale = new double[yValues.length];
+        target = new double[yValues.length];
+        for (int i = 0; i < yValues.length; i++) {
+            scale[i] = errValues == null ? 1.0 : 1.0 / errValues[i];
+            target[i] = scale[i] * yValues[i];
+        }
+        nonlinearPars = new int[nNonlinear];
+        for (int j = 0; j < nonlinearCol.length; j++) {
+            if (nonlinearCol[j] >= 0) {
+                nonlinearPars[nonlinearCol[j]] = j;
+            }
+        }
+    }
+
+    /**
+     * Set up the projection for a fit.
+     *
+     * @param equation the equation
+     * @param derivatives the derivatives of the equation
+     * @param xValues the x values, one array per independent variable
+     * @param yValues the y values
+     * @param errValues the errors to weight the points by, or null for an
+     * unweighted fit
+     * @param idNums the dataset id of each point
+     * @param map the map from equation parameters to the parameter array for
+     * each dataset id
+     * @param nPars the number of parameters
+     * @return the projection, or null if the equation has no linear
+     * parameters, if a parameter is used both linearly and nonlinearly, or if
+     * a block has fewer points than linear parameters
+     */
+    static VarProjection create(EquationType equation, EquationDerivatives derivatives, double[][] xValues,
+            double[] yValues, double[] errValues, int[] idNums, int[][] map, int nPars) {
+        int[] linearPositions = equation.getLinearPars();
+        if (linearPositions.length == 0) {
+            return null;
+        }
+        int nEqnPars = equation.getParNames().length;
+        boolean[] linearPosition = new boolean[nEqnPars];
+        for (int p : linearPositions) {
+            linearPosition[p] = true;
+        }
+        int[] parType = new int[nPars];
+        int[] parent = new int[nPars];
+        for (int j = 0; j < nPars; j++) {
+            parent[j] = j;
+        }
+        for (int[] parMap : map) {
+            for (int p = 0; p < nEqnPars; p++) {
+                int type = linearPosition[p] ? LINEAR : NONLINEAR;
+                int j = parMap[p];
+                if ((parType[j] != UNUSED) && (parType[j] != type)) {
+                    return null;
+                }
+                parType[j] = type;
+            }
+            // the linear parameters of a curve are in the same block
+            int root = find(parent, parMap[linearPositions[0]]);
+            for (int p : linearPositions) {
+                parent[find(parent, parMap[p])] = root;
+            }
+        }
+
+        int[] blockOfRoot = new int[nPars];
+        Arrays.fill(blockOfRoot, -1);
+        int[] linearCol = new int[nPars];
+        Arrays.fill(linearCol, -1);
+        List<List<Integer>> blockPars = new ArrayList<>();
+        for (int j = 0; j < nPars; j++) {
+            if (parType[j] == LINEAR) {
+                int root = find(parent, j);
+                if (blockOfRoot[root] < 0) {
+                    blockOfRoot[root] = blockPars.size();
+                    blockPars.add(new ArrayList<>());
+                }
+                List<Integer> pars = blockPars.get(blockOfRoot[root]);
+                linearCol[j] = pars.size();
+                pars.add(j);
+            }
+        }
+        int nBlocks = blockPars.size();
+        int[] blockOfId = new int[map.length];
+        for (int id = 0; id < map.length; id++) {
+            blockOfId[id] = blockOfRoot[find(parent, map[id][linearPositions[0]])];
+        }
+        int[] nBlockPoints = new int[nBlocks];
+        for (int idNum : idNums) {
+            nBlockPoints[blockOfId[idNum]]++;
+        }
+        int[][] points = new int[nBlocks][];
+        for (int b = 0; b < nBlocks; b++) {
+            if (nBlockPoints[b] < blockPars.get(b).size()) {
+                return null;
+            }
+            points[b] = new int[nBlockPoints[b]];
+            nBlockPoints[b] = 0;
+        }
+        for (int i = 0; i < idNums.length; i++) {
+            int b = blockOfId[idNums[i]];
+            points[b][nBlockPoints[b]++] = i;
+        }
+
+        // the Jacobian column of a nonlinear parameter is its rank among them
+        int[] nonlinearCol = new int[nPars];
+        int nNonlinear = 0;
+        for (int j = 0; j < nPars; j++) {
+            nonlinearCol[j] = parType[j] == NONLINEAR ? nNonlinear++ : -1;
+        }
+        boolean[][] usesNonlinear = new boolean[nBlocks][nNonlinear];
+        for (int id = 0; id < map.length; id++) {
+            for (int p = 0; p < nEqnPars; p++) {
+                int col = nonlinearCol[map[id][p]];
+                if (col >= 0) {
+                    usesNonlinear[blockOfId[id]][col] = true;
+                }
+            }
+        }
+        List<Block> blocks = new ArrayList<>();
+        for (int b = 0; b < nBlocks; b++) {
+            int[] cols = new int[nNonlinear];
+            int nCols = 0;
+            for (int col = 0; col < nNonlinear; col++) {
+                if (usesNonlinear[b][col]) {
+                    cols[nCols++] = col;
+                }
+            }
+            int[] linearPars = blockPars.get(b).stream().mapToInt(Integer::intValue).toArray();
+            blocks.add(new Block(points[b], linearPars, Arrays.copyOf(cols, nCols)));
+        }
+        return new VarProjection(equation, derivatives, xValues, yValues, errValues, idNums, map, blocks, linearCol, nonlinearCol, nNonlinear);
+    }
+
+    private static int find(int[] parent, int j) {
+        while (parent[j] != j) {
+            parent[j] = parent[parent[j]];
+            j = parent[j];
+        }
+        return j;
+    }
+
+    /**
+     * @return the indices of the nonlinear parameters, in the order of the
+     * columns of the Jacobian
+     */
+    int[] getNonlinearPars() {
+        return nonlinearPars;
+    }
+
+    /**
+     * @return the weighted y values, the target of the projected fit
+     */
+    double[] getTarget() {
+        return target;
+    }
+
+    /**
+     * Copy values of the nonlinear parameters into a parameter array.
+     *
+     * @param pars the parameters
+     * @param nonlinear the values of the nonlinear parameters
+     * @return pars
+     */
+    double[] setNonlinear(double[] pars, double[] nonlinear) {
+        for (int k = 0; k < nonlinearPars.length; k++) {
+            pars[nonlinearPars[k]] = nonlinear[k];
+        }
+        return pars;
+    }
+
+    /**
+     * @param pars the parameters
+     * @return the values of the nonlinear parameters in pars
+     */
+    double[] getNonlinear(double[] pars) {
+        double[] nonlinear = new double[nonlinearPars.length];
+        for (int k = 0; k < nonlinearPars.length; k++) {
+            nonlinear[k] = pars[nonlinearPars[k]];
+        }
+        return nonlinear;
+    }
+
+    /**
+     * Replace the linear parameters with their least squares values for the
+     * current values of the nonlinear parameters.
+     *
+     * @param pars the parameters, updated in place
+     * @return pars
+     */
+    double[] solveLinear(double[] pars) {
+        double[] ax = new double[xValues.length];
+        double[] derivs = new double[map[0].length];
+        for (Block block : blocks) {
+            fitLinear(block, pars, ax, derivs);
+        }
+        return pars;
+    }
+
+    /**
+     * The weighted values of the projected model and the Jacobian with
+     * respect to the nonlinear parameters. The values are those of the model
+     * with the linear parameters at their least squares values.
+     *
+     * @param template the parameters that the nonlinear ones are copied into
+     * @return the model function
+     */
+    MultivariateJacobianFunction jacobianFunction(double[] template) {
+        return (RealVector point) -> {
+            double[] pars = setNonlinear(template.clone(), point.toArray());
+            double[] values = new double[target.length];
+            double[][] jacobian = new double[target.length][nonlinearPars.length];
+            double[] ax = new double[xValues.length];
+            double[] derivs = new double[map[0].length];
+            for (Block block : blocks) {
+                LinearFit fit = fitLinear(block, pars, ax, derivs);
+                int[] points = block.points();
+                int[] cols = block.nonlinearCols();
+                RealMatrix dModel = new Array2DRowRealMatrix(points.length, cols.length);
+                for (int row = 0; row < points.length; row++) {
+                    int i = points[row];
+                    int id = idNums[i];
+                    setX(ax, i);
+                    values[i] = scale[i] * derivatives.calculateWithDerivatives(pars, map[id], ax, id, derivs);
+                    for (int p = 0; p < nEqnPars; p++) {
+                        int col = nonlinearCol[map[id][p]];
+                        if (col >= 0) {
+                            dModel.addToEntry(row, Arrays.binarySearch(cols, col), scale[i] * derivs[p]);
+                        }
+                    }
+                }
+                // Kaufman: the derivative of the model projected onto the complement of the basis
+                RealMatrix projected = dModel.subtract(fit.phi().multiply(fit.solver().solve(dModel)));
+                for (int row = 0; row < points.length; row++) {
+                    double[] jRow = jacobian[points[row]];
+                    for (int c = 0; c < cols.length; c++) {
+                        jRow[cols[c]] = projected.getEntry(row, c);
+                    }
+                }
+            }
+            return new Pair<>(new ArrayRealVector(values, false), new Array2DRowRealMatrix(jacobian, false));
+        };
+    }
+
+    /**
+     * Solve the linear problem of a block and store its solution in pars. The
+     * derivatives with respect to the linear parameters are the columns of the
+     * basis and don't depend on their current values.
+     */
+    private LinearFit fitLinear(Block block, double[] pars, double[] ax, double[] derivs) {
+        int[] points = block.points();
+        int[] linearPars = block.linearPars();
+        RealMatrix phi = new Array2DRowRealMatrix(points.length, linearPars.length);
+        double[] y = new double[points.length];
+        for (int row = 0; row < points.length; row++) {
+            int i = points[row];
+            int id = idNums[i];
+            setX(ax, i);
+            derivatives.calculateWithDerivatives(pars, map[id], ax, id, derivs);
+            for (int p = 0; p < nEqnPars; p++) {
+                int col = linearCol[map[id][p]];
+                if (col >= 0) {
+                    phi.addToEntry(row, col, scale[i] * derivs[p]);
+                }
+            }
+            y[row] = target[i];
+        }
+        DecompositionSolver solver = new QRDecomposition(phi).getSolver();
+        RealVector solution = solver.solve(new ArrayRealVector(y, false));
+        for (int col = 0; col < linearPars.length; col++) {
+            pars[linearPars[col]] = solution.getEntry(col);
+        }
+        return new LinearFit(phi, solver);
+    }
+
+    private void setX(double[] ax, int i) {
+        for (int j = 0; j < ax.length; j++) {
+            ax[j] = xValues[j][i];
+        }
+    }
+}
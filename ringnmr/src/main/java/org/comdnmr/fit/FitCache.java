@@ -0,0 +1,241 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.comdnmr.data.CPMGExperiment;
+import org.comdnmr.data.Experiment;
+import org.comdnmr.data.ExperimentData;
+import org.comdnmr.data.ExperimentSet;
+import org.comdnmr.data.OffsetExperiment;
+import org.comdnmr.eqnfit.FitFunction;
+import org.comdnmr.eqnfit.FitResult;
+import org.comdnmr.util.CoMDOptions;
+import org.comdnmr.util.CoMDPreferences;
+import org.nmrfx.chemistry.relax.ResonanceSource;
+
+/**
+ * Cache of the fit results for groups of resonances. Each result is stored
+ * with a digest of everything the fit depends on: the experiment data of the
+ * group, the experiment parameters, and the fit options and preferences. A
+ * stored result is only returned when the digest for the current inputs
+ * matches, so only groups whose inputs changed are fit again.
+ */
+public class FitCache {
+
+    record Key(List<ResonanceSource> sources, String equationName) {
+
+    }
+
+    record Entry(String digest, FitResult fitResult) {
+
+    }
+
+    /**
+     * Every getter of {@link CoMDOptions}, in name order. The digest includes
+     * the value of each of them, so options added later are included without
+     * changes here.
+     */
+    private static final List<Method> OPTION_GETTERS = Arrays.stream(CoMDOptions.class.getMethods())
+            .filter(m -> m.getDeclaringClass() == CoMDOptions.class)
+            .filter(m -> m.getName().startsWith("get") && (m.getParameterCount() == 0))
+            .filter(m -> !Modifier.isStatic(m.getModifiers()))
+            .sorted(Comparator.comparing(Method::getName))
+            .toList();
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Get a stored result.
+     *
+     * @param dynSources the resonances fit together
+     * @param equationName the equation
+     * @param digest digest of the current inputs, from {@link #digest}
+     * @return the stored result, or null if there is none for these inputs.
+     * A result stored for different inputs can't be used again, so it is
+     * removed.
+     */
+    public FitResult get(ResonanceSource[] dynSources, String equationName, String digest) {
+        Key key = new Key(List.of(dynSources), equationName);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.digest().equals(digest)) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.fitResult();
+    }
+
+    /**
+     * Store a result, replacing any result stored for the same resonances and
+     * equation.
+     *
+     * @param dynSources the resonances fit together
+     * @param equationName the equation
+     * @param digest digest of the inputs the result was fit with
+     * @param fitResult the result
+     */
+    public void put(ResonanceSource[] dynSources, String equationName, String digest, FitResult fitResult) {
+        entries.put(new Key(List.of(dynSources), equationName), new Entry(digest, fitResult));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Calculate a digest of the inputs to the fit of a group of resonances.
+     *
+     * @param experimentSet the experiment set containing the data
+     * @param dynSources the resonances fit together
+     * @param options the options used to fit
+     * @return the digest as a hex string
+     */
+    public static String digest(ExperimentSet experimentSet, ResonanceSource[] dynSources, CoMDOptions... options) {
+        Digester digester = new Digester();
+        digester.add(experimentSet.name());
+        digester.add(experimentSet.getExpMode());
+        digester.add(experimentSet.getStateCount(dynSources.length));
+        for (var dynSource : dynSources) {
+            for (Experiment experiment : experimentSet.getExperimentData()) {
+                ExperimentData experimentData = experiment.getResidueData(dynSource);
+                if (experimentData == null) {
+                    continue;
+                }
+                digester.add(experiment.getName());
+                digester.add(experiment.getB0Field());
+                digester.add(experiment.getNucleusField());
+                digester.add(experiment.getTemperature());
+                digester.add(experiment.getState());
+                digester.add(String.valueOf(experiment.getExtras()));
+                digester.add(String.valueOf(experiment.getConstraints()));
+                if (experiment instanceof CPMGExperiment cpmgExperiment) {
+                    digester.add(cpmgExperiment.getTau());
+                } else if (experiment instanceof OffsetExperiment offsetExperiment) {
+                    digester.add(offsetExperiment.getTau());
+                    digester.add(String.valueOf(offsetExperiment.getB1Field()));
+                }
+                double[][] x = experimentData.getXValues();
+                for (double[] xRow : x) {
+                    digester.add(xRow);
+                }
+                digester.add(experimentData.getYValues());
+                digester.add(experimentData.getErrValues());
+            }
+        }
+        for (CoMDOptions option : options) {
+            for (Method getter : OPTION_GETTERS) {
+                digester.add(getter.getName());
+                try {
+                    digester.add(String.valueOf(getter.invoke(option)));
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new IllegalStateException("Can't read option " + getter.getName(), e);
+                }
+            }
+        }
+        digester.add(String.valueOf(FitFunction.getCalcError()));
+        // preferences read by the equations while fitting
+        digester.add(CoMDPreferences.getCPMGMaxFreq());
+        digester.add(String.valueOf(CoMDPreferences.getCalR1rhoCorr()));
+        digester.add(String.valueOf(CoMDPreferences.getNeuralNetworkGuess()));
+        return digester.finish();
+    }
+
+    private static class Digester {
+
+        final MessageDigest messageDigest;
+        final ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES);
+
+        Digester() {
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform is required to provide SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void add(String value) {
+            if (value == null) {
+                add(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                add(bytes.length);
+                messageDigest.update(bytes);
+            }
+        }
+
+        void add(double value) {
+            buffer.clear();
+            buffer.putDouble(value);
+            messageDigest.update(buffer.array());
+        }
+
+        void add(Double value) {
+            add(value == null ? Double.NaN : value);
+        }
+
+        void add(int value) {
+            add((double) value);
+        }
+
+        void add(Integer value) {
+            add(value == null ? Double.NaN : value);
+        }
+
+        void add(double[] values) {
+            add(values.length);
+            for (double value : values) {
+                add(value);
+            }
+        }
+
+        void add(int[] values) {
+            add(values.length);
+            for (int value : values) {
+                add(value);
+            }
+        }
+
+        String finish() {
+            byte[] digest = messageDigest.digest();
+            StringBuilder sBuilder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sBuilder.append(String.format("%02x", b));
+            }
+            return sBuilder.toString();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.comdnmr.data.DataIO.XCONV;
+import org.comdnmr.data.DynamicsSource;
+import org.comdnmr.eqnfit.ExpEquation;
+import org.comdnmr.eqnfit.ExpFitFunction;
+import org.comdnmr.util.CoMDOptions;
+import org.nmrfx.chemistry.Atom;
+import org.nmrfx.chemistry.relax.RelaxTypes;
+import org.nmrfx.chemistry.relax.RelaxationData;
+import org.nmrfx.chemistry.relax.RelaxationRex;
+import org.nmrfx.chemistry.relax.RelaxationSet;
+import org.nmrfx.chemistry.relax.ResonanceSource;
+import org.nmrfx.datasets.DatasetBase;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakList;
+
+/**
+ * Extracts R1, R2 or NOE values for every peak of a peak list in one pass,
+ * without building an {@link org.comdnmr.data.ExperimentSet}. The measured
+ * intensities of all peaks are copied into one array and the decays are fit
+ * in parallel with variable projection, so only the rate is searched. Errors
+ * of the rates come from the covariance of the fit, scaled by the intensity
+ * error estimated from duplicate delays, or by the residuals of each peak if
+ * there are no duplicates. The results can be stored on the atoms the same
+ * way as {@link org.comdnmr.data.DataIO#addRelaxationFitResults}.
+ */
+public class PeakListFitter {
+
+    /**
+     * The value for one peak.
+     *
+     * @param resonanceSource the resonance of the peak
+     * @param value the rate or NOE
+     * @param error the error of the value
+     */
+    public record PeakValue(ResonanceSource resonanceSource, double value, double error) {
+
+    }
+
+    final CoMDOptions options;
+
+    public PeakListFitter(CoMDOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Fit every active peak of a peak list and store the values on the atoms
+     * of the active molecule, in a relaxation set named after the peak list.
+     *
+     * @param peakList the peak list, whose peaks have measured intensities
+     * @param relaxType R1, R2 or NOE
+     * @param dynamicsSourceFactory creates the resonances of the peaks
+     * @return the relaxation set the values were stored in
+     */
+    public RelaxationSet fitAndStore(PeakList peakList, RelaxTypes relaxType, DynamicsSource dynamicsSourceFactory) {
+        return fitAndStore(peakList, relaxType, dynamicsSourceFactory, XCONV.IDENTITY);
+    }
+
+    /**
+     * Fit every active peak of a peak list and store the values on the atoms
+     * of the active molecule, in a relaxation set named after the peak list.
+     *
+     * @param peakList the peak list, whose peaks have measured intensities
+     * @param relaxType R1, R2 or NOE
+     * @param dynamicsSourceFactory creates the resonances of the peaks
+     * @param xConv the conversion of the measured values to delays,
+     * {@link XCONV#IDENTITY} or {@link XCONV#MSTOS}
+     * @return the relaxation set the values were stored in
+     * @throws IllegalArgumentException if xConv isn't one of the supported
+     * conversions
+     */
+    public RelaxationSet fitAndStore(PeakList peakList, RelaxTypes relaxType, DynamicsSource dynamicsSourceFactory,
+            XCONV xConv) {
+        List<PeakValue> values = fit(peakList, relaxType, dynamicsSourceFactory, xConv);
+        double field = peakList.getSpectralDim(0).getSf();
+        return store(peakList.getName() + "_RING_fit", relaxType, field, values);
+    }
+
+    /**
+     * Fit every active peak of a peak list, using the measured values as the
+     * delays.
+     *
+     * @param peakList the peak list, whose peaks have measured intensities
+     * @param relaxType R1, R2 or NOE
+     * @param dynamicsSourceFactory creates the resonances of the peaks
+     * @return the values of the peaks
+     */
+    public List<PeakValue> fit(PeakList peakList, RelaxTypes relaxType, DynamicsSource dynamicsSourceFactory) {
+        return fit(peakList, relaxType, dynamicsSourceFactory, XCONV.IDENTITY);
+    }
+
+    /**
+     * Fit every active peak of a peak list. For R1 and R2 the measured values
+     * are converted to delays with xConv, as
+     * {@link org.comdnmr.data.DataIO#loadFromPeakList} does, so delays
+     * measured in ms need {@link XCONV#MSTOS}. NOE values use the measured
+     * values unconverted to tell the saturated spectra from the reference
+     * ones. Peaks without a resonance, or whose fit failed, are left out.
+     * Only {@link XCONV#IDENTITY} and {@link XCONV#MSTOS} are supported, as
+     * the other conversions are for dispersion data and some of them need the
+     * parameters or the experiment of a data set.
+     *
+     * @param peakList the peak list, whose peaks have measured intensities
+     * @param relaxType R1, R2 or NOE
+     * @param dynamicsSourceFactory creates the resonances of the peaks
+     * @param xConv the conversion of the measured values to delays,
+     * {@link XCONV#IDENTITY} or {@link XCONV#MSTOS}
+     * @return the values of the peaks
+     * @throws IllegalArgumentException if xConv isn't one of the supported
+     * conversions
+     */
+    public List<PeakValue> fit(PeakList peakList, RelaxTypes relaxType, DynamicsSource dynamicsSourceFactory,
+            XCONV xConv) {
+        if ((xConv != XCONV.IDENTITY) && (xConv != XCONV.MSTOS)) {
+            throw new IllegalArgumentException("Can't convert peak list delays with " + xConv);
+        }
+        final double[] measureValues;
+        double[] measureX = peakList.getMeasureValues();
+        DatasetBase dataset = DatasetBase.getDataset(peakList.fileName);
+        if (measureX != null) {
+            measureValues = measureX;
+        } else if (dataset != null) {
+            measureValues = dataset.getValues(2);
+        } else {
+            throw new IllegalArgumentException("Peaklist or dataset doesn't have measured values");
+        }
+        double[] xValues = new double[measureValues.length];
+        for (int i = 0; i < xValues.length; i++) {
+            xValues[i] = xConv.convert(measureValues[i], null, null);
+        }
+        if (peakList.peaks().stream().anyMatch(p -> p.getMeasures().isEmpty())) {
+            throw new IllegalArgumentException("Some peaks don't have measured values");
+        }
+        String[] nucNames;
+        switch (relaxType) {
+            case R1:
+            case R2:
+                nucNames = new String[]{peakList.getSpectralDim(1).getNucleus().replaceAll("[^a-zA-Z]", "")};
+                break;
+            case NOE:
+                nucNames = new String[]{peakList.getSpectralDim(1).getNucleus().replaceAll("[^a-zA-Z]", ""), "H"};
+                break;
+            default:
+                throw new IllegalArgumentException("Can't fit " + relaxType + " data from a peak list in one pass");
+        }
+
+        List<Peak> peaks = new ArrayList<>();
+        List<ResonanceSource> sources = new ArrayList<>();
+        for (Peak peak : peakList.peaks()) {
+            if (peak.getStatus() >= 0) {
+                Optional<ResonanceSource> resSourceOpt = dynamicsSourceFactory.createFromPeak(peak, nucNames);
+                if (resSourceOpt.isPresent()) {
+                    peaks.add(peak);
+                    sources.add(resSourceOpt.get());
+                }
+            }
+        }
+        int nX = xValues.length;
+        double[] intensities = new double[peaks.size() * nX];
+        double[] noise = new double[peaks.size() * nX];
+        for (int iPeak = 0; iPeak < peaks.size(); iPeak++) {
+            double[][] v = peaks.get(iPeak).getMeasures().get();
+            System.arraycopy(v[0], 0, intensities, iPeak * nX, nX);
+            System.arraycopy(v[1], 0, noise, iPeak * nX, nX);
+        }
+
+        double[][] results = relaxType == RelaxTypes.NOE
+                ? noes(measureValues, intensities, noise)
+                : fitDecays(xValues, intensities);
+        List<PeakValue> values = new ArrayList<>();
+        for (int iPeak = 0; iPeak < results.length; iPeak++) {
+            if (results[iPeak] != null) {
+                values.add(new PeakValue(sources.get(iPeak), results[iPeak][0], results[iPeak][1]));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Fit a single exponential decay to each peak.
+     *
+     * @param xValues the delays
+     * @param intensities the intensities, the values of each peak following
+     * those of the previous one
+     * @return the rate and its error for each peak, or null for peaks whose
+     * fit failed
+     */
+    public double[][] fitDecays(double[] xValues, double[] intensities) {
+        int nX = xValues.length;
+        int nPeaks = intensities.length / nX;
+        double intensityError = estimateError(xValues, intensities);
+        double[][] results = new double[nPeaks][];
+        int nThreads = Math.max(1, options.getNProcesses());
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            pool.submit(() -> IntStream.range(0, nPeaks).parallel().forEach(iPeak -> {
+                results[iPeak] = fitDecay(xValues, intensities, iPeak * nX, intensityError);
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private double[] fitDecay(double[] xValues, double[] intensities, int start, double intensityError) {
+        int nX = xValues.length;
+        double[] y = new double[nX];
+        System.arraycopy(intensities, start, y, 0, nX);
+        double[] err = new double[nX];
+        Arrays.fill(err, intensityError > 0.0 ? intensityError : 1.0);
+        try {
+            ExpFitFunction fitFunction = new ExpFitFunction(options, new double[][]{xValues}, y, err);
+            fitFunction.setMap(ExpEquation.EXPAB.makeMap(1));
+            double[] guess = fitFunction.guess();
+            if (!(guess[0] > 0.0) || !Double.isFinite(guess[1])) {
+                return null;
+            }
+            double[][] boundaries = fitFunction.boundaries(guess);
+            PointValuePair result = fitFunction.refine(guess, boundaries[0], boundaries[1],
+                    options.getStartRadius(), "VARPRO");
+            double A = result.getPoint()[0];
+            double R = result.getPoint()[1];
+            // covariance of R from the Jacobian of A exp(-R t)
+            double sEE = 0.0;
+            double sED = 0.0;
+            double sDD = 0.0;
+            double sumSq = 0.0;
+            for (int i = 0; i < nX; i++) {
+                double e = Math.exp(-R * xValues[i]);
+                double d = -xValues[i] * A * e;
+                sEE += e * e;
+                sED += e * d;
+                sDD += d * d;
+                double delta = A * e - y[i];
+                sumSq += delta * delta;
+            }
+            double variance = intensityError > 0.0 ? intensityError * intensityError : sumSq / (nX - 2);
+            double covRR = sEE / (sEE * sDD - sED * sED);
+            double rError = Math.sqrt(variance * covRR);
+            if (!Double.isFinite(R) || !Double.isFinite(rError)) {
+                return null;
+            }
+            return new double[]{R, rError};
+        } catch (IllegalArgumentException iAE) {
+            return null;
+        }
+    }
+
+    /**
+     * Estimate the intensity error from the differences between values
+     * measured at the same delay, the same way as
+     * {@link org.comdnmr.data.DataIO#estimateErrors}.
+     *
+     * @return the error, or 0 if there are no duplicate delays
+     */
+    static double estimateError(double[] xValues, double[] intensities) {
+        int nX = xValues.length;
+        int nDups = 0;
+        double sumDelta2 = 0.0;
+        for (int start = 0; start < intensities.length; start += nX) {
+            for (int i = 0; i < nX - 1; i++) {
+                for (int j = i + 1; j < nX; j++) {
+                    if (xValues[i] == xValues[j]) {
+                        double delta = intensities[start + i] - intensities[start + j];
+                        sumDelta2 += delta * delta;
+                        nDups++;
+                    }
+                }
+            }
+        }
+        return nDups > 0 ? Math.sqrt(sumDelta2 / (2.0 * nDups)) : 0.0;
+    }
+
+    /**
+     * Calculate the NOE of each peak the same way as
+     * {@link org.comdnmr.data.DataIO#loadFromPeakList}: from the mean and
+     * standard deviation of the ratios of paired spectra if there are more
+     * than three, and otherwise from the second intensity relative to the
+     * first and their noise.
+     */
+    private double[][] noes(double[] xValues, double[] intensities, double[] noise) {
+        int nX = xValues.length;
+        int nPeaks = intensities.length / nX;
+        double[][] results = new double[nPeaks][];
+        for (int iPeak = 0; iPeak < nPeaks; iPeak++) {
+            int start = iPeak * nX;
+            if (nX > 3) {
+                SummaryStatistics sStat = new SummaryStatistics();
+                for (int i = 0; i < nX / 2; i++) {
+                    double v0 = intensities[start + i * 2];
+                    double v1 = intensities[start + i * 2 + 1];
+                    sStat.addValue(xValues[i * 2] > 0.5 ? v0 / v1 : v1 / v0);
+                }
+                results[iPeak] = new double[]{sStat.getMean(), sStat.getStandardDeviation()};
+            } else if (nX > 1) {
+                double refIntensity = intensities[start];
+                double expIntensity = intensities[start + 1];
+                double r1 = noise[start] / refIntensity;
+                double r2 = noise[start + 1] / expIntensity;
+                double error = Math.abs(expIntensity / refIntensity) * Math.sqrt(r1 * r1 + r2 * r2);
+                results[iPeak] = new double[]{expIntensity / refIntensity, error};
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Store values on the atoms of their resonances, the same way as
+     * {@link org.comdnmr.data.DataIO#addRelaxationFitResults}.
+     *
+     * @param name the name of the relaxation set
+     * @param relaxType the type of the values
+     * @param field the spectrometer field
+     * @param values the values
+     * @return the relaxation set the values were stored in
+     */
+    public static RelaxationSet store(String name, RelaxTypes relaxType, double field, List<PeakValue> values) {
+        Map<String, String> extras = new HashMap<>();
+        extras.put("coherenceType", "Sz");
+        extras.put("units", "s-1");
+        double temperature = 25.0;
+        RelaxationSet relaxationSet = new RelaxationSet(name, relaxType, field, temperature, extras);
+        for (PeakValue peakValue : values) {
+            ResonanceSource resonanceSource = peakValue.resonanceSource();
+            if (!resonanceSource.deleted()) {
+                Atom atom = resonanceSource.getAtom();
+                if (relaxType == RelaxTypes.R2) {
+                    RelaxationRex relaxData = new RelaxationRex(relaxationSet, resonanceSource,
+                            peakValue.value(), peakValue.error(), null, null);
+                    atom.getRelaxationData().put(relaxationSet, relaxData);
+                } else {
+                    RelaxationData relaxData = new RelaxationData(relaxationSet, resonanceSource,
+                            peakValue.value(), peakValue.error());
+                    atom.getRelaxationData().put(relaxationSet, relaxData);
+                }
+            }
+        }
+        return relaxationSet;
+    }
+}
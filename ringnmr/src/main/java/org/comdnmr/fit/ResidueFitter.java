@@ -25,6 +25,7 @@ import org.comdnmr.eqnfit.EquationType;
 import org.comdnmr.eqnfit.FitResult;
 import org.comdnmr.eqnfit.R1RhoEquation;
 import org.comdnmr.eqnfit.CESTFitter;
+import org.comdnmr.eqnfit.CurveCache;
 import org.comdnmr.eqnfit.CurveFit;
 import org.comdnmr.eqnfit.ExpFitter;
 import org.comdnmr.eqnfit.EquationFitter;
@@ -34,11 +35,14 @@ import org.comdnmr.util.ProcessingStatus;
 import org.comdnmr.data.ExperimentSet;
 import org.comdnmr.data.ExperimentResult;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.concurrent.Service;
@@ -64,7 +68,8 @@ public class ResidueFitter {
     Function<Double, Double> updaterFunction;
     Function<ProcessingStatus, Double> statusFunction;
     List<List<ResonanceSource>> atomFitGroups = null;
-    FitResult fitResult;
+    volatile FitResult fitResult;
+    private final FitCache fitCache = new FitCache();
 
     public ResidueFitter(CoMDOptions options) {
         this.options = options;
@@ -82,6 +87,7 @@ public class ResidueFitter {
         this.atomFitGroups = null;
         experimentSet.clearResidueMap();
         fitAllAtoms(null);
+        CurveCache.clear();
         RelaxTypes relaxType = RelaxTypes.valueOf(experimentSet.getExpMode().toUpperCase());
         DataIO.addRelaxationFitResults(experimentSet, relaxType);
     }
@@ -146,6 +152,8 @@ public class ResidueFitter {
 
     void finishProcessing() {
         updateStatus("Done");
+        // the plotted curves may use the old fits or reference fields
+        CurveCache.clear();
         try {
             String expMode = experimentSet.getExpMode().toUpperCase();
             if (expMode.equals("R1") || expMode.equals("R2")) {
@@ -159,24 +167,7 @@ public class ResidueFitter {
     }
 
     public void fitAllResidueGroups(Task task) {
-        for (List<ResonanceSource> dynFitGroup : atomFitGroups) {
-            int nResidues = dynFitGroup.size();
-            int nFit = 0;
-            if (task.isCancelled()) {
-                break;
-            }
-            ResonanceSource[] dynGroup = new ResonanceSource[dynFitGroup.size()];
-            dynFitGroup.toArray(dynGroup);
-            List<ExperimentResult> resInfoList = fitResidues(experimentSet, dynGroup, nFit, null);
-            resInfoList.forEach((resInfo) -> {
-                ResonanceSource dynSource = resInfo.getResonanceSource();
-                if (!dynSource.deleted()) {
-                    experimentSet.addExperimentResult(dynSource, resInfo);
-                }
-            });
-            nFit++;
-            updateProgress((1.0 * nFit) / nResidues);
-        }
+        fitGroups(task, atomFitGroups, true);
     }
 
     public List<List<ResonanceSource>> getAllAtoms() {
@@ -216,29 +207,68 @@ public class ResidueFitter {
     }
 
     public void fitAllAtoms(Task task) {
-        List<List<ResonanceSource>> allAtoms = getAllAtoms();
-        int nGroups = allAtoms.size();
-        int nFit = 0;
-        for (List<ResonanceSource> atomList : allAtoms) {
-            if ((task != null) && task.isCancelled()) {
-                break;
+        fitGroups(task, getAllAtoms(), false);
+    }
+
+    boolean isCancelled(Task task) {
+        return (task != null) && task.isCancelled();
+    }
+
+    /**
+     * Fit each group of resonances as an independent task on a work-stealing
+     * pool whose size is set by the NProcesses option. Bootstrap streams
+     * started within a group run in the same pool, so the option bounds the
+     * total number of cores used. Results are merged into the experiment set
+     * on the calling thread in group order so the final state does not depend
+     * on thread scheduling. Each group checks for cancellation before fitting
+     * an equation, so a cancelled fit stops once the current equations are
+     * done.
+     *
+     * @param task the task running the fit, used to check for cancellation.
+     * May be null.
+     * @param groups the groups of resonances to fit
+     * @param skipDeleted if true, don't store results for deleted resonances
+     */
+    void fitGroups(Task task, List<List<ResonanceSource>> groups, boolean skipDeleted) {
+        ExperimentSet fitSet = experimentSet;
+        int nGroups = groups.size();
+        int nThreads = Math.max(1, options.getNProcesses());
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            List<ForkJoinTask<GroupFit>> fitTasks = new ArrayList<>();
+            int groupId = 0;
+            for (List<ResonanceSource> group : groups) {
+                ResonanceSource[] dynGroup = new ResonanceSource[group.size()];
+                group.toArray(dynGroup);
+                int iGroup = groupId++;
+                fitTasks.add(pool.submit(() -> fitGroup(fitSet, dynGroup, iGroup, null, task)));
             }
-            ResonanceSource[] atomGroup = new ResonanceSource[atomList.size()];
-            atomList.toArray(atomGroup);
-            List<ExperimentResult> resInfoList = fitResidues(experimentSet, atomGroup, nFit, null);
-            resInfoList.forEach((resInfo) -> {
-                ResonanceSource fitAtom = resInfo.getResonanceSource();
-                experimentSet.addExperimentResult(fitAtom, resInfo);
-            });
-            nFit++;
-            if (task != null) {
-                updateProgress((1.0 * nFit) / nGroups);
+            int nFit = 0;
+            for (ForkJoinTask<GroupFit> fitTask : fitTasks) {
+                if (isCancelled(task)) {
+                    break;
+                }
+                GroupFit groupFit = fitTask.join();
+                if (groupFit.fitResult() != null) {
+                    fitResult = groupFit.fitResult();
+                }
+                groupFit.results().forEach((resInfo) -> {
+                    ResonanceSource dynSource = resInfo.getResonanceSource();
+                    if (!skipDeleted || !dynSource.deleted()) {
+                        fitSet.addExperimentResult(dynSource, resInfo);
+                    }
+                });
+                nFit++;
+                if (task != null) {
+                    updateProgress((1.0 * nFit) / nGroups);
+                }
             }
+        } finally {
+            pool.shutdownNow();
         }
-
     }
 
-    EquationFitter getFitter(CoMDOptions options) {
+    EquationFitter getFitter(ExperimentSet experimentSet, CoMDOptions options) {
         EquationFitter fitter;
         switch (experimentSet.getExpMode()) {
             case "cpmg":
@@ -279,6 +309,36 @@ public class ResidueFitter {
     public List<ExperimentResult> fitResidues(ExperimentSet experimentSet, ResonanceSource[] dynSources, int groupId, String useEquation) {
         this.experimentSet = experimentSet;
         experimentSet.setupMaps();
+        GroupFit groupFit = fitGroup(experimentSet, dynSources, groupId, useEquation, null);
+        fitResult = groupFit.fitResult();
+        return groupFit.results();
+    }
+
+    /**
+     * The results of fitting one group of resonances.
+     *
+     * @param results the results for each resonance of the group
+     * @param fitResult the fit of the last equation, or null if no equation
+     * was fit
+     */
+    record GroupFit(List<ExperimentResult> results, FitResult fitResult) {
+
+    }
+
+    /**
+     * Fit each equation to a group of resonances. This doesn't change the
+     * state of the fitter, so groups can be fit concurrently.
+     *
+     * @param experimentSet the experiment set with the data
+     * @param dynSources the resonances of the group
+     * @param groupId the index of the group
+     * @param useEquation if not null, the only equation to fit
+     * @param task the task running the fit, checked for cancellation before
+     * each equation. May be null.
+     * @return the results, which are empty if the fit was cancelled
+     */
+    GroupFit fitGroup(ExperimentSet experimentSet, ResonanceSource[] dynSources, int groupId, String useEquation, Task task) {
+        FitResult fitResult = null;
         Map<String, FitResult> fitResults = new HashMap<>();
         double aicMin = Double.MAX_VALUE;
         String bestEquation = "NOEX";
@@ -303,19 +363,27 @@ public class ResidueFitter {
                 bestEquation = "NOEX";
                 break;
             case "noe":
-                return doNOE(experimentSet, dynSources, groupId, useEquation);
+                return new GroupFit(doNOE(experimentSet, dynSources, groupId, useEquation), null);
             default:
                 throw new IllegalArgumentException("Invalid mode " + experimentSet.getExpMode());
         }
+        CoMDOptions fitOptions = new CoMDOptions(true);
+        String digest = FitCache.digest(experimentSet, dynSources, options, fitOptions);
         for (String equationName : equationNames) {
             if ((useEquation != null) && !equationName.equals(useEquation)) {
                 continue;
             }
+            if (isCancelled(task)) {
+                return new GroupFit(Collections.emptyList(), null);
+            }
 
-            EquationFitter equationFitter = getFitter(options);
-            equationFitter.setData(experimentSet, dynSources);
-            CoMDOptions options = new CoMDOptions(true);
-            fitResult = equationFitter.doFit(equationName, null, options);
+            fitResult = fitCache.get(dynSources, equationName, digest);
+            if (fitResult == null) {
+                EquationFitter equationFitter = getFitter(experimentSet, options);
+                equationFitter.setData(experimentSet, dynSources);
+                fitResult = equationFitter.doFit(equationName, null, fitOptions);
+                fitCache.put(dynSources, equationName, digest, fitResult);
+            }
             fitResults.put(equationName, fitResult);
             if (fitResult.getAicc() < aicMin) {
                 aicMin = fitResult.getAicc();
@@ -350,13 +418,21 @@ public class ResidueFitter {
                 experimentResult.addCurveFit(curveFit, bestEquation.equals(equationName));
             }
         }
-        return resInfoList;
+        return new GroupFit(resInfoList, fitResult);
     }
 
     public FitResult getFitResult() {
         return fitResult;
     }
 
+    /**
+     * Discard the stored fit results, so that the next fit of each group is
+     * done even if its data and options haven't changed.
+     */
+    public void clearFitCache() {
+        fitCache.clear();
+    }
+
     private class FitResidues {
 
         String script;
@@ -8,11 +8,11 @@ public class DeuteriumDataValue extends RelaxDataValue {
     final double rAP;
     final double rAPError;
 
-    public DeuteriumDataValue(MolDataValues molDataValue, double r1,
+    public DeuteriumDataValue(double r1,
                               double r1Error, double r2, double r2Error,
                               double rQ, double rQError, double rAP, double rAPError,
                               RelaxEquations relaxObj) {
-        super(molDataValue, r1, r1Error, r2, r2Error, relaxObj);
+        super(r1, r1Error, r2, r2Error, relaxObj);
         this.rAP = rAP;
         this.rAPError = rAPError;
         this.rQ = rQ;
@@ -25,7 +25,7 @@ public class DeuteriumDataValue extends RelaxDataValue {
         double newR2 = r2 + random.nextGaussian() * scale * R2err;
         double newRQ = rQ + random.nextGaussian() * scale * rQError;
         double newRAP = rAP + random.nextGaussian() * scale * rAPError;
-        RelaxDataValue newValue = new DeuteriumDataValue(molData, newR1, R1err,
+        RelaxDataValue newValue = new DeuteriumDataValue(newR1, R1err,
                 newR2, R2err, newRQ, rQError, newRAP, rAPError, relaxObj);
         molData.addData(newValue);
     }
@@ -0,0 +1,299 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.modelfree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.comdnmr.data.Fitter;
+import org.comdnmr.modelfree.RelaxFit.DiffusionType;
+import org.comdnmr.modelfree.models.MFModelAniso;
+import org.comdnmr.util.CoMDPreferences;
+
+/**
+ * Refines a diffusion tensor together with the model-free parameters of all
+ * residues. The parameters of each residue only depend on the tensor and its
+ * own data, so the problem is solved by block coordinate descent: with the
+ * tensor fixed the residues are independent and are fit in parallel, and with
+ * the residue parameters fixed the tensor is fit to all of the data. Both
+ * steps minimize the same objective, the sum of the values
+ * {@link RelaxFit#value} gives for each residue, including any complexity
+ * penalties. The two steps alternate until the objective stops improving. A
+ * step is only accepted if it lowers the objective, so the result is never
+ * worse than the starting point.
+ * <p>
+ * The test model of every residue must be an {@link MFModelAniso} instance of
+ * its own, holding the bond vector of the residue.
+ */
+public class DiffusionRefiner {
+
+    /**
+     * The refined parameters.
+     *
+     * @param diffusionPars the diffusion and angle parameters
+     * @param residuePars the model parameters of each residue
+     * @param value the value of the objective
+     * @param rms the RMS deviation of the relaxation rates
+     * @param nIterations the number of tensor and residue iterations done
+     */
+    public record Result(double[] diffusionPars, Map<String, double[]> residuePars, double value, double rms,
+            int nIterations) {
+
+    }
+
+    private record Residue(String key, MolDataContext context, MFModelAniso model, RelaxFit relaxFit) {
+
+    }
+
+    private final DiffusionType diffusionType;
+    private final List<Residue> residues = new ArrayList<>();
+    private final RelaxFit tensorFit = new RelaxFit();
+    private int maxIterations = 20;
+    private double tolerance = 1.0e-4;
+
+    /**
+     * Create a refiner for the residues of a set of contexts.
+     *
+     * @param diffusionType the type of diffusion, which can't be isotropic
+     * @param contexts the contexts of the residues
+     */
+    public DiffusionRefiner(DiffusionType diffusionType, Map<String, MolDataContext> contexts) {
+        if (diffusionType == DiffusionType.ISOTROPIC) {
+            throw new IllegalArgumentException("Refining a diffusion tensor needs an anisotropic diffusion type");
+        }
+        this.diffusionType = diffusionType;
+        tensorFit.setDiffusionType(diffusionType);
+        for (var entry : contexts.entrySet()) {
+            MolDataContext context = entry.getValue();
+            if (!(context.getTestModel() instanceof MFModelAniso model)) {
+                throw new IllegalArgumentException("Residue " + entry.getKey() + " doesn't have an anisotropic model");
+            }
+            RelaxFit relaxFit = new RelaxFit();
+            relaxFit.setDiffusionType(diffusionType);
+            relaxFit.setContexts(Map.of(entry.getKey(), context));
+            residues.add(new Residue(entry.getKey(), context, model, relaxFit));
+        }
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Refine the tensor and residue parameters, starting each residue from the
+     * default start values of its model.
+     *
+     * @param guesses the starting diffusion and angle parameters
+     * @return the refined parameters
+     */
+    public Result refine(double[] guesses) {
+        double tauC = 1.0 / (6.0 * isoD(guesses));
+        Map<String, double[]> residuePars = new LinkedHashMap<>();
+        for (Residue residue : residues) {
+            residuePars.put(residue.key(), residue.model().getStart(tauC));
+        }
+        return refine(guesses, residuePars);
+    }
+
+    /**
+     * Refine the tensor and residue parameters.
+     *
+     * @param guesses the starting diffusion and angle parameters
+     * @param startPars the starting model parameters of each residue
+     * @return the refined parameters
+     */
+    public Result refine(double[] guesses, Map<String, double[]> startPars) {
+        int nThreads = Math.max(1, CoMDPreferences.getNProcesses());
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            return pool.submit(() -> iterate(guesses, startPars)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Result iterate(double[] guesses, Map<String, double[]> startPars) {
+        double[][] bounds = tensorBounds(guesses);
+        double[] tensorPars = guesses.clone();
+        double[][] residuePars = new double[residues.size()][];
+        for (int i = 0; i < residuePars.length; i++) {
+            residuePars[i] = startPars.get(residues.get(i).key()).clone();
+        }
+        double value = objective(tensorPars, residuePars);
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            double lastValue = value;
+            fitResidues(tensorPars, residuePars);
+            double[] fitTensor = fitTensor(tensorPars, residuePars, bounds);
+            if (fitTensor != null) {
+                tensorPars = fitTensor;
+            }
+            value = objective(tensorPars, residuePars);
+            if ((lastValue - value) <= tolerance * lastValue) {
+                break;
+            }
+        }
+        double rms = rms(tensorPars, residuePars);
+        Arrays.sort(tensorPars, 0, diffusionType.getNDiffusionPars());
+        Map<String, double[]> resultPars = new LinkedHashMap<>();
+        for (int i = 0; i < residuePars.length; i++) {
+            resultPars.put(residues.get(i).key(), residuePars[i]);
+        }
+        return new Result(tensorPars, resultPars, value, rms, iteration);
+    }
+
+    private double isoD(double[] pars) {
+        double[][] D = tensorFit.parsToD(pars, diffusionType);
+        return (D[0][0] + D[1][1] + D[2][2]) / 3.0;
+    }
+
+    private double[][] tensorBounds(double[] guesses) {
+        double[] lower = new double[guesses.length];
+        double[] upper = new double[guesses.length];
+        int nDiffPars = diffusionType.getNDiffusionPars();
+        int nAnglePars = diffusionType.getNAnglePars();
+        for (int i = 0; i < nDiffPars; i++) {
+            lower[i] = guesses[i] / 2;
+            upper[i] = guesses[i] * 2;
+        }
+        for (int i = nDiffPars; i < nDiffPars + nAnglePars; i++) {
+            lower[i] = guesses[i] - Math.PI / 4.0;
+            upper[i] = guesses[i] + Math.PI / 4.0;
+        }
+        return new double[][]{lower, upper};
+    }
+
+    private DiffusionTensor tensor(double[] pars) {
+        double[] sortedPars = pars.clone();
+        Arrays.sort(sortedPars, 0, diffusionType.getNDiffusionPars());
+        return new DiffusionTensor(diffusionType, tensorFit.parsToD(sortedPars, diffusionType),
+                tensorFit.parsToVT(sortedPars, diffusionType));
+    }
+
+    /**
+     * Fit the model parameters of each residue with the tensor fixed. The
+     * residues are independent, so they are fit in parallel, and each one
+     * only keeps its new parameters if they lower its term of the objective.
+     */
+    private void fitResidues(double[] tensorPars, double[][] residuePars) {
+        DiffusionTensor tensor = tensor(tensorPars);
+        double tauC = 1.0 / (6.0 * isoD(tensorPars));
+        IntStream.range(0, residues.size()).parallel().forEach(i -> {
+            Residue residue = residues.get(i);
+            MFModelAniso model = residue.model();
+            model.update(tensor);
+            model.getStart(tauC);
+            double[] lower = model.getLower();
+            double[] upper = model.getUpper();
+            double[] start = residuePars[i].clone();
+            for (int j = 0; j < start.length; j++) {
+                start[j] = Math.min(upper[j], Math.max(lower[j], start[j]));
+            }
+            double current = residue.relaxFit().value(residuePars[i], null);
+            PointValuePair result = residue.relaxFit().fitResidueToModel(start, lower, upper);
+            if ((result != null) && (result.getValue() < current)) {
+                residuePars[i] = result.getPoint();
+            }
+        });
+    }
+
+    /**
+     * Fit the tensor with the residue parameters fixed.
+     *
+     * @return the new tensor parameters, or null if the fit didn't improve
+     * them
+     */
+    private double[] fitTensor(double[] tensorPars, double[][] residuePars, double[][] bounds) {
+        Fitter fitter = Fitter.getArrayFitter((pars, values) -> objective(pars, residuePars));
+        double[] start = tensorPars.clone();
+        for (int j = 0; j < start.length; j++) {
+            start[j] = Math.min(bounds[1][j], Math.max(bounds[0][j], start[j]));
+        }
+        try {
+            PointValuePair result = fitter.fit(start, bounds[0], bounds[1], 10.0);
+            if (result.getValue() < objective(tensorPars, residuePars)) {
+                return result.getPoint();
+            }
+        } catch (MathIllegalStateException | MathIllegalArgumentException ex) {
+            // BOBYQA reports its failures directly
+            Logger.getLogger(DiffusionRefiner.class.getName()).log(Level.WARNING, "tensor fit failed", ex);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            // CMA-ES failures are wrapped by the Fitter
+            Logger.getLogger(DiffusionRefiner.class.getName()).log(Level.WARNING, "tensor fit failed", ex);
+        }
+        return null;
+    }
+
+    /**
+     * The objective for a tensor, with each residue at its own model
+     * parameters: the sum of the values that the residue step minimizes for
+     * each residue. The tensor terms are calculated once and the residues are
+     * evaluated in parallel.
+     */
+    private double objective(double[] tensorPars, double[][] residuePars) {
+        DiffusionTensor tensor = tensor(tensorPars);
+        double[] values = new double[residues.size()];
+        IntStream.range(0, residues.size()).parallel().forEach(i -> {
+            Residue residue = residues.get(i);
+            residue.model().update(tensor);
+            values[i] = residue.relaxFit().value(residuePars[i], null);
+        });
+        double sum = 0.0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * The RMS deviation of the relaxation rates of all residues for a tensor,
+     * with each residue at its own model parameters.
+     */
+    private double rms(double[] tensorPars, double[][] residuePars) {
+        DiffusionTensor tensor = tensor(tensorPars);
+        double[][] deltas = new double[residues.size()][];
+        IntStream.range(0, residues.size()).parallel().forEach(i -> {
+            Residue residue = residues.get(i);
+            residue.model().update(tensor);
+            deltas[i] = residue.relaxFit().calcDeltaSqR(residue.context(), residuePars[i], residue.model());
+        });
+        double sumSq = 0.0;
+        int n = 0;
+        for (double[] delta : deltas) {
+            sumSq += delta[0];
+            n += (int) Math.round(delta[3]);
+        }
+        return n == 0 ? 0.0 : Math.sqrt(sumSq / n);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.modelfree;
+
+import org.comdnmr.modelfree.RelaxFit.DiffusionType;
+
+/**
+ * The terms of the diffusion J(w) calculations that only depend on the
+ * diffusion tensor. They are calculated once for a tensor and shared by the
+ * {@link DiffusionPars} of every bond vector, which only have to calculate the
+ * terms that depend on the vector. Equations from the SI of Berlin K.;
+ * Longhini, A.; Dayie, T. K. and Fushman, D., J. Biomol NMR, 2013.
+ */
+public final class DiffusionTensor {
+
+    final DiffusionType diffType;
+    final double[] dDiff;
+    private final double[] delta;
+    private final double[][] VT;
+
+    /**
+     * Create the tensor terms.
+     *
+     * @param diffType DiffusionType. The type of diffusion: anisotropic,
+     * prolate, or oblate.
+     * @param D double[][]. The diagonalized diffusion matrix.
+     * @param VT double[][]. The transposed orthonormal matrix of the
+     * eigenvectors of D.
+     */
+    public DiffusionTensor(DiffusionType diffType, double[][] D, double[][] VT) {
+        this.diffType = diffType;
+        this.VT = new double[][]{VT[0].clone(), VT[1].clone(), VT[2].clone()};
+        double Dx = D[0][0];
+        double Dy = D[1][1];
+        double Dz = D[2][2];
+        double[] d = new double[3];
+        double[] del = null;
+        switch (diffType) {
+            case ANISOTROPIC: {
+                d = new double[5];
+                double[] k = {Dy - Dx, Dz - Dx, (Dx + Dy + Dz) / 3.0, 0};
+                k[3] = Math.sqrt(k[0] * k[0] - k[0] * k[1] + k[1] * k[1]);
+                d[0] = 4.0 * Dx + Dy + Dz;
+                d[1] = Dx + 4.0 * Dy + Dz;
+                d[2] = Dx + Dy + 4.0 * Dz;
+                d[3] = 6.0 * k[2] + 2.0 * k[3];
+                d[4] = 6.0 * k[2] - 2.0 * k[3];
+                del = new double[]{(-k[0] - k[1]) / k[3], (2.0 * k[0] - k[1]) / k[3], (2.0 * k[1] - k[0]) / k[3]};
+                if (k[0] <= 1e-12 && k[1] <= 1e-12 && k[3] <= 1e-12) {
+                    del = new double[3];
+                }
+                break;
+            }
+            case PROLATE: {
+                //Dxx = Dyy
+                double Dpar = Dz;
+                double Dperp = Dx;
+                d[0] = 5.0 * Dperp + Dpar;
+                d[1] = 2.0 * Dperp + 4.0 * Dpar;
+                d[2] = 6.0 * Dperp;
+                break;
+            }
+            case OBLATE: {
+                //Dyy = Dzz
+                double Dpar = Dx;
+                double Dperp = Dz;
+                d[0] = 5.0 * Dperp + Dpar;
+                d[1] = 2.0 * Dperp + 4.0 * Dpar;
+                d[2] = 6.0 * Dperp;
+                break;
+            }
+            default:
+                break;
+        }
+        dDiff = d;
+        delta = del;
+    }
+
+    public DiffusionType getDiffusionType() {
+        return diffType;
+    }
+
+    /**
+     * Calculate the a array for a bond vector.
+     *
+     * @param vec double[]. The unit vector for the SI bond.
+     * @return double[]. The a array.
+     */
+    double[] calcA(double[] vec) {
+        double vx = VT[0][0] * vec[0] + VT[0][1] * vec[1] + VT[0][2] * vec[2];
+        double vy = VT[1][0] * vec[0] + VT[1][1] * vec[1] + VT[1][2] * vec[2];
+        double vz = VT[2][0] * vec[0] + VT[2][1] * vec[1] + VT[2][2] * vec[2];
+        double vx2 = vx * vx;
+        double vy2 = vy * vy;
+        double vz2 = vz * vz;
+        double[] a = new double[3];
+        switch (diffType) {
+            case ANISOTROPIC:
+                a = new double[5];
+                a[0] = 3.0 * (vy2) * (vz2);
+                a[1] = 3.0 * (vx2) * (vz2);
+                a[2] = 3.0 * (vx2) * (vy2);
+                double p1 = 0.25 * (3.0 * ((vx2 * vx2) + (vy2 * vy2) + (vz2 * vz2)) - 1.0);
+                double val1 = delta[0] * (3 * vx2 * vx2 + 2 * a[0] - 1.0);
+                double val2 = delta[1] * (3 * vy2 * vy2 + 2 * a[1] - 1.0);
+                double val3 = delta[2] * (3 * vz2 * vz2 + 2 * a[2] - 1.0);
+                double p2 = (1.0 / 12.0) * (val1 + val2 + val3);
+                a[3] = p1 - p2;
+                a[4] = p1 + p2;
+                break;
+            case PROLATE:
+                //Dxx = Dyy
+                a[0] = 3.0 * (vz2) * (1.0 - vz2);
+                a[1] = 0.75 * (1.0 - vz2) * (1.0 - vz2);
+                a[2] = 0.25 * (3.0 * vz2 - 1.0) * (3.0 * vz2 - 1.0);
+                break;
+            case OBLATE:
+                //Dyy = Dzz
+                a[0] = 3.0 * (vx2) * (1 - vx2);
+                a[1] = 0.75 * (1 - vx2) * (1 - vx2);
+                a[2] = 0.25 * (3 * vx2 - 1) * (3 * vx2 - 1);
+                break;
+            default:
+                break;
+        }
+        return a;
+    }
+}
@@ -6,6 +6,7 @@ import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.rng.sampling.distribution.DirichletSampler;
 import org.comdnmr.modelfree.models.MFModelIso;
 import org.comdnmr.modelfree.models.MFModelIso2sf;
+import org.comdnmr.util.ReplicateRandom;
 import org.nmrfx.chemistry.*;
 import org.nmrfx.chemistry.relax.*;
 
@@ -15,7 +16,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class FitDeuteriumModel extends FitModel {
     Map<String, MolDataValues> molDataValuesMap = null;
-    Random random = new Random();
 
     public void setData(Map<String, MolDataValues> molDataValuesMap) {
         this.molDataValuesMap = molDataValuesMap;
@@ -119,7 +119,7 @@ public class FitDeuteriumModel extends FitModel {
                 if ((r1 != null) && (r2 != null) && (rQ != null) && (rAP != null)) {
                     RelaxEquations relaxObj = RelaxEquations.getRelaxEquations(field * 1e6, "D", "C");
 
-                    RelaxDataValue dValue = new DeuteriumDataValue(molData, r1, r1Error, r2, r2Error,
+                    RelaxDataValue dValue = new DeuteriumDataValue(r1, r1Error, r2, r2Error,
                             rQ, rQError, rAP, rAPError, relaxObj);
                     molData.addData(dValue);
                 }
@@ -163,6 +163,7 @@ public class FitDeuteriumModel extends FitModel {
             }
             MolDataValues resData = e.getValue();
             String key = e.getKey();
+            Random random = ReplicateRandom.random(ReplicateRandom.key(key), 0);
             if (!resData.getData().isEmpty()) {
                 if (bootstrapMode != BootstrapMode.PARAMETRIC) {
                     Optional<ModelFitResult> result = testModelsWithBootstrapAggregation(orderParSetMap, resData, key, modelNames, random);
@@ -196,13 +197,14 @@ public class FitDeuteriumModel extends FitModel {
             localTauFraction = 0.0;
             localFitTau = false;
         }
-        for (var modelName : modelNames) {
-            MFModelIso model = MFModelIso.buildModel(modelName,
-                    localFitTau, tau, localTauFraction, fitExchange);
-            OrderParSet orderParSet = orderParSetMap.get("order_parameter_list_" + modelName);
-
-            resData.setTestModel(model);
-            Score score = tryModel(molDataRes, model, localTauFraction, localFitTau, random);
+        ModelSelector modelSelector = new ModelSelector(this, modelNames, localFitTau, localTauFraction);
+        List<ModelSelector.ModelScore> modelScores = modelSelector.fitAll(contexts(molDataRes, null),
+                ReplicateRandom.key(key), FIT_STREAM);
+        for (int iModel = 0; iModel < modelScores.size(); iModel++) {
+            MFModelIso model = modelScores.get(iModel).model();
+            OrderParSet orderParSet = orderParSetMap.get("order_parameter_list_" + modelNames.get(iModel));
+
+            Score score = modelScores.get(iModel).score();
             if (score != null) {
                 OrderPar orderPar = makeOrderPar(orderParSet, resSource, score, model, model.getParNames(), score.getPars(), null);
                 if (modelNames.size() > 1) {
@@ -279,36 +281,25 @@ public class FitDeuteriumModel extends FitModel {
         double[][] jData = resData.getJValues();
         int nJ = jData[0].length;
 
-        DirichletSampler dirichlet = DirichletSampler.symmetric(getRandomSource(), nJ, 4.0);
+        DirichletSampler dirichlet = DirichletSampler.symmetric(new ReplicateRandom(ReplicateRandom.key(key), 1).getProvider(), nJ, 4.0);
 
         double[][] replicateData = new double[maxPars][nReplicates];
         MFModelIso[] bestModels = new MFModelIso[nReplicates];
         Score[] bestScores = new Score[nReplicates];
 
+        long randomKey = ReplicateRandom.key(key);
+        ModelSelector modelSelector = new ModelSelector(this, modelNames, localFitTau, localTauFraction);
         for (int iRep = 0; iRep < nReplicates; iRep++) {
             if (cancelled.get()) {
                 return result;
             }
             double[] weights = dirichlet.sample();
             scaleWeights(weights);
-            for (var molData : molDataRes.values()) {
-                molData.weight(weights);
-                molData.clearBootStrapSet();
-            }
-            List<Score> scores = new ArrayList<>();
-            List<MFModelIso> models = new ArrayList<>();
-            for (var modelName : modelNames) {
-                MFModelIso model = MFModelIso.buildModel(modelName,
-                        localFitTau, tau, localTauFraction, fitExchange);
-                resData.setTestModel(model);
-                Score score = tryModel(molDataRes, model, localTauFraction, localFitTau, random);
-                scores.add(score);
-                models.add(model);
-            }
-            int iBest = bestScore(scores);
-            if (iBest != -1) {
-                Score bestScore = scores.get(iBest);
-                MFModelIso bestModel = models.get(iBest);
+            ModelSelector.ModelScore best = modelSelector.fitBest(contexts(molDataRes, null, null, null, weights),
+                    randomKey, FIT_STREAM + (iRep + 1) * modelSelector.getNStreams());
+            if (best != null) {
+                Score bestScore = best.score();
+                MFModelIso bestModel = best.model();
                 double[] repPars = bestScore.getPars();
                 bestModels[iRep] = bestModel;
                 bestScores[iRep] = bestScore;
@@ -319,9 +310,6 @@ public class FitDeuteriumModel extends FitModel {
                 }
             }
         }
-        for (var molData : molDataRes.values()) {
-            molData.clearBootStrapSet();
-        }
         MFModelIso bestModel = MFModelIso.buildModel("D2sf",
                 localFitTau, tau, localTauFraction, fitExchange);
 
@@ -352,7 +340,6 @@ public class FitDeuteriumModel extends FitModel {
             double[][] jValues = resData.getJValues();
             SpectralDensity spectralDensity = new SpectralDensity(key, jValues);
             atom.addSpectralDensity(key, spectralDensity);
-            resData.setTestModel(bestModel);
             Double validationScore = null;
             if (calcValidation) {
                 validationScore = scoreBayesian(molDataRes, bestModel, bestPars, dirichlet,
@@ -364,36 +351,11 @@ public class FitDeuteriumModel extends FitModel {
         return result;
     }
 
-    Score tryModel(Map<String, MolDataValues> molDataRes, MFModelIso model, double localTauFraction, boolean localFitTau, Random random) {
-        RelaxFit relaxFit = new RelaxFit();
-        relaxFit.setRelaxData(molDataRes);
-        relaxFit.setLambdaS(lambdaS);
-        relaxFit.setLambdaTau(lambdaTau);
-        relaxFit.setUseLambda(useLambda);
+    @Override
+    RelaxFit newRelaxFit(Map<String, MolDataContext> contexts) {
+        RelaxFit relaxFit = super.newRelaxFit(contexts);
         relaxFit.setFitJ(true);
-        model.setTauFraction(localTauFraction);
-        double[] start = model.getStart();
-        double[] lower = model.getLower();
-        double[] upper = model.getUpper();
-        double[] keepStart = start.clone();
-        int nTries = 3;
-        PointValuePair best = null;
-        for (int i = 0; i < nTries; i++) {
-            try {
-                PointValuePair fitResult = relaxFit.fitResidueToModel(start, lower, upper);
-                if ((best == null) || (fitResult.getValue() < best.getValue())) {
-                    best = fitResult;
-                }
-            } catch (Exception iaE) {
-            }
-            for (int j = 0; j < start.length; j++) {
-                start[j] = keepStart[j] + random.nextGaussian() * 0.1 * (upper[j] - lower[j]);
-            }
-        }
-        if (best != null) {
-            return relaxFit.score(best.getPoint(), true);
-        }
-        return null;
+        return relaxFit;
     }
 
     @Override
@@ -425,7 +387,7 @@ public class FitDeuteriumModel extends FitModel {
     Score fitReplicate(Map<String, MolDataValues> molDataRes, MFModelIso model,
                        double localTauFraction, boolean localFitTau, double[] pars, Random random) {
         RelaxFit relaxFit = new RelaxFit();
-        relaxFit.setRelaxData(molDataRes);
+        relaxFit.setContexts(contexts(molDataRes, model));
         relaxFit.setLambdaS(lambdaS);
         relaxFit.setLambdaTau(lambdaTau);
         relaxFit.setUseLambda(useLambda);
@@ -8,10 +8,12 @@ import org.apache.commons.math3.optim.PointValuePair;
 import org.apache.commons.rng.UniformRandomProvider;
 import org.apache.commons.rng.sampling.distribution.DirichletSampler;
 import org.apache.commons.rng.simple.RandomSource;
+import org.comdnmr.modelfree.models.MFModel;
 import org.comdnmr.modelfree.models.MFModelIso;
 import org.comdnmr.util.ProcessingStatus;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -20,6 +22,10 @@ import java.util.function.Function;
 
 public abstract class FitModel {
     public static UniformRandomProvider rng = null;
+    // the random streams of a residue: stream 0 shuffles the bootstrap sets,
+    // stream 1 draws the Dirichlet weights, and the model fits of the residue
+    // and then of each replicate use the streams from FIT_STREAM on
+    static final int FIT_STREAM = 2;
 
     Double tau;
     boolean fitTau = false;
@@ -83,18 +89,15 @@ public abstract class FitModel {
         for (int iRep = 0; iRep < nReplicates; iRep++) {
             double[] weights = dirichlet.sample();
             scaleWeights(weights);
-            for (var molData : molDataRes.values()) {
-                molData.weight(weights);
-            }
             model.setTauFraction(localTauFraction);
-            rssSum += scoreModel(molDataRes, pars2);
+            rssSum += scoreModel(contexts(molDataRes, model, null, null, weights), pars2);
         }
         return rssSum / nReplicates;
     }
 
-     double scoreModel(Map<String, MolDataValues> molDataRes, double[] pars) {
+     double scoreModel(Map<String, MolDataContext> contexts, double[] pars) {
         RelaxFit relaxFit = new RelaxFit();
-        relaxFit.setRelaxData(molDataRes);
+        relaxFit.setContexts(contexts);
         relaxFit.setLambdaS(lambdaS);
         relaxFit.setLambdaTau(lambdaTau);
         relaxFit.setUseLambda(useLambda);
@@ -107,7 +110,7 @@ public abstract class FitModel {
         int iBest = -1;
         int i = 0;
         for (var score : scores) {
-            if (score.aic() < lowestAIC) {
+            if ((score != null) && (score.aic() < lowestAIC)) {
                 lowestAIC = score.aic();
                 iBest = i;
             }
@@ -123,6 +126,37 @@ public abstract class FitModel {
 
     public abstract Map<String, ModelFitResult> testIsoModel();
 
+    RelaxFit newRelaxFit(Map<String, MolDataContext> contexts) {
+        RelaxFit relaxFit = new RelaxFit();
+        relaxFit.setContexts(contexts);
+        relaxFit.setLambdaS(lambdaS);
+        relaxFit.setLambdaTau(lambdaTau);
+        relaxFit.setUseLambda(useLambda);
+        relaxFit.setFitJ(fitJ);
+        return relaxFit;
+    }
+
+    static Map<String, MolDataContext> contexts(Map<String, MolDataValues> molDataRes, MFModel model) {
+        return contexts(molDataRes, model, null, null, null);
+    }
+
+    static Map<String, MolDataContext> contexts(Map<String, MolDataValues> molDataRes, MFModel model,
+                                                BootstrapAggregator bootstrapAggregator, Integer bootstrapSet, double[] weights) {
+        Map<String, MolDataContext> contexts = new LinkedHashMap<>();
+        for (var entry : molDataRes.entrySet()) {
+            contexts.put(entry.getKey(), entry.getValue().snapshot().context(model, bootstrapAggregator, bootstrapSet, weights));
+        }
+        return contexts;
+    }
+
+    static Map<String, MolDataContext> withModel(Map<String, MolDataContext> contexts, MFModel model) {
+        Map<String, MolDataContext> modelContexts = new LinkedHashMap<>();
+        for (var entry : contexts.entrySet()) {
+            modelContexts.put(entry.getKey(), entry.getValue().withModel(model));
+        }
+        return modelContexts;
+    }
+
     double[][] replicates(Map<String, MolDataValues> molDataRes,
                           MFModelIso bestModel, double localTauFraction,
                           boolean localFitTau, double[] pars, Random random) {
@@ -140,7 +174,7 @@ public abstract class FitModel {
     Score fitReplicate(Map<String, MolDataValues> molDataRes, MFModelIso model,
                        double localTauFraction, boolean localFitTau, double[] pars, Random random) {
         RelaxFit relaxFit = new RelaxFit();
-        relaxFit.setRelaxData(molDataRes);
+        relaxFit.setContexts(contexts(molDataRes, model));
         relaxFit.setLambdaS(lambdaS);
         relaxFit.setLambdaTau(lambdaTau);
         relaxFit.setUseLambda(useLambda);
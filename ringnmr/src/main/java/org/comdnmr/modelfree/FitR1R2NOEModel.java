@@ -6,11 +6,12 @@
 package org.comdnmr.modelfree;
 
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
-import org.apache.commons.math3.optim.PointValuePair;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.rng.sampling.distribution.DirichletSampler;
 import org.comdnmr.modelfree.models.MFModelIso;
 import org.comdnmr.modelfree.models.MFModelIso2sf;
+import org.comdnmr.util.CoMDPreferences;
+import org.comdnmr.util.ReplicateRandom;
 import org.nmrfx.chemistry.*;
 import org.nmrfx.chemistry.relax.*;
 
@@ -18,6 +19,8 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -110,7 +113,7 @@ public class FitR1R2NOEModel extends FitModel {
                             if ((r1 != null) && (r2 != null) && (noe != null)) {
                                 RelaxEquations relaxObj = RelaxEquations.getRelaxEquations(field * 1e6, "H", "N");
 
-                                R1R2NOEDataValue dValue = new R1R2NOEDataValue(molData, r1, r1Error, r2, r2Error, noe, noeError, relaxObj);
+                                R1R2NOEDataValue dValue = new R1R2NOEDataValue(r1, r1Error, r2, r2Error, noe, noeError, relaxObj);
                                 molData.addData(dValue);
                             }
                         }
@@ -180,13 +183,12 @@ public class FitR1R2NOEModel extends FitModel {
     }
 
     public  Map<String, ModelFitResult> testModels(Map<String, MolDataValues> molData, List<String> modelNames) {
-        Random random = new Random();
         if (tau == null) {
             tau = estimateTau(molData).get("tau");
         }
         AtomicInteger counts = new AtomicInteger();
         int n = molData.entrySet().size();
-        Map<String, ModelFitResult> results = new HashMap<>();
+        Map<String, ModelFitResult> results = new ConcurrentHashMap<>();
         MoleculeBase moleculeBase = MoleculeFactory.getActive();
         Map<String, OrderParSet> orderParSetMap = moleculeBase.orderParSetMap();
         for (var modelName : modelNames) {
@@ -194,6 +196,20 @@ public class FitR1R2NOEModel extends FitModel {
         }
         OrderParSet orderParSet = orderParSetMap.computeIfAbsent("order_parameter_list_1", k -> new OrderParSet(k));
 
+        // the replicates of each residue are fit with parallel streams started
+        // from within this pool, so residues and replicates share its threads
+        int nThreads = Math.max(1, CoMDPreferences.getNProcesses());
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            pool.submit(() -> fitResidues(molData, modelNames, orderParSetMap, results, counts, n)).join();
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private void fitResidues(Map<String, MolDataValues> molData, List<String> modelNames, Map<String, OrderParSet> orderParSetMap,
+                             Map<String, ModelFitResult> results, AtomicInteger counts, int n) {
         molData.entrySet().stream().sorted(Comparator.comparing(Map.Entry::getKey)).parallel().forEach(e -> {
             updateProgress((double) counts.get() / n);
             if (cancelled.get()) {
@@ -201,6 +217,7 @@ public class FitR1R2NOEModel extends FitModel {
             }
             MolDataValues resData = e.getValue();
             String key = e.getKey();
+            Random random = ReplicateRandom.random(ReplicateRandom.key(key), 0);
             if (!resData.getData().isEmpty()) {
                 if (bootstrapMode != BootstrapMode.PARAMETRIC) {
                     Optional<ModelFitResult> result = testModelsWithBootstrapAggregation(orderParSetMap, resData, key, modelNames, random);
@@ -212,7 +229,6 @@ public class FitR1R2NOEModel extends FitModel {
             }
             int iCount = counts.incrementAndGet();
         });
-        return results;
     }
 
     private OrderPar makeOrderPar(OrderParSet orderParSet, MolDataValues resData, Map<String, MolDataValues> molDataRes, String key,
@@ -265,11 +281,16 @@ public class FitR1R2NOEModel extends FitModel {
             localTauFraction = 0.0;
             localFitTau = false;
         }
-        for (var modelName : modelNames) {
-            MFModelIso model = MFModelIso.buildModel(modelName,
-                    localFitTau, tau, localTauFraction, fitExchange);
-            resData.setTestModel(model);
-            Score score = tryModel(molDataRes, model, localTauFraction, localFitTau, random);
+        ModelSelector modelSelector = new ModelSelector(this, modelNames, localFitTau, localTauFraction);
+        List<ModelSelector.ModelScore> modelScores = modelSelector.fitAll(contexts(molDataRes, null),
+                ReplicateRandom.key(key), FIT_STREAM);
+        for (int iModel = 0; iModel < modelScores.size(); iModel++) {
+            String modelName = modelNames.get(iModel);
+            MFModelIso model = modelScores.get(iModel).model();
+            Score score = modelScores.get(iModel).score();
+            if (score == null) {
+                continue;
+            }
             OrderParSet orderParSet = orderParSetMap.get("order_parameter_list_"+ modelName);
             double[][] repData = null;
             if (nReplicates > 2) {
@@ -321,52 +342,44 @@ public class FitR1R2NOEModel extends FitModel {
 
         List<Integer> iRepList = null;
         DirichletSampler dirichlet = null;
+        int nReplicates = this.nReplicates;
         if (bootstrapMode == BootstrapMode.BAYESIAN) {
-            dirichlet = DirichletSampler.symmetric(getRandomSource(), nJ, 4.0);
+            dirichlet = DirichletSampler.symmetric(new ReplicateRandom(ReplicateRandom.key(key), 1).getProvider(), nJ, 4.0);
         } else {
             nReplicates = Math.min(nReplicates, bootstrapAggregator.getN());
             iRepList = IntStream.range(0, bootstrapAggregator.getN()).boxed().collect(Collectors.toList());
-            Collections.shuffle(iRepList);
+            Collections.shuffle(iRepList, random);
         }
         double[][] replicateData = new double[maxPars][nReplicates];
         MFModelIso[] bestModels = new MFModelIso[nReplicates];
         Score[] bestScores = new Score[nReplicates];
 
+        // the weights and bootstrap sets are drawn before fitting so they
+        // don't depend on the order the replicates are run in
+        List<Map<String, MolDataContext>> repContexts = new ArrayList<>();
         int[] totalCounts = new int[nJ];
         for (int iRep = 0; iRep < nReplicates; iRep++) {
-            if (cancelled.get()) {
-                return result;
-            }
             if (bootstrapMode == BootstrapMode.BAYESIAN) {
                 double[] weights = dirichlet.sample();
                 scaleWeights(weights);
-                for (var molData : molDataRes.values()) {
-                    molData.weight(weights);
-                    molData.clearBootStrapSet();
-                }
+                repContexts.add(contexts(molDataRes, null, null, null, weights));
             } else {
                 int bootStrapSet = iRepList.get(iRep);
-                for (var molData : molDataRes.values()) {
-                    molData.setBootstrapAggregator(bootstrapAggregator);
-                    molData.setBootstrapSet(bootStrapSet);
-                    molData.weight(null);
-                }
+                repContexts.add(contexts(molDataRes, null, bootstrapAggregator, bootStrapSet, null));
                 BootstrapAggregator.incrCounts(totalCounts, bootstrapAggregator.getY(bootStrapSet));
             }
-            List<Score> scores = new ArrayList<>();
-            List<MFModelIso> models = new ArrayList<>();
-            for (var modelName : modelNames) {
-                MFModelIso model = MFModelIso.buildModel(modelName,
-                        localFitTau, tau, localTauFraction, fitExchange);
-                resData.setTestModel(model);
-                Score score = tryModel(molDataRes, model, localTauFraction, localFitTau, random);
-                scores.add(score);
-                models.add(model);
+        }
+        long randomKey = ReplicateRandom.key(key);
+        ModelSelector modelSelector = new ModelSelector(this, modelNames, localFitTau, localTauFraction);
+        IntStream.range(0, nReplicates).parallel().forEach(iRep -> {
+            if (cancelled.get()) {
+                return;
             }
-            int iBest = bestScore(scores);
-            if (iBest != -1) {
-                Score bestScore = scores.get(iBest);
-                MFModelIso bestModel = models.get(iBest);
+            ModelSelector.ModelScore best = modelSelector.fitBest(repContexts.get(iRep),
+                    randomKey, FIT_STREAM + (iRep + 1) * modelSelector.getNStreams());
+            if (best != null) {
+                Score bestScore = best.score();
+                MFModelIso bestModel = best.model();
                 double[] repPars = bestScore.getPars();
                 bestModels[iRep] = bestModel;
                 bestScores[iRep] = bestScore;
@@ -376,13 +389,13 @@ public class FitR1R2NOEModel extends FitModel {
                     replicateData[iPar][iRep] = pars[iPar];
                 }
             }
+        });
+        if (cancelled.get()) {
+            return result;
         }
         for (int i=0;i< totalCounts.length;i++) {
             totalCounts[i] /= nReplicates;
         }
-        for (var molData : molDataRes.values()) {
-            molData.clearBootStrapSet();;
-        }
         MFModelIso bestModel = MFModelIso.buildModel("2sf",
                 localFitTau, tau, localTauFraction, fitExchange);
 
@@ -430,7 +443,6 @@ public class FitR1R2NOEModel extends FitModel {
             double[][] jValues = resData.getJValues();
             SpectralDensity spectralDensity = new SpectralDensity(key, jValues);
             atom.addSpectralDensity(key, spectralDensity);
-            resData.setTestModel(bestModel);
             Double validationScore = null;
             if (calcValidation) {
                 if (bootstrapMode == BootstrapMode.BAYESIAN) {
@@ -459,43 +471,12 @@ public class FitR1R2NOEModel extends FitModel {
         System.arraycopy(pars, startPar, pars2, 0, pars2.length);
         for (int iRep = 0; iRep < nReplicates; iRep++) {
             int bootStrapSet = iRepList.get(iRep + iStart);
-            for (var molData : molDataRes.values()) {
-                molData.setBootstrapAggregator(bootstrapAggregator);
-                molData.setBootstrapSet(bootStrapSet);
-            }
             model.setTauFraction(localTauFraction);
-            rssSum += scoreModel(molDataRes, pars2);
+            rssSum += scoreModel(contexts(molDataRes, model, bootstrapAggregator, bootStrapSet, null), pars2);
         }
         return rssSum / nReplicates;
     }
 
-    Score tryModel(Map<String, MolDataValues> molDataRes, MFModelIso model, double localTauFraction, boolean localFitTau, Random random) {
-        RelaxFit relaxFit = new RelaxFit();
-        relaxFit.setRelaxData(molDataRes);
-        relaxFit.setLambdaS(lambdaS);
-        relaxFit.setLambdaTau(lambdaTau);
-        relaxFit.setUseLambda(useLambda);
-        relaxFit.setFitJ(fitJ);
-        model.setTauFraction(localTauFraction);
-        double[] start = model.getStart();
-        double[] lower = model.getLower();
-        double[] upper = model.getUpper();
-        double[] keepStart = start.clone();
-        int nTries = 3;
-        PointValuePair best = null;
-        for (int i = 0; i < nTries; i++) {
-            PointValuePair fitResult = relaxFit.fitResidueToModel(start, lower, upper);
-            if ((i == 0) || (fitResult.getValue() < best.getValue())) {
-                best = fitResult;
-            }
-            for (int j = 0; j < start.length; j++) {
-                start[j] = keepStart[j] + random.nextGaussian() * 0.1 * (upper[j] - lower[j]);
-            }
-        }
-        var score = relaxFit.score(best.getPoint(), true);
-        return score;
-    }
-
     public void setTauFraction(double value) {
         this.tauFraction = value;
     }
@@ -0,0 +1,182 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.modelfree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.comdnmr.modelfree.models.MFModelIso;
+import org.comdnmr.util.ReplicateRandom;
+
+/**
+ * Fits a set of model-free models to the data of a residue. Each model is fit
+ * from several starting points and every (model, start) pair is run as a
+ * separate task, so a residue with five models exposes fifteen fits that can
+ * run at the same time.
+ * <p>
+ * When only the best model is wanted, a model is skipped once it can no
+ * longer win: the AIC of a model with k parameters is at least 2k, so once a
+ * fit with a lower AIC has been found the remaining fits of that model are not
+ * started.
+ */
+public class ModelSelector {
+
+    static final int N_RESTARTS = 3;
+
+    /**
+     * The result of fitting one model. The model is the instance that gave
+     * the best fit. Both are null if none of the fits of the model succeeded.
+     */
+    public record ModelScore(MFModelIso model, Score score) {
+
+    }
+
+    private final FitModel fitModel;
+    private final List<String> modelNames;
+    private final boolean fitTau;
+    private final double tauFraction;
+    private final int[] nPars;
+
+    ModelSelector(FitModel fitModel, List<String> modelNames, boolean fitTau, double tauFraction) {
+        this.fitModel = fitModel;
+        this.modelNames = List.copyOf(modelNames);
+        this.fitTau = fitTau;
+        this.tauFraction = tauFraction;
+        nPars = new int[modelNames.size()];
+        for (int iModel = 0; iModel < nPars.length; iModel++) {
+            nPars[iModel] = buildModel(iModel).getStart().length;
+        }
+    }
+
+    /**
+     * @return the number of random streams used by each call to fit the
+     * models
+     */
+    public int getNStreams() {
+        return modelNames.size() * N_RESTARTS;
+    }
+
+    private MFModelIso buildModel(int iModel) {
+        MFModelIso model = MFModelIso.buildModel(modelNames.get(iModel),
+                fitTau, fitModel.tau, tauFraction, fitModel.fitExchange);
+        model.setTauFraction(tauFraction);
+        return model;
+    }
+
+    /**
+     * Fit all the models.
+     *
+     * @param contexts the contexts holding the data, bootstrap set and weights
+     * to fit
+     * @param randomKey key for the random streams
+     * @param streamStart index of the first random stream to use
+     * @return the result for each model, in the same order as the model names
+     */
+    public List<ModelScore> fitAll(Map<String, MolDataContext> contexts, long randomKey, int streamStart) {
+        return fit(contexts, randomKey, streamStart, false);
+    }
+
+    /**
+     * Fit the models and return the one with the lowest AIC. Models that can't
+     * have the lowest AIC are abandoned without finishing their fits.
+     *
+     * @param contexts the contexts holding the data, bootstrap set and weights
+     * to fit
+     * @param randomKey key for the random streams
+     * @param streamStart index of the first random stream to use
+     * @return the best model, or null if no model could be fit
+     */
+    public ModelScore fitBest(Map<String, MolDataContext> contexts, long randomKey, int streamStart) {
+        ModelScore best = null;
+        for (ModelScore modelScore : fit(contexts, randomKey, streamStart, true)) {
+            Score score = modelScore.score();
+            if ((score != null) && ((best == null) || (score.aic() < best.score().aic()))) {
+                best = modelScore;
+            }
+        }
+        return best;
+    }
+
+    private List<ModelScore> fit(Map<String, MolDataContext> contexts, long randomKey, int streamStart, boolean skipDominated) {
+        int nModels = modelNames.size();
+        MFModelIso[][] models = new MFModelIso[nModels][N_RESTARTS];
+        PointValuePair[][] points = new PointValuePair[nModels][N_RESTARTS];
+        Set<Integer> dominated = ConcurrentHashMap.newKeySet();
+        double[] bestAIC = {Double.MAX_VALUE};
+
+        IntStream.range(0, nModels * N_RESTARTS).parallel().forEach(iTask -> {
+            int iModel = iTask / N_RESTARTS;
+            int iRestart = iTask % N_RESTARTS;
+            if (fitModel.cancelled.get() || dominated.contains(iModel)) {
+                return;
+            }
+            MFModelIso model = buildModel(iModel);
+            double[] start = model.getStart();
+            double[] lower = model.getLower();
+            double[] upper = model.getUpper();
+            if (iRestart > 0) {
+                Random random = ReplicateRandom.random(randomKey, streamStart + iTask);
+                for (int j = 0; j < start.length; j++) {
+                    start[j] += random.nextGaussian() * 0.1 * (upper[j] - lower[j]);
+                }
+            }
+            RelaxFit relaxFit = fitModel.newRelaxFit(FitModel.withModel(contexts, model));
+            PointValuePair point = relaxFit.fitResidueToModel(start, lower, upper);
+            models[iModel][iRestart] = model;
+            points[iModel][iRestart] = point;
+            if (skipDominated && (point != null)) {
+                double aic = relaxFit.score(point.getPoint(), false).aic();
+                synchronized (bestAIC) {
+                    if (aic < bestAIC[0]) {
+                        bestAIC[0] = aic;
+                        for (int jModel = 0; jModel < nModels; jModel++) {
+                            if (2.0 * nPars[jModel] > aic) {
+                                dominated.add(jModel);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+
+        List<ModelScore> result = new ArrayList<>();
+        for (int iModel = 0; iModel < nModels; iModel++) {
+            int iBest = -1;
+            for (int iRestart = 0; iRestart < N_RESTARTS; iRestart++) {
+                PointValuePair point = points[iModel][iRestart];
+                if ((point != null) && ((iBest == -1) || (point.getValue() < points[iModel][iBest].getValue()))) {
+                    iBest = iRestart;
+                }
+            }
+            if ((iBest == -1) || dominated.contains(iModel)) {
+                result.add(new ModelScore(null, null));
+            } else {
+                MFModelIso model = models[iModel][iBest];
+                RelaxFit relaxFit = fitModel.newRelaxFit(FitModel.withModel(contexts, model));
+                Score score = relaxFit.score(points[iModel][iBest].getPoint(), true);
+                result.add(new ModelScore(model, score));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.modelfree;
+
+import java.util.List;
+import org.comdnmr.modelfree.models.MFModel;
+
+/**
+ * The state used to evaluate one model against the data of one residue: the
+ * data snapshot, the model, and the bootstrap set or weights of the replicate
+ * being fit. A context isn't changed after it is created, so separate
+ * contexts for the same residue can be evaluated on different threads.
+ */
+public final class MolDataContext {
+
+    private final MolDataSnapshot snapshot;
+    private final MFModel model;
+    private final BootstrapAggregator bootstrapAggregator;
+    private final Integer bootstrapSet;
+    private final double[] weights;
+    private volatile double[][] jValues;
+
+    MolDataContext(MolDataSnapshot snapshot, MFModel model, BootstrapAggregator bootstrapAggregator,
+            Integer bootstrapSet, double[] weights) {
+        this.snapshot = snapshot;
+        this.model = model;
+        this.bootstrapAggregator = bootstrapAggregator;
+        this.bootstrapSet = bootstrapSet;
+        this.weights = weights;
+    }
+
+    /**
+     * Create a context for another model with the same data, bootstrap set
+     * and weights as this one.
+     *
+     * @param model the model
+     * @return the context
+     */
+    public MolDataContext withModel(MFModel model) {
+        MolDataContext context = new MolDataContext(snapshot, model, bootstrapAggregator, bootstrapSet, weights);
+        context.jValues = jValues;
+        return context;
+    }
+
+    public MolDataSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public MFModel getTestModel() {
+        return model;
+    }
+
+    public List<RelaxDataValue> getData() {
+        return snapshot.dataValues;
+    }
+
+    public double[] getVector() {
+        return snapshot.vector;
+    }
+
+    /**
+     * Get the spectral density values for the bootstrap set of this context,
+     * with the last row (the weights) replaced by the weights of this context
+     * if it has any. The returned array is shared and must not be modified.
+     *
+     * @return array of frequencies, values, errors and weights
+     */
+    public double[][] getJValues() {
+        double[][] values = jValues;
+        if (values == null) {
+            double[][] dataJ = snapshot.getJValues();
+            if (bootstrapSet != null) {
+                values = bootstrapAggregator.getBootStrapJ(dataJ, bootstrapSet);
+            } else if (weights != null) {
+                values = new double[dataJ.length][];
+                for (int i = 0; i < dataJ.length; i++) {
+                    values[i] = dataJ[i].clone();
+                }
+            } else {
+                values = dataJ;
+            }
+            if (weights != null) {
+                System.arraycopy(weights, 0, values[values.length - 1], 0, weights.length);
+            }
+            jValues = values;
+        }
+        return values;
+    }
+}
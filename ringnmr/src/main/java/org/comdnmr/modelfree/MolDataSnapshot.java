@@ -0,0 +1,119 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.modelfree;
+
+import java.util.List;
+import org.comdnmr.modelfree.models.MFModel;
+import org.nmrfx.chemistry.Atom;
+
+/**
+ * Immutable copy of the relaxation data of one residue. A snapshot only holds
+ * the data; the model, weights and bootstrap selection used when the data is
+ * fit are held by a {@link MolDataContext} created from it, so any number of
+ * models or replicates can be evaluated against the same snapshot at once.
+ */
+public final class MolDataSnapshot {
+
+    final Atom atom;
+    final String specifier;
+    final double[] vector;
+    final List<RelaxDataValue> dataValues;
+    private volatile double[][] jValues;
+
+    MolDataSnapshot(MolDataValues molData, double[][] jValues) {
+        this.atom = molData.atom;
+        this.specifier = molData.specifier;
+        this.vector = molData.vector.clone();
+        this.dataValues = List.copyOf(molData.dataValues);
+        this.jValues = jValues;
+    }
+
+    public Atom getAtom() {
+        return atom;
+    }
+
+    public String getSpecifier() {
+        return specifier;
+    }
+
+    public double[] getVector() {
+        return vector.clone();
+    }
+
+    public List<RelaxDataValue> getData() {
+        return dataValues;
+    }
+
+    /**
+     * Get the spectral density values calculated from the data, or the values
+     * that were set on the {@link MolDataValues} the snapshot was taken from.
+     * The returned array is shared and must not be modified.
+     *
+     * @return array of frequencies, values, errors and weights
+     */
+    public double[][] getJValues() {
+        double[][] values = jValues;
+        if (values == null) {
+            synchronized (this) {
+                values = jValues;
+                if (values == null) {
+                    values = calcJ();
+                    jValues = values;
+                }
+            }
+        }
+        return values;
+    }
+
+    private double[][] calcJ() {
+        if (!dataValues.isEmpty()) {
+            if (dataValues.get(0) instanceof DeuteriumDataValue) {
+                return SpectralDensityCalculator.calcJDeuterium(dataValues);
+            } else {
+                return SpectralDensityCalculator.calcJR1R2NOE(dataValues);
+            }
+        }
+        return new double[0][0];
+    }
+
+    /**
+     * Create a context for evaluating a model against all of the data.
+     *
+     * @param model the model
+     * @return the context
+     */
+    public MolDataContext context(MFModel model) {
+        return new MolDataContext(this, model, null, null, null);
+    }
+
+    /**
+     * Create a context for evaluating a model against a bootstrap replicate
+     * of the data.
+     *
+     * @param model the model
+     * @param bootstrapAggregator the aggregator used to generate bootstrap
+     * sets, or null
+     * @param bootstrapSet index of the bootstrap set, or null to use all the
+     * data
+     * @param weights weights of the spectral density values, or null
+     * @return the context
+     */
+    public MolDataContext context(MFModel model, BootstrapAggregator bootstrapAggregator, Integer bootstrapSet, double[] weights) {
+        return new MolDataContext(this, model, bootstrapAggregator, bootstrapSet, weights);
+    }
+}
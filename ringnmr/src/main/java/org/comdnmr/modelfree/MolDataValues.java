@@ -14,6 +14,10 @@ import java.util.List;
 import java.util.Optional;
 
 /**
+ * The relaxation data for a residue. The model, bootstrap set and weights
+ * stored here are only used when a fit is set up from this object directly.
+ * Code that fits several models or replicates at once should create a
+ * {@link MolDataContext} for each from the {@link #snapshot()} instead.
  *
  * @author brucejohnson
  */
@@ -28,6 +32,8 @@ public class MolDataValues {
     Integer bootstrapSet = null;
     BootstrapAggregator bootstrapAggregator = null;
     double[] weights = null;
+    double[][] fixedJValues = null;
+    MolDataSnapshot snapshot = null;
 
     public MolDataValues(String specifier, double[] vector, DynamicsSource dynSourceFactory) {
         this.specifier = specifier;
@@ -64,8 +70,32 @@ public class MolDataValues {
         this.weights = weights;
     }
 
-    public void addData(RelaxDataValue value) {
+    public synchronized void addData(RelaxDataValue value) {
         dataValues.add(value);
+        snapshot = null;
+    }
+
+    /**
+     * Get an immutable copy of the data. The copy is reused until data is
+     * added or the spectral density values are changed.
+     *
+     * @return the snapshot
+     */
+    public synchronized MolDataSnapshot snapshot() {
+        if (snapshot == null) {
+            snapshot = new MolDataSnapshot(this, fixedJValues);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Create a context for fitting from the current data and the model,
+     * bootstrap set and weights currently set on this object.
+     *
+     * @return the context
+     */
+    public MolDataContext context() {
+        return snapshot().context(model, bootstrapAggregator, bootstrapSet, weights);
     }
 
     public List<RelaxDataValue> getData() {
@@ -98,37 +128,35 @@ public class MolDataValues {
         jValues = null;
     }
 
-    public void clearJ() {
+    public synchronized void clearJ() {
         jValues = null;
+        fixedJValues = null;
+        snapshot = null;
     }
 
     public double[][] calcJ() {
-        var dataOpt = dataValues.stream().findFirst();
-        if (dataOpt.isPresent()) {
-            if (dataOpt.get() instanceof DeuteriumDataValue) {
-                return SpectralDensityCalculator.calcJDeuterium(dataValues);
-            } else {
-                return SpectralDensityCalculator.calcJR1R2NOE(dataValues);
-            }
-        }
-        return new double[0][0];
+        return snapshot().getJValues();
     }
 
-    public void setJValues(double[][] jValuesSet) {
-        jValues = new double[jValuesSet.length][jValuesSet[0].length];
-        for (int i=0;i<jValuesSet.length;i++) {
-            for (int j=0;j<jValuesSet[i].length;j++) {
-                jValues[i][j] = jValuesSet[i][j];
-            }
+    public synchronized void setJValues(double[][] jValuesSet) {
+        fixedJValues = new double[jValuesSet.length][];
+        for (int i = 0; i < jValuesSet.length; i++) {
+            fixedJValues[i] = jValuesSet[i].clone();
         }
+        jValues = null;
+        snapshot = null;
     }
 
     public double[][] getJValues() {
         if (jValues == null) {
+            double[][] dataJ = calcJ();
             if (bootstrapSet != null) {
-                jValues = bootstrapAggregator.getBootStrapJ(calcJ(), bootstrapSet);
+                jValues = bootstrapAggregator.getBootStrapJ(dataJ, bootstrapSet);
             } else {
-                jValues = calcJ();
+                jValues = new double[dataJ.length][];
+                for (int i = 0; i < dataJ.length; i++) {
+                    jValues[i] = dataJ[i].clone();
+                }
             }
         }
         if (weights != null) {
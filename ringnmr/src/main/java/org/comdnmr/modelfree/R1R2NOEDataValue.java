@@ -9,10 +9,10 @@ public class R1R2NOEDataValue extends RelaxDataValue {
     final double NOEerr;
     double rhoError = 0.0;
 
-    public R1R2NOEDataValue(MolDataValues molDataValue, double r1,
+    public R1R2NOEDataValue(double r1,
                           double r1Error, double r2, double r2Error, double noe, double noeError,
                           RelaxEquations relaxObj) {
-        super(molDataValue, r1,r1Error,r2,r2Error, relaxObj);
+        super(r1,r1Error,r2,r2Error, relaxObj);
         this.NOE = noe;
         this.NOEerr = noeError;
     }
@@ -22,7 +22,7 @@ public class R1R2NOEDataValue extends RelaxDataValue {
         double newR1 = r1 + random.nextGaussian() * scale * R1err;
         double newR2 = r2 + random.nextGaussian() * scale * R2err;
         double newNOE = noe + random.nextGaussian() * scale * NOEerr;
-        RelaxDataValue newValue = new R1R2NOEDataValue(molData, newR1, R1err,
+        RelaxDataValue newValue = new R1R2NOEDataValue(newR1, R1err,
                 newR2, R2err, newNOE, NOEerr, relaxObj);
         molData.addData(newValue);
     }
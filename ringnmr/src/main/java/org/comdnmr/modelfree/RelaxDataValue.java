@@ -11,17 +11,15 @@ package org.comdnmr.modelfree;
  */
 public class RelaxDataValue  {
 
-    final MolDataValues molDataValue;
     final double R1;
     final double R1err;
     final double R2;
     final double R2err;
     final RelaxEquations relaxObj;
 
-    public RelaxDataValue(MolDataValues molDataValue, double r1,
+    public RelaxDataValue(double r1,
                           double r1Error, double r2, double r2Error,
                           RelaxEquations relaxObj) {
-        this.molDataValue = molDataValue;
         this.R1 = r1;
         this.R1err = r1Error;
         this.R2 = r2;
@@ -29,9 +27,4 @@ public class RelaxDataValue  {
         this.relaxObj = relaxObj;
     }
 
-
-    public MolDataValues getMolData() {
-        return molDataValue;
-    }
-
 }
@@ -2,6 +2,7 @@ package org.comdnmr.modelfree;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Random;
 import org.apache.commons.math3.geometry.euclidean.threed.NotARotationMatrixException;
@@ -25,6 +26,7 @@ import org.comdnmr.modelfree.models.MFModelIso1;
 import org.comdnmr.modelfree.models.MFModelIso1f;
 import org.comdnmr.modelfree.models.MFModelIso2s;
 import org.comdnmr.modelfree.models.MFModelIso2sf;
+import org.comdnmr.util.CoMDOptions;
 
 /**
  *
@@ -37,7 +39,7 @@ public class RelaxFit {
     boolean useLambda = false;
     boolean logJMode = false;
     boolean fitJ = false;
-    Map<String, MolDataValues> molDataValues;
+    Map<String, MolDataContext> contexts;
     double[] bestPars;
     double[] parErrs;
     double bestAIC;
@@ -64,6 +66,7 @@ public class RelaxFit {
 
     double globalTau = 4.0e-9;
     boolean useGlobalTau = false;
+    CoMDOptions options = new CoMDOptions(true);
 
     public double getGlobalTau() {
         return globalTau;
@@ -117,8 +120,38 @@ public class RelaxFit {
         return new double[]{0.75 * isoD, isoD, 1.25 * isoD};
     }
 
+    /**
+     * Set the data to fit. The data, and the model, bootstrap set and weights
+     * set on each MolDataValues object, are copied into contexts when this is
+     * called, so later changes to the objects don't affect the fit.
+     *
+     * @param molDataValues map from residue specifier to data
+     */
     public void setRelaxData(Map<String, MolDataValues> molDataValues) {
-        this.molDataValues = molDataValues;
+        Map<String, MolDataContext> newContexts = new LinkedHashMap<>();
+        for (var entry : molDataValues.entrySet()) {
+            newContexts.put(entry.getKey(), entry.getValue().context());
+        }
+        this.contexts = newContexts;
+    }
+
+    /**
+     * Set the contexts to fit.
+     *
+     * @param contexts map from residue specifier to context
+     */
+    public void setContexts(Map<String, MolDataContext> contexts) {
+        this.contexts = contexts;
+    }
+
+    /**
+     * Set the options for the fits, which give the optimizer. By default the
+     * options come from the preferences.
+     *
+     * @param options the options
+     */
+    public void setOptions(CoMDOptions options) {
+        this.options = options;
     }
 
     public void setDiffusionType(DiffusionType type) {
@@ -362,7 +395,7 @@ public class RelaxFit {
         return new Array2DRowRealMatrix(rot.getMatrix()).transpose().getData();
     }
 
-    double[] calcDeltaSqJ(MolDataValues molData, double[] resPars, MFModel testModel) {
+    double[] calcDeltaSqJ(MolDataContext molData, double[] resPars, MFModel testModel) {
         double sumSq = 0.0;
 
         double[][] jValues = molData.getJValues();
@@ -389,7 +422,7 @@ public class RelaxFit {
         double complexityTau = testModel.getComplexityTau();
         return new double[]{sumSq, complexityS, complexityTau, jCalc.length};
     }
-    double[] calcDeltaSqR(MolDataValues molData, double[] resPars, MFModel testModel) {
+    double[] calcDeltaSqR(MolDataContext molData, double[] resPars, MFModel testModel) {
         double sumComplexityS = 0.0;
         double sumComplexityTau = 0.0;
         double sumSq = 0.0;
@@ -412,7 +445,7 @@ public class RelaxFit {
         return new double[]{sumSq, sumComplexityS, sumComplexityTau, nPar};
     }
 
-    double[] calcDeltaSq(MolDataValues molData, double[] resPars, MFModel testModel) {
+    double[] calcDeltaSq(MolDataContext molData, double[] resPars, MFModel testModel) {
         if (fitJ) {
             return calcDeltaSqJ(molData, resPars, testModel);
         } else {
@@ -427,7 +460,7 @@ public class RelaxFit {
         boolean parsOK = true;
         double sumComplexityS = 0.0;
         double sumComplexityTau = 0.0;
-        for (MolDataValues molData : molDataValues.values()) {
+        for (MolDataContext molData : contexts.values()) {
             MFModel testModel = molData.getTestModel();
             double[] resPars;
             if (useGlobalTau) {
@@ -467,9 +500,9 @@ public class RelaxFit {
     public Map<String, MolDataValues> genBootstrap(Random random, MFModel model, double[] pars) {
         var newMolDataValues = new HashMap<String, MolDataValues>();
 
-        for (var entry : molDataValues.entrySet()) {
-            MolDataValues molData = entry.getValue();
-            MolDataValues newMolData = new MolDataValues(molData.atom, molData.vector);
+        for (var entry : contexts.entrySet()) {
+            MolDataContext molData = entry.getValue();
+            MolDataValues newMolData = new MolDataValues(molData.getSnapshot().atom, molData.getVector());
             newMolData.setTestModel(model);
             newMolDataValues.put(entry.getKey(), newMolData);
             MFModel testModel = newMolData.getTestModel();
@@ -526,7 +559,7 @@ public class RelaxFit {
         int n = 0;
         boolean parsOK = true;
         int parStart = 1;
-        for (MolDataValues molData : molDataValues.values()) {
+        for (MolDataContext molData : contexts.values()) {
             MFModel testModel = molData.getTestModel();
             int nResPars = testModel.getNPars();
             double[] resPars = new double[nResPars + 1];
@@ -562,32 +595,33 @@ public class RelaxFit {
         } else if (diffusionType == ANISOTROPIC) {
             Arrays.sort(pars, 0, 3);
         }
-        double[][] valD = null;
-        double[][] valVT = null;
+        // the terms that depend on the tensor are shared by all residues
+        DiffusionTensor tensor = null;
         if (diffusionType != DiffusionType.ISOTROPIC) {
-            valD = parsToD(pars, diffusionType);
-            valVT = parsToVT(pars, diffusionType);
+            tensor = new DiffusionTensor(diffusionType, parsToD(pars, diffusionType), parsToVT(pars, diffusionType));
         }
         double sumSq = 0.0;
         int nDiffPars = diffusionType.getNDiffusionPars() + diffusionType.getNAnglePars();
         int n = 0;
-        for (MolDataValues molData : molDataValues.values()) {
+        for (MolDataContext molData : contexts.values()) {
             MFModel model = molData.getTestModel();
+            int nModelPars = model.getNPars();
+            double[] resPars = new double[nModelPars + nDiffPars];
+            System.arraycopy(pars, 0, resPars, 0, nDiffPars);
+            resPars[resPars.length - 1] = 1.0; //Model 0: S2 = 1.0, all others null.
+            double[] modelPars;
+            if (model instanceof MFModelIso) {
+                resPars[0] = 1.0 / (6.0 * resPars[0]);
+                modelPars = resPars;
+            } else {
+                // the model of the context is shared, so the trial tensor goes on a copy
+                model = ((MFModelAniso) model).withTensor(tensor);
+                modelPars = Arrays.copyOfRange(resPars, nDiffPars, resPars.length);
+            }
             for (RelaxDataValue value : molData.getData()) {
                 R1R2NOEDataValue dValue  = (R1R2NOEDataValue) value;
                 RelaxEquations relaxObj = dValue.relaxObj;
-                double[] v = molData.vector;
-                int nModelPars = model.getNPars();
-                double[] resPars = new double[nModelPars + nDiffPars];
-                System.arraycopy(pars, 0, resPars, 0, nDiffPars);
-                resPars[resPars.length - 1] = 1.0; //Model 0: S2 = 1.0, all others null.
-                double[] valJ;
-                if (model instanceof MFModelIso) {
-                    resPars[0] = 1.0 / (6.0 * resPars[0]);
-                    valJ = model.calc(relaxObj.wValues, resPars);
-                } else {
-                    valJ = getJDiffusion(resPars, relaxObj, (MFModelAniso) model, v, valD, valVT);
-                }
+                double[] valJ = model.calc(relaxObj.wValues, modelPars);
                 double rhoExp = dValue.calcExpRho(valJ);
                 double rhoPred = dValue.calcPredRho(valJ);
                 double delta = rhoPred - rhoExp;
@@ -610,18 +644,18 @@ public class RelaxFit {
         double[][] valVT = parsToVT(pars, diffusionType);
         int modelNum = 1;
         int nDiffPars = diffusionType.getNDiffusionPars() + diffusionType.getNAnglePars();
-        for (MolDataValues molData : molDataValues.values()) {
+        for (MolDataContext molData : contexts.values()) {
             for (RelaxDataValue value : molData.getData()) {
                 R1R2NOEDataValue dValue  = (R1R2NOEDataValue) value;
                 RelaxEquations relaxObj = dValue.relaxObj;
-                double[] v = molData.vector;
+                double[] v = molData.getVector();
                 double[] resPars = new double[nParsPerModel[modelNum] + nDiffPars];
                 System.arraycopy(pars, 0, resPars, 0, nDiffPars);
                 resPars[resPars.length - 1] = 1.0; //Model 0: S2 = 1.0, all others null.
                 double[] valJ = getJDiffusion(resPars, relaxObj, modelNum, v, valD, valVT);
                 double rhoExp = dValue.calcExpRho(valJ);
                 double rhoPred = dValue.calcPredRho(valJ);
-                System.out.println(rhoExp + " " + rhoPred + " " + (rhoExp - rhoPred) + " " + molData.specifier);
+                System.out.println(rhoExp + " " + rhoPred + " " + (rhoExp - rhoPred) + " " + molData.getSnapshot().specifier);
             }
         }
     }
@@ -683,7 +717,7 @@ public class RelaxFit {
     }
 
     public PointValuePair fitResidueToModel(double[] start, double[] lower, double[] upper) {
-        Fitter fitter = Fitter.getArrayFitter(this::value);
+        Fitter fitter = Fitter.getArrayFitter(this::value, options);
         try {
             return fitter.fit(start, lower, upper, 10.0);
         } catch (Exception ex) {
@@ -693,7 +727,7 @@ public class RelaxFit {
     }
 
     public PointValuePair fitMultiResidueToModel(double[] start, double[] lower, double[] upper) {
-        Fitter fitter = Fitter.getArrayFitter(this::valueMultiResidue);
+        Fitter fitter = Fitter.getArrayFitter(this::valueMultiResidue, options);
         try {
             return fitter.fit(start, lower, upper, 10.0);
         } catch (Exception ex) {
@@ -703,7 +737,7 @@ public class RelaxFit {
     }
 
     public PointValuePair fitDiffusion(double[] guesses) {
-        Fitter fitter = Fitter.getArrayFitter(this::valueDMat);
+        Fitter fitter = Fitter.getArrayFitter(this::valueDMat, options);
         double[] lower = new double[guesses.length];
         double[] upper = new double[guesses.length];
         int nDiffPars = diffusionType.getNDiffusionPars();
@@ -726,4 +760,21 @@ public class RelaxFit {
             return null;
         }
     }
+
+    /**
+     * Refine the diffusion tensor together with the model parameters of each
+     * residue, rather than fitting the tensor to the ratios of the rates as
+     * done by {@link #fitDiffusion}. The test model of each residue must be an
+     * anisotropic model.
+     *
+     * @param guesses the starting diffusion and angle parameters
+     * @return the refined parameters
+     */
+    public DiffusionRefiner.Result refineDiffusion(double[] guesses) {
+        DiffusionRefiner refiner = new DiffusionRefiner(diffusionType, contexts);
+        DiffusionRefiner.Result result = refiner.refine(guesses);
+        bestPars = result.diffusionPars();
+        bestChiSq = result.rms();
+        return result;
+    }
 }
@@ -25,6 +25,7 @@ package org.comdnmr.modelfree.models;
 import java.util.ArrayList;
 import java.util.List;
 import org.comdnmr.modelfree.DiffusionPars;
+import org.comdnmr.modelfree.DiffusionTensor;
 import org.comdnmr.modelfree.RelaxFit;
 
 /**
@@ -50,6 +51,16 @@ public abstract class MFModelAniso extends MFModel {
         a = diffPars.a;
     }
 
+    MFModelAniso(MFModelAniso model, DiffusionTensor tensor) {
+        diffPars = new DiffusionPars(tensor, model.diffPars.v);
+        dDiff = diffPars.dDiff;
+        a = diffPars.a;
+        nPars = model.nPars;
+        fitTau = model.fitTau;
+        includeEx = model.includeEx;
+        targetTau = model.targetTau;
+    }
+
     public List<String> getAllParNames(String... pars) {
         var parNames = new ArrayList<String>();
         for (var par : pars) {
@@ -67,14 +78,37 @@ public abstract class MFModelAniso extends MFModel {
         a = diffPars.a;
     }
 
+    /**
+     * Update the model for a diffusion tensor whose terms were calculated once
+     * and are shared by all the residues.
+     *
+     * @param tensor the diffusion tensor
+     */
+    public void update(DiffusionTensor tensor) {
+        diffPars.update(tensor);
+        dDiff = diffPars.dDiff;
+        a = diffPars.a;
+    }
+
+    /**
+     * Calculate the terms that only depend on the model parameters, before
+     * the values at each frequency are calculated.
+     */
+    void prepare() {
+    }
+
     abstract double calc(double omega2, int i);
 
     public double[] calc(double[] omegas) {
         double[] J = new double[omegas.length];
+        if ((Df == null) || (Df.length != dDiff.length)) {
+            Df = new double[dDiff.length];
+        }
+        prepare();
         int j = 0;
         for (double omega : omegas) {
             double omega2 = omega * omega;
-            Df = diffPars.getDf(omega2);
+            diffPars.getDf(omega2, Df);
             double sum = 0.0;
             for (int i = 0; i < dDiff.length; i++) {
                 sum += calc(omega2, i);
@@ -84,6 +118,16 @@ public abstract class MFModelAniso extends MFModel {
         return J;
     }
 
+    /**
+     * Create a copy of this model for another diffusion tensor, leaving this
+     * model unchanged, so that a fit of the tensor doesn't modify models that
+     * are shared with other fits.
+     *
+     * @param tensor the diffusion tensor
+     * @return the new model
+     */
+    public abstract MFModelAniso withTensor(DiffusionTensor tensor);
+
     public abstract double[] getStart(double targetTau);
 
 }
@@ -23,6 +23,7 @@
 package org.comdnmr.modelfree.models;
 
 import java.util.List;
+import org.comdnmr.modelfree.DiffusionTensor;
 import org.comdnmr.modelfree.RelaxFit;
 
 /**
@@ -38,6 +39,15 @@ public class MFModelAniso1 extends MFModelAniso {
         nPars = 1;
     }
 
+    MFModelAniso1(MFModelAniso1 model, DiffusionTensor tensor) {
+        super(model, tensor);
+    }
+
+    @Override
+    public MFModelAniso1 withTensor(DiffusionTensor tensor) {
+        return new MFModelAniso1(this, tensor);
+    }
+
     public MFModelAniso1(RelaxFit.DiffusionType diffType, double[] v) {
         super(diffType, v);
         nPars = 1;
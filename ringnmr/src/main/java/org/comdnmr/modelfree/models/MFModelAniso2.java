@@ -22,6 +22,7 @@
  */
 package org.comdnmr.modelfree.models;
 
+import org.comdnmr.modelfree.DiffusionTensor;
 import org.comdnmr.modelfree.RelaxFit;
 
 /**
@@ -31,15 +32,29 @@ import org.comdnmr.modelfree.RelaxFit;
 public class MFModelAniso2 extends MFModelAniso1 {
 
     double tauF;
+    double[] eF;
 
     public MFModelAniso2(RelaxFit.DiffusionType diffType, double[][] D, double[][] VT, double[] v) {
         super(diffType, D, VT, v);
         nPars = 2;
     }
 
+    MFModelAniso2(MFModelAniso2 model, DiffusionTensor tensor) {
+        super(model, tensor);
+    }
+
+    @Override
+    public MFModelAniso2 withTensor(DiffusionTensor tensor) {
+        return new MFModelAniso2(this, tensor);
+    }
+
+    @Override
+    void prepare() {
+        eF = diffPars.calcDiffusione(tauF);
+    }
+
     @Override
     double calc(double omega2, int i) {
-        double[] eF = diffPars.calcDiffusione(tauF);
         double value1 = s2 * (Df[i] * a[i]);
         double value2 = (1.0 - s2) * (eF[i] * a[i]) / (1.0 + omega2 * eF[i] * eF[i]);//(eF[i]*eF[i] + w2);
         return value1 + value2;
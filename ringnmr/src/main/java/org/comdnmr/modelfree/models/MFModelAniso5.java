@@ -22,6 +22,7 @@
  */
 package org.comdnmr.modelfree.models;
 
+import org.comdnmr.modelfree.DiffusionTensor;
 import org.comdnmr.modelfree.RelaxFit;
 
 /**
@@ -38,9 +39,17 @@ public class MFModelAniso5 extends MFModelAniso2 {
 
     }
 
+    MFModelAniso5(MFModelAniso5 model, DiffusionTensor tensor) {
+        super(model, tensor);
+    }
+
+    @Override
+    public MFModelAniso5 withTensor(DiffusionTensor tensor) {
+        return new MFModelAniso5(this, tensor);
+    }
+
     @Override
     double calc(double omega2, int i) {
-        double[] eF = diffPars.calcDiffusione(tauF);
         double value1 = s2 * (Df[i] * a[i]);
         double value2 = (sf2 - s2) * (eF[i] * a[i]) / (1.0 + omega2 * eF[i] * eF[i]);//(eF[i]*eF[i] + w2);
         return value1 + value2;
@@ -22,6 +22,7 @@
  */
 package org.comdnmr.modelfree.models;
 
+import org.comdnmr.modelfree.DiffusionTensor;
 import org.comdnmr.modelfree.RelaxFit;
 
 /**
@@ -31,16 +32,30 @@ import org.comdnmr.modelfree.RelaxFit;
 public class MFModelAniso6 extends MFModelAniso5 {
 
     double tauS;
+    double[] eS;
 
     public MFModelAniso6(RelaxFit.DiffusionType diffType, double[][] D, double[][] VT, double[] v) {
         super(diffType, D, VT, v);
         nPars = 4;
     }
 
+    MFModelAniso6(MFModelAniso6 model, DiffusionTensor tensor) {
+        super(model, tensor);
+    }
+
+    @Override
+    public MFModelAniso6 withTensor(DiffusionTensor tensor) {
+        return new MFModelAniso6(this, tensor);
+    }
+
+    @Override
+    void prepare() {
+        super.prepare();
+        eS = diffPars.calcDiffusione(tauS);
+    }
+
     @Override
     double calc(double omega2, int i) {
-        double[] eF = diffPars.calcDiffusione(tauF);
-        double[] eS = diffPars.calcDiffusione(tauS);
         double value1 = s2 * (Df[i] * a[i]);
         double value2 = (sf2 - s2) * (eS[i] * a[i]) / (1.0 + omega2 * eS[i] * eS[i]);
         double value3 = (1.0 - sf2) * (eF[i] * a[i]) / (1.0 + omega2 * eF[i] * eF[i]);
@@ -30,6 +30,8 @@ import java.util.List;
  * @author brucejohnson
  */
 public abstract class MFModelIso extends MFModel {
+    // fixme the MFModelIso models have no analytic derivatives of J(w), so the
+    // model-free fits in RelaxFit can't use the LM optimizer (see EquationDerivatives)
     double sN = 1.0;
     double tauM;
     double rEX;
@@ -0,0 +1,409 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.comdnmr.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Definition of a saved artificial neural network: the layer sizes,
+ * activator names, scale values, weights and biases. Networks can be read
+ * from the original text format or from a compact binary format, and the
+ * main method converts text files to binary.
+ *
+ * The binary format is little-endian and contains, in order:
+ * <ul>
+ * <li>the magic bytes "ANNB" and an int version</li>
+ * <li>an int layer count followed by the number of neurons in each
+ * layer</li>
+ * <li>an int activator count followed by the activator names</li>
+ * <li>an int scale count followed by, for each entry, the name, an int value
+ * count and the values</li>
+ * <li>for each layer the weights as doubles indexed by input then output,
+ * followed for each layer by the biases</li>
+ * </ul>
+ * Names are stored as an int byte length followed by UTF-8 bytes. The
+ * weights and biases are read as views of the buffer, so a memory mapped
+ * file is not copied.
+ */
+public class ANNFile {
+
+    static final byte[] MAGIC = {'A', 'N', 'N', 'B'};
+    static final int VERSION = 1;
+    public static final String TEXT_SUFFIX = ".txt";
+    public static final String BINARY_SUFFIX = ".bin";
+
+    private final int[] layers;
+    private final String[] activators;
+    private final Map<String, double[]> scaleValues;
+    private final DoubleBuffer[] weights;
+    private final DoubleBuffer[] biases;
+
+    private ANNFile(int[] layers, String[] activators, Map<String, double[]> scaleValues,
+            DoubleBuffer[] weights, DoubleBuffer[] biases) {
+        this.layers = layers;
+        this.activators = activators;
+        this.scaleValues = scaleValues;
+        this.weights = weights;
+        this.biases = biases;
+    }
+
+    public int[] getLayers() {
+        return layers.clone();
+    }
+
+    public int getNumberOfInputNodes() {
+        return layers[0];
+    }
+
+    public int getNumberOfOutputNodes() {
+        return layers[layers.length - 1];
+    }
+
+    public String[] getActivators() {
+        return activators.clone();
+    }
+
+    public Map<String, double[]> getScaleValues() {
+        return scaleValues;
+    }
+
+    public double getWeight(int layer, int input, int output) {
+        return weights[layer].get(input * layers[layer + 1] + output);
+    }
+
+    public double getBias(int layer, int output) {
+        return biases[layer].get(output);
+    }
+
+    /**
+     * Load a network from a classpath resource. If a binary version of a
+     * text resource exists (same name with the .bin suffix) it is used
+     * instead. Binary resources stored as plain files are memory mapped.
+     *
+     * @param resourceName the resource name
+     * @return the network definition
+     * @throws IOException if the resource can't be found or read
+     */
+    public static ANNFile loadResource(String resourceName) throws IOException {
+        ClassLoader cl = ClassLoader.getSystemClassLoader();
+        String binaryName = resourceName.endsWith(TEXT_SUFFIX)
+                ? resourceName.substring(0, resourceName.length() - TEXT_SUFFIX.length()) + BINARY_SUFFIX
+                : resourceName;
+        URL url = cl.getResource(binaryName);
+        if (url != null && binaryName.endsWith(BINARY_SUFFIX)) {
+            if (url.getProtocol().equals("file")) {
+                try {
+                    return mapBinary(Path.of(url.toURI()));
+                } catch (URISyntaxException e) {
+                    throw new IOException(e);
+                }
+            }
+            try (InputStream istream = url.openStream()) {
+                return readBinary(ByteBuffer.wrap(istream.readAllBytes()));
+            }
+        }
+        InputStream istream = cl.getResourceAsStream(resourceName);
+        if (istream == null) {
+            throw new IOException("Can't find network resource " + resourceName);
+        }
+        try (istream) {
+            return readText(istream);
+        }
+    }
+
+    /**
+     * Memory map a binary network file.
+     *
+     * @param path the file
+     * @return the network definition
+     * @throws IOException if the file can't be read
+     */
+    public static ANNFile mapBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Read a network in the binary format. The weights and biases remain
+     * views of the buffer.
+     *
+     * @param buffer buffer positioned at the start of the network
+     * @return the network definition
+     * @throws IOException if the buffer doesn't hold a valid network
+     */
+    public static ANNFile readBinary(ByteBuffer buffer) throws IOException {
+        buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary network file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary network version " + version);
+        }
+        int[] layers = new int[buffer.getInt()];
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = buffer.getInt();
+        }
+        String[] activators = new String[buffer.getInt()];
+        for (int i = 0; i < activators.length; i++) {
+            activators[i] = getString(buffer);
+        }
+        int nScales = buffer.getInt();
+        Map<String, double[]> scaleValues = new LinkedHashMap<>();
+        for (int i = 0; i < nScales; i++) {
+            String name = getString(buffer);
+            double[] values = new double[buffer.getInt()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = buffer.getDouble();
+            }
+            scaleValues.put(name, values);
+        }
+        int nLayers = layers.length - 1;
+        DoubleBuffer[] weights = new DoubleBuffer[nLayers];
+        DoubleBuffer[] biases = new DoubleBuffer[nLayers];
+        for (int layer = 0; layer < nLayers; layer++) {
+            weights[layer] = getDoubles(buffer, layers[layer] * layers[layer + 1]);
+        }
+        for (int layer = 0; layer < nLayers; layer++) {
+            biases[layer] = getDoubles(buffer, layers[layer + 1]);
+        }
+        return new ANNFile(layers, activators, scaleValues, weights, biases);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static DoubleBuffer getDoubles(ByteBuffer buffer, int n) {
+        int nBytes = n * Double.BYTES;
+        DoubleBuffer values = buffer.slice(buffer.position(), nBytes)
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        buffer.position(buffer.position() + nBytes);
+        return values;
+    }
+
+    /**
+     * Read a network in the original text format.
+     *
+     * @param istream stream containing the network
+     * @return the network definition
+     * @throws IOException if the network is incomplete or can't be parsed
+     */
+    public static ANNFile readText(InputStream istream) throws IOException {
+        int[] layers = null;
+        String[] activators = new String[0];
+        Map<String, double[]> scaleValues = new LinkedHashMap<>();
+        double[][] weights = null;
+        double[][] biases = null;
+        int nWeights = 0;
+        int nBiases = 0;
+        Scanner scanFile = new Scanner(istream, StandardCharsets.UTF_8);
+        while (scanFile.hasNextLine()) {
+            String line = scanFile.nextLine();
+
+            if (line.startsWith("Neu")) {
+                String[] nNeuronsString = line.substring((line.indexOf("[") + 1), line.indexOf("]")).replaceAll("\\s+", "").split(",");
+                layers = Arrays.stream(nNeuronsString).mapToInt(Integer::parseInt).toArray();
+                weights = new double[layers.length - 1][];
+                biases = new double[layers.length - 1][];
+                for (int layer = 0; layer < weights.length; layer++) {
+                    weights[layer] = new double[layers[layer] * layers[layer + 1]];
+                    biases[layer] = new double[layers[layer + 1]];
+                }
+            } else if (line.startsWith("Wei")) {
+                checkLayers(layers);
+                String weightLine = scanFile.nextLine();
+                while (!weightLine.equals("")) {
+                    String[] fields = weightLine.split("\\s+");
+                    int layer = Integer.parseInt(fields[0]);
+                    int input = Integer.parseInt(fields[1]);
+                    int output = Integer.parseInt(fields[2]);
+                    weights[layer][input * layers[layer + 1] + output] = Double.parseDouble(fields[3]);
+                    nWeights++;
+                    weightLine = scanFile.nextLine();
+                }
+            } else if (line.startsWith("Bi")) {
+                checkLayers(layers);
+                String biasLine = scanFile.nextLine();
+                while (!biasLine.equals("")) {
+                    String[] fields = biasLine.split("\\s+");
+                    int layer = Integer.parseInt(fields[0]);
+                    int output = Integer.parseInt(fields[1]);
+                    biases[layer][output] = Double.parseDouble(fields[2]);
+                    nBiases++;
+                    biasLine = scanFile.nextLine();
+                }
+            } else if (line.startsWith("Act")) {
+                activators = line.substring((line.indexOf("[") + 1), line.indexOf("]")).split(",");
+                for (int i = 0; i < activators.length; i++) {
+                    activators[i] = activators[i].trim();
+                }
+            } else if (line.startsWith("Scale")) {
+                String[] scaleValsString = line.substring((line.indexOf("=") + 1), (line.length() - 1)).replaceAll("\\s+", "").split(":");
+                for (String scaleVals : scaleValsString) {
+                    String[] tempKeyVal = scaleVals.split(";");
+                    try {
+                        String[] tempValArr = tempKeyVal[tempKeyVal.length - 1].split(",");
+                        double[] tempDoubleArr = Arrays.stream(tempValArr).mapToDouble(Double::parseDouble).toArray();
+                        scaleValues.put(tempKeyVal[0], tempDoubleArr);
+                    } catch (Exception e) {
+                        throw new IOException("Problem retrieving scale values string. (" + e + ")");
+                    }
+                }
+            }
+        }
+        checkLayers(layers);
+        int expectedWeights = 0;
+        int expectedBiases = 0;
+        for (int layer = 0; layer < weights.length; layer++) {
+            expectedWeights += weights[layer].length;
+            expectedBiases += biases[layer].length;
+        }
+        // the binary format is dense, so every weight and bias must be given
+        if ((nWeights != expectedWeights) || (nBiases != expectedBiases)) {
+            throw new IOException("Network has " + nWeights + " weights and " + nBiases
+                    + " biases, expected " + expectedWeights + " and " + expectedBiases);
+        }
+        DoubleBuffer[] weightBuffers = new DoubleBuffer[weights.length];
+        DoubleBuffer[] biasBuffers = new DoubleBuffer[biases.length];
+        for (int layer = 0; layer < weights.length; layer++) {
+            weightBuffers[layer] = DoubleBuffer.wrap(weights[layer]);
+            biasBuffers[layer] = DoubleBuffer.wrap(biases[layer]);
+        }
+        return new ANNFile(layers, activators, scaleValues, weightBuffers, biasBuffers);
+    }
+
+    private static void checkLayers(int[] layers) throws IOException {
+        if (layers == null) {
+            throw new IOException("Network doesn't start with the number of neurons per layer");
+        }
+    }
+
+    /**
+     * Write the network in the binary format.
+     *
+     * @param ostream the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    public void writeBinary(OutputStream ostream) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(layers.length);
+        for (int nNeurons : layers) {
+            buffer.putInt(nNeurons);
+        }
+        buffer.putInt(activators.length);
+        for (String activator : activators) {
+            putString(buffer, activator);
+        }
+        buffer.putInt(scaleValues.size());
+        for (var entry : scaleValues.entrySet()) {
+            putString(buffer, entry.getKey());
+            buffer.putInt(entry.getValue().length);
+            for (double value : entry.getValue()) {
+                buffer.putDouble(value);
+            }
+        }
+        for (DoubleBuffer layerWeights : weights) {
+            for (int i = 0; i < layerWeights.limit(); i++) {
+                buffer.putDouble(layerWeights.get(i));
+            }
+        }
+        for (DoubleBuffer layerBiases : biases) {
+            for (int i = 0; i < layerBiases.limit(); i++) {
+                buffer.putDouble(layerBiases.get(i));
+            }
+        }
+        ostream.write(buffer.array());
+    }
+
+    private int size() {
+        int size = MAGIC.length + 3 * Integer.BYTES + layers.length * Integer.BYTES;
+        for (String activator : activators) {
+            size += Integer.BYTES + activator.getBytes(StandardCharsets.UTF_8).length;
+        }
+        size += Integer.BYTES;
+        for (var entry : scaleValues.entrySet()) {
+            size += 2 * Integer.BYTES + entry.getKey().getBytes(StandardCharsets.UTF_8).length
+                    + entry.getValue().length * Double.BYTES;
+        }
+        for (int layer = 0; layer < weights.length; layer++) {
+            size += (weights[layer].limit() + biases[layer].limit()) * Double.BYTES;
+        }
+        return size;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Convert networks in the text format to the binary format. Each file
+     * name.txt is written to name.bin in the same directory.
+     *
+     * @param args the text files to convert
+     * @throws IOException if a file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: ANNFile network.txt ...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            Path textPath = Path.of(arg);
+            String fileName = textPath.getFileName().toString();
+            if (!fileName.endsWith(TEXT_SUFFIX)) {
+                throw new IOException("Network file " + arg + " doesn't end with " + TEXT_SUFFIX);
+            }
+            String binaryName = fileName.substring(0, fileName.length() - TEXT_SUFFIX.length()) + BINARY_SUFFIX;
+            Path binaryPath = textPath.resolveSibling(binaryName);
+            ANNFile annFile;
+            try (InputStream istream = Files.newInputStream(textPath)) {
+                annFile = readText(istream);
+            }
+            try (OutputStream ostream = Files.newOutputStream(binaryPath)) {
+                annFile.writeBinary(ostream);
+            }
+            System.out.println("wrote " + binaryPath);
+        }
+    }
+}
@@ -23,12 +23,12 @@
 package org.comdnmr.util;
 
 import java.io.IOException;
-import java.io.InputStream;
 import org.ojalgo.ann.ArtificialNeuralNetwork;
 import org.ojalgo.ann.NetworkBuilder;
-import java.util.Scanner;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -36,138 +36,98 @@ import java.util.HashMap;
  */
 public class ANNLoader {
 
-    private NetworkBuilder builder;
+    private static final Map<String, ANNLoader> LOADERS = new ConcurrentHashMap<>();
+
     private final String resourceName;
-    private static ANNLoader singleInstance = null;
-    private final HashMap<String, double[]> scaleValues = new HashMap(20);
-    private final int nInputNodes = 0;
-    private final int nOutputNodes = 0;
+    private volatile ANNFile annFile = null;
+    // an ojalgo network keeps its layer outputs in its builder, so each
+    // thread gets its own network built from the loaded definition
+    private final ThreadLocal<ArtificialNeuralNetwork> networks = ThreadLocal.withInitial(this::buildNetwork);
 
     private ANNLoader(String resourceName) {
         this.resourceName = resourceName;
     }
 
     /**
-     * Purpose - To ensure user creates a single instance of the ANNLoader
-     * object, while still allowing the ability to instantiate and load other
-     * saved networks after an initial instantiation of another (i.e CPMG and
-     * CEST saved networks), we implement a pseudo-singleton pattern which
-     * checks whether or not the saved network user wants to load is currently
-     * in memory. 
-     * (If it is, we return that object instead of re-loading it)
+     * Get the loader for a saved network. Loaders are cached by resource name
+     * so that each saved network (i.e CPMG fast and slow, and CEST) is only
+     * read from its resource once, no matter how the calls for different
+     * networks are interleaved.
      *
      * @param resource - name of the resource, or file, containing the weights,
      * biases, activator functions and other information about the artificial
-     * neural network.
+     * neural network. A binary version of the network (see {@link ANNFile})
+     * with the same name and a .bin suffix is used in place of a .txt
+     * resource when present.
      *
      * @return ANNLoader object for given saved neural network.
      */
     public static ANNLoader getInstance(String resource) {
-        if (singleInstance == null || !singleInstance.resourceName.equals(resource)) {
-            singleInstance = new ANNLoader(resource);
-        }
-        return singleInstance;
+        return LOADERS.computeIfAbsent(resource, ANNLoader::new);
     }
 
     public int getNumberOfInputNodes() {
-        return nInputNodes;
+        return annFile == null ? 0 : annFile.getNumberOfInputNodes();
     }
 
     public int getNumberOfOutputNodes() {
-        return nOutputNodes;
+        return annFile == null ? 0 : annFile.getNumberOfOutputNodes();
     }
 
+    /**
+     * Get the scale values stored with the network. The returned map is a
+     * copy, so callers may modify it without affecting other threads.
+     *
+     * @return map from value name to scale values
+     */
     public HashMap getScaleValues() {
-        // getter method to retrieve the scale values
-        if (scaleValues != null) {
-            return scaleValues;
-        } else {
-            return null;
-        }
+        return annFile == null ? new HashMap<>() : new HashMap<>(annFile.getScaleValues());
     }
 
-    private NetworkBuilder reBuildNeuralNetworkFromFile() throws IOException, Exception {
-        ClassLoader cl = ClassLoader.getSystemClassLoader();
-        InputStream istream = cl.getResourceAsStream(resourceName);
-        Scanner scanFile = new Scanner(istream);
-        while (scanFile.hasNextLine()) {
-            String line = scanFile.nextLine();
+    private synchronized void load() throws IOException {
+        if (annFile == null) {
+            annFile = ANNFile.loadResource(resourceName);
+        }
+    }
 
-            if (line.startsWith("Neu")) {
-                String[] nNeuronsString = line.substring((line.indexOf("[") + 1), line.indexOf("]")).replaceAll("\\s+", "").split(",");
-                int[] nNeuronsInt = Arrays.stream(nNeuronsString).mapToInt(Integer::parseInt).toArray();
-                setBuilder(nNeuronsInt);
-            } else if (line.startsWith("Wei")) {
-                String weightLine = scanFile.nextLine();
-                while (!weightLine.equals("")) {
-                    String[] weightStrArr = weightLine.split("\\s+");
-                    updateWeights(weightStrArr);
-                    weightLine = scanFile.nextLine();
-                }
-            } else if (line.startsWith("Bi")) {
-                String biasLine = scanFile.nextLine();
-                while (!biasLine.equals("")) {
-                    String[] biasStrArr = biasLine.split("\\s+");
-                    updateBiases(biasStrArr);
-                    biasLine = scanFile.nextLine();
-                }
-            } else if (line.startsWith("Act")) {
-                String[] activatorsString = line.substring((line.indexOf("[") + 1), line.indexOf("]")).split(",");
-                ArtificialNeuralNetwork.Activator[] listOfActivators = new ArtificialNeuralNetwork.Activator[activatorsString.length];
-                int a = 0;
-                for (String activator : activatorsString) {
-                    listOfActivators[a] = ArtificialNeuralNetwork.Activator.valueOf(activator.trim());
-                    a++;
-                }
-                updateActivators(listOfActivators);
-            } else if (line.startsWith("Scale")) {
-                String[] scaleValsString = line.substring((line.indexOf("=") + 1), (line.length() - 1)).replaceAll("\\s+", "").split(":");
-                for (String scaleVals : scaleValsString) {
-                    String[] tempKeyVal = scaleVals.split(";");
-//                    System.out.println("[ANNLoader.reBuildNeuralNetwork] >>> KeyVal: " + Arrays.toString(tempKeyVal));
-                    try {
-                        String[] tempValArr = tempKeyVal[tempKeyVal.length - 1].split(",");
-                        double[] tempDoubleArr = Arrays.stream(tempValArr).mapToDouble(Double::parseDouble).toArray();
-//                        System.out.println("[ANNLoader.reBuildNeuralNetwork] >>> dArr: " + Arrays.toString(tempDoubleArr));
-                        scaleValues.put(tempKeyVal[0], tempDoubleArr);
-                    } catch (Exception e) {
-                        throw new Exception("Problem retrieving scale values string. (" + e + ")");
-                    }
+    private ArtificialNeuralNetwork buildNetwork() {
+        int[] layers = annFile.getLayers();
+        NetworkBuilder builder = ArtificialNeuralNetwork.builder(layers[0], Arrays.copyOfRange(layers, 1, layers.length));
+        for (int layer = 0; layer < layers.length - 1; layer++) {
+            for (int input = 0; input < layers[layer]; input++) {
+                for (int output = 0; output < layers[layer + 1]; output++) {
+                    builder.weight(layer, input, output, annFile.getWeight(layer, input, output));
                 }
             }
+            for (int output = 0; output < layers[layer + 1]; output++) {
+                builder.bias(layer, output, annFile.getBias(layer, output));
+            }
         }
-        return builder;
-    }
-
-    private void setBuilder(int[] layers) {
-        builder = ArtificialNeuralNetwork.builder(layers[0], Arrays.copyOfRange(layers, 1, layers.length));
-    }
-
-    private void updateWeights(String[] weightLine) {
-        int layer = Integer.parseInt(weightLine[0]);
-        int input = Integer.parseInt(weightLine[1]);
-        int output = Integer.parseInt(weightLine[2]);
-        double value = Double.parseDouble(weightLine[3]);
-        builder.weight(layer, input, output, value);
-    }
-
-    private void updateBiases(String[] biasLine) {
-        int layer = Integer.parseInt(biasLine[0]);
-        int output = Integer.parseInt(biasLine[1]);
-        double value = Double.parseDouble(biasLine[2]);
-        builder.bias(layer, output, value);
-    }
-
-    private void updateActivators(ArtificialNeuralNetwork.Activator[] activators) {
-        builder.activators(activators);
+        String[] activatorNames = annFile.getActivators();
+        if (activatorNames.length > 0) {
+            ArtificialNeuralNetwork.Activator[] activators = new ArtificialNeuralNetwork.Activator[activatorNames.length];
+            for (int i = 0; i < activators.length; i++) {
+                activators[i] = ArtificialNeuralNetwork.Activator.valueOf(activatorNames[i]);
+            }
+            builder.activators(activators);
+        }
+        return builder.get();
     }
 
+    /**
+     * Get the trained network for the calling thread. The resource is read
+     * on the first call and each thread builds its own copy of the network
+     * once, so later calls only do a thread local lookup.
+     *
+     * @return the network
+     * @throws IOException if the resource can't be read or parsed
+     * @throws Exception if the network can't be built
+     */
     public ArtificialNeuralNetwork getTrainedNetwork() throws IOException, Exception {
-        if (singleInstance != null) {
-            return reBuildNeuralNetworkFromFile().get();
-        } else {
-            return null;
+        if (annFile == null) {
+            load();
         }
+        return networks.get();
     }
 
 }
@@ -0,0 +1,211 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.util;
+
+/**
+ * Propagator for the small, fixed size Bloch-McConnell matrices used by the
+ * exact CEST and R1rho models. Computes exp[Z] with the same Pade (q = 6)
+ * scaling and squaring scheme as {@link MtxExp}, but works on row-major
+ * primitive arrays that are allocated once, so repeated calls over the offsets
+ * of a profile don't allocate. An instance is not thread-safe; use one per
+ * thread.
+ * <p>
+ * Unlike {@link MtxExp}, which returns the Pade numerator unsolved when no
+ * squaring is needed, the result is also correct for matrices with a norm
+ * below one half.
+ */
+public class BlochMcConnellPropagator {
+
+    private static final int Q = 6;
+    private static final double[] PADE = new double[Q + 1];
+
+    static {
+        double c = 0.5;
+        PADE[1] = c;
+        for (int k = 2; k <= Q; k++) {
+            c = c * (Q - k + 1) / (k * (2 * Q - k + 1));
+            PADE[k] = c;
+        }
+    }
+
+    private final int n;
+    private final double[] a;
+    private final double[] x;
+    private final double[] x1;
+    private final double[] e;
+    private final double[] d;
+    private final int[] pivot;
+
+    public BlochMcConnellPropagator(int n) {
+        this.n = n;
+        int nn = n * n;
+        a = new double[nn];
+        x = new double[nn];
+        x1 = new double[nn];
+        e = new double[nn];
+        d = new double[nn];
+        pivot = new int[n];
+    }
+
+    /**
+     * @return the dimension of the matrices this propagator works on
+     */
+    public int getSize() {
+        return n;
+    }
+
+    /**
+     * Compute the matrix exponential exp[Z].
+     *
+     * @param z the matrix in row-major order. Only the first n*n elements are
+     * used and the array is not modified.
+     * @param result array of at least n*n elements that receives exp[Z] in
+     * row-major order
+     */
+    public void exp(double[] z, double[] result) {
+        int nn = n * n;
+        double sumSq = 0.0;
+        for (int i = 0; i < nn; i++) {
+            sumSq += z[i] * z[i];
+        }
+        int ex = (int) (Math.log(Math.sqrt(sumSq)) / Math.log(2));
+        int s = Math.max(0, ex + 1);
+        double scale = 1.0 / Math.pow(2, s);
+
+        for (int i = 0; i < nn; i++) {
+            double v = z[i] * scale;
+            a[i] = v;
+            x1[i] = v;
+            e[i] = PADE[1] * v;
+            d[i] = -PADE[1] * v;
+        }
+        for (int i = 0; i < n; i++) {
+            e[i * n + i] += 1.0;
+            d[i * n + i] += 1.0;
+        }
+
+        boolean p = true;
+        for (int k = 2; k <= Q; k++) {
+            mult(a, x1, x);
+            double c = PADE[k];
+            double sign = p ? c : -c;
+            for (int i = 0; i < nn; i++) {
+                double v = x[i];
+                x1[i] = v;
+                e[i] += c * v;
+                d[i] += sign * v;
+            }
+            p = !p;
+        }
+
+        // solve D * X = E, leaving the Pade approximant in x
+        decompose(d);
+        solve(d, e, x);
+
+        double[] src = x;
+        double[] dest = e;
+        for (int k = 0; k < s; k++) {
+            mult(src, src, dest);
+            double[] tmp = src;
+            src = dest;
+            dest = tmp;
+        }
+        System.arraycopy(src, 0, result, 0, nn);
+    }
+
+    private void mult(double[] m1, double[] m2, double[] out) {
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            for (int j = 0; j < n; j++) {
+                out[row + j] = 0.0;
+            }
+            for (int k = 0; k < n; k++) {
+                double v = m1[row + k];
+                if (v != 0.0) {
+                    int krow = k * n;
+                    for (int j = 0; j < n; j++) {
+                        out[row + j] += v * m2[krow + j];
+                    }
+                }
+            }
+        }
+    }
+
+    // in place LU decomposition with partial pivoting
+    private void decompose(double[] lu) {
+        for (int i = 0; i < n; i++) {
+            pivot[i] = i;
+        }
+        for (int col = 0; col < n; col++) {
+            int maxRow = col;
+            double max = Math.abs(lu[col * n + col]);
+            for (int row = col + 1; row < n; row++) {
+                double v = Math.abs(lu[row * n + col]);
+                if (v > max) {
+                    max = v;
+                    maxRow = row;
+                }
+            }
+            if (maxRow != col) {
+                int r1 = col * n;
+                int r2 = maxRow * n;
+                for (int j = 0; j < n; j++) {
+                    double tmp = lu[r1 + j];
+                    lu[r1 + j] = lu[r2 + j];
+                    lu[r2 + j] = tmp;
+                }
+                int tmp = pivot[col];
+                pivot[col] = pivot[maxRow];
+                pivot[maxRow] = tmp;
+            }
+            double diag = lu[col * n + col];
+            for (int row = col + 1; row < n; row++) {
+                int r = row * n;
+                double f = lu[r + col] / diag;
+                lu[r + col] = f;
+                if (f != 0.0) {
+                    int c = col * n;
+                    for (int j = col + 1; j < n; j++) {
+                        lu[r + j] -= f * lu[c + j];
+                    }
+                }
+            }
+        }
+    }
+
+    private void solve(double[] lu, double[] b, double[] out) {
+        for (int col = 0; col < n; col++) {
+            for (int i = 0; i < n; i++) {
+                double sum = b[pivot[i] * n + col];
+                int r = i * n;
+                for (int k = 0; k < i; k++) {
+                    sum -= lu[r + k] * out[k * n + col];
+                }
+                out[r + col] = sum;
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                int r = i * n;
+                double sum = out[r + col];
+                for (int k = i + 1; k < n; k++) {
+                    sum -= lu[r + k] * out[k * n + col];
+                }
+                out[r + col] = sum / lu[r + i];
+            }
+        }
+    }
+}
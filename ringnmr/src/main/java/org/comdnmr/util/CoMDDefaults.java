@@ -26,6 +26,14 @@ public class CoMDDefaults {
     static final Integer SAMPLE_SIZE = 50; // 
     static final String OPTIMIZER = "CMA-ES";
     static final String BOOTSTRAP_OPTIMIZER = "CMA-ES";
+    static final Integer N_PROCESSES = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    static final Integer MULTI_STARTS = 1;
+    static final Integer ABANDON_EVALUATIONS = 500;
+    static final Double ABANDON_RATIO = 2.0;
+    static final Boolean WARM_START_BOOTSTRAP = true;
+    static final Double BOOTSTRAP_TOLERANCE = 0.05;
+    static final Integer BOOTSTRAP_RESERVOIR_SIZE = 200;
+    static final Boolean BOOTSTRAP_RETAIN_ALL = false;
 
     /**
      * @return the refField
@@ -132,4 +140,65 @@ public class CoMDDefaults {
         return BOOTSTRAP_OPTIMIZER;
     }
 
+    /**
+     * @return the number of residue groups to fit concurrently
+     */
+    public static Integer getNProcesses() {
+        return N_PROCESSES;
+    }
+
+    /**
+     * @return the number of starting points each curve fit is refined from
+     */
+    public static Integer getMultiStarts() {
+        return MULTI_STARTS;
+    }
+
+    /**
+     * @return the number of evaluations after which a start may be abandoned,
+     * or 0 to finish every start
+     */
+    public static Integer getAbandonEvaluations() {
+        return ABANDON_EVALUATIONS;
+    }
+
+    /**
+     * @return how many times worse than the best value found by any start the
+     * value of a start must be for it to be abandoned
+     */
+    public static Double getAbandonRatio() {
+        return ABANDON_RATIO;
+    }
+
+    /**
+     * @return whether bootstrap replicates are refined from the best fit with
+     * a reduced step size and evaluation budget
+     */
+    public static Boolean getWarmStartBootstrap() {
+        return WARM_START_BOOTSTRAP;
+    }
+
+    /**
+     * @return the relative change in the bootstrap standard deviations below
+     * which no more replicates are run, or 0 to always run the full sample
+     * size
+     */
+    public static Double getBootstrapTolerance() {
+        return BOOTSTRAP_TOLERANCE;
+    }
+
+    /**
+     * @return the number of bootstrap samples kept for plotting
+     */
+    public static Integer getBootstrapReservoirSize() {
+        return BOOTSTRAP_RESERVOIR_SIZE;
+    }
+
+    /**
+     * @return whether every bootstrap sample is kept
+     */
+    public static Boolean getBootstrapRetainAll() {
+        return BOOTSTRAP_RETAIN_ALL;
+    }
+
 }
@@ -12,11 +12,23 @@ package org.comdnmr.util;
 public class CoMDOptions {
 
     final boolean usePrefs;
+    String optimizer = null;
 
     public CoMDOptions(boolean usePrefs) {
         this.usePrefs = usePrefs;
     }
 
+    /**
+     * Set the optimizer for fits made with these options, instead of the one
+     * from the preferences or defaults. The preferences are not changed.
+     *
+     * @param optimizer the name of the optimizer, or null to use the
+     * preferences or defaults again
+     */
+    public void setOptimizer(String optimizer) {
+        this.optimizer = optimizer;
+    }
+
     /**
      * @return the refField
      */
@@ -103,6 +115,9 @@ public class CoMDOptions {
      * @return the optimizer
      */
     public String getOptimizer() {
+        if (optimizer != null) {
+            return optimizer;
+        }
         return usePrefs ? CoMDPreferences.getOptimizer() : CoMDDefaults.getOptimizer();
     }
 
@@ -113,4 +128,65 @@ public class CoMDOptions {
         return usePrefs ? CoMDPreferences.getBootStrapOptimizer() : CoMDDefaults.getBootStrapOptimizer();
     }
 
+    /**
+     * @return the number of residue groups to fit concurrently
+     */
+    public Integer getNProcesses() {
+        return usePrefs ? CoMDPreferences.getNProcesses() : CoMDDefaults.getNProcesses();
+    }
+
+    /**
+     * @return the number of starting points each curve fit is refined from
+     */
+    public Integer getMultiStarts() {
+        return usePrefs ? CoMDPreferences.getMultiStarts() : CoMDDefaults.getMultiStarts();
+    }
+
+    /**
+     * @return the number of evaluations after which a start may be abandoned,
+     * or 0 to finish every start
+     */
+    public Integer getAbandonEvaluations() {
+        return usePrefs ? CoMDPreferences.getAbandonEvaluations() : CoMDDefaults.getAbandonEvaluations();
+    }
+
+    /**
+     * @return how many times worse than the best value found by any start the
+     * value of a start must be for it to be abandoned
+     */
+    public Double getAbandonRatio() {
+        return usePrefs ? CoMDPreferences.getAbandonRatio() : CoMDDefaults.getAbandonRatio();
+    }
+
+    /**
+     * @return whether bootstrap replicates are refined from the best fit with
+     * a reduced step size and evaluation budget
+     */
+    public Boolean getWarmStartBootstrap() {
+        return usePrefs ? CoMDPreferences.getWarmStartBootstrap() : CoMDDefaults.getWarmStartBootstrap();
+    }
+
+    /**
+     * @return the relative change in the bootstrap standard deviations below
+     * which no more replicates are run, or 0 to always run the full sample
+     * size
+     */
+    public Double getBootstrapTolerance() {
+        return usePrefs ? CoMDPreferences.getBootstrapTolerance() : CoMDDefaults.getBootstrapTolerance();
+    }
+
+    /**
+     * @return the number of bootstrap samples kept for plotting
+     */
+    public Integer getBootstrapReservoirSize() {
+        return usePrefs ? CoMDPreferences.getBootstrapReservoirSize() : CoMDDefaults.getBootstrapReservoirSize();
+    }
+
+    /**
+     * @return whether every bootstrap sample is kept
+     */
+    public Boolean getBootstrapRetainAll() {
+        return usePrefs ? CoMDPreferences.getBootstrapRetainAll() : CoMDDefaults.getBootstrapRetainAll();
+    }
+
 }
@@ -23,6 +23,7 @@
 package org.comdnmr.util;
 
 import org.comdnmr.data.Experiment;
+import org.comdnmr.eqnfit.CurveCache;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -49,6 +50,14 @@ public class CoMDPreferences {
     static private Integer sampleSize = null;
     static private String optimizer = null;
     static private String bootStrapOptimizer = null;
+    static private Integer nProcesses = null;
+    static private Integer multiStarts = null;
+    static private Integer abandonEvaluations = null;
+    static private Double abandonRatio = null;
+    static private Boolean warmStartBootstrap = null;
+    static private Double bootstrapTolerance = null;
+    static private Integer bootstrapReservoirSize = null;
+    static private Boolean bootstrapRetainAll = null;
     private static Map<String, Boolean> cestEqnMap = null;
     private static Map<String, Boolean> cpmgEqnMap = null;
     private static Map<String, Boolean> r1rhoEqnMap = null;
@@ -81,6 +90,7 @@ public class CoMDPreferences {
         } else {
             getPrefs().remove("CPMG_MAX_FREQ");
         }
+        CurveCache.clear();
     }
 
     public static void setRefField(Double value) {
@@ -151,6 +161,149 @@ public class CoMDPreferences {
         }
     }
 
+    public static Integer getNProcesses() {
+        if (nProcesses == null) {
+            String value = getPrefs().get("NPROCESSES", null);
+            if (value == null) {
+                // earlier versions kept this setting with the GUI preferences
+                value = Preferences.userRoot().node("/org/comdnmr/gui").get("NPROCESSES", null);
+            }
+            if (value == null) {
+                value = Preferences.userNodeForPackage(Experiment.class).get("NPROCESSES", null);
+            }
+            nProcesses = value != null ? Integer.parseInt(value) : CoMDDefaults.getNProcesses();
+        }
+        return nProcesses;
+    }
+
+    public static void setNProcesses(Integer value) {
+        nProcesses = value;
+        if (value != null) {
+            getPrefs().put("NPROCESSES", value.toString());
+        } else {
+            getPrefs().remove("NPROCESSES");
+        }
+    }
+
+    public static Integer getMultiStarts() {
+        if (multiStarts == null) {
+            String value = getPrefs().get("MULTI_STARTS", String.valueOf(CoMDDefaults.getMultiStarts()));
+            multiStarts = Integer.parseInt(value);
+        }
+        return multiStarts;
+    }
+
+    public static void setMultiStarts(Integer value) {
+        multiStarts = value;
+        if (value != null) {
+            getPrefs().put("MULTI_STARTS", value.toString());
+        } else {
+            getPrefs().remove("MULTI_STARTS");
+        }
+    }
+
+    public static Integer getAbandonEvaluations() {
+        if (abandonEvaluations == null) {
+            String value = getPrefs().get("ABANDON_EVALUATIONS", String.valueOf(CoMDDefaults.getAbandonEvaluations()));
+            abandonEvaluations = Integer.parseInt(value);
+        }
+        return abandonEvaluations;
+    }
+
+    public static void setAbandonEvaluations(Integer value) {
+        abandonEvaluations = value;
+        if (value != null) {
+            getPrefs().put("ABANDON_EVALUATIONS", value.toString());
+        } else {
+            getPrefs().remove("ABANDON_EVALUATIONS");
+        }
+    }
+
+    public static Double getAbandonRatio() {
+        if (abandonRatio == null) {
+            String value = getPrefs().get("ABANDON_RATIO", String.valueOf(CoMDDefaults.getAbandonRatio()));
+            abandonRatio = Double.parseDouble(value);
+        }
+        return abandonRatio;
+    }
+
+    public static void setAbandonRatio(Double value) {
+        abandonRatio = value;
+        if (value != null) {
+            getPrefs().put("ABANDON_RATIO", value.toString());
+        } else {
+            getPrefs().remove("ABANDON_RATIO");
+        }
+    }
+
+    public static Boolean getWarmStartBootstrap() {
+        if (warmStartBootstrap == null) {
+            String value = getPrefs().get("WARM_START_BOOTSTRAP", String.valueOf(CoMDDefaults.getWarmStartBootstrap()));
+            warmStartBootstrap = Boolean.parseBoolean(value);
+        }
+        return warmStartBootstrap;
+    }
+
+    public static void setWarmStartBootstrap(Boolean value) {
+        warmStartBootstrap = value;
+        if (value != null) {
+            getPrefs().put("WARM_START_BOOTSTRAP", value.toString());
+        } else {
+            getPrefs().remove("WARM_START_BOOTSTRAP");
+        }
+    }
+
+    public static Double getBootstrapTolerance() {
+        if (bootstrapTolerance == null) {
+            String value = getPrefs().get("BOOTSTRAP_TOLERANCE", String.valueOf(CoMDDefaults.getBootstrapTolerance()));
+            bootstrapTolerance = Double.parseDouble(value);
+        }
+        return bootstrapTolerance;
+    }
+
+    public static void setBootstrapTolerance(Double value) {
+        bootstrapTolerance = value;
+        if (value != null) {
+            getPrefs().put("BOOTSTRAP_TOLERANCE", value.toString());
+        } else {
+            getPrefs().remove("BOOTSTRAP_TOLERANCE");
+        }
+    }
+
+    public static Integer getBootstrapReservoirSize() {
+        if (bootstrapReservoirSize == null) {
+            String value = getPrefs().get("BOOTSTRAP_RESERVOIR_SIZE", String.valueOf(CoMDDefaults.getBootstrapReservoirSize()));
+            bootstrapReservoirSize = Integer.parseInt(value);
+        }
+        return bootstrapReservoirSize;
+    }
+
+    public static void setBootstrapReservoirSize(Integer value) {
+        bootstrapReservoirSize = value;
+        if (value != null) {
+            getPrefs().put("BOOTSTRAP_RESERVOIR_SIZE", value.toString());
+        } else {
+            getPrefs().remove("BOOTSTRAP_RESERVOIR_SIZE");
+        }
+    }
+
+    public static Boolean getBootstrapRetainAll() {
+        if (bootstrapRetainAll == null) {
+            String value = getPrefs().get("BOOTSTRAP_RETAIN_ALL", String.valueOf(CoMDDefaults.getBootstrapRetainAll()));
+            bootstrapRetainAll = Boolean.parseBoolean(value);
+        }
+        return bootstrapRetainAll;
+    }
+
+    public static void setBootstrapRetainAll(Boolean value) {
+        bootstrapRetainAll = value;
+        if (value != null) {
+            getPrefs().put("BOOTSTRAP_RETAIN_ALL", value.toString());
+        } else {
+            getPrefs().remove("BOOTSTRAP_RETAIN_ALL");
+        }
+    }
+
     public static Double getRexRatio() {
         if (rexRatio == null) {
             String value = getPrefs().get("REX_RATIO", String.valueOf(CoMDDefaults.getRexRatio()));
@@ -319,6 +472,7 @@ public class CoMDPreferences {
         } else {
             getPrefs().remove("CALR1RHOCORR");
         }
+        CurveCache.clear();
     }
 
     static Map<String, Boolean> getCPMGEqnMap() {
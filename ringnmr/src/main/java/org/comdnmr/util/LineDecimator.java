@@ -0,0 +1,160 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reduces the points of a chart in display coordinates to what can be seen.
+ * For a polyline, points outside the horizontal extent of the plot are
+ * dropped, except for the neighbours that carry the line to the edges, and
+ * within each pixel column only the first, lowest, highest and last points
+ * are kept, in their original order. The drawn line looks the same, but has
+ * at most four points per column however many points it was sampled at. For
+ * a scatter plot only the first point on each pixel is kept.
+ */
+public final class LineDecimator {
+
+    private LineDecimator() {
+    }
+
+    /**
+     * Decimate a polyline whose x values increase.
+     *
+     * @param x the x display positions
+     * @param y the y display positions
+     * @param nPoints the number of points to use from x and y
+     * @param xMin the left edge of the plot
+     * @param xMax the right edge of the plot
+     * @return the x and y positions of the points to draw, or null if no part
+     * of the line is within the plot
+     */
+    public static double[][] decimate(double[] x, double[] y, int nPoints, double xMin, double xMax) {
+        int[] visible = visibleRange(x, nPoints, xMin, xMax);
+        if (visible == null) {
+            return null;
+        }
+        int first = visible[0];
+        int last = visible[1];
+
+        double[] xOut = new double[4 * (last - first + 1)];
+        double[] yOut = new double[xOut.length];
+        int nOut = 0;
+        int i = first;
+        while (i <= last) {
+            // the points from i to end are in the same pixel column
+            long column = (long) Math.floor(x[i]);
+            int end = i;
+            int iMin = i;
+            int iMax = i;
+            while ((end + 1 <= last) && ((long) Math.floor(x[end + 1]) == column)) {
+                end++;
+                if (y[end] < y[iMin]) {
+                    iMin = end;
+                }
+                if (y[end] > y[iMax]) {
+                    iMax = end;
+                }
+            }
+            int[] keep = {i, Math.min(iMin, iMax), Math.max(iMin, iMax), end};
+            int lastKept = -1;
+            for (int k : keep) {
+                if (k != lastKept) {
+                    xOut[nOut] = x[k];
+                    yOut[nOut] = y[k];
+                    nOut++;
+                    lastKept = k;
+                }
+            }
+            i = end + 1;
+        }
+        double[][] result = new double[2][nOut];
+        System.arraycopy(xOut, 0, result[0], 0, nOut);
+        System.arraycopy(yOut, 0, result[1], 0, nOut);
+        return result;
+    }
+
+    /**
+     * Clip a polyline whose x values increase to the horizontal extent of the
+     * plot, without decimating it.
+     *
+     * @param x the x display positions
+     * @param y the y display positions
+     * @param nPoints the number of points to use from x and y
+     * @param xMin the left edge of the plot
+     * @param xMax the right edge of the plot
+     * @return the x and y positions of the points to draw, or null if no part
+     * of the line is within the plot
+     */
+    public static double[][] clip(double[] x, double[] y, int nPoints, double xMin, double xMax) {
+        int[] visible = visibleRange(x, nPoints, xMin, xMax);
+        if (visible == null) {
+            return null;
+        }
+        return new double[][]{
+            Arrays.copyOfRange(x, visible[0], visible[1] + 1),
+            Arrays.copyOfRange(y, visible[0], visible[1] + 1)};
+    }
+
+    /**
+     * Find the points of a scatter plot that are on distinct pixels. A point
+     * on the same pixel as an earlier one is hidden by it, so only the first
+     * point on each pixel is kept.
+     *
+     * @param x the x display positions
+     * @param y the y display positions
+     * @param nPoints the number of points to use from x and y
+     * @return the indices of the points to draw, in increasing order
+     */
+    public static int[] distinctPixels(double[] x, double[] y, int nPoints) {
+        Set<Long> pixels = new HashSet<>();
+        int[] kept = new int[nPoints];
+        int nKept = 0;
+        for (int i = 0; i < nPoints; i++) {
+            long column = (long) Math.floor(x[i]);
+            long row = (long) Math.floor(y[i]);
+            if (pixels.add((column << 32) ^ (row & 0xffffffffL))) {
+                kept[nKept++] = i;
+            }
+        }
+        return Arrays.copyOf(kept, nKept);
+    }
+
+    /**
+     * The first and last points to draw: those within the plot and the
+     * neighbours that carry the line to the edges.
+     *
+     * @return the first and last index, or null if no point is within the plot
+     */
+    private static int[] visibleRange(double[] x, int nPoints, double xMin, double xMax) {
+        int first = 0;
+        while ((first < nPoints) && (x[first] < xMin)) {
+            first++;
+        }
+        int last = nPoints - 1;
+        while ((last >= 0) && (x[last] > xMax)) {
+            last--;
+        }
+        if (first > last) {
+            return null;
+        }
+        return new int[]{Math.max(0, first - 1), Math.min(nPoints - 1, last + 1)};
+    }
+}
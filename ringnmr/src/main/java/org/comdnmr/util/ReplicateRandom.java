@@ -0,0 +1,131 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.util;
+
+import java.util.Random;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.apache.commons.rng.sampling.distribution.NormalizedGaussianSampler;
+import org.apache.commons.rng.sampling.distribution.ZigguratSampler;
+import org.apache.commons.rng.simple.RandomSource;
+
+/**
+ * Random stream for a single bootstrap replicate. Each stream is seeded from
+ * a global seed, a key identifying the data being fit (a residue or a data
+ * set) and the replicate index. Replicates are therefore independent of one
+ * another, need no locking, and draw the same values regardless of how they
+ * are scheduled across threads.
+ */
+public class ReplicateRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static long seed = 1;
+
+    private final UniformRandomProvider rng;
+    private final NormalizedGaussianSampler gaussian;
+
+    public ReplicateRandom(long key, int replicate) {
+        rng = RandomSource.XO_RO_SHI_RO_128_PP.create(new long[]{
+            streamSeed(key, 2 * replicate), streamSeed(key, 2 * replicate + 1)});
+        gaussian = ZigguratSampler.NormalizedGaussian.of(rng);
+    }
+
+    /**
+     * @return the global seed used for all replicate streams
+     */
+    public static long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param value the global seed used for all replicate streams
+     */
+    public static void setSeed(long value) {
+        seed = value;
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Get the seed for one stream of a keyed set of streams.
+     *
+     * @param key the key identifying the data being fit
+     * @param index the index of the stream
+     * @return the seed
+     */
+    public static long streamSeed(long key, int index) {
+        long base = mix(key ^ mix(seed));
+        return mix(base + GOLDEN_GAMMA * (index + 1L));
+    }
+
+    /**
+     * Get a key for a named item, such as a residue specifier.
+     *
+     * @param name the name
+     * @return the key
+     */
+    public static long key(String name) {
+        long h = GOLDEN_GAMMA;
+        for (int i = 0; i < name.length(); i++) {
+            h = mix(h ^ name.charAt(i));
+        }
+        return h;
+    }
+
+    /**
+     * Get a key from the content of a data array so the same data always
+     * gives the same replicates.
+     *
+     * @param values the data values
+     * @return the key
+     */
+    public static long key(double[] values) {
+        long h = GOLDEN_GAMMA;
+        for (double value : values) {
+            h = mix(h ^ Double.doubleToLongBits(value));
+        }
+        return h;
+    }
+
+    /**
+     * Get a java.util.Random for code that works with that type, seeded for
+     * one stream of a keyed set of streams.
+     *
+     * @param key the key identifying the data being fit
+     * @param index the index of the stream
+     * @return the Random
+     */
+    public static Random random(long key, int index) {
+        return new Random(streamSeed(key, index));
+    }
+
+    public double nextGaussian() {
+        return gaussian.sample();
+    }
+
+    public int nextInt(int n) {
+        return rng.nextInt(n);
+    }
+
+    public UniformRandomProvider getProvider() {
+        return rng;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.comdnmr.eqnfit;
+
+import java.util.concurrent.atomic.DoubleAccumulator;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.comdnmr.util.CoMDOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MultiStartTest {
+
+    static final double[] GUESS = {10.0, 50.0};
+    static final double[] LOWER = {0.0, 0.0};
+    static final double[] UPPER = {100.0, 100.0};
+
+    static CoMDOptions options(int nStarts, int abandonEvaluations, double abandonRatio) {
+        return new CoMDOptions(false) {
+            @Override
+            public Integer getMultiStarts() {
+                return nStarts;
+            }
+
+            @Override
+            public Integer getAbandonEvaluations() {
+                return abandonEvaluations;
+            }
+
+            @Override
+            public Double getAbandonRatio() {
+                return abandonRatio;
+            }
+        };
+    }
+
+    /**
+     * A fit function with a broad global minimum of 1 at (60, 50) and a
+     * narrow local minimum of about 15.8 near (10.4, 50), where the guess is.
+     * The bounds make normalized and actual parameters the same.
+     */
+    static FitFunction twoWells(CoMDOptions options) {
+        double[][] x = {{0.0, 1.0, 2.0}};
+        double[] y = {1.0, 2.0, 3.0};
+        double[] err = {1.0, 1.0, 1.0};
+        return new ExpFitFunction(options, x, y, err) {
+            @Override
+            public double value(double[] normPar) {
+                double dx = normPar[0] - 60.0;
+                double dDip = normPar[0] - 10.0;
+                double dy = normPar[1] - 50.0;
+                return 1.0 + (dx * dx + dy * dy) / 100.0 - 10.0 * Math.exp(-dDip * dDip / 8.0);
+            }
+        };
+    }
+
+    @Test
+    public void testMultiStartFindsGlobalMinimum() {
+        FitFunction single = twoWells(options(1, 0, 2.0));
+        PointValuePair local = single.refineMultiStart(GUESS, LOWER, UPPER, 1.0, "BOBYQA");
+        Assert.assertEquals(10.4, local.getPoint()[0], 0.1);
+        Assert.assertTrue(local.getValue() > 10.0);
+
+        FitFunction multi = twoWells(options(16, 0, 2.0));
+        PointValuePair global = multi.refineMultiStart(GUESS, LOWER, UPPER, 1.0, "BOBYQA");
+        Assert.assertEquals(60.0, global.getPoint()[0], 0.01);
+        Assert.assertEquals(50.0, global.getPoint()[1], 0.01);
+        Assert.assertEquals(1.0, global.getValue(), 1.0e-6);
+        Assert.assertTrue(multi.getEvaluations() > 0);
+    }
+
+    @Test
+    public void testAbandonedStartThrows() {
+        FitFunction fitFunction = twoWells(options(1, 0, 2.0));
+        DoubleAccumulator sharedBest = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        sharedBest.accumulate(1.0);
+        double[] localPoint = {10.4, 50.0};
+        FitFunction.AbandonableObjective objective = fitFunction.new AbandonableObjective(sharedBest, 5, 2.0);
+        for (int i = 0; i < 4; i++) {
+            objective.value(localPoint);
+        }
+        try {
+            objective.value(localPoint);
+            Assert.fail("start in the local minimum wasn't abandoned");
+        } catch (FitFunction.AbandonedException aE) {
+            Assert.assertEquals(5, objective.nEvaluations);
+        }
+        Assert.assertEquals(1.0, sharedBest.get(), 0.0);
+
+        FitFunction.AbandonableObjective globalObjective = fitFunction.new AbandonableObjective(sharedBest, 5, 2.0);
+        double[] globalPoint = {59.0, 50.0};
+        for (int i = 0; i < 10; i++) {
+            globalObjective.value(globalPoint);
+        }
+        Assert.assertEquals(10, globalObjective.nEvaluations);
+        Assert.assertEquals(1.0, sharedBest.get(), 0.0);
+    }
+
+    @Test
+    public void testAbandonedStartsNotUsed() {
+        // with a ratio below one every start is abandoned, so the result
+        // must come from the fallback refinement of the guess and not from
+        // the partial progress of any abandoned start
+        FitFunction fitFunction = twoWells(options(16, 20, 0.5));
+        PointValuePair result = fitFunction.refineMultiStart(GUESS, LOWER, UPPER, 1.0, "BOBYQA");
+        PointValuePair local = twoWells(options(1, 0, 2.0)).refine(GUESS, LOWER, UPPER, 1.0, "BOBYQA");
+        Assert.assertEquals(local.getValue(), result.getValue(), 1.0e-12);
+        Assert.assertArrayEquals(local.getPoint(), result.getPoint(), 1.0e-12);
+        Assert.assertTrue(result.getValue() > 10.0);
+    }
+}
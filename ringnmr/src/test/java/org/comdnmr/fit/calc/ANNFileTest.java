@@ -0,0 +1,71 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit.calc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.comdnmr.util.ANNFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ANNFileTest {
+
+    private static final String[] NETWORKS = {"ANNCPMGFast1", "ANNCPMGFast2", "ANNCPMGSlow1",
+        "ANNCPMGSlow2", "ANNR1RhoPerturbation_A", "ANNR1RhoPerturbation_B"};
+
+    private InputStream getStream(String resourceName) {
+        InputStream istream = ClassLoader.getSystemClassLoader().getResourceAsStream(resourceName);
+        Assert.assertNotNull(resourceName, istream);
+        return istream;
+    }
+
+    @Test
+    public void testBinaryMatchesText() throws IOException {
+        for (String network : NETWORKS) {
+            ANNFile text;
+            ANNFile binary;
+            try (InputStream istream = getStream("data/" + network + ANNFile.TEXT_SUFFIX)) {
+                text = ANNFile.readText(istream);
+            }
+            try (InputStream istream = getStream("data/" + network + ANNFile.BINARY_SUFFIX)) {
+                binary = ANNFile.readBinary(ByteBuffer.wrap(istream.readAllBytes()));
+            }
+            int[] layers = text.getLayers();
+            Assert.assertArrayEquals(network, layers, binary.getLayers());
+            Assert.assertArrayEquals(network, text.getActivators(), binary.getActivators());
+            Map<String, double[]> textScales = text.getScaleValues();
+            Map<String, double[]> binaryScales = binary.getScaleValues();
+            Assert.assertEquals(network, textScales.keySet(), binaryScales.keySet());
+            for (String name : textScales.keySet()) {
+                Assert.assertArrayEquals(network + " " + name, textScales.get(name), binaryScales.get(name), 0.0);
+            }
+            for (int layer = 0; layer < layers.length - 1; layer++) {
+                for (int output = 0; output < layers[layer + 1]; output++) {
+                    for (int input = 0; input < layers[layer]; input++) {
+                        Assert.assertEquals(network + " weight " + layer + " " + input + " " + output,
+                                text.getWeight(layer, input, output), binary.getWeight(layer, input, output), 0.0);
+                    }
+                    Assert.assertEquals(network + " bias " + layer + " " + output,
+                            text.getBias(layer, output), binary.getBias(layer, output), 0.0);
+                }
+            }
+        }
+    }
+}
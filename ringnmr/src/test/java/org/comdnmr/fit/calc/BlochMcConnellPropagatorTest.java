@@ -0,0 +1,164 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.comdnmr.fit.calc;
+
+import org.comdnmr.util.BlochMcConnellPropagator;
+import org.comdnmr.util.MtxExp;
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlochMcConnellPropagatorTest {
+
+    // kex, pb, deltaA, deltaB, omegaB1 (rad/s), R1A, R1B, R2A, R2B, tdelay
+    private static final double[][] PARS = {
+        {150.0, 0.05, 0.0, 2000.0, 150.0, 2.5, 2.5, 10.0, 15.0, 0.3},
+        {150.0, 0.05, -800.0, 1200.0, 150.0, 2.5, 2.5, 10.0, 15.0, 0.3},
+        {1500.0, 0.10, 300.0, -1500.0, 300.0, 1.5, 3.0, 8.0, 40.0, 0.4},
+        {20.0, 0.01, 5000.0, 4000.0, 60.0, 1.0, 1.0, 5.0, 5.0, 0.5},
+        {5000.0, 0.2, -100.0, 100.0, 1000.0, 2.0, 2.0, 20.0, 20.0, 0.05}
+    };
+
+    private double[] cestMatrix(double[] p) {
+        double kex = p[0];
+        double pb = p[1];
+        double dA = p[2];
+        double dB = p[3];
+        double w1 = p[4];
+        double R1A = p[5];
+        double R1B = p[6];
+        double R2A = p[7];
+        double R2B = p[8];
+        double t = p[9];
+        double k1 = pb * kex;
+        double km1 = (1 - pb) * kex;
+        double[] z = {
+            0, 0, 0, 0, 0, 0, 0,
+            0, -R2A - k1, -dA, 0, km1, 0, 0,
+            0, dA, -R2A - k1, -w1, 0, km1, 0,
+            2 * R1A * (1 - pb), 0, w1, -R1A - k1, 0, 0, km1,
+            0, k1, 0, 0, -R2B - km1, -dB, 0,
+            0, 0, k1, 0, dB, -R2B - km1, -w1,
+            2 * R1B * pb, 0, 0, k1, 0, w1, -R1B - km1};
+        for (int i = 0; i < z.length; i++) {
+            z[i] *= t;
+        }
+        return z;
+    }
+
+    private void compare(double[] z, int n) {
+        BlochMcConnellPropagator propagator = new BlochMcConnellPropagator(n);
+        double[] result = new double[n * n];
+        double[] zCopy = z.clone();
+        propagator.exp(z, result);
+        Assert.assertArrayEquals(zCopy, z, 0.0);
+
+        DMatrixRMaj valid = MtxExp.matrixExp(new DMatrixRMaj(n, n, true, z));
+        double maxAbs = 0.0;
+        for (int i = 0; i < n * n; i++) {
+            maxAbs = Math.max(maxAbs, Math.abs(valid.get(i)));
+        }
+        for (int i = 0; i < n * n; i++) {
+            Assert.assertEquals(valid.get(i), result[i], 1.0e-10 * Math.max(1.0, maxAbs));
+        }
+    }
+
+    @Test
+    public void testCESTMatrices() {
+        for (double[] p : PARS) {
+            compare(cestMatrix(p), 7);
+        }
+    }
+
+    @Test
+    public void testR1RhoMatrices() {
+        // the R1rho matrix is the CEST matrix without the identity row and column
+        for (double[] p : PARS) {
+            double[] z7 = cestMatrix(p);
+            double[] z6 = new double[36];
+            for (int r = 0; r < 6; r++) {
+                for (int c = 0; c < 6; c++) {
+                    z6[r * 6 + c] = z7[(r + 1) * 7 + c + 1];
+                }
+            }
+            compare(z6, 6);
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        BlochMcConnellPropagator propagator = new BlochMcConnellPropagator(7);
+        double[] first = new double[49];
+        double[] second = new double[49];
+        propagator.exp(cestMatrix(PARS[0]), first);
+        propagator.exp(cestMatrix(PARS[2]), second);
+        propagator.exp(cestMatrix(PARS[0]), second);
+        Assert.assertArrayEquals(first, second, 0.0);
+    }
+
+    @Test
+    public void testSmallNormMatrix() {
+        // with a norm below one there is no squaring, and the Pade numerator
+        // must still be divided by the denominator
+        double[] z = cestMatrix(PARS[0]);
+        for (int i = 0; i < z.length; i++) {
+            z[i] *= 1.0e-4;
+        }
+        int n = 7;
+        BlochMcConnellPropagator propagator = new BlochMcConnellPropagator(n);
+        double[] result = new double[n * n];
+        propagator.exp(z, result);
+
+        // Taylor series, which converges quickly for a small norm
+        double[] term = new double[n * n];
+        double[] sum = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            term[i * n + i] = 1.0;
+            sum[i * n + i] = 1.0;
+        }
+        for (int k = 1; k <= 20; k++) {
+            double[] next = new double[n * n];
+            for (int r = 0; r < n; r++) {
+                for (int c = 0; c < n; c++) {
+                    double v = 0.0;
+                    for (int j = 0; j < n; j++) {
+                        v += term[r * n + j] * z[j * n + c];
+                    }
+                    next[r * n + c] = v / k;
+                }
+            }
+            term = next;
+            for (int i = 0; i < n * n; i++) {
+                sum[i] += term[i];
+            }
+        }
+        Assert.assertArrayEquals(sum, result, 1.0e-12);
+    }
+
+    @Test
+    public void testZeroMatrix() {
+        BlochMcConnellPropagator propagator = new BlochMcConnellPropagator(7);
+        double[] result = new double[49];
+        propagator.exp(new double[49], result);
+        for (int r = 0; r < 7; r++) {
+            for (int c = 0; c < 7; c++) {
+                Assert.assertEquals(r == c ? 1.0 : 0.0, result[r * 7 + c], 0.0);
+            }
+        }
+    }
+}
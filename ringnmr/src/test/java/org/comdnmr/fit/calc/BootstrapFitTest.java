@@ -0,0 +1,173 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.comdnmr.fit.calc;
+
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.comdnmr.eqnfit.BootstrapStats;
+import org.comdnmr.eqnfit.ExpEquation;
+import org.comdnmr.eqnfit.ExpFitFunction;
+import org.comdnmr.util.CoMDOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BootstrapFitTest {
+
+    @Test
+    public void testWarmStartReplicate() {
+        double[] y = ExpDecayFixture.values();
+        double[] lower = ExpDecayFixture.lower();
+        double[] upper = ExpDecayFixture.upper();
+        ExpFitFunction fitFunction = ExpDecayFixture.fitFunction(y);
+        PointValuePair fit = fitFunction.refine(new double[]{80.0, 1.5}, lower, upper, 10.0, "CMA-ES");
+        int maxEvaluations = fitFunction.getBootstrapEvaluations();
+        Assert.assertTrue(fitFunction.getEvaluations() > 0);
+
+        double[] yRep = y.clone();
+        yRep[2] += 0.5;
+        yRep[5] -= 0.5;
+        ExpFitFunction repFunction = ExpDecayFixture.fitFunction(yRep);
+        PointValuePair warm = repFunction.refineBootstrap(fit.getPoint(), lower, upper, 10.0, "CMA-ES", maxEvaluations);
+        int warmEvaluations = repFunction.getEvaluations();
+        PointValuePair cold = repFunction.refine(fit.getPoint(), lower, upper, 10.0, "CMA-ES");
+        Assert.assertTrue(warmEvaluations <= maxEvaluations);
+        Assert.assertEquals(cold.getValue(), warm.getValue(), 1.0e-3 * cold.getValue() + 1.0e-6);
+        Assert.assertEquals(cold.getPoint()[1], warm.getPoint()[1], 1.0e-3);
+    }
+
+    @Test
+    public void testAdaptiveSampleSize() {
+        double[] y = ExpDecayFixture.values();
+        for (int i = 0; i < y.length; i++) {
+            y[i] += (i % 2) == 0 ? 0.5 : -0.5;
+        }
+        double[] lower = ExpDecayFixture.lower();
+        double[] upper = ExpDecayFixture.upper();
+        CoMDOptions options = new CoMDOptions(false);
+        ExpFitFunction fitFunction = ExpDecayFixture.fitFunction(options, ExpEquation.EXPAB, y);
+        PointValuePair fit = fitFunction.refine(new double[]{80.0, 1.5}, lower, upper, 10.0, "CMA-ES");
+        double[] sDevs = fitFunction.simBoundsStream(fit.getPoint(), lower, upper, 10.0, options);
+        int nSamples = fitFunction.getSimSampleSize();
+        Assert.assertTrue(nSamples >= 20);
+        Assert.assertTrue(nSamples <= options.getSampleSize());
+        Assert.assertEquals(nSamples, fitFunction.getSimPars()[0].length);
+        Assert.assertEquals(nSamples, fitFunction.getSimEvaluations().length);
+        Assert.assertTrue(sDevs[1] > 0.0);
+    }
+
+    static CoMDOptions bootstrapOptions(int sampleSize, double tolerance) {
+        return new CoMDOptions(false) {
+            @Override
+            public Integer getSampleSize() {
+                return sampleSize;
+            }
+
+            @Override
+            public Double getBootstrapTolerance() {
+                return tolerance;
+            }
+        };
+    }
+
+    @Test
+    public void testEarlyStopMatchesFullSample() {
+        int nSim = 1000;
+        double[] y = ExpDecayFixture.values();
+        for (int i = 0; i < y.length; i++) {
+            y[i] += (i % 2) == 0 ? 0.5 : -0.5;
+        }
+        double[] lower = ExpDecayFixture.lower();
+        double[] upper = ExpDecayFixture.upper();
+
+        CoMDOptions earlyOptions = bootstrapOptions(nSim, 0.05);
+        ExpFitFunction early = ExpDecayFixture.fitFunction(earlyOptions, ExpEquation.EXPAB, y);
+        PointValuePair fit = early.refine(new double[]{80.0, 1.5}, lower, upper, 10.0, "CMA-ES");
+        double[] earlySDevs = early.simBoundsStream(fit.getPoint(), lower, upper, 10.0, earlyOptions);
+        int nEarly = early.getSimSampleSize();
+        Assert.assertTrue(nEarly >= 250);
+        Assert.assertTrue(nEarly < nSim);
+
+        CoMDOptions fullOptions = bootstrapOptions(nSim, 0.0);
+        ExpFitFunction full = ExpDecayFixture.fitFunction(fullOptions, ExpEquation.EXPAB, y);
+        full.refine(new double[]{80.0, 1.5}, lower, upper, 10.0, "CMA-ES");
+        double[] fullSDevs = full.simBoundsStream(fit.getPoint(), lower, upper, 10.0, fullOptions);
+        Assert.assertEquals(nSim, full.getSimSampleSize());
+        for (int j = 0; j < fullSDevs.length; j++) {
+            Assert.assertEquals(fullSDevs[j], earlySDevs[j], 0.15 * fullSDevs[j]);
+        }
+    }
+
+    @Test
+    public void testMinReplicates() {
+        CoMDOptions options = bootstrapOptions(60, 1.0);
+        ExpFitFunction fitFunction = ExpDecayFixture.fitFunction(options, ExpEquation.EXPAB, ExpDecayFixture.values());
+        PointValuePair fit = fitFunction.refine(new double[]{80.0, 1.5}, ExpDecayFixture.lower(), ExpDecayFixture.upper(), 10.0, "CMA-ES");
+        // a tolerance of one accepts every batch, so only the minimum count stops the bootstrap
+        fitFunction.simBoundsStream(fit.getPoint(), ExpDecayFixture.lower(), ExpDecayFixture.upper(), 10.0, options);
+        Assert.assertEquals(60, fitFunction.getSimSampleSize());
+    }
+
+    @Test
+    public void testPercentilesOnRequest() {
+        CoMDOptions options = bootstrapOptions(40, 0.0);
+        double[] lower = ExpDecayFixture.lower();
+        double[] upper = ExpDecayFixture.upper();
+        ExpFitFunction fitFunction = ExpDecayFixture.fitFunction(options, ExpEquation.EXPAB, ExpDecayFixture.values());
+        PointValuePair fit = fitFunction.refine(new double[]{80.0, 1.5}, lower, upper, 10.0, "CMA-ES");
+        fitFunction.simBoundsStream(fit.getPoint(), lower, upper, 10.0, options);
+        Assert.assertTrue(Double.isNaN(fitFunction.getSimStats().getLowerPercentile(1)));
+
+        fitFunction.setSimPercentiles(true);
+        fitFunction.simBoundsStream(fit.getPoint(), lower, upper, 10.0, options);
+        BootstrapStats stats = fitFunction.getSimStats();
+        Assert.assertTrue(stats.getLowerPercentile(1) < stats.getMean(1));
+        Assert.assertTrue(stats.getUpperPercentile(1) > stats.getMean(1));
+    }
+
+    @Test
+    public void testStreamingStats() {
+        int nSim = 1000;
+        double[][] values = new double[2][nSim];
+        BootstrapStats stats = new BootstrapStats(2, 50, true, 1L);
+        BootstrapStats allStats = new BootstrapStats(2, nSim, false, 1L);
+        for (int i = 0; i < nSim; i++) {
+            values[0][i] = Math.sin(i * 0.37) * 4.0 + 10.0;
+            values[1][i] = i;
+            stats.add(i, new double[]{values[0][i], values[1][i]});
+            allStats.add(i, new double[]{values[0][i], values[1][i]});
+        }
+        DescriptiveStatistics dStat = new DescriptiveStatistics(values[0]);
+        Assert.assertEquals(nSim, stats.getN());
+        Assert.assertEquals(dStat.getMean(), stats.getMean(0), 1.0e-10);
+        Assert.assertEquals(dStat.getStandardDeviation(), stats.getStandardDeviation(0), 1.0e-10);
+        Assert.assertEquals(dStat.getPercentile(2.5), stats.getLowerPercentile(0), 0.3);
+        Assert.assertEquals(dStat.getPercentile(97.5), stats.getUpperPercentile(0), 0.3);
+        Assert.assertTrue(Double.isNaN(allStats.getLowerPercentile(0)));
+
+        double[][] samples = stats.getSamples();
+        Assert.assertEquals(50, samples[0].length);
+        for (int i = 0; i < samples[0].length; i++) {
+            int index = (int) samples[1][i];
+            Assert.assertEquals(values[0][index], samples[0][i], 0.0);
+            if (i > 0) {
+                Assert.assertTrue(index > samples[1][i - 1]);
+            }
+        }
+        Assert.assertArrayEquals(values[0], allStats.getSamples()[0], 0.0);
+    }
+}
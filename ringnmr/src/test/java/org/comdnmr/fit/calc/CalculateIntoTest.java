@@ -0,0 +1,175 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit.calc;
+
+import java.util.Arrays;
+import org.comdnmr.eqnfit.CESTEquation;
+import org.comdnmr.eqnfit.EquationType;
+import org.comdnmr.eqnfit.R1RhoEquation;
+import org.comdnmr.util.CoMDPreferences;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the CEST and R1rho profiles written by calculateInto against values
+ * from the array based calculate methods they replaced.
+ */
+public class CalculateIntoTest {
+
+    // kex, pb, deltaA0, deltaB0, R1A, R1B, R2A, R2B
+    private static final double[] PARS = {150.0, 0.05, 0.0, 3.0, 2.5, 3.0, 10.0, 15.0};
+    private static final int[] MAP = {0, 1, 2, 3, 4, 5, 6, 7};
+    // deltaA0, R1A, R2A
+    private static final double[] NOEX_PARS = {0.0, 2.5, 10.0};
+    private static final int[] NOEX_MAP = {0, 1, 2};
+
+    private static final double[] CEST_TROTT_PALMER = {
+        0.4665851327977725, 0.44001557215211173, 0.45903359218714623,
+        0.3861188419280782, 0.41813629790670165, 0.10538709690390699,
+        8.334221647064884E-4, 0.02936636731947146, 0.2548046050056778,
+        0.06780195155357702, 0.40123809966079355, 0.40153979813820306,
+        0.4627861422615716};
+    private static final double[] CEST_NOEX = {
+        0.4669745053439565, 0.4425496102241404, 0.4603651351394645,
+        0.3961949411654531, 0.4270218137427819, 0.14625846265615175,
+        0.0, 0.14625846265615175, 0.4270218137427819,
+        0.3961949411654531, 0.4603651351394645, 0.4425496102241404,
+        0.4669745053439565};
+    private static final double[] CEST_SD = {
+        0.46640113307212905, 0.43921124750962204, 0.45863586934555184,
+        0.3850766526215392, 0.41706615175369377, 0.11378572723792857,
+        8.92957486485578E-4, 0.036989881320796766, 0.25728023126368216,
+        0.07045821157677998, 0.4005956297323632, 0.4007977271845791,
+        0.4624972317145557};
+    private static final double[] CEST_BALDWINKAY = {
+        0.46671153155936074, 0.44076766112923726, 0.4593886312654639,
+        0.38845609156316074, 0.4199053942187467, 0.1115480388299208,
+        0.0010499280317384976, 0.032194177284871624, 0.2584417993228222,
+        0.06782356516691394, 0.3997491947876472, 0.39938782407175366,
+        0.4624536393588822};
+    private static final double[] CEST_LAGUERRE = {
+        0.46324842819079326, 0.4376888134311205, 0.45611719649686927,
+        0.3870647838440415, 0.4187437079171801, 0.11970447136644048,
+        0.0010983467720986813, 0.024464363306637694, 0.2546491096242666,
+        0.06582191927503724, 0.4027662570415395, 0.4018795836295599,
+        0.4597010083085152};
+    private static final double[] CEST_EXACT0 = {
+        0.4401007702812184, 0.41546127726481885, 0.4330490606680409,
+        0.3651131834194115, 0.3946866972588093, 0.09846298762761518,
+        -0.020959172930422525, 0.03297177180678123, 0.24661741218399896,
+        0.06570854115406077, 0.37812832113022654, 0.37746239400076975,
+        0.43622725849658256};
+    private static final double[] R1RHO_TROTT_PALMER = {
+        2.529826993765321, 2.6729706516396075, 2.570843691485846,
+        3.0048982884688162, 2.8157605107057977, 6.412821463106793,
+        17.308367269007608, 9.978857241656799, 4.435558617590622,
+        8.767481659838078, 3.015439490587173, 2.9699682131698344,
+        2.555900152919829};
+    private static final double[] R1RHO_NOEX = {
+        2.5264793108318035, 2.6500000000000004, 2.5593166719392597,
+        2.902360515021459, 2.7317676143386898, 5.033783783783784,
+        10.0, 5.033783783783784, 2.7317676143386898,
+        2.902360515021459, 2.5593166719392597, 2.6500000000000004,
+        2.5264793108318035};
+    private static final double[] R1RHO_BALDWINKAY = {
+        2.5289241099900734, 2.667278073098938, 2.5682665246379104,
+        2.9847818209055954, 2.801687233631929, 6.223437692134077,
+        16.538578650853474, 9.672405389160682, 4.388313536403322,
+        8.766419243559168, 3.027831751973657, 2.9878806036305012,
+        2.5582959492932544};
+    private static final double[] R1RHO_LAGUERRE = {
+        2.553750407371612, 2.690643755930996, 2.592089046889035,
+        2.9967420337629918, 2.810921823256298, 5.98820226879532,
+        16.388297003550964, 10.587632411814552, 4.437593416589031,
+        8.86627524639646, 3.0027682555935162, 2.967148718400965,
+        2.5781960042561307};
+    private static final double[] R1RHO_EXACT0 = {
+        2.723629078768034, 2.8615386724546696, 2.762814401462562,
+        3.177687302317673, 2.9949038690594727, 6.416971634352948,
+        17.293495342043506, 9.948869981722721, 4.533187502556632,
+        8.74513290311813, 3.2009659160812762, 3.1686294167962963,
+        2.751742885320095};
+    private static final double[] R1RHO_TROTT_PALMER_CORR = {
+        2.7007359285157087, 2.8434588168988615, 2.7415671593756183,
+        3.173556639312361, 2.984796904010921, 6.551645688412556,
+        17.310697130941655, 10.033613357721007, 4.563541157256164,
+        8.77643501825172, 3.1753604141580554, 3.133951537284841,
+        2.726267113399599};
+    private static final double[] R1RHO_BALDWINKAY_CORR = {
+        2.699833044740461, 2.837766238358192, 2.738989992527683,
+        3.15344017174914, 2.9707236269370525, 6.36226191743984,
+        16.54090851278752, 9.72716150522489, 4.516296076068865,
+        8.77537260197281, 3.1877526755445396, 3.151863927745508,
+        2.7286629097730244};
+    private static final double[] R1RHO_LAGUERRE_CORR = {
+        2.7246593421219996, 2.86113192119025, 2.7628125147788074,
+        3.1654003846065364, 2.979958216561421, 6.127026494101083,
+        16.39062686548501, 10.64238852787876, 4.565575956254574,
+        8.875228604810102, 3.1626891791643987, 3.1311320425159717,
+        2.7485629647359007};
+
+    // offsets (ppm), B1 fields (Hz), Tex (s) and fields (MHz)
+    private double[][] getX() {
+        int n = 13;
+        double[][] x = new double[4][n];
+        for (int i = 0; i < n; i++) {
+            x[0][i] = -6.0 + i;
+            x[1][i] = (i % 2 == 0) ? 25.0 : 50.0;
+            x[2][i] = 0.3;
+            x[3][i] = 70.0;
+        }
+        return x;
+    }
+
+    private void compare(EquationType equation, double[] pars, int[] map, double[] expected) {
+        double[][] x = getX();
+        // a buffer longer than the profile, with values left from earlier use
+        double[] out = new double[x[0].length + 3];
+        Arrays.fill(out, -1.0);
+        equation.calculateInto(out, pars, map, x, 0);
+        double[] yCalc = equation.calculate(pars, map, x, 0);
+        for (int i = 0; i < expected.length; i++) {
+            double tol = 1.0e-12 * Math.max(1.0, Math.abs(expected[i]));
+            Assert.assertEquals(equation.getName() + " " + i, expected[i], out[i], tol);
+            Assert.assertEquals(equation.getName() + " " + i, expected[i], yCalc[i], tol);
+        }
+        for (int i = expected.length; i < out.length; i++) {
+            Assert.assertEquals(-1.0, out[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testCEST() {
+        compare(CESTEquation.TROTT_PALMER, PARS, MAP, CEST_TROTT_PALMER);
+        compare(CESTEquation.NOEX, NOEX_PARS, NOEX_MAP, CEST_NOEX);
+        compare(CESTEquation.SD, PARS, MAP, CEST_SD);
+        compare(CESTEquation.BALDWINKAY, PARS, MAP, CEST_BALDWINKAY);
+        compare(CESTEquation.LAGUERRE, PARS, MAP, CEST_LAGUERRE);
+        compare(CESTEquation.EXACT0, PARS, MAP, CEST_EXACT0);
+    }
+
+    @Test
+    public void testR1Rho() {
+        boolean calCorr = CoMDPreferences.getCalR1rhoCorr();
+        compare(R1RhoEquation.TROTT_PALMER, PARS, MAP, calCorr ? R1RHO_TROTT_PALMER_CORR : R1RHO_TROTT_PALMER);
+        compare(R1RhoEquation.NOEX, NOEX_PARS, NOEX_MAP, R1RHO_NOEX);
+        compare(R1RhoEquation.BALDWINKAY, PARS, MAP, calCorr ? R1RHO_BALDWINKAY_CORR : R1RHO_BALDWINKAY);
+        compare(R1RhoEquation.LAGUERRE, PARS, MAP, calCorr ? R1RHO_LAGUERRE_CORR : R1RHO_LAGUERRE);
+        compare(R1RhoEquation.EXACT0, PARS, MAP, R1RHO_EXACT0);
+    }
+}
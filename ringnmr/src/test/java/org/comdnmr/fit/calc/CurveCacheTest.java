@@ -0,0 +1,149 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit.calc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.comdnmr.eqnfit.CurveCache;
+import org.comdnmr.eqnfit.PlotEquation;
+import org.comdnmr.util.CoMDPreferences;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CurveCacheTest {
+
+    /**
+     * An equation whose curve is only returned once it's released, or that
+     * fails, and that counts how often it's sampled. The cache samples a
+     * clone, so the clone is the equation itself.
+     */
+    static class TestEquation extends PlotEquation {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger nSamples = new AtomicInteger();
+        final boolean fail;
+
+        TestEquation(double rate, boolean fail) {
+            super("exp", "EXPAB", new double[]{100.0, rate}, new double[2], new double[]{600.0});
+            this.fail = fail;
+        }
+
+        @Override
+        public PlotEquation clone() {
+            return this;
+        }
+
+        @Override
+        public double[] sample(double min, double max, int nIncr) {
+            nSamples.incrementAndGet();
+            if (fail) {
+                throw new IllegalStateException("no curve");
+            }
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException iE) {
+                Thread.currentThread().interrupt();
+            }
+            return new double[nIncr];
+        }
+    }
+
+    @Test
+    public void testSampleAndClear() {
+        CurveCache.clear();
+        double A = 100.0;
+        double R = 2.0;
+        PlotEquation equation = new PlotEquation("exp", "EXPAB", new double[]{A, R}, new double[2], new double[]{600.0});
+        int nIncr = 50;
+        Assert.assertNull(CurveCache.get(equation, 0.0, 1.0, nIncr));
+        double[] yValues = CurveCache.sample(equation, 0.0, 1.0, nIncr);
+        double delta = 1.0 / (nIncr + 1);
+        for (int i = 0; i < nIncr; i++) {
+            Assert.assertEquals(A * Math.exp(-R * (i + 1) * delta), yValues[i], 1.0e-12);
+        }
+        Assert.assertSame(yValues, CurveCache.get(equation, 0.0, 1.0, nIncr));
+        // a different range or different parameters are different curves
+        Assert.assertNull(CurveCache.get(equation, 0.0, 2.0, nIncr));
+        PlotEquation refit = new PlotEquation("exp", "EXPAB", new double[]{A, 2.5}, new double[2], new double[]{600.0});
+        Assert.assertNull(CurveCache.get(refit, 0.0, 1.0, nIncr));
+        CurveCache.clear();
+        Assert.assertNull(CurveCache.get(equation, 0.0, 1.0, nIncr));
+    }
+
+    @Test
+    public void testPreferenceChangeClears() {
+        CurveCache.clear();
+        PlotEquation equation = new PlotEquation("exp", "EXPAB", new double[]{100.0, 2.0}, new double[2], new double[]{600.0});
+        Boolean calR1rhoCorr = CoMDPreferences.getCalR1rhoCorr();
+        try {
+            CurveCache.sample(equation, 0.0, 1.0, 50);
+            CoMDPreferences.setCalR1rhoCorr(!calR1rhoCorr);
+            Assert.assertNull(CurveCache.get(equation, 0.0, 1.0, 50));
+        } finally {
+            CoMDPreferences.setCalR1rhoCorr(calR1rhoCorr);
+        }
+    }
+
+    @Test
+    public void testClearDuringAsyncSample() throws InterruptedException {
+        CurveCache.clear();
+        TestEquation equation = new TestEquation(3.0, false);
+        CountDownLatch done = new CountDownLatch(1);
+        CurveCache.sampleAsync(equation, 0.0, 1.0, 20, done::countDown);
+        Assert.assertTrue(equation.started.await(10, TimeUnit.SECONDS));
+        CurveCache.clear();
+        equation.release.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        // the curve was started before the clear, so it's stale and isn't stored
+        Assert.assertNull(CurveCache.get(equation, 0.0, 1.0, 20));
+
+        CountDownLatch redone = new CountDownLatch(1);
+        CurveCache.sampleAsync(equation, 0.0, 1.0, 20, redone::countDown);
+        Assert.assertTrue(redone.await(10, TimeUnit.SECONDS));
+        Assert.assertNotNull(CurveCache.get(equation, 0.0, 1.0, 20));
+        Assert.assertEquals(2, equation.nSamples.get());
+        CurveCache.clear();
+    }
+
+    @Test
+    public void testFailedAsyncSample() throws InterruptedException {
+        CurveCache.clear();
+        TestEquation equation = new TestEquation(4.0, true);
+        CountDownLatch done = new CountDownLatch(1);
+        CurveCache.sampleAsync(equation, 0.0, 1.0, 20, done::countDown);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(CurveCache.get(equation, 0.0, 1.0, 20));
+
+        // a failed curve isn't submitted again on the next redraw
+        CountDownLatch retried = new CountDownLatch(1);
+        CurveCache.sampleAsync(equation, 0.0, 1.0, 20, retried::countDown);
+        Assert.assertFalse(retried.await(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, equation.nSamples.get());
+
+        // until the cache is cleared
+        CurveCache.clear();
+        CountDownLatch afterClear = new CountDownLatch(1);
+        CurveCache.sampleAsync(equation, 0.0, 1.0, 20, afterClear::countDown);
+        Assert.assertTrue(afterClear.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, equation.nSamples.get());
+        CurveCache.clear();
+    }
+}
@@ -84,7 +84,7 @@ public class DRefineTest {
                     double r2Error = Double.valueOf(fields[8]);
                     double noe = Double.valueOf(fields[9]);
                     double noeError = Double.valueOf(fields[10]);
-                    R1R2NOEDataValue dValue = new R1R2NOEDataValue(molData, r1, r1Error, r2, r2Error, noe, noeError, relaxObj);
+                    R1R2NOEDataValue dValue = new R1R2NOEDataValue(r1, r1Error, r2, r2Error, noe, noeError, relaxObj);
                     molData.addData(dValue);
                 }
             }
@@ -360,11 +360,76 @@ public class DRefineTest {
         Assert.assertEquals(0.0, value, 0.11);
     }
 
+    @Test
+    public void testRefineDiffusion() throws IOException {
+        // relaxation rates calculated for the 1P7F bond vectors from a known
+        // tensor and order parameters, without noise
+        Map<String, MolDataValues> molData = loadVectors("src/test/data/1P7F_A_vectors.txt");
+        double[] truePars = {4.4170 * 1e7, 4.5832 * 1e7, 6.0129 * 1e7, Math.toRadians(98.06),
+            Math.toRadians(68.64), Math.toRadians(77.42)};
+        RelaxFit relaxFit = new RelaxFit();
+        relaxFit.setDiffusionType(DiffusionType.ANISOTROPIC);
+        double[][] trueVT = relaxFit.parsToVT(truePars, DiffusionType.ANISOTROPIC);
+        DiffusionTensor tensor = new DiffusionTensor(DiffusionType.ANISOTROPIC,
+                relaxFit.parsToD(truePars, DiffusionType.ANISOTROPIC), trueVT);
+        Random random = new Random(11);
+        Map<String, Double> trueS2 = new HashMap<>();
+        Map<String, MolDataContext> contexts = new LinkedHashMap<>();
+        for (var entry : molData.entrySet()) {
+            MolDataValues molDataValue = entry.getValue();
+            MFModelAniso1 model = new MFModelAniso1(DiffusionType.ANISOTROPIC, molDataValue.getVector());
+            model.update(tensor);
+            double s2 = 0.75 + 0.2 * random.nextDouble();
+            trueS2.put(entry.getKey(), s2);
+            for (double field : new double[]{600.0e6, 800.0e6}) {
+                RelaxEquations relaxObj = RelaxEquations.getRelaxEquations(field, "H", "N");
+                double[] J = model.calc(relaxObj.getW(), s2);
+                double r1 = relaxObj.R1(J);
+                double r2 = relaxObj.R2(J, 0.0);
+                double noe = relaxObj.NOE(J);
+                molDataValue.addData(new R1R2NOEDataValue(r1, 0.02 * r1, r2, 0.02 * r2, noe, 0.02, relaxObj));
+            }
+            molDataValue.setTestModel(model);
+            contexts.put(entry.getKey(), molDataValue.context());
+        }
+
+        // start from a perturbed tensor, keeping the order of the D values
+        double[] start = truePars.clone();
+        start[0] *= 0.95;
+        start[1] *= 1.04;
+        start[2] *= 0.94;
+        start[3] += Math.toRadians(4.0);
+        start[4] -= Math.toRadians(3.0);
+        start[5] += Math.toRadians(5.0);
+
+        DiffusionRefiner refiner = new DiffusionRefiner(DiffusionType.ANISOTROPIC, contexts);
+        refiner.setMaxIterations(20);
+        refiner.setTolerance(1.0e-6);
+        DiffusionRefiner.Result result = refiner.refine(start);
+        System.out.println("refined " + Arrays.toString(scalePars(result.diffusionPars(), 3))
+                + " rms " + result.rms() + " iterations " + result.nIterations());
+        double[] fitPars = result.diffusionPars();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(truePars[i], fitPars[i], 0.02 * truePars[i]);
+        }
+        // the unique axis of the tensor is well defined, its sign is not
+        double[][] fitVT = relaxFit.parsToVT(fitPars, DiffusionType.ANISOTROPIC);
+        double dot = 0.0;
+        for (int i = 0; i < 3; i++) {
+            dot += trueVT[2][i] * fitVT[2][i];
+        }
+        Assert.assertEquals(1.0, Math.abs(dot), 0.005);
+        Assert.assertEquals(molData.size(), result.residuePars().size());
+        for (var entry : result.residuePars().entrySet()) {
+            Assert.assertEquals(trueS2.get(entry.getKey()), entry.getValue()[0], 0.03);
+        }
+        Assert.assertTrue(result.rms() < 0.1);
+    }
+
     @Test
     public void testValueDMatFile() {
         RelaxFit relaxFit = new RelaxFit();
         Map<String, MolDataValues> molData = loadTestData();
-        relaxFit.setRelaxData(molData);
         double tauCGuess = 3.3e-9;
 
         double[] rotDifPars = {4.4170, 4.5832, 6.0129, 98.06, 68.64, 77.42};
@@ -384,6 +449,7 @@ public class DRefineTest {
                 }
                 molDataValue.setTestModel(model);
             }
+            relaxFit.setRelaxData(molData);
             int nPars = diffType.getNAnglePars() + diffType.getNDiffusionPars();
             double[] guess = new double[nPars];
             relaxFit.setDiffusionType(diffType);
@@ -0,0 +1,73 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.comdnmr.fit.calc;
+
+import java.util.Arrays;
+import org.comdnmr.eqnfit.ExpEquation;
+import org.comdnmr.eqnfit.ExpFitFunction;
+import org.comdnmr.util.CoMDOptions;
+
+/**
+ * Synthetic single-peak exponential decay, A*exp(-R*t)+C, shared by the fit tests.
+ */
+final class ExpDecayFixture {
+
+    static final double A = 100.0;
+    static final double R = 2.5;
+
+    private ExpDecayFixture() {
+    }
+
+    static double[] delays() {
+        return new double[]{0.0, 0.05, 0.1, 0.2, 0.4, 0.6, 0.8, 1.2};
+    }
+
+    static double[] lower() {
+        return new double[]{0.0, 0.0};
+    }
+
+    static double[] upper() {
+        return new double[]{400.0, 10.0};
+    }
+
+    static double[] values(double a, double r, double c) {
+        double[] delays = delays();
+        double[] y = new double[delays.length];
+        for (int i = 0; i < delays.length; i++) {
+            y[i] = a * Math.exp(-r * delays[i]) + c;
+        }
+        return y;
+    }
+
+    static double[] values() {
+        return values(A, R, 0.0);
+    }
+
+    static ExpFitFunction fitFunction(CoMDOptions options, ExpEquation equation, double[] y) {
+        double[] err = new double[y.length];
+        Arrays.fill(err, 1.0);
+        ExpFitFunction fitFunction = new ExpFitFunction(options, new double[][]{delays()}, y, err);
+        fitFunction.setEquation(equation.name());
+        fitFunction.setMap(equation.makeMap(1));
+        return fitFunction;
+    }
+
+    static ExpFitFunction fitFunction(double[] y) {
+        return fitFunction(new CoMDOptions(false), ExpEquation.EXPAB, y);
+    }
+}
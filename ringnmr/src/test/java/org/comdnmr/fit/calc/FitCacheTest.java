@@ -0,0 +1,133 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit.calc;
+
+import java.util.List;
+import org.comdnmr.data.CPMGExperiment;
+import org.comdnmr.data.ExperimentData;
+import org.comdnmr.data.ExperimentSet;
+import org.comdnmr.eqnfit.FitResult;
+import org.comdnmr.fit.FitCache;
+import org.comdnmr.util.CoMDOptions;
+import org.comdnmr.util.CoMDPreferences;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.chemistry.Atom;
+import org.nmrfx.chemistry.relax.ResonanceSource;
+
+public class FitCacheTest {
+
+    static final double[] VCPMG = {50.0, 100.0, 200.0, 400.0, 800.0};
+    static final double[] R2EFF = {22.0, 19.5, 16.0, 13.5, 12.5};
+
+    final ResonanceSource[] dynSources = {new ResonanceSource(Atom.genAtomWithElement("N", "N"))};
+    final ExperimentSet experimentSet = new ExperimentSet("cpmg", "cpmg.txt");
+    final ExperimentData experimentData;
+
+    public FitCacheTest() {
+        CPMGExperiment experiment = new CPMGExperiment(experimentSet, "cpmg600", "N", 600.0, 0.04, 25.0);
+        experimentData = new ExperimentData(experiment, dynSources[0],
+                new double[][]{VCPMG}, R2EFF, new double[]{0.5, 0.5, 0.5, 0.5, 0.5});
+        experiment.addResidueData(dynSources[0], experimentData);
+        experimentSet.addExperimentData(experiment.getName(), experiment);
+    }
+
+    static FitResult makeResult() {
+        return new FitResult(new String[]{"R2"}, List.of(), "NOEX", 0, null, null, false, null);
+    }
+
+    @Test
+    public void testHit() {
+        FitCache fitCache = new FitCache();
+        CoMDOptions options = new CoMDOptions(false);
+        String digest = FitCache.digest(experimentSet, dynSources, options);
+        FitResult fitResult = makeResult();
+        fitCache.put(dynSources, "NOEX", digest, fitResult);
+        Assert.assertEquals(digest, FitCache.digest(experimentSet, dynSources, new CoMDOptions(false)));
+        Assert.assertSame(fitResult, fitCache.get(dynSources, "NOEX", digest));
+        Assert.assertNull(fitCache.get(dynSources, "CPMGFAST", digest));
+    }
+
+    @Test
+    public void testMissWhenDataChanges() {
+        FitCache fitCache = new FitCache();
+        CoMDOptions options = new CoMDOptions(false);
+        String digest = FitCache.digest(experimentSet, dynSources, options);
+        fitCache.put(dynSources, "NOEX", digest, makeResult());
+        experimentData.getYValues()[2] += 0.1;
+        String newDigest = FitCache.digest(experimentSet, dynSources, options);
+        Assert.assertNotEquals(digest, newDigest);
+        Assert.assertNull(fitCache.get(dynSources, "NOEX", newDigest));
+    }
+
+    @Test
+    public void testMissWhenOptionChanges() {
+        FitCache fitCache = new FitCache();
+        CoMDOptions options = new CoMDOptions(false);
+        String digest = FitCache.digest(experimentSet, dynSources, options);
+        fitCache.put(dynSources, "NOEX", digest, makeResult());
+        options.setOptimizer("BOBYQA".equals(options.getOptimizer()) ? "CMA-ES" : "BOBYQA");
+        String newDigest = FitCache.digest(experimentSet, dynSources, options);
+        Assert.assertNotEquals(digest, newDigest);
+        Assert.assertNull(fitCache.get(dynSources, "NOEX", newDigest));
+    }
+
+    @Test
+    public void testMissWhenPreferenceChanges() {
+        FitCache fitCache = new FitCache();
+        CoMDOptions options = new CoMDOptions(false);
+        Boolean calR1rhoCorr = CoMDPreferences.getCalR1rhoCorr();
+        try {
+            String digest = FitCache.digest(experimentSet, dynSources, options);
+            fitCache.put(dynSources, "NOEX", digest, makeResult());
+            CoMDPreferences.setCalR1rhoCorr(!calR1rhoCorr);
+            String newDigest = FitCache.digest(experimentSet, dynSources, options);
+            Assert.assertNotEquals(digest, newDigest);
+            Assert.assertNull(fitCache.get(dynSources, "NOEX", newDigest));
+        } finally {
+            CoMDPreferences.setCalR1rhoCorr(calR1rhoCorr);
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        FitCache fitCache = new FitCache();
+        CoMDOptions options = new CoMDOptions(false);
+        String digest = FitCache.digest(experimentSet, dynSources, options);
+        fitCache.put(dynSources, "NOEX", digest, makeResult());
+        fitCache.put(dynSources, "CPMGFAST", digest, makeResult());
+        Assert.assertEquals(2, fitCache.size());
+
+        // a lookup with new inputs removes the stale result
+        experimentData.getYValues()[0] += 0.1;
+        String newDigest = FitCache.digest(experimentSet, dynSources, options);
+        Assert.assertNull(fitCache.get(dynSources, "NOEX", newDigest));
+        Assert.assertEquals(1, fitCache.size());
+        Assert.assertNull(fitCache.get(dynSources, "NOEX", digest));
+
+        // storing a new result replaces the old one
+        FitResult newResult = makeResult();
+        fitCache.put(dynSources, "CPMGFAST", newDigest, newResult);
+        Assert.assertEquals(1, fitCache.size());
+        Assert.assertSame(newResult, fitCache.get(dynSources, "CPMGFAST", newDigest));
+
+        fitCache.clear();
+        Assert.assertEquals(0, fitCache.size());
+        Assert.assertNull(fitCache.get(dynSources, "CPMGFAST", newDigest));
+    }
+}
@@ -22,9 +22,18 @@ import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealMatrixFormat;
+import org.comdnmr.modelfree.DiffusionTensor;
 import org.comdnmr.modelfree.RelaxFit;
+import org.comdnmr.modelfree.RelaxFit.DiffusionType;
 import static org.comdnmr.modelfree.RelaxFit.DiffusionType.ANISOTROPIC;
+import static org.comdnmr.modelfree.RelaxFit.DiffusionType.OBLATE;
+import static org.comdnmr.modelfree.RelaxFit.DiffusionType.PROLATE;
 import org.comdnmr.modelfree.RelaxEquations;
+import org.comdnmr.modelfree.models.MFModelAniso;
+import org.comdnmr.modelfree.models.MFModelAniso1;
+import org.comdnmr.modelfree.models.MFModelAniso2;
+import org.comdnmr.modelfree.models.MFModelAniso5;
+import org.comdnmr.modelfree.models.MFModelAniso6;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -174,4 +183,79 @@ public class JDiffusionAnisotropicTest {
 
     }
 
+    /**
+     * J values calculated with the per-frequency anisotropic JDiffusion
+     * calculation of RelaxEquations from before the diffusion tensor terms
+     * were shared between bond vectors. The rows are for the anisotropic,
+     * prolate and oblate tensors at 400 and 800 MHz, with models 1, 2, 5 and
+     * 6 for each.
+     */
+    static final double[][] PER_FREQUENCY_J = {
+            {1.1141757757951682E-9, 6.542577335549737E-10, 1.3460660131183206E-11, 1.6284747632835107E-11, 2.0093801199272846E-11},
+            {1.1153684786987077E-9, 6.554504058759518E-10, 1.4649763063863947E-11, 1.7474481122269118E-11, 2.1284104990573696E-11},
+            {1.1145733434296813E-9, 6.546552909952998E-10, 1.3857027775410119E-11, 1.6681325462646443E-11, 2.0490569129706467E-11},
+            {1.1302772967011654E-9, 6.697982284414883E-10, 1.704294189263576E-11, 2.033505639920733E-11, 2.472587546161537E-11},
+            {1.1227775411494604E-9, 6.549293669223347E-10, 1.3366296142497116E-11, 1.6171122809438415E-11, 1.99544934622218E-11},
+            {1.1239702672556196E-9, 6.561220624426671E-10, 1.4555421894405354E-11, 1.7360879185116186E-11, 2.114482020042888E-11},
+            {1.12317511651818E-9, 6.553269320957788E-10, 1.3762671393133196E-11, 1.656770826799767E-11, 2.0351269041624163E-11},
+            {1.1389048223024422E-9, 6.704927909585837E-10, 1.694552022802156E-11, 2.0218189105331668E-11, 2.4583228744800554E-11},
+            {1.1409615253960965E-9, 6.570479068527423E-10, 1.3146084672056548E-11, 1.59061354490263E-11, 1.962989656569879E-11},
+            {1.1421543736491801E-9, 6.582407245106046E-10, 1.4335331467217103E-11, 1.7096013060949873E-11, 2.0820344714820606E-11},
+            {1.1413591414804576E-9, 6.574455127386963E-10, 1.3542500270443399E-11, 1.630276131966749E-11, 2.002671261540606E-11},
+            {1.1571489105476734E-9, 6.726650360151344E-10, 1.671842451343203E-11, 1.994593779150453E-11, 2.4251210455150104E-11},
+            {1.1141757757951682E-9, 2.941032467558205E-10, 3.3967154851493857E-12, 4.117452295100893E-12, 5.09407042596523E-12},
+            {1.1153684786987077E-9, 2.952958273385232E-10, 4.575147726077724E-12, 5.298365598275306E-12, 6.2772344427841655E-12},
+            {1.1145733434296813E-9, 2.945007736167215E-10, 3.789526232125498E-12, 4.511090062825697E-12, 5.4884584315715426E-12},
+            {1.1302772967011654E-9, 3.081831986034851E-10, 4.9902769951613475E-12, 5.8738447052920086E-12, 7.065051612625982E-12},
+            {1.1227775411494604E-9, 2.9303288668768595E-10, 3.372504617522164E-12, 4.088138791791194E-12, 5.0578620371191435E-12},
+            {1.1239702672556196E-9, 2.9422549045994995E-10, 4.550958552419877E-12, 5.269074049082251E-12, 6.241048244829417E-12},
+            {1.12317511651818E-9, 2.934304212784406E-10, 3.765322595821402E-12, 4.48178387755488E-12, 5.4522574396892354E-12},
+            {1.1389048223024422E-9, 3.0712909092411427E-10, 4.964845102478214E-12, 5.843097466898808E-12, 7.027145385709961E-12},
+            {1.1409615253960965E-9, 2.9077390333150856E-10, 3.315876307182334E-12, 4.019586680643357E-12, 4.973204215562992E-12},
+            {1.1421543736491801E-9, 2.9196662921312315E-10, 4.494448040071076E-12, 5.2006404869992995E-12, 6.156509655508355E-12},
+            {1.1413591414804576E-9, 2.9117147862538005E-10, 3.7087335514785814E-12, 4.413271282762005E-12, 5.367639362211447E-12},
+            {1.1571489105476734E-9, 3.049086335112712E-10, 4.9054489564050595E-12, 5.771291161443358E-12, 6.938631474216298E-12}
+    };
+
+    @Test
+    public void testTensorMatchesPerFrequencyJ() {
+        double[][][] Ds = {
+            D,
+            {{Dxx, 0.0, 0.0}, {0.0, Dxx, 0.0}, {0.0, 0.0, Dzz}},
+            {{Dzz, 0.0, 0.0}, {0.0, Dxx, 0.0}, {0.0, 0.0, Dxx}}};
+        DiffusionType[] diffTypes = {ANISOTROPIC, PROLATE, OBLATE};
+        double s2 = 0.85;
+        double tauF = 20.0e-12;
+        double sf2 = 0.9;
+        double tauS = 1.0e-9;
+        int iRow = 0;
+        for (double field : new double[]{400.0e6, 800.0e6}) {
+            RelaxEquations relaxObj = RelaxEquations.getRelaxEquations(field, "H", "N");
+            for (int iType = 0; iType < diffTypes.length; iType++) {
+                DiffusionType diffType = diffTypes[iType];
+                double[][] typeD = Ds[iType];
+                DiffusionTensor tensor = new DiffusionTensor(diffType, typeD, VT);
+                MFModelAniso[] models = {
+                    new MFModelAniso1(diffType, typeD, VT, v),
+                    new MFModelAniso2(diffType, typeD, VT, v),
+                    new MFModelAniso5(diffType, typeD, VT, v),
+                    new MFModelAniso6(diffType, typeD, VT, v)};
+                double[][] modelPars = {{s2}, {s2, tauF}, {s2, tauF, sf2}, {s2, tauF, sf2, tauS}};
+                Double[][] jPars = {{null, null, null}, {tauF, null, null}, {tauF, sf2, null}, {tauF, sf2, tauS}};
+                for (int iModel = 0; iModel < models.length; iModel++) {
+                    double[] expected = PER_FREQUENCY_J[iRow++];
+                    double[] J = relaxObj.getJDiffusion(diffType, typeD, VT, v, s2,
+                            jPars[iModel][0], jPars[iModel][1], jPars[iModel][2]);
+                    models[iModel].update(tensor);
+                    double[] modelJ = models[iModel].calc(relaxObj.getW(), modelPars[iModel]);
+                    for (int i = 0; i < expected.length; i++) {
+                        String msg = diffType + " " + models[iModel].getNumber() + " " + field + " " + i;
+                        Assert.assertEquals(msg, expected[i], J[i], 1.0e-12 * Math.abs(expected[i]));
+                        Assert.assertEquals(msg, expected[i], modelJ[i], 1.0e-12 * Math.abs(expected[i]));
+                    }
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,135 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.comdnmr.fit.calc;
+
+import org.apache.commons.math3.optim.PointValuePair;
+import org.comdnmr.eqnfit.CPMGEquation;
+import org.comdnmr.eqnfit.EquationDerivatives;
+import org.comdnmr.eqnfit.EquationType;
+import org.comdnmr.eqnfit.ExpEquation;
+import org.comdnmr.eqnfit.ExpFitFunction;
+import org.comdnmr.util.CoMDOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LMFitTest {
+
+    private void checkDerivatives(EquationType equation, double[] par, double[] x) {
+        int[] map = new int[par.length];
+        for (int i = 0; i < map.length; i++) {
+            map[i] = i;
+        }
+        Assert.assertTrue(equation.getName(), equation.getDerivatives().isPresent());
+        EquationDerivatives derivatives = equation.getDerivatives().get();
+        double[] derivs = new double[par.length];
+        double value = derivatives.calculateWithDerivatives(par, map, x, 0, derivs);
+        Assert.assertEquals(equation.calculate(par, map, x, 0), value, 1.0e-12 * Math.abs(value));
+        for (int i = 0; i < par.length; i++) {
+            double h = 1.0e-6 * par[i];
+            double[] parH = par.clone();
+            parH[i] += h;
+            double numDeriv = (equation.calculate(parH, map, x, 0) - value) / h;
+            Assert.assertEquals(numDeriv, derivs[i], 1.0e-4 * Math.abs(numDeriv) + 1.0e-9);
+        }
+    }
+
+    @Test
+    public void testExpDerivatives() {
+        checkDerivatives(ExpEquation.EXPAB, new double[]{100.0, 2.5}, new double[]{0.3});
+        checkDerivatives(ExpEquation.EXPABC, new double[]{100.0, 2.5, 4.0}, new double[]{0.3});
+    }
+
+    @Test
+    public void testCPMGFastDerivatives() {
+        checkDerivatives(CPMGEquation.CPMGFAST, new double[]{800.0, 10.0, 0.05}, new double[]{200.0, 600.0});
+        checkDerivatives(CPMGEquation.CPMGFAST, new double[]{2500.0, 15.0, 0.2}, new double[]{50.0, 800.0});
+    }
+
+    @Test
+    public void testCPMGNoExDerivatives() {
+        checkDerivatives(CPMGEquation.NOEX, new double[]{12.0}, new double[]{200.0, 600.0});
+    }
+
+    @Test
+    public void testNoDerivatives() {
+        Assert.assertFalse(CPMGEquation.CPMGSLOW.getDerivatives().isPresent());
+    }
+
+    @Test
+    public void testRefineExpAB() {
+        ExpFitFunction fitFunction = ExpDecayFixture.fitFunction(ExpDecayFixture.values());
+        double[] guess = {80.0, 1.5};
+        PointValuePair result = fitFunction.refine(guess, ExpDecayFixture.lower(), ExpDecayFixture.upper(), 0.1, "LM");
+        Assert.assertEquals("LM", fitFunction.getLastOptimizer());
+        Assert.assertEquals(ExpDecayFixture.A, result.getPoint()[0], 1.0e-4);
+        Assert.assertEquals(ExpDecayFixture.R, result.getPoint()[1], 1.0e-6);
+        Assert.assertEquals(0.0, result.getValue(), 1.0e-8);
+    }
+
+    @Test
+    public void testRefineVarProExpABC() {
+        double C = 8.0;
+        double[] y = ExpDecayFixture.values(ExpDecayFixture.A, ExpDecayFixture.R, C);
+        ExpFitFunction fitFunction = ExpDecayFixture.fitFunction(new CoMDOptions(false), ExpEquation.EXPABC, y);
+        double[] guess = {80.0, 1.0, 5.0};
+        double[] lower = {0.0, 0.0, 0.0};
+        double[] upper = {400.0, 10.0, 40.0};
+        PointValuePair result = fitFunction.refine(guess, lower, upper, 0.1, "VARPRO");
+        Assert.assertEquals("VARPRO", fitFunction.getLastOptimizer());
+        Assert.assertEquals(ExpDecayFixture.A, result.getPoint()[0], 1.0e-4);
+        Assert.assertEquals(ExpDecayFixture.R, result.getPoint()[1], 1.0e-6);
+        Assert.assertEquals(C, result.getPoint()[2], 1.0e-4);
+        Assert.assertEquals(0.0, result.getValue(), 1.0e-8);
+    }
+
+    @Test
+    public void testVarProSharedRate() {
+        // three peaks with their own amplitudes and one shared rate
+        double[] amplitudes = {100.0, 40.0, 250.0};
+        double R = 1.7;
+        double[] delays = {0.0, 0.1, 0.2, 0.4, 0.8, 1.2};
+        int nPeaks = amplitudes.length;
+        int n = nPeaks * delays.length;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] err = new double[n];
+        int[] ids = new int[n];
+        int[][] map = new int[nPeaks][];
+        for (int peak = 0, i = 0; peak < nPeaks; peak++) {
+            map[peak] = new int[]{peak, nPeaks};
+            for (double delay : delays) {
+                x[i] = delay;
+                y[i] = amplitudes[peak] * Math.exp(-R * delay);
+                err[i] = 1.0;
+                ids[i++] = peak;
+            }
+        }
+        ExpFitFunction fitFunction = new ExpFitFunction(new CoMDOptions(false), new double[][]{x}, y, err);
+        fitFunction.setIds(ids);
+        fitFunction.setMap(map);
+        double[] guess = {50.0, 50.0, 50.0, 0.5};
+        double[] lower = {0.0, 0.0, 0.0, 0.0};
+        double[] upper = {1000.0, 1000.0, 1000.0, 10.0};
+        PointValuePair result = fitFunction.refine(guess, lower, upper, 0.1, "VARPRO");
+        Assert.assertEquals("VARPRO", fitFunction.getLastOptimizer());
+        for (int peak = 0; peak < nPeaks; peak++) {
+            Assert.assertEquals(amplitudes[peak], result.getPoint()[peak], 1.0e-4);
+        }
+        Assert.assertEquals(R, result.getPoint()[nPeaks], 1.0e-6);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit.calc;
+
+import org.comdnmr.util.LineDecimator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineDecimatorTest {
+
+    @Test
+    public void testEdgePoints() {
+        // the points just outside the plot carry the line to its edges
+        double[] x = {-20.0, -10.0, 5.5, 50.5, 110.0, 120.0};
+        double[] y = {1.0, 2.0, 3.0, 4.0, 5.0, 6.0};
+        double[][] line = LineDecimator.decimate(x, y, x.length, 0.0, 100.0);
+        Assert.assertArrayEquals(new double[]{-10.0, 5.5, 50.5, 110.0}, line[0], 0.0);
+        Assert.assertArrayEquals(new double[]{2.0, 3.0, 4.0, 5.0}, line[1], 0.0);
+
+        double[][] clipped = LineDecimator.clip(x, y, x.length, 0.0, 100.0);
+        Assert.assertArrayEquals(line[0], clipped[0], 0.0);
+        Assert.assertArrayEquals(line[1], clipped[1], 0.0);
+    }
+
+    @Test
+    public void testDuplicateColumns() {
+        // one column with six points keeps the first, lowest, highest and last
+        double[] x = {10.0, 10.1, 10.2, 10.3, 10.4, 10.5, 11.5};
+        double[] y = {5.0, 9.0, 1.0, 7.0, 8.0, 6.0, 2.0};
+        double[][] line = LineDecimator.decimate(x, y, x.length, 0.0, 100.0);
+        Assert.assertArrayEquals(new double[]{10.0, 10.1, 10.2, 10.5, 11.5}, line[0], 0.0);
+        Assert.assertArrayEquals(new double[]{5.0, 9.0, 1.0, 6.0, 2.0}, line[1], 0.0);
+
+        // the lowest and highest are kept in their original order
+        double[] y2 = {5.0, 1.0, 9.0, 7.0, 8.0, 6.0, 2.0};
+        double[][] line2 = LineDecimator.decimate(x, y2, x.length, 0.0, 100.0);
+        Assert.assertArrayEquals(new double[]{5.0, 1.0, 9.0, 6.0, 2.0}, line2[1], 0.0);
+
+        // the first point of a column that is also its extreme isn't repeated
+        double[] y3 = {9.0, 5.0, 1.0, 7.0, 8.0, 6.0, 2.0};
+        double[][] line3 = LineDecimator.decimate(x, y3, x.length, 0.0, 100.0);
+        Assert.assertArrayEquals(new double[]{9.0, 1.0, 6.0, 2.0}, line3[1], 0.0);
+    }
+
+    @Test
+    public void testOutOfView() {
+        double[] x = {110.0, 120.0, 130.0};
+        double[] y = {1.0, 2.0, 3.0};
+        Assert.assertNull(LineDecimator.decimate(x, y, x.length, 0.0, 100.0));
+        Assert.assertNull(LineDecimator.clip(x, y, x.length, 0.0, 100.0));
+        double[] xLeft = {-30.0, -20.0, -10.0};
+        Assert.assertNull(LineDecimator.decimate(xLeft, y, xLeft.length, 0.0, 100.0));
+    }
+
+    @Test
+    public void testNPoints() {
+        // only the first nPoints values are used
+        double[] x = {10.0, 20.0, 30.0, 40.0};
+        double[] y = {1.0, 2.0, 3.0, 4.0};
+        double[][] line = LineDecimator.decimate(x, y, 2, 0.0, 100.0);
+        Assert.assertArrayEquals(new double[]{10.0, 20.0}, line[0], 0.0);
+    }
+
+    @Test
+    public void testDistinctPixels() {
+        double[] x = {1.2, 1.7, 1.5, 2.1, -0.5, -0.2};
+        double[] y = {3.1, 3.9, 4.2, 3.5, 3.5, 3.6};
+        Assert.assertArrayEquals(new int[]{0, 2, 3, 4}, LineDecimator.distinctPixels(x, y, x.length));
+    }
+}
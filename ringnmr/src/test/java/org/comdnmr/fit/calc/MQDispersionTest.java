@@ -0,0 +1,94 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.comdnmr.fit.calc;
+
+import java.util.Random;
+import org.apache.commons.math3.complex.Complex;
+import org.comdnmr.eqnfit.CPMGEquation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MQDispersionTest {
+
+    /**
+     * The multiple quantum dispersion written with commons-math Complex
+     * objects, as CPMGMQ was originally implemented.
+     */
+    private static double reference(double[] par, double[] x) {
+        double kEx = par[0];
+        double pA = par[1];
+        double R2 = par[2];
+        double pB = 1.0 - pA;
+        double deltaC = 2.0 * Math.PI * par[3] * x[1];
+        double deltaH = x[2] > 1.0e-6 ? 2.0 * Math.PI * par[4] * x[2] : 0.0;
+        double tau = x[3];
+        double delta = 1.0 / (4.0 * x[0]);
+
+        Complex num1 = new Complex((pA - pB) * kEx, deltaH);
+        Complex zeta = num1.multiply(-2.0 * deltaC);
+        Complex psi = num1.pow(2.0).subtract(Math.pow(deltaC, 2.0)).add(4.0 * pA * pB * Math.pow(kEx, 2.0));
+        Complex num2 = psi.pow(2.0).add(zeta.pow(2.0)).sqrt();
+        Complex etaPlus = num2.add(psi).sqrt().multiply(Math.sqrt(2.0) * delta);
+        Complex etaMinus = num2.subtract(psi).sqrt().multiply(Math.sqrt(2.0) * delta);
+        Complex dPlusD = psi.add(2.0 * Math.pow(deltaC, 2.0)).divide(num2).add(1.0).multiply(0.5);
+        Complex dMinusD = psi.add(2.0 * Math.pow(deltaC, 2.0)).divide(num2).subtract(1.0).multiply(0.5);
+        Complex num3 = etaPlus.cosh().multiply(dPlusD).subtract(etaMinus.cos().multiply(dMinusD));
+        Complex lambda1 = num3.add(num3.add(1.0).sqrt().multiply(num3.subtract(1.0).sqrt()))
+                .log().divide(-2 * delta).add(kEx).multiply(0.5).add(R2);
+
+        Complex dPlus = new Complex(deltaH + deltaC, kEx);
+        Complex dMinus = new Complex(deltaH + deltaC, -kEx);
+        Complex zPlus = new Complex(deltaH - deltaC, kEx);
+        Complex zMinus = new Complex(deltaH - deltaC, -kEx);
+        Complex num4 = new Complex(0.0, kEx * Math.sqrt(pA * pB));
+        Complex mD = zPlus.add(zPlus.multiply(delta).sin().divide(dPlus.add(zPlus).multiply(delta).sin())
+                .multiply(2.0 * deltaC)).multiply(num4.divide(dPlus.multiply(zPlus)));
+        Complex mZ = dMinus.subtract(dMinus.multiply(delta).sin().divide(dMinus.add(zMinus).multiply(delta).sin())
+                .multiply(2.0 * deltaC)).multiply(num4.divide(dMinus.multiply(zMinus))).multiply(-1.0);
+        double Q = mD.pow(2.0).multiply(-1.0).add(1.0).add(mD.multiply(mZ)).subtract(mZ.pow(2.0))
+                .add(mD.add(mZ).multiply(0.5 * Math.sqrt(pB / pA))).getReal();
+        if (tau > 1.0e-6) {
+            return lambda1.getReal() - Math.log(Q) / tau;
+        } else {
+            return lambda1.getReal();
+        }
+    }
+
+    @Test
+    public void testAgainstComplex() {
+        int[] map = {0, 1, 2, 3, 4};
+        Random random = new Random(7);
+        double[] vcpmgs = {25.0, 50.0, 100.0, 200.0, 400.0, 800.0, 1600.0};
+        for (int iTrial = 0; iTrial < 200; iTrial++) {
+            double[] par = {
+                50.0 + 3000.0 * random.nextDouble(),
+                0.8 + 0.19 * random.nextDouble(),
+                5.0 + 30.0 * random.nextDouble(),
+                0.1 + 3.0 * random.nextDouble(),
+                0.02 + 0.5 * random.nextDouble()};
+            double fieldH = (iTrial % 3) == 0 ? 0.0 : 600.0;
+            double tau = (iTrial % 2) == 0 ? 0.0 : 0.04;
+            for (double vcpmg : vcpmgs) {
+                double[] x = {vcpmg, 150.0, fieldH, tau};
+                double expected = reference(par, x);
+                double value = CPMGEquation.CPMGMQ.calculate(par, map, x, 0);
+                Assert.assertEquals(expected, value, 1.0e-8 * Math.abs(expected) + 1.0e-10);
+            }
+        }
+    }
+}
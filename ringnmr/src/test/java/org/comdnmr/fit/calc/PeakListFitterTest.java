@@ -0,0 +1,185 @@
+/*
+ * CoMD/NMR Software : A Program for Analyzing NMR Dynamics Data
+ * Copyright (C) 2018-2019 Bruce A Johnson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.comdnmr.fit.calc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.comdnmr.data.DataIO.XCONV;
+import org.comdnmr.data.DynamicsSource;
+import org.comdnmr.fit.PeakListFitter;
+import org.comdnmr.fit.PeakListFitter.PeakValue;
+import org.comdnmr.util.CoMDOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.chemistry.Atom;
+import org.nmrfx.chemistry.relax.RelaxTypes;
+import org.nmrfx.chemistry.relax.RelaxationData;
+import org.nmrfx.chemistry.relax.RelaxationSet;
+import org.nmrfx.chemistry.relax.ResonanceSource;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakList;
+
+public class PeakListFitterTest {
+
+    /**
+     * Gives each peak a resonance with a new atom, without needing a molecule
+     * or assignments.
+     */
+    static class AtomSource extends DynamicsSource {
+
+        final Map<Peak, Atom> atoms = new HashMap<>();
+
+        AtomSource() {
+            super(false, false, false, false);
+        }
+
+        @Override
+        public Optional<ResonanceSource> createFromPeak(Peak peak, String... nucNames) {
+            Atom atom = atoms.computeIfAbsent(peak, p -> Atom.genAtomWithElement("N", "N"));
+            return Optional.of(new ResonanceSource(peak, new Atom[]{atom}));
+        }
+    }
+
+    static PeakList peakList(String name, double[] measureValues, double[][] intensities, double noise) {
+        PeakList peakList = new PeakList(name, 2);
+        peakList.getSpectralDim(0).setNucleus("1H");
+        peakList.getSpectralDim(0).setSf(600.0);
+        peakList.getSpectralDim(1).setNucleus("15N");
+        peakList.getSpectralDim(1).setSf(60.8);
+        peakList.setMeasureValues(measureValues);
+        for (double[] peakIntensities : intensities) {
+            double[] noises = new double[peakIntensities.length];
+            Arrays.fill(noises, noise);
+            Peak peak = peakList.getNewPeak();
+            peak.setMeasures(new double[][]{peakIntensities.clone(), noises});
+        }
+        return peakList;
+    }
+
+    @Test
+    public void testFitDecays() {
+        double[] delays = {0.0, 0.05, 0.1, 0.1, 0.2, 0.4, 0.6, 0.6, 0.8, 1.2};
+        int nPeaks = 200;
+        double sigma = 10.0;
+        Random random = new Random(7);
+        double[] rates = new double[nPeaks];
+        double[] intensities = new double[nPeaks * delays.length];
+        for (int iPeak = 0; iPeak < nPeaks; iPeak++) {
+            double A = 500.0 + 1000.0 * random.nextDouble();
+            rates[iPeak] = 1.0 + 4.0 * random.nextDouble();
+            for (int i = 0; i < delays.length; i++) {
+                intensities[iPeak * delays.length + i] = A * Math.exp(-rates[iPeak] * delays[i])
+                        + sigma * random.nextGaussian();
+            }
+        }
+        PeakListFitter fitter = new PeakListFitter(new CoMDOptions(false));
+        double[][] results = fitter.fitDecays(delays, intensities);
+        // the errors from the covariance should match the scatter of the rates
+        SummaryStatistics chi = new SummaryStatistics();
+        for (int iPeak = 0; iPeak < nPeaks; iPeak++) {
+            Assert.assertNotNull(results[iPeak]);
+            chi.addValue((results[iPeak][0] - rates[iPeak]) / results[iPeak][1]);
+        }
+        Assert.assertEquals(0.0, chi.getMean(), 0.25);
+        Assert.assertEquals(1.0, chi.getStandardDeviation(), 0.3);
+    }
+
+    @Test
+    public void testNoes() {
+        // saturated and reference spectra alternate, flagged by measured values of 1 and 0
+        double[] flags = {1.0, 0.0, 1.0, 0.0, 1.0, 0.0};
+        double[][] ratios = {{0.80, 0.78, 0.82}, {0.50, 0.55, 0.45}};
+        double[][] intensities = new double[ratios.length][flags.length];
+        for (int iPeak = 0; iPeak < ratios.length; iPeak++) {
+            for (int i = 0; i < ratios[iPeak].length; i++) {
+                intensities[iPeak][2 * i] = 1000.0 * ratios[iPeak][i];
+                intensities[iPeak][2 * i + 1] = 1000.0;
+            }
+        }
+        PeakList peakList = peakList("plfit_noe", flags, intensities, 5.0);
+        PeakListFitter fitter = new PeakListFitter(new CoMDOptions(false));
+        List<PeakValue> values = fitter.fit(peakList, RelaxTypes.NOE, new AtomSource());
+        Assert.assertEquals(2, values.size());
+        for (int iPeak = 0; iPeak < ratios.length; iPeak++) {
+            SummaryStatistics sStat = new SummaryStatistics();
+            for (double ratio : ratios[iPeak]) {
+                sStat.addValue(ratio);
+            }
+            Assert.assertEquals(sStat.getMean(), values.get(iPeak).value(), 1.0e-12);
+            Assert.assertEquals(sStat.getStandardDeviation(), values.get(iPeak).error(), 1.0e-12);
+        }
+
+        // a reference and a saturated spectrum, with the error from the noise
+        PeakList pairList = peakList("plfit_noe_pair", new double[]{0.0, 1.0}, new double[][]{{1000.0, 800.0}}, 10.0);
+        PeakValue pair = fitter.fit(pairList, RelaxTypes.NOE, new AtomSource()).get(0);
+        Assert.assertEquals(0.8, pair.value(), 1.0e-12);
+        double expError = 0.8 * Math.sqrt(Math.pow(10.0 / 1000.0, 2) + Math.pow(10.0 / 800.0, 2));
+        Assert.assertEquals(expError, pair.error(), 1.0e-12);
+    }
+
+    @Test
+    public void testFitAndStoreMs() {
+        double[] delaysMs = {0.0, 50.0, 100.0, 100.0, 200.0, 400.0, 800.0, 1200.0};
+        double[] rates = {1.5, 2.5, 4.0};
+        double[][] intensities = new double[rates.length][delaysMs.length];
+        for (int iPeak = 0; iPeak < rates.length; iPeak++) {
+            for (int i = 0; i < delaysMs.length; i++) {
+                intensities[iPeak][i] = 1000.0 * Math.exp(-rates[iPeak] * delaysMs[i] / 1000.0);
+            }
+        }
+        PeakList peakList = peakList("plfit_r1", delaysMs, intensities, 5.0);
+        PeakListFitter fitter = new PeakListFitter(new CoMDOptions(false));
+        AtomSource atomSource = new AtomSource();
+        List<PeakValue> values = fitter.fit(peakList, RelaxTypes.R1, atomSource, XCONV.MSTOS);
+        Assert.assertEquals(rates.length, values.size());
+        for (int iPeak = 0; iPeak < rates.length; iPeak++) {
+            Assert.assertEquals(rates[iPeak], values.get(iPeak).value(), 1.0e-6);
+        }
+
+        RelaxationSet relaxationSet = fitter.fitAndStore(peakList, RelaxTypes.R1, atomSource, XCONV.MSTOS);
+        Assert.assertEquals(RelaxTypes.R1, relaxationSet.relaxType());
+        Assert.assertEquals(600.0, relaxationSet.field(), 1.0e-12);
+        List<Peak> peaks = peakList.peaks();
+        for (int iPeak = 0; iPeak < rates.length; iPeak++) {
+            Atom atom = atomSource.atoms.get(peaks.get(iPeak));
+            RelaxationData data = atom.getRelaxationData().get(relaxationSet);
+            Assert.assertNotNull(data);
+            Assert.assertEquals(rates[iPeak], data.getValue(), 1.0e-6);
+        }
+    }
+
+    @Test
+    public void testUnsupportedConversion() {
+        double[] delays = {0.0, 0.1, 0.2};
+        PeakList peakList = peakList("plfit_conv", delays, new double[][]{{1000.0, 900.0, 800.0}}, 5.0);
+        PeakListFitter fitter = new PeakListFitter(new CoMDOptions(false));
+        for (XCONV xConv : new XCONV[]{XCONV.PPMTOHZ, XCONV.HZTOPPM, XCONV.CALC, XCONV.TAU2}) {
+            try {
+                fitter.fit(peakList, RelaxTypes.R1, new AtomSource(), xConv);
+                Assert.fail("no exception for " + xConv);
+            } catch (IllegalArgumentException iaE) {
+                Assert.assertTrue(iaE.getMessage().contains(xConv.toString()));
+            }
+        }
+    }
+}
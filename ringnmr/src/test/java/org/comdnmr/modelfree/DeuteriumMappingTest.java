@@ -154,7 +154,7 @@ public class DeuteriumMappingTest {
 
             rValues.add(rValuesWithErrs.get(i));
             rValueErrs.add(rValuesWithErrs.get(i + 1));
-            RelaxDataValue dValue = new DeuteriumDataValue(resData, r1, r1Error, r2, r2Error,
+            RelaxDataValue dValue = new DeuteriumDataValue(r1, r1Error, r2, r2Error,
                     rQ, rQError, rAP, rAPError, relaxObj);
             resData.addData(dValue);
         }
@@ -197,7 +197,7 @@ public class DeuteriumMappingTest {
             double rAPError = rValuesWithErrs2.get(i + 8);
             RelaxEquations relaxObj = RelaxEquations.getRelaxEquations(field * 1E6, "D", "C");
 
-            RelaxDataValue dValue = new DeuteriumDataValue(resData, r1, r1Error, r2, r2Error,
+            RelaxDataValue dValue = new DeuteriumDataValue(r1, r1Error, r2, r2Error,
                     rQ, rQError, rAP, rAPError, relaxObj);
             resData.addData(dValue);
         }